@@ -0,0 +1,154 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.integration.dhis2.repository;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasItems;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openlmis.integration.dhis2.builder.ServerDataBuilder;
+import org.openlmis.integration.dhis2.domain.export.ExportRun;
+import org.openlmis.integration.dhis2.domain.export.ExportRunConflict;
+import org.openlmis.integration.dhis2.domain.export.ExportRunItem;
+import org.openlmis.integration.dhis2.domain.server.Server;
+import org.openlmis.integration.dhis2.repository.export.ExportRunRepository;
+import org.openlmis.integration.dhis2.repository.server.ServerRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@ActiveProfiles("test")
+@Transactional
+public class ExportRunRepositoryIntegrationTest {
+
+  private static final String DATA_SET = "data-set";
+
+  @Autowired
+  private ExportRunRepository exportRunRepository;
+
+  @Autowired
+  private ServerRepository serverRepository;
+
+  private final ZonedDateTime startDate = ZonedDateTime.now(ZoneOffset.UTC)
+      .truncatedTo(ChronoUnit.SECONDS);
+
+  @Test
+  public void shouldStoreRunningRun() {
+    ExportRun run = newRun(UUID.randomUUID(), ExportRun.STATUS_RUNNING, startDate, null, 0);
+
+    exportRunRepository.save(run, Collections.emptyList());
+
+    assertThat(exportRunRepository.findById(run.getId()).orElse(null), is(run));
+    assertThat(exportRunRepository.countItems(run.getId()), is(0L));
+  }
+
+  @Test
+  public void shouldReplaceRunOnceFinished() {
+    UUID runId = UUID.randomUUID();
+    exportRunRepository.save(newRun(runId, ExportRun.STATUS_RUNNING, startDate, null, 0),
+        Collections.emptyList());
+    ExportRun finished = newRun(runId, ExportRun.STATUS_FINISHED, startDate,
+        startDate.plusMinutes(5), 10);
+
+    exportRunRepository.save(finished, Collections.emptyList());
+
+    assertThat(exportRunRepository.findById(runId).orElse(null), is(finished));
+  }
+
+  @Test
+  public void shouldAddItemsAndConflictsToStoredOnes() {
+    Server server = serverRepository.saveAndFlush(new ServerDataBuilder().buildAsNew());
+    ExportRun run = newRun(UUID.randomUUID(), ExportRun.STATUS_RUNNING, startDate, null, 0);
+    ExportRunConflict conflict = new ExportRunConflict("object", "value", "E7619", "202310",
+        "org-unit", "data-element", "combo");
+    ExportRunItem first = newItem(server, "202309", Arrays.asList(conflict, conflict));
+    ExportRunItem second = newItem(server, "202310", new ArrayList<>());
+    ExportRunItem third = newItem(server, "202311", new ArrayList<>());
+
+    exportRunRepository.save(run, Arrays.asList(first, second));
+    exportRunRepository.save(run, Collections.singletonList(third));
+
+    assertThat(exportRunRepository.countItems(run.getId()), is(3L));
+    assertThat(exportRunRepository.findItems(run.getId(), 0, 10),
+        contains(first, second, third));
+  }
+
+  @Test
+  public void shouldReturnGivenPageOfItems() {
+    ExportRun run = newRun(UUID.randomUUID(), ExportRun.STATUS_RUNNING, startDate, null, 0);
+    ExportRunItem first = newItem(null, "202309", new ArrayList<>());
+    ExportRunItem second = newItem(null, "202310", new ArrayList<>());
+    exportRunRepository.save(run, Arrays.asList(second, first));
+
+    assertThat(exportRunRepository.findItems(run.getId(), 1, 1), contains(second));
+    assertThat(exportRunRepository.findItems(run.getId(), 2, 1), is(empty()));
+  }
+
+  @Test
+  public void shouldReturnLatestRunsFirst() {
+    ExportRun older = newRun(UUID.randomUUID(), ExportRun.STATUS_FINISHED,
+        startDate.minusDays(1), startDate.minusDays(1), 0);
+    ExportRun newer = newRun(UUID.randomUUID(), ExportRun.STATUS_FINISHED,
+        startDate.plusDays(1), startDate.plusDays(1), 0);
+    exportRunRepository.save(older, Collections.emptyList());
+    exportRunRepository.save(newer, Collections.emptyList());
+
+    List<ExportRun> runs = exportRunRepository.findAll(0, (int) exportRunRepository.count());
+
+    assertThat(runs, hasItems(newer, older));
+    assertThat(runs.indexOf(newer) < runs.indexOf(older), is(true));
+  }
+
+  @Test
+  public void shouldNotReturnItemsOfOtherRuns() {
+    ExportRun run = newRun(UUID.randomUUID(), ExportRun.STATUS_RUNNING, startDate, null, 0);
+    ExportRun other = newRun(UUID.randomUUID(), ExportRun.STATUS_RUNNING, startDate, null, 0);
+    ExportRunItem item = newItem(null, "202310", new ArrayList<>());
+    exportRunRepository.save(run, Collections.singletonList(item));
+    exportRunRepository.save(other,
+        Collections.singletonList(newItem(null, "202310", new ArrayList<>())));
+
+    assertThat(exportRunRepository.findItems(run.getId(), 0, 10), contains(item));
+  }
+
+  private ExportRun newRun(UUID id, String status, ZonedDateTime start, ZonedDateTime end,
+                           int dataValues) {
+    return new ExportRun(id, status, start, end, 1, 0, 1, 0, dataValues, 0, dataValues, 0, 0);
+  }
+
+  private ExportRunItem newItem(Server server, String period,
+                                List<ExportRunConflict> conflicts) {
+    return new ExportRunItem(UUID.randomUUID(), server == null ? null : server.getId(),
+        DATA_SET, period, "SUCCESS", 2, 1, 1, 0, 0, null, conflicts);
+  }
+
+}
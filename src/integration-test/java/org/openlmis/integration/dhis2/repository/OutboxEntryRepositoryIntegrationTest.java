@@ -0,0 +1,171 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.integration.dhis2.repository;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import javax.persistence.EntityManager;
+import org.junit.Test;
+import org.openlmis.integration.dhis2.builder.ServerDataBuilder;
+import org.openlmis.integration.dhis2.domain.BaseEntity;
+import org.openlmis.integration.dhis2.domain.outbox.OutboxEntry;
+import org.openlmis.integration.dhis2.domain.server.Server;
+import org.openlmis.integration.dhis2.repository.outbox.OutboxEntryRepository;
+import org.openlmis.integration.dhis2.repository.server.ServerRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+public class OutboxEntryRepositoryIntegrationTest
+        extends BaseCrudRepositoryIntegrationTest<OutboxEntry> {
+
+  private static final String JOB_ID = "job-id";
+
+  @Autowired
+  private OutboxEntryRepository outboxEntryRepository;
+
+  @Autowired
+  private ServerRepository serverRepository;
+
+  @Autowired
+  private EntityManager entityManager;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  private final ZonedDateTime now = ZonedDateTime.now();
+
+  @Override
+  public CrudRepository<OutboxEntry, UUID> getRepository() {
+    return outboxEntryRepository;
+  }
+
+  @Override
+  public OutboxEntry generateInstance() {
+    Server server = serverRepository.save(new ServerDataBuilder().buildAsNew());
+    return newEntry(server, now);
+  }
+
+  @Test
+  public void shouldFindDueEntriesOrderedByNextAttemptDate() {
+    Server server = serverRepository.save(new ServerDataBuilder().buildAsNew());
+    OutboxEntry later = outboxEntryRepository.save(newEntry(server, now.minusMinutes(1)));
+    OutboxEntry earlier = outboxEntryRepository.save(newEntry(server, now.minusMinutes(2)));
+    outboxEntryRepository.save(newEntry(server, now.plusMinutes(1)));
+    outboxEntryRepository.flush();
+
+    List<UUID> due = idsOf(outboxEntryRepository.findDueForUpdate(now, 10), earlier, later);
+
+    assertThat(due, contains(earlier.getId(), later.getId()));
+  }
+
+  @Test
+  public void shouldLimitDueEntries() {
+    Server server = serverRepository.save(new ServerDataBuilder().buildAsNew());
+    outboxEntryRepository.save(newEntry(server, now.minusMinutes(2)));
+    outboxEntryRepository.save(newEntry(server, now.minusMinutes(1)));
+    outboxEntryRepository.flush();
+
+    assertThat(outboxEntryRepository.findDueForUpdate(now, 1), hasSize(1));
+  }
+
+  @Test
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
+  public void shouldSkipEntriesLockedByAnotherTransaction() {
+    TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+    Server server = transaction.execute(status ->
+        serverRepository.save(new ServerDataBuilder().buildAsNew()));
+    OutboxEntry entry = transaction.execute(status ->
+        outboxEntryRepository.save(newEntry(server, now.minusMinutes(1))));
+
+    try {
+      List<UUID> claimedByOther = transaction.execute(status -> {
+        assertThat(idsOf(outboxEntryRepository.findDueForUpdate(now, 10), entry),
+            contains(entry.getId()));
+
+        return CompletableFuture
+            .supplyAsync(() -> transaction.execute(inner ->
+                idsOf(outboxEntryRepository.findDueForUpdate(now, 10), entry)))
+            .join();
+      });
+
+      assertThat(claimedByOther, is(empty()));
+    } finally {
+      transaction.execute(status -> {
+        serverRepository.deleteById(server.getId());
+        return null;
+      });
+    }
+  }
+
+  @Test
+  public void shouldUpdateJobId() {
+    OutboxEntry entry = outboxEntryRepository.saveAndFlush(generateInstance());
+
+    int updated = outboxEntryRepository.updateJobId(entry.getId(), JOB_ID);
+    entityManager.clear();
+
+    assertThat(updated, is(1));
+    assertThat(outboxEntryRepository.getOne(entry.getId()).getJobId(), is(JOB_ID));
+  }
+
+  @Test
+  public void shouldRenewLeasesOfGivenEntriesOnly() {
+    Server server = serverRepository.save(new ServerDataBuilder().buildAsNew());
+    OutboxEntry renewed = outboxEntryRepository.save(newEntry(server, now));
+    final OutboxEntry other = outboxEntryRepository.save(newEntry(server, now));
+    outboxEntryRepository.flush();
+    ZonedDateTime leasedUntil = now.plusMinutes(10);
+
+    int updated = outboxEntryRepository
+        .updateNextAttemptDate(Arrays.asList(renewed.getId()), leasedUntil);
+    entityManager.clear();
+
+    assertThat(updated, is(1));
+    assertThat(outboxEntryRepository.getOne(renewed.getId()).getNextAttemptDate()
+        .isEqual(leasedUntil), is(true));
+    assertThat(outboxEntryRepository.getOne(other.getId()).getNextAttemptDate()
+        .isEqual(now), is(true));
+  }
+
+  private OutboxEntry newEntry(Server server, ZonedDateTime nextAttemptDate) {
+    return new OutboxEntry(server, "dataSet", "202310", "{}", 0, null, now, nextAttemptDate,
+        null);
+  }
+
+  private List<UUID> idsOf(List<OutboxEntry> found, OutboxEntry... expected) {
+    List<UUID> ids = Arrays.stream(expected).map(BaseEntity::getId).collect(toList());
+
+    return found.stream()
+        .map(BaseEntity::getId)
+        .filter(ids::contains)
+        .collect(toList());
+  }
+
+}
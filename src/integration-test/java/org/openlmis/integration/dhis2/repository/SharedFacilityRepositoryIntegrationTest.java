@@ -15,12 +15,21 @@
 
 package org.openlmis.integration.dhis2.repository;
 
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
+import org.junit.Test;
 import org.openlmis.integration.dhis2.builder.ServerDataBuilder;
 import org.openlmis.integration.dhis2.builder.SharedFacilityDataBuilder;
 import org.openlmis.integration.dhis2.domain.facility.SharedFacility;
 import org.openlmis.integration.dhis2.domain.server.Server;
 import org.openlmis.integration.dhis2.repository.facility.SharedFacilityRepository;
+import org.openlmis.integration.dhis2.repository.facility.SharedFacilityRepository.OrgUnit;
 import org.openlmis.integration.dhis2.repository.server.ServerRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.repository.CrudRepository;
@@ -28,12 +37,20 @@ import org.springframework.data.repository.CrudRepository;
 public class SharedFacilityRepositoryIntegrationTest extends
         BaseCrudRepositoryIntegrationTest<SharedFacility> {
 
+  private static final String CODE_A = "code-a";
+  private static final String CODE_B = "code-b";
+  private static final String CODE_C = "code-c";
+  private static final String ORG_UNIT_ID = "test-unit-id";
+
   @Autowired
   private SharedFacilityRepository sharedFacilityRepository;
 
   @Autowired
   private ServerRepository serverRepository;
 
+  private Server server;
+  private Server otherServer;
+
   @Override
   public CrudRepository<SharedFacility, UUID> getRepository() {
     return sharedFacilityRepository;
@@ -47,4 +64,54 @@ public class SharedFacilityRepositoryIntegrationTest extends
     return new SharedFacilityDataBuilder().withServer(server).buildAsNew();
   }
 
+  @Test
+  public void shouldFindFacilitiesOfGivenServerOnly() {
+    saveFacilities();
+
+    List<String> codes = sharedFacilityRepository.findByServerId(server.getId()).stream()
+        .map(SharedFacility::getCode)
+        .sorted()
+        .collect(toList());
+
+    assertThat(codes, contains(CODE_A, CODE_B));
+  }
+
+  @Test
+  public void shouldFindOrgUnitsOfGivenServerOrderedByCode() {
+    saveFacilities();
+
+    List<OrgUnit> orgUnits = sharedFacilityRepository.findOrgUnitsByServerId(server.getId());
+
+    assertThat(codesOf(orgUnits), contains(CODE_A, CODE_B));
+    assertThat(orgUnits.get(0).getOrgUnitId(), is(ORG_UNIT_ID));
+  }
+
+  @Test
+  public void shouldFindOrgUnitsOfGivenServerAndCodes() {
+    saveFacilities();
+
+    List<OrgUnit> orgUnits = sharedFacilityRepository
+        .findOrgUnitsByServerIdAndCodeIn(server.getId(), Arrays.asList(CODE_B, CODE_C));
+
+    assertThat(codesOf(orgUnits), contains(CODE_B));
+  }
+
+  private void saveFacilities() {
+    server = serverRepository.save(new ServerDataBuilder().buildAsNew());
+    otherServer = serverRepository.save(new ServerDataBuilder().buildAsNew());
+
+    sharedFacilityRepository.save(newFacility(CODE_B, server));
+    sharedFacilityRepository.save(newFacility(CODE_A, server));
+    sharedFacilityRepository.save(newFacility(CODE_A, otherServer));
+    sharedFacilityRepository.save(newFacility(CODE_C, otherServer));
+  }
+
+  private SharedFacility newFacility(String code, Server owner) {
+    return new SharedFacilityDataBuilder().withCode(code).withServer(owner).buildAsNew();
+  }
+
+  private List<String> codesOf(List<OrgUnit> orgUnits) {
+    return orgUnits.stream().map(OrgUnit::getCode).collect(toList());
+  }
+
 }
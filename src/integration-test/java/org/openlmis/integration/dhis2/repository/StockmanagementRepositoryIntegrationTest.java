@@ -0,0 +1,357 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.integration.dhis2.repository;
+
+import static org.hamcrest.Matchers.hasItems;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openlmis.integration.dhis2.repository.indicator.StockLineItemAggregateRepository;
+import org.openlmis.integration.dhis2.repository.indicator.StockmanagementRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Runs the stock queries against line items seeded by the test. Stock on hand is read in a
+ * transaction of its own, so the seeded rows are committed and removed after each test. The
+ * stockmanagement and referencedata tables are created with the columns read by the queries
+ * when the database does not contain them.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@ActiveProfiles("test")
+@SuppressWarnings("PMD.TooManyMethods")
+public class StockmanagementRepositoryIntegrationTest {
+
+  private static final String[] SCHEMA = {
+      "CREATE SCHEMA IF NOT EXISTS referencedata",
+      "CREATE TABLE IF NOT EXISTS referencedata.facilities (id UUID PRIMARY KEY, code TEXT)",
+      "CREATE SCHEMA IF NOT EXISTS stockmanagement",
+      "CREATE TABLE IF NOT EXISTS stockmanagement.stock_cards (id UUID PRIMARY KEY,"
+          + " facilityid UUID, orderableid UUID)",
+      "CREATE TABLE IF NOT EXISTS stockmanagement.stock_card_line_item_reasons"
+          + " (id UUID PRIMARY KEY, name TEXT, reasoncategory TEXT, reasontype TEXT)",
+      "CREATE TABLE IF NOT EXISTS stockmanagement.stock_card_line_items (id UUID PRIMARY KEY,"
+          + " stockcardid UUID, reasonid UUID, quantity INTEGER, occurreddate DATE,"
+          + " processeddate TIMESTAMP WITH TIME ZONE)",
+      "CREATE TABLE IF NOT EXISTS stockmanagement.calculated_stocks_on_hand"
+          + " (id UUID PRIMARY KEY, stockcardid UUID, stockonhand INTEGER, occurreddate DATE,"
+          + " processeddate TIMESTAMP WITH TIME ZONE)"
+  };
+
+  private static final String TRANSFER = "TRANSFER";
+  private static final String ADJUSTMENT = "ADJUSTMENT";
+  private static final String CREDIT = "CREDIT";
+  private static final String DEBIT = "DEBIT";
+
+  private static final String ID = "id";
+  private static final String IDS = "ids";
+
+  private static final ZonedDateTime START_DATE =
+      ZonedDateTime.of(2023, 10, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+  private static final ZonedDateTime END_DATE = START_DATE.plusMonths(1);
+  private static final LocalDate IN_PERIOD = LocalDate.of(2023, 10, 15);
+
+  @Autowired
+  private StockmanagementRepository stockmanagementRepository;
+
+  @Autowired
+  private StockLineItemAggregateRepository stockLineItemAggregateRepository;
+
+  @Autowired
+  private NamedParameterJdbcTemplate jdbcTemplate;
+
+  private final String suffix = UUID.randomUUID().toString();
+  private final String orderable = "orderable-" + suffix;
+  private final String facility = "facility-" + suffix;
+  private final String otherFacility = "other-facility-" + suffix;
+
+  private final UUID orderableId = UUID.randomUUID();
+  private final UUID facilityId = UUID.randomUUID();
+  private final UUID otherFacilityId = UUID.randomUUID();
+
+  private final List<UUID> reasonIds = new ArrayList<>();
+  private final List<UUID> cardIds = new ArrayList<>();
+
+  private final ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+
+  @Before
+  public void setUp() {
+    for (String statement : SCHEMA) {
+      jdbcTemplate.getJdbcTemplate().execute(statement);
+    }
+    removeTotals();
+
+    insert("INSERT INTO referencedata.facilities (id, code) VALUES (:id, :code)",
+        ImmutableMap.of(ID, facilityId, "code", facility));
+    insert("INSERT INTO referencedata.facilities (id, code) VALUES (:id, :code)",
+        ImmutableMap.of(ID, otherFacilityId, "code", otherFacility));
+    insert("INSERT INTO dhis2.latest_orderable (id, versionnumber, fullproductname)"
+        + " VALUES (:id, 1, :name)", ImmutableMap.of(ID, orderableId, "name", orderable));
+  }
+
+  /**
+   * Removes the seeded rows and the totals of the test period.
+   */
+  @After
+  public void tearDown() {
+    removeTotals();
+
+    if (!cardIds.isEmpty()) {
+      MapSqlParameterSource cards = new MapSqlParameterSource(IDS, cardIds);
+      jdbcTemplate.update("DELETE FROM stockmanagement.calculated_stocks_on_hand"
+          + " WHERE stockcardid IN (:ids)", cards);
+      jdbcTemplate.update("DELETE FROM stockmanagement.stock_card_line_items"
+          + " WHERE stockcardid IN (:ids)", cards);
+      jdbcTemplate.update("DELETE FROM stockmanagement.stock_cards WHERE id IN (:ids)", cards);
+    }
+    if (!reasonIds.isEmpty()) {
+      jdbcTemplate.update("DELETE FROM stockmanagement.stock_card_line_item_reasons"
+          + " WHERE id IN (:ids)", new MapSqlParameterSource(IDS, reasonIds));
+    }
+    jdbcTemplate.update("DELETE FROM dhis2.latest_orderable WHERE id = :id",
+        new MapSqlParameterSource(ID, orderableId));
+    jdbcTemplate.update("DELETE FROM referencedata.facilities WHERE id IN (:ids)",
+        new MapSqlParameterSource(IDS, Arrays.asList(facilityId, otherFacilityId)));
+  }
+
+  @Test
+  public void shouldFoldLineItemsIntoTotalsUpToLatestProcessedDate() {
+    UUID received = addReason("Transfer In", TRANSFER, CREDIT);
+    UUID card = addCard(facilityId);
+    addLineItem(card, received, 10, IN_PERIOD, now.minusDays(1));
+    addLineItem(card, received, 5, IN_PERIOD, now.minusDays(1));
+    addLineItem(card, received, 7, END_DATE.toLocalDate(), now.minusDays(1));
+    addLineItem(card, received, 3, IN_PERIOD, now);
+
+    ZonedDateTime watermark = stockLineItemAggregateRepository
+        .advance(TRANSFER, CREDIT, START_DATE, END_DATE);
+    addLineItem(card, received, 2, IN_PERIOD, now.plusSeconds(1));
+
+    assertThat(watermark.isEqual(now), is(true));
+    assertThat(getStoredTotal(TRANSFER, CREDIT), is(18d));
+    assertThat(stockLineItemAggregateRepository.findQuantities(TRANSFER, CREDIT, START_DATE,
+        END_DATE, watermark, orderable, Collections.singletonList(facility)),
+        is(Collections.singletonMap(facility, 20d)));
+  }
+
+  @Test
+  public void shouldAddOnlyLineItemsProcessedSinceLastWatermark() {
+    UUID received = addReason("Transfer In", TRANSFER, CREDIT);
+    UUID card = addCard(facilityId);
+    addLineItem(card, received, 10, IN_PERIOD, now.minusDays(1));
+    ZonedDateTime first = stockLineItemAggregateRepository
+        .advance(TRANSFER, CREDIT, START_DATE, END_DATE);
+    addLineItem(card, received, 4, IN_PERIOD, now);
+
+    ZonedDateTime second = stockLineItemAggregateRepository
+        .advance(TRANSFER, CREDIT, START_DATE, END_DATE);
+
+    assertThat(first.isEqual(now.minusDays(1)), is(true));
+    assertThat(second.isEqual(now), is(true));
+    assertThat(getStoredTotal(TRANSFER, CREDIT), is(14d));
+  }
+
+  @Test
+  public void shouldKeepWatermarkIfThereAreNoNewLineItems() {
+    UUID received = addReason("Transfer In", TRANSFER, CREDIT);
+    addLineItem(addCard(facilityId), received, 10, IN_PERIOD, now.minusDays(1));
+    ZonedDateTime first = stockLineItemAggregateRepository
+        .advance(TRANSFER, CREDIT, START_DATE, END_DATE);
+
+    ZonedDateTime second = stockLineItemAggregateRepository
+        .advance(TRANSFER, CREDIT, START_DATE, END_DATE);
+
+    assertThat(second.isEqual(first), is(true));
+    assertThat(getStoredTotal(TRANSFER, CREDIT), is(10d));
+  }
+
+  @Test
+  public void shouldReadSameQuantitiesWithAndWithoutTotals() {
+    UUID received = addReason("Transfer In", TRANSFER, CREDIT);
+    UUID card = addCard(facilityId);
+    addLineItem(card, received, 10, IN_PERIOD, now.minusDays(1));
+    addLineItem(card, received, 3, IN_PERIOD, now);
+    addLineItem(addCard(otherFacilityId), received, 6, IN_PERIOD, now.minusDays(1));
+    List<String> facilities = Arrays.asList(facility, otherFacility);
+    Map<String, Double> expected = ImmutableMap.of(facility, 13d, otherFacility, 6d);
+
+    assertThat(stockmanagementRepository.findReceivedQuantities(START_DATE, END_DATE,
+        orderable, facilities), is(expected));
+
+    ReflectionTestUtils.setField(stockmanagementRepository, "incremental", false);
+    try {
+      assertThat(stockmanagementRepository.findReceivedQuantities(START_DATE, END_DATE,
+          orderable, facilities), is(expected));
+    } finally {
+      ReflectionTestUtils.setField(stockmanagementRepository, "incremental", true);
+    }
+  }
+
+  @Test
+  public void shouldSignDebitAdjustmentsByReason() {
+    UUID damaged = addReason("Damaged", ADJUSTMENT, DEBIT);
+    UUID found = addReason("Found", ADJUSTMENT, CREDIT);
+    UUID card = addCard(facilityId);
+    addLineItem(card, damaged, 4, IN_PERIOD, now.minusDays(1));
+    addLineItem(card, damaged, 1, IN_PERIOD, now.minusDays(1));
+    addLineItem(card, found, 6, IN_PERIOD, now.minusDays(1));
+
+    Map<String, Map<String, Double>> adjustments = stockmanagementRepository
+        .findAdjustmentsByReason(START_DATE, END_DATE, orderable,
+            Arrays.asList(facility, otherFacility));
+
+    assertThat(adjustments, is(Collections.singletonMap(facility,
+        ImmutableMap.of("Damaged " + suffix, -5d, "Found " + suffix, 6d))));
+    assertThat(stockmanagementRepository.findAdjustmentReasons(),
+        hasItems("Damaged " + suffix, "Found " + suffix));
+  }
+
+  @Test
+  public void shouldSumLatestStockOnHandOfAllLotsOfProduct() {
+    // each lot has its own stock card, the latest value of each card counts towards the total
+    UUID firstLot = addCard(facilityId);
+    final UUID secondLot = addCard(facilityId);
+    addStockOnHand(firstLot, 10, LocalDate.of(2023, 9, 20), now.minusDays(3));
+    addStockOnHand(firstLot, 12, LocalDate.of(2023, 9, 25), now.minusDays(3));
+    addStockOnHand(firstLot, 20, LocalDate.of(2023, 9, 25), now.minusDays(2));
+    addStockOnHand(firstLot, 99, LocalDate.of(2023, 10, 5), now.minusDays(1));
+    addStockOnHand(secondLot, 5, LocalDate.of(2023, 9, 1), now.minusDays(3));
+    addStockOnHand(addCard(otherFacilityId), 7, LocalDate.of(2023, 10, 5), now.minusDays(1));
+
+    Map<String, Map<String, Long>> stockOnHand = stockmanagementRepository
+        .findStockOnHand(START_DATE, Collections.singletonList(orderable),
+            Arrays.asList(facility, otherFacility));
+
+    assertThat(stockOnHand, is(Collections.singletonMap(orderable,
+        Collections.singletonMap(facility, 25L))));
+    assertThat(stockmanagementRepository.findClosingBalances(END_DATE, orderable,
+        Arrays.asList(facility, otherFacility)),
+        is(ImmutableMap.of(facility, 104L, otherFacility, 7L)));
+  }
+
+  @Test
+  public void shouldRemoveTotalsOfExpiredPeriods() {
+    ZonedDateTime expiredStart = ZonedDateTime.of(2001, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+    ZonedDateTime currentStart = now.withDayOfMonth(1).truncatedTo(ChronoUnit.DAYS);
+    stockLineItemAggregateRepository.advance(TRANSFER, CREDIT, expiredStart,
+        expiredStart.plusMonths(1));
+    stockLineItemAggregateRepository.advance(TRANSFER, CREDIT, currentStart,
+        currentStart.plusMonths(1));
+
+    int removed = stockLineItemAggregateRepository.removeExpired();
+
+    assertThat(removed, is(1));
+    assertThat(countWatermarks(expiredStart), is(0L));
+    assertThat(countWatermarks(currentStart), is(1L));
+  }
+
+  private UUID addReason(String name, String category, String type) {
+    UUID id = UUID.randomUUID();
+    insert("INSERT INTO stockmanagement.stock_card_line_item_reasons"
+            + " (id, name, reasoncategory, reasontype) VALUES (:id, :name, :category, :type)",
+        ImmutableMap.of(ID, id, "name", name + " " + suffix, "category", category,
+            "type", type));
+    reasonIds.add(id);
+    return id;
+  }
+
+  private UUID addCard(UUID cardFacilityId) {
+    UUID id = UUID.randomUUID();
+    insert("INSERT INTO stockmanagement.stock_cards (id, facilityid, orderableid)"
+            + " VALUES (:id, :facility, :orderable)",
+        ImmutableMap.of(ID, id, "facility", cardFacilityId, "orderable", orderableId));
+    cardIds.add(id);
+    return id;
+  }
+
+  private void addLineItem(UUID card, UUID reason, int quantity, LocalDate occurredDate,
+                           ZonedDateTime processedDate) {
+    insert("INSERT INTO stockmanagement.stock_card_line_items"
+            + " (id, stockcardid, reasonid, quantity, occurreddate, processeddate)"
+            + " VALUES (:id, :card, :reason, :quantity, :occurred, :processed)",
+        ImmutableMap.<String, Object>builder()
+            .put(ID, UUID.randomUUID())
+            .put("card", card)
+            .put("reason", reason)
+            .put("quantity", quantity)
+            .put("occurred", Date.valueOf(occurredDate))
+            .put("processed", Timestamp.from(processedDate.toInstant()))
+            .build());
+  }
+
+  private void addStockOnHand(UUID card, int stockOnHand, LocalDate occurredDate,
+                              ZonedDateTime processedDate) {
+    insert("INSERT INTO stockmanagement.calculated_stocks_on_hand"
+            + " (id, stockcardid, stockonhand, occurreddate, processeddate)"
+            + " VALUES (:id, :card, :stockOnHand, :occurred, :processed)",
+        ImmutableMap.of(ID, UUID.randomUUID(), "card", card, "stockOnHand", stockOnHand,
+            "occurred", Date.valueOf(occurredDate),
+            "processed", Timestamp.from(processedDate.toInstant())));
+  }
+
+  private double getStoredTotal(String reasonCategory, String reasonType) {
+    return jdbcTemplate.queryForObject("SELECT quantity FROM dhis2.stock_line_item_aggregate"
+            + " WHERE reasoncategory = :category AND reasontype = :type"
+            + " AND startdate = :start AND enddate = :end AND facilityid = :facility",
+        new MapSqlParameterSource()
+            .addValue("category", reasonCategory)
+            .addValue("type", reasonType)
+            .addValue("start", Timestamp.from(START_DATE.toInstant()))
+            .addValue("end", Timestamp.from(END_DATE.toInstant()))
+            .addValue("facility", facilityId),
+        Double.class);
+  }
+
+  private long countWatermarks(ZonedDateTime startDate) {
+    return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM dhis2.stock_line_item_watermark"
+            + " WHERE startdate = :start",
+        new MapSqlParameterSource("start", Timestamp.from(startDate.toInstant())), Long.class);
+  }
+
+  // totals of all periods are removed, so each test starts from the epoch watermark
+  private void removeTotals() {
+    jdbcTemplate.getJdbcTemplate().update("DELETE FROM dhis2.stock_line_item_watermark");
+    jdbcTemplate.getJdbcTemplate().update("DELETE FROM dhis2.stock_line_item_aggregate");
+  }
+
+  private void insert(String sql, Map<String, ?> parameters) {
+    jdbcTemplate.update(sql, parameters);
+  }
+
+}
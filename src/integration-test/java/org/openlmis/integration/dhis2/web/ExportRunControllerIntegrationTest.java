@@ -0,0 +1,241 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.integration.dhis2.web;
+
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.openlmis.integration.dhis2.i18n.MessageKeys.ERROR_NO_FOLLOWING_PERMISSION;
+
+import guru.nidi.ramltester.junit.RamlMatchers;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.UUID;
+import org.apache.http.HttpStatus;
+import org.junit.Before;
+import org.junit.Test;
+import org.openlmis.integration.dhis2.domain.export.ExportRun;
+import org.openlmis.integration.dhis2.domain.export.ExportRunConflict;
+import org.openlmis.integration.dhis2.domain.export.ExportRunItem;
+import org.openlmis.integration.dhis2.exception.NotFoundException;
+import org.openlmis.integration.dhis2.i18n.MessageKeys;
+import org.openlmis.integration.dhis2.service.export.ExportRunService;
+import org.openlmis.integration.dhis2.web.export.ExportRunController;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpHeaders;
+
+@SuppressWarnings("PMD.TooManyMethods")
+public class ExportRunControllerIntegrationTest extends BaseWebIntegrationTest {
+
+  private static final String RESOURCE_URL = ExportRunController.RESOURCE_PATH;
+  private static final String ID_URL = RESOURCE_URL + "/{id}";
+  private static final String ITEMS_URL = ID_URL + "/items";
+
+  @MockBean
+  private ExportRunService exportRunService;
+
+  private final ZonedDateTime startDate = ZonedDateTime.now(ZoneOffset.UTC);
+
+  private final ExportRun run = new ExportRun(UUID.randomUUID(), ExportRun.STATUS_RUNNING,
+      startDate, null, 2, 0, 3, 1, 100, 10, 80, 5, 5);
+
+  private final ExportRunItem item = new ExportRunItem(UUID.randomUUID(), UUID.randomUUID(),
+      "data-set", "202310", "WARNING", 10, 8, 1, 1, 0, null,
+      Collections.singletonList(new ExportRunConflict("object", "value", "E7619", "202310",
+          "org-unit", "data-element", null)));
+
+  @Before
+  public void setUp() {
+    mockUserHasManageIntegrationRight();
+  }
+
+  @Test
+  public void shouldReturnPageOfExportRuns() {
+    given(exportRunService.findRuns(any(Pageable.class)))
+        .willReturn(new PageImpl<>(Collections.singletonList(run)));
+
+    restAssured
+        .given()
+        .header(HttpHeaders.AUTHORIZATION, getTokenHeader())
+        .queryParam("page", pageable.getPageNumber())
+        .queryParam("size", pageable.getPageSize())
+        .when()
+        .get(RESOURCE_URL)
+        .then()
+        .statusCode(HttpStatus.SC_OK)
+        .body("content", hasSize(1))
+        .body("content[0].id", is(run.getId().toString()))
+        .body("content[0].status", is(ExportRun.STATUS_RUNNING))
+        .body("content[0].successful", is(false));
+
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
+  @Test
+  public void shouldRejectReturnPageOfExportRunsIfUserHasNoRight() {
+    mockUserHasNoRight();
+
+    String response = restAssured
+        .given()
+        .header(HttpHeaders.AUTHORIZATION, getTokenHeader())
+        .when()
+        .get(RESOURCE_URL)
+        .then()
+        .statusCode(HttpStatus.SC_FORBIDDEN)
+        .extract()
+        .path(MESSAGE_KEY);
+
+    assertThat(response, is(ERROR_NO_FOLLOWING_PERMISSION));
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
+  @Test
+  public void shouldReturnUnauthorizedForAllExportRunsEndpointIfUserIsNotAuthorized() {
+    restAssured
+        .given()
+        .when()
+        .get(RESOURCE_URL)
+        .then()
+        .statusCode(HttpStatus.SC_UNAUTHORIZED);
+
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
+  @Test
+  public void shouldReturnGivenExportRun() {
+    given(exportRunService.findRun(run.getId())).willReturn(run);
+
+    restAssured
+        .given()
+        .header(HttpHeaders.AUTHORIZATION, getTokenHeader())
+        .pathParam(ID, run.getId().toString())
+        .when()
+        .get(ID_URL)
+        .then()
+        .statusCode(HttpStatus.SC_OK)
+        .body(ID, is(run.getId().toString()))
+        .body("status", is(ExportRun.STATUS_RUNNING))
+        .body("dataValues", is(run.getDataValues()))
+        .body("failedRequests", is(run.getFailedRequests()));
+
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
+  @Test
+  public void shouldReturnNotFoundMessageIfExportRunDoesNotExist() {
+    given(exportRunService.findRun(run.getId()))
+        .willThrow(new NotFoundException(MessageKeys.ERROR_EXPORT_RUN_NOT_FOUND));
+
+    restAssured
+        .given()
+        .header(HttpHeaders.AUTHORIZATION, getTokenHeader())
+        .pathParam(ID, run.getId().toString())
+        .when()
+        .get(ID_URL)
+        .then()
+        .statusCode(HttpStatus.SC_NOT_FOUND)
+        .body(MESSAGE_KEY, is(MessageKeys.ERROR_EXPORT_RUN_NOT_FOUND));
+
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
+  @Test
+  public void shouldRejectReturnGivenExportRunIfUserHasNoRight() {
+    mockUserHasNoRight();
+
+    String response = restAssured
+        .given()
+        .header(HttpHeaders.AUTHORIZATION, getTokenHeader())
+        .pathParam(ID, run.getId().toString())
+        .when()
+        .get(ID_URL)
+        .then()
+        .statusCode(HttpStatus.SC_FORBIDDEN)
+        .extract()
+        .path(MESSAGE_KEY);
+
+    assertThat(response, is(ERROR_NO_FOLLOWING_PERMISSION));
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
+  @Test
+  public void shouldReturnItemsOfGivenExportRun() {
+    given(exportRunService.findItems(eq(run.getId()), any(Pageable.class)))
+        .willReturn(new PageImpl<>(Collections.singletonList(item)));
+
+    restAssured
+        .given()
+        .header(HttpHeaders.AUTHORIZATION, getTokenHeader())
+        .pathParam(ID, run.getId().toString())
+        .queryParam("page", pageable.getPageNumber())
+        .queryParam("size", pageable.getPageSize())
+        .when()
+        .get(ITEMS_URL)
+        .then()
+        .statusCode(HttpStatus.SC_OK)
+        .body("content", hasSize(1))
+        .body("content[0].id", is(item.getId().toString()))
+        .body("content[0].imported", is(item.getImported()))
+        .body("content[0].conflicts", hasSize(1))
+        .body("content[0].conflicts[0].errorCode", is("E7619"));
+
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
+  @Test
+  public void shouldReturnNotFoundMessageForItemsIfExportRunDoesNotExist() {
+    given(exportRunService.findItems(eq(run.getId()), any(Pageable.class)))
+        .willThrow(new NotFoundException(MessageKeys.ERROR_EXPORT_RUN_NOT_FOUND));
+
+    restAssured
+        .given()
+        .header(HttpHeaders.AUTHORIZATION, getTokenHeader())
+        .pathParam(ID, run.getId().toString())
+        .when()
+        .get(ITEMS_URL)
+        .then()
+        .statusCode(HttpStatus.SC_NOT_FOUND)
+        .body(MESSAGE_KEY, is(MessageKeys.ERROR_EXPORT_RUN_NOT_FOUND));
+
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
+  @Test
+  public void shouldRejectReturnItemsOfGivenExportRunIfUserHasNoRight() {
+    mockUserHasNoRight();
+
+    String response = restAssured
+        .given()
+        .header(HttpHeaders.AUTHORIZATION, getTokenHeader())
+        .pathParam(ID, run.getId().toString())
+        .when()
+        .get(ITEMS_URL)
+        .then()
+        .statusCode(HttpStatus.SC_FORBIDDEN)
+        .extract()
+        .path(MESSAGE_KEY);
+
+    assertThat(response, is(ERROR_NO_FOLLOWING_PERMISSION));
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
+}
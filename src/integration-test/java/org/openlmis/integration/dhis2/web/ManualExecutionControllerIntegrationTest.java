@@ -0,0 +1,210 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.integration.dhis2.web;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.openlmis.integration.dhis2.i18n.MessageKeys.ERROR_NO_FOLLOWING_PERMISSION;
+
+import com.google.common.collect.ImmutableMap;
+import guru.nidi.ramltester.junit.RamlMatchers;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import org.apache.http.HttpStatus;
+import org.junit.Before;
+import org.junit.Test;
+import org.openlmis.integration.dhis2.domain.export.ExportRun;
+import org.openlmis.integration.dhis2.exception.NotFoundException;
+import org.openlmis.integration.dhis2.i18n.MessageKeys;
+import org.openlmis.integration.dhis2.service.export.ExportEngine;
+import org.openlmis.integration.dhis2.service.export.ExportProgress;
+import org.openlmis.integration.dhis2.service.export.ExportRunService;
+import org.openlmis.integration.dhis2.service.export.ExportSummary;
+import org.openlmis.integration.dhis2.web.execution.ManualExecutionController;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+
+public class ManualExecutionControllerIntegrationTest extends BaseWebIntegrationTest {
+
+  private static final String RESOURCE_URL = ManualExecutionController.RESOURCE_PATH;
+  private static final String RUN_URL = RESOURCE_URL + "/{runId}";
+
+  private static final String RUN_ID = "runId";
+  private static final String STATUS = "status";
+  private static final String FORCE = "force";
+
+  @MockBean
+  private ExportEngine exportEngine;
+
+  @MockBean
+  private ExportRunService exportRunService;
+
+  private final ExportSummary summary = new ExportSummary(ZonedDateTime.now(ZoneOffset.UTC));
+
+  private final ExportProgress progress = ExportProgress.of(new ExportRun(summary.getId(),
+      ExportRun.STATUS_RUNNING, summary.getStartDate(), null, 1, 0, 0, 0, 0, 0, 0, 0, 0));
+
+  @Before
+  public void setUp() {
+    mockUserHasManageIntegrationRight();
+    given(exportEngine.exportInBackground(any(), any(), any(), anyBoolean()))
+        .willReturn(summary);
+    given(exportRunService.getProgress(summary.getId())).willReturn(progress);
+  }
+
+  @Test
+  public void shouldStartExecutionOfAllSchedulesInBackground() {
+    restAssured
+        .given()
+        .header(HttpHeaders.AUTHORIZATION, getTokenHeader())
+        .when()
+        .post(RESOURCE_URL)
+        .then()
+        .statusCode(HttpStatus.SC_ACCEPTED)
+        .body(RUN_ID, is(summary.getId().toString()))
+        .body(STATUS, is(ExportRun.STATUS_RUNNING))
+        .body("endDate", is(nullValue()));
+
+    verify(exportEngine).exportInBackground(any(), isNull(), isNull(), eq(false));
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
+  @Test
+  public void shouldStartExecutionOfGivenDatasetInBackground() {
+    UUID periodMappingId = UUID.randomUUID();
+    List<String> facilityCodes = Arrays.asList("code-a", "code-b");
+
+    restAssured
+        .given()
+        .header(HttpHeaders.AUTHORIZATION, getTokenHeader())
+        .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+        .queryParam("serverId", UUID.randomUUID())
+        .queryParam("datasetId", UUID.randomUUID())
+        .queryParam("periodMappingId", periodMappingId)
+        .queryParam(FORCE, true)
+        .body(ImmutableMap.of("facilityCodes", facilityCodes))
+        .when()
+        .post(RESOURCE_URL)
+        .then()
+        .statusCode(HttpStatus.SC_ACCEPTED)
+        .body(RUN_ID, is(summary.getId().toString()))
+        .body(STATUS, is(ExportRun.STATUS_RUNNING));
+
+    verify(exportEngine)
+        .exportInBackground(any(), eq(periodMappingId), eq(facilityCodes), eq(true));
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
+  @Test
+  public void shouldRejectExecutionIfUserHasNoRight() {
+    mockUserHasNoRight();
+
+    String response = restAssured
+        .given()
+        .header(HttpHeaders.AUTHORIZATION, getTokenHeader())
+        .when()
+        .post(RESOURCE_URL)
+        .then()
+        .statusCode(HttpStatus.SC_FORBIDDEN)
+        .extract()
+        .path(MESSAGE_KEY);
+
+    assertThat(response, is(ERROR_NO_FOLLOWING_PERMISSION));
+    verify(exportEngine, never()).exportInBackground(any(), any(), any(), anyBoolean());
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
+  @Test
+  public void shouldReturnUnauthorizedForExecutionEndpointIfUserIsNotAuthorized() {
+    restAssured
+        .given()
+        .when()
+        .post(RESOURCE_URL)
+        .then()
+        .statusCode(HttpStatus.SC_UNAUTHORIZED);
+
+    verify(exportEngine, never()).exportInBackground(any(), any(), any(), anyBoolean());
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
+  @Test
+  public void shouldReturnProgressOfGivenExecution() {
+    restAssured
+        .given()
+        .header(HttpHeaders.AUTHORIZATION, getTokenHeader())
+        .pathParam(RUN_ID, summary.getId().toString())
+        .when()
+        .get(RUN_URL)
+        .then()
+        .statusCode(HttpStatus.SC_OK)
+        .body(RUN_ID, is(summary.getId().toString()))
+        .body(STATUS, is(ExportRun.STATUS_RUNNING))
+        .body("remainingSeconds", is(nullValue()));
+
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
+  @Test
+  public void shouldReturnNotFoundMessageIfExecutionDoesNotExist() {
+    UUID runId = UUID.randomUUID();
+    given(exportRunService.getProgress(runId))
+        .willThrow(new NotFoundException(MessageKeys.ERROR_EXPORT_RUN_NOT_FOUND));
+
+    restAssured
+        .given()
+        .header(HttpHeaders.AUTHORIZATION, getTokenHeader())
+        .pathParam(RUN_ID, runId.toString())
+        .when()
+        .get(RUN_URL)
+        .then()
+        .statusCode(HttpStatus.SC_NOT_FOUND)
+        .body(MESSAGE_KEY, is(MessageKeys.ERROR_EXPORT_RUN_NOT_FOUND));
+
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
+  @Test
+  public void shouldRejectReturnProgressOfGivenExecutionIfUserHasNoRight() {
+    mockUserHasNoRight();
+
+    String response = restAssured
+        .given()
+        .header(HttpHeaders.AUTHORIZATION, getTokenHeader())
+        .pathParam(RUN_ID, summary.getId().toString())
+        .when()
+        .get(RUN_URL)
+        .then()
+        .statusCode(HttpStatus.SC_FORBIDDEN)
+        .extract()
+        .path(MESSAGE_KEY);
+
+    assertThat(response, is(ERROR_NO_FOLLOWING_PERMISSION));
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
+}
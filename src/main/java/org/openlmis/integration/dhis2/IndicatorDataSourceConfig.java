@@ -0,0 +1,122 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+
+package org.openlmis.integration.dhis2;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+/**
+ * Database access of indicator queries. They read large stockmanagement and requisition tables,
+ * so they may use a read-only database of their own, usually a streaming replica of the main
+ * one. Without it, they use the main database.
+ */
+@Configuration
+public class IndicatorDataSourceConfig {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(IndicatorDataSourceConfig.class);
+
+  @Value("${indicator.datasource.url}")
+  private String url;
+
+  @Value("${indicator.datasource.username}")
+  private String username;
+
+  @Value("${indicator.datasource.password}")
+  private String password;
+
+  @Value("${indicator.datasource.maximumPoolSize}")
+  private int maximumPoolSize;
+
+  @Value("${indicator.datasource.minimumIdle}")
+  private int minimumIdle;
+
+  @Value("${indicator.datasource.queryTimeout}")
+  private int queryTimeout;
+
+  @Value("${indicator.datasource.fetchSize}")
+  private int fetchSize;
+
+  private HikariDataSource replicaDataSource;
+
+  /**
+   * Template of the main database. Spring Boot does not create it when there is another template,
+   * so it has to be declared here next to the indicator one.
+   */
+  @Bean
+  @Primary
+  public NamedParameterJdbcTemplate namedParameterJdbcTemplate(JdbcTemplate jdbcTemplate) {
+    return new NamedParameterJdbcTemplate(jdbcTemplate);
+  }
+
+  /**
+   * Template used by indicator queries. Each statement is cancelled after the query timeout, so
+   * a single slow indicator cannot hold a connection for the whole export. Results read within a
+   * transaction are fetched in batches of the fetch size.
+   */
+  @Bean
+  public NamedParameterJdbcTemplate indicatorJdbcTemplate(DataSource dataSource) {
+    DataSource indicatorDataSource = dataSource;
+
+    if (StringUtils.isNotBlank(url)) {
+      LOGGER.info("Indicator queries use a separate database");
+      replicaDataSource = new HikariDataSource(createReplicaConfig());
+      indicatorDataSource = replicaDataSource;
+    }
+
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(indicatorDataSource);
+    jdbcTemplate.setQueryTimeout(queryTimeout);
+    jdbcTemplate.setFetchSize(fetchSize);
+    return new NamedParameterJdbcTemplate(jdbcTemplate);
+  }
+
+  /**
+   * Closes the pool of the separate indicator database, if there is one.
+   */
+  @PreDestroy
+  public void close() {
+    if (replicaDataSource != null) {
+      replicaDataSource.close();
+    }
+  }
+
+  private HikariConfig createReplicaConfig() {
+    HikariConfig config = new HikariConfig();
+    config.setPoolName("indicator");
+    config.setJdbcUrl(url);
+    config.setUsername(username);
+    config.setPassword(password);
+    config.setDriverClassName("org.postgresql.Driver");
+    config.setMaximumPoolSize(maximumPoolSize);
+    config.setMinimumIdle(minimumIdle);
+    config.setReadOnly(true);
+    // parameters are bound the same way as on the main database
+    config.addDataSourceProperty("stringtype", "unspecified");
+    return config;
+  }
+
+}
@@ -15,20 +15,32 @@
 
 package org.openlmis.integration.dhis2;
 
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.httpcomponents.PoolingHttpClientConnectionManagerMetricsBinder;
 import java.security.KeyManagementException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import javax.net.ssl.SSLContext;
 import org.apache.commons.collections.CollectionUtils;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.conn.ssl.TrustStrategy;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.client.BufferingClientHttpRequestFactory;
@@ -41,11 +53,32 @@ public class RestTemplateConfig {
 
   static Logger LOGGER = LoggerFactory.getLogger(RestTemplateConfig.class);
 
+  @Value("${http.client.maxConnections}")
+  private int maxConnections;
+
+  @Value("${http.client.maxConnectionsPerRoute}")
+  private int maxConnectionsPerRoute;
+
+  @Value("${http.client.connectTimeout}")
+  private int connectTimeout;
+
+  @Value("${http.client.readTimeout}")
+  private int readTimeout;
+
+  @Value("${http.client.connectionRequestTimeout}")
+  private int connectionRequestTimeout;
+
+  @Value("${http.client.idleTimeout}")
+  private long idleTimeout;
+
+  @Value("${http.client.keepAlive}")
+  private long keepAlive;
+
   /**
-   * RestTemplate configuration for Spring context.
+   * Connection pool shared by all outbound HTTP clients.
    */
-  @Bean
-  public RestTemplate restTemplate() throws KeyStoreException,
+  @Bean(destroyMethod = "close")
+  public PoolingHttpClientConnectionManager httpConnectionManager() throws KeyStoreException,
           NoSuchAlgorithmException, KeyManagementException {
     TrustStrategy acceptingTrustStrategy = (X509Certificate[] chain, String authType) -> true;
 
@@ -55,10 +88,66 @@ public class RestTemplateConfig {
 
     SSLConnectionSocketFactory csf = new SSLConnectionSocketFactory(sslContext);
 
-    CloseableHttpClient httpClient = HttpClients.custom()
-            .setSSLSocketFactory(csf)
+    Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder
+            .<ConnectionSocketFactory>create()
+            .register("http", PlainConnectionSocketFactory.getSocketFactory())
+            .register("https", csf)
             .build();
 
+    PoolingHttpClientConnectionManager connectionManager =
+            new PoolingHttpClientConnectionManager(socketFactoryRegistry);
+    connectionManager.setMaxTotal(maxConnections);
+    connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+    // re-check connections that were idle for a while before handing them out again
+    connectionManager.setValidateAfterInactivity(2000);
+
+    return connectionManager;
+  }
+
+  /**
+   * HTTP client with timeouts, idle connection eviction, keep-alive and response decompression.
+   */
+  @Bean(destroyMethod = "close")
+  public CloseableHttpClient httpClient(PoolingHttpClientConnectionManager connectionManager) {
+    RequestConfig requestConfig = RequestConfig.custom()
+            .setConnectTimeout(connectTimeout)
+            .setSocketTimeout(readTimeout)
+            .setConnectionRequestTimeout(connectionRequestTimeout)
+            .build();
+
+    // honour the Keep-Alive header sent by the server, but never keep a connection for longer
+    // than configured
+    ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+      long duration = DefaultConnectionKeepAliveStrategy.INSTANCE
+              .getKeepAliveDuration(response, context);
+      return duration > 0 ? Math.min(duration, keepAlive) : keepAlive;
+    };
+
+    // gzip and deflate responses are decompressed by the client since content compression
+    // is enabled by default
+    return HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            .setKeepAliveStrategy(keepAliveStrategy)
+            .evictExpiredConnections()
+            .evictIdleConnections(idleTimeout, TimeUnit.MILLISECONDS)
+            .build();
+  }
+
+  /**
+   * Exposes the state of the connection pool as metrics.
+   */
+  @Bean
+  public MeterBinder httpConnectionPoolMetrics(
+          PoolingHttpClientConnectionManager connectionManager) {
+    return new PoolingHttpClientConnectionManagerMetricsBinder(connectionManager, "outbound");
+  }
+
+  /**
+   * RestTemplate configuration for Spring context.
+   */
+  @Bean
+  public RestTemplate restTemplate(CloseableHttpClient httpClient) {
     HttpComponentsClientHttpRequestFactory requestFactory =
             new HttpComponentsClientHttpRequestFactory();
     requestFactory.setHttpClient(httpClient);
@@ -0,0 +1,80 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.integration.dhis2;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+@Configuration
+public class TaskSchedulerConfig {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(TaskSchedulerConfig.class);
+  private static final String SCHEDULER_NAME = "taskScheduler";
+
+  @Value("${scheduler.poolSize}")
+  private int poolSize;
+
+  /**
+   * Scheduler running the export schedules and other periodic jobs. It has more than one thread,
+   * so schedules firing at the same period boundary do not wait for each other.
+   */
+  @Bean
+  public ThreadPoolTaskScheduler taskScheduler() {
+    ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler();
+    taskScheduler.setPoolSize(poolSize);
+    taskScheduler.setThreadNamePrefix("scheduler-");
+    taskScheduler.setRemoveOnCancelPolicy(true);
+    // a failing run must not prevent the next runs of the same schedule
+    taskScheduler.setErrorHandler(ex -> LOGGER.error("Scheduled task failed", ex));
+    return taskScheduler;
+  }
+
+  /**
+   * Exposes pool metrics of the scheduler, together with the number of tasks that are already
+   * due but still wait for a free thread.
+   */
+  @Bean
+  public MeterBinder taskSchedulerMetrics(ThreadPoolTaskScheduler taskScheduler) {
+    return registry -> {
+      new ExecutorServiceMetrics(taskScheduler.getScheduledThreadPoolExecutor(),
+          SCHEDULER_NAME, Collections.emptyList()).bindTo(registry);
+
+      Gauge.builder("scheduler.tasks.overdue", taskScheduler, TaskSchedulerConfig::countOverdue)
+          .description("Tasks whose trigger time has passed but which have not started yet")
+          .register(registry);
+    };
+  }
+
+  private static long countOverdue(ThreadPoolTaskScheduler taskScheduler) {
+    BlockingQueue<Runnable> queue = taskScheduler.getScheduledThreadPoolExecutor().getQueue();
+    return queue.stream()
+        .filter(task -> task instanceof Delayed)
+        .filter(task -> ((Delayed) task).getDelay(TimeUnit.MILLISECONDS) <= 0)
+        .count();
+  }
+
+}
@@ -0,0 +1,43 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+
+package org.openlmis.integration.dhis2.domain.export;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Fingerprint of a data value which has been acknowledged by a DHIS2 server. A value is
+ * identified by its data set, period, organisation unit, data element and category option
+ * combo. The fingerprint is the canonical form of the value, so the same number always gives the
+ * same fingerprint regardless of its scale.
+ */
+@Getter
+@AllArgsConstructor
+@EqualsAndHashCode
+@ToString
+public class DataValueFingerprint {
+
+  private final String dataSet;
+  private final String period;
+  private final String orgUnit;
+  private final String dataElement;
+  private final String categoryOptionCombo;
+  private final String fingerprint;
+
+}
@@ -0,0 +1,58 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+
+package org.openlmis.integration.dhis2.domain.export;
+
+import java.time.ZonedDateTime;
+import java.util.UUID;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Stored outcome of a single export run. The run is stored when it starts and updated once it
+ * is finished. The payloads sent during the run are described by its {@link ExportRunItem}s.
+ */
+@Getter
+@AllArgsConstructor
+@EqualsAndHashCode
+@ToString
+public class ExportRun {
+
+  public static final String STATUS_RUNNING = "RUNNING";
+  public static final String STATUS_FINISHED = "FINISHED";
+  public static final String STATUS_FAILED = "FAILED";
+
+  private final UUID id;
+  private final String status;
+  private final ZonedDateTime startDate;
+  private final ZonedDateTime endDate;
+  private final int schedules;
+  private final int failedSchedules;
+  private final int requests;
+  private final int failedRequests;
+  private final int dataValues;
+  private final int skippedDataValues;
+  private final int imported;
+  private final int updated;
+  private final int ignored;
+
+  public boolean isSuccessful() {
+    return !STATUS_FAILED.equals(status) && failedSchedules == 0 && failedRequests == 0;
+  }
+
+}
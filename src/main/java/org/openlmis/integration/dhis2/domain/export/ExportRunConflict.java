@@ -0,0 +1,44 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+
+package org.openlmis.integration.dhis2.domain.export;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Value of a payload which DHIS2 has rejected. The value is identified by its period,
+ * organisation unit, data element and category option combo, as far as DHIS2 tells which of
+ * the sent values the conflict is about. Otherwise only the object and message given by DHIS2
+ * are known.
+ */
+@Getter
+@AllArgsConstructor
+@EqualsAndHashCode
+@ToString
+public class ExportRunConflict {
+
+  private final String object;
+  private final String value;
+  private final String errorCode;
+  private final String period;
+  private final String orgUnit;
+  private final String dataElement;
+  private final String categoryOptionCombo;
+
+}
@@ -0,0 +1,135 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+
+package org.openlmis.integration.dhis2.domain.export;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import org.apache.commons.lang3.StringUtils;
+import org.openlmis.integration.dhis2.dto.dhis.DataValue;
+import org.openlmis.integration.dhis2.dto.dhis.DataValueSet;
+import org.openlmis.integration.dhis2.dto.dhis.DhisImportConflict;
+import org.openlmis.integration.dhis2.dto.dhis.DhisImportCount;
+import org.openlmis.integration.dhis2.dto.dhis.DhisResponseBody;
+import org.openlmis.integration.dhis2.dto.dhis.DhisResponseBodyDetails;
+
+/**
+ * Outcome of a single payload sent during an export run: the import counts reported by DHIS2
+ * and the values it has rejected, or the error which prevented the payload from being imported.
+ */
+@Getter
+@AllArgsConstructor
+@EqualsAndHashCode
+@ToString
+public class ExportRunItem {
+
+  // payloads which have not been answered by DHIS2 at all, or whose import has not finished in
+  // time; other statuses are given by DHIS2
+  public static final String STATUS_FAILED = "FAILED";
+  public static final String STATUS_PENDING = "PENDING";
+
+  private final UUID id;
+  private final UUID serverId;
+  private final String dataSet;
+  private final String period;
+  private final String status;
+  private final int dataValues;
+  private final int imported;
+  private final int updated;
+  private final int ignored;
+  private final int deleted;
+  private final String error;
+  private final List<ExportRunConflict> conflicts;
+
+  /**
+   * Creates item of a payload answered by the given server.
+   */
+  public static ExportRunItem of(UUID serverId, DataValueSet dataValueSet,
+                                 DhisResponseBody response) {
+    Optional<DhisResponseBodyDetails> details = Optional.ofNullable(response)
+        .map(DhisResponseBody::getResponse);
+    DhisImportCount importCount = details
+        .map(DhisResponseBodyDetails::getImportCount)
+        .orElseGet(DhisImportCount::new);
+    String status = details
+        .map(DhisResponseBodyDetails::getStatus)
+        .orElseGet(() -> response == null ? null : response.getStatus());
+
+    List<ExportRunConflict> conflicts = new ArrayList<>();
+    details
+        .map(DhisResponseBodyDetails::getConflicts)
+        .ifPresent(list -> list.forEach(conflict -> addConflicts(dataValueSet, conflict,
+            conflicts)));
+
+    return new ExportRunItem(UUID.randomUUID(), serverId, dataValueSet.getDataSet(),
+        dataValueSet.getPeriod(), StringUtils.defaultString(status, STATUS_FAILED),
+        dataValueSet.getDataValues().size(), importCount.getImported(),
+        importCount.getUpdated(), importCount.getIgnored(), importCount.getDeleted(), null,
+        conflicts);
+  }
+
+  /**
+   * Creates item of a payload which could not be imported because of the given error.
+   */
+  public static ExportRunItem failed(UUID serverId, DataValueSet dataValueSet, String error) {
+    return new ExportRunItem(UUID.randomUUID(), serverId, dataValueSet.getDataSet(),
+        dataValueSet.getPeriod(), STATUS_FAILED, dataValueSet.getDataValues().size(), 0, 0, 0,
+        0, error, new ArrayList<>());
+  }
+
+  /**
+   * Creates item of a payload whose import has not finished in time.
+   */
+  public static ExportRunItem pending(UUID serverId, DataValueSet dataValueSet) {
+    return new ExportRunItem(UUID.randomUUID(), serverId, dataValueSet.getDataSet(),
+        dataValueSet.getPeriod(), STATUS_PENDING, dataValueSet.getDataValues().size(), 0, 0, 0,
+        0, null, new ArrayList<>());
+  }
+
+  private static void addConflicts(DataValueSet dataValueSet, DhisImportConflict conflict,
+                                   List<ExportRunConflict> conflicts) {
+    List<DataValue> dataValues = dataValueSet.getDataValues();
+    boolean found = false;
+
+    // each index points at a rejected value of the payload, as it has been sent
+    if (conflict.getIndexes() != null) {
+      for (Integer index : conflict.getIndexes()) {
+        if (index != null && index >= 0 && index < dataValues.size()) {
+          DataValue dataValue = dataValues.get(index);
+          conflicts.add(new ExportRunConflict(conflict.getObject(), conflict.getValue(),
+              conflict.getErrorCode(),
+              StringUtils.defaultString(dataValue.getPeriod(), dataValueSet.getPeriod()),
+              StringUtils.defaultString(dataValue.getOrgUnit(), dataValueSet.getOrgUnit()),
+              dataValue.getDataElement(), dataValue.getCategoryOptionCombo()));
+          found = true;
+        }
+      }
+    }
+
+    if (!found) {
+      conflicts.add(new ExportRunConflict(conflict.getObject(), conflict.getValue(),
+          conflict.getErrorCode(), dataValueSet.getPeriod(), dataValueSet.getOrgUnit(), null,
+          null));
+    }
+  }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.integration.dhis2.domain.outbox;
+
+import java.time.ZonedDateTime;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import org.openlmis.integration.dhis2.domain.BaseEntity;
+import org.openlmis.integration.dhis2.domain.server.Server;
+
+/**
+ * Outbox entry which could not be delivered. It is kept for inspection and is not retried.
+ */
+@Entity
+@Table(name = "outbox_dead_letter", schema = "dhis2")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@EqualsAndHashCode(callSuper = true)
+@ToString(callSuper = true, onlyExplicitlyIncluded = true)
+public class OutboxDeadLetter extends BaseEntity {
+
+  @ManyToOne(fetch = FetchType.LAZY)
+  @JoinColumn(name = "serverId", nullable = false)
+  private Server server;
+
+  @Column
+  @ToString.Include
+  private String dataSet;
+
+  @Column
+  @ToString.Include
+  private String period;
+
+  @Column(nullable = false, columnDefinition = "text")
+  private String payload;
+
+  @Column(nullable = false)
+  @ToString.Include
+  private int attempts;
+
+  @Column(columnDefinition = "text")
+  @ToString.Include
+  private String lastError;
+
+  @Column(nullable = false)
+  private ZonedDateTime createdDate;
+
+  @Column(nullable = false)
+  private ZonedDateTime failedDate;
+
+  /**
+   * Creates new instance from the given entry which will not be retried anymore.
+   */
+  public static OutboxDeadLetter newInstance(OutboxEntry entry, ZonedDateTime failedDate) {
+    return new OutboxDeadLetter(entry.getServer(), entry.getDataSet(), entry.getPeriod(),
+        entry.getPayload(), entry.getAttempts(), entry.getLastError(), entry.getCreatedDate(),
+        failedDate);
+  }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.integration.dhis2.domain.outbox;
+
+import java.time.ZonedDateTime;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import org.openlmis.integration.dhis2.domain.BaseEntity;
+import org.openlmis.integration.dhis2.domain.server.Server;
+
+/**
+ * Data value set waiting to be delivered to a DHIS2 server. The entry is removed once the
+ * server accepts it.
+ */
+@Entity
+@Table(name = "outbox_entry", schema = "dhis2")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@EqualsAndHashCode(callSuper = true)
+@ToString(callSuper = true, onlyExplicitlyIncluded = true)
+public class OutboxEntry extends BaseEntity {
+
+  // the server is needed whenever the entry is delivered, also outside of any session
+  @ManyToOne(fetch = FetchType.EAGER)
+  @JoinColumn(name = "serverId", nullable = false)
+  private Server server;
+
+  @Column
+  @ToString.Include
+  private String dataSet;
+
+  @Column
+  @ToString.Include
+  private String period;
+
+  @Column(nullable = false, columnDefinition = "text")
+  private String payload;
+
+  @Column(nullable = false)
+  @ToString.Include
+  private int attempts;
+
+  @Column(columnDefinition = "text")
+  private String lastError;
+
+  @Column(nullable = false)
+  private ZonedDateTime createdDate;
+
+  @Column(nullable = false)
+  @ToString.Include
+  private ZonedDateTime nextAttemptDate;
+
+  // DHIS2 job importing the payload asynchronously, kept while the outcome of the job is unknown
+  @Column
+  @ToString.Include
+  private String jobId;
+
+}
@@ -15,6 +15,7 @@
 
 package org.openlmis.integration.dhis2.dto.dhis;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import java.math.BigDecimal;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
@@ -25,7 +26,8 @@ import lombok.ToString;
 /**
  * Objects of this class represent data sent to the DHIS2 API.
  * Data Value is the single recorded value of Data Element. It is described by at least three
- * dimensions: data element, organisation unit and period.
+ * dimensions: data element, organisation unit and period. Organisation unit and period may be
+ * left empty when they are already given on the enclosing {@link DataValueSet}.
  * @see <a href="https://docs.dhis2.org/">DHIS2 Documentation</a>
  */
 @AllArgsConstructor
@@ -33,10 +35,13 @@ import lombok.ToString;
 @Getter
 @Setter
 @ToString
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class DataValue {
 
   private String dataElement;
   private String categoryOptionCombo;
+  private String orgUnit;
+  private String period;
   private BigDecimal value;
 
 }
\ No newline at end of file
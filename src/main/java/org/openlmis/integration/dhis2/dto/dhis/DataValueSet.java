@@ -15,6 +15,7 @@
 
 package org.openlmis.integration.dhis2.dto.dhis;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import java.util.List;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
@@ -24,7 +25,8 @@ import lombok.ToString;
 
 /**
  * Objects of this class represent data sent to the DHIS2 API.
- * Data value set is the collection of {@link DataValue}.
+ * Data value set is the collection of {@link DataValue}. A set without organisation unit can
+ * carry values of many organisation units at once, each value naming its own.
  * @see <a href="https://docs.dhis2.org/">DHIS2 Documentation</a>
  */
 @AllArgsConstructor
@@ -32,6 +34,7 @@ import lombok.ToString;
 @Getter
 @Setter
 @ToString
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class DataValueSet {
 
   private String dataSet;
@@ -15,6 +15,7 @@
 
 package org.openlmis.integration.dhis2.dto.dhis;
 
+import java.util.List;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
@@ -26,5 +27,11 @@ public class DhisResponseBodyDetails {
 
   private String status;
   private String description;
+  private DhisImportCount importCount;
+  private List<DhisImportConflict> conflicts;
+
+  // set only when the import runs asynchronously, identifies the DHIS2 job processing it
+  private String id;
+  private String jobType;
 
 }
@@ -0,0 +1,46 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+
+package org.openlmis.integration.dhis2.exception;
+
+/**
+ * Thrown when the outcome of an asynchronous import is not known yet, because the import has
+ * not finished in time or its status could not be read. The import may still succeed, so it
+ * has to be checked again later instead of being started once more.
+ */
+public class ImportPendingException extends RestOperationException {
+
+  public ImportPendingException(String messageKey, Throwable cause) {
+    super(messageKey, cause);
+  }
+
+  public ImportPendingException(String messageKey) {
+    super(messageKey);
+  }
+
+  /**
+   * Checks whether the given error, or any of its causes, is a pending import.
+   */
+  public static boolean isPending(Throwable error) {
+    for (Throwable current = error; current != null; current = current.getCause()) {
+      if (current instanceof ImportPendingException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+}
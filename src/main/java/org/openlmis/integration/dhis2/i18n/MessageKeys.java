@@ -32,6 +32,7 @@ public abstract class MessageKeys {
   private static final String PERIOD_MAPPING = "periodMapping";
   private static final String PERIOD_TYPE = "periodType";
   private static final String JAVERS = "javers";
+  private static final String EXPORT_RUN = "exportRun";
 
   private static final String ID = "id";
   private static final String CODE = "code";
@@ -41,12 +42,14 @@ public abstract class MessageKeys {
   private static final String CONNECTION = "connection";
   private static final String BODY = "body";
   private static final String CLIENT = "client";
+  private static final String IMPORT = "import";
 
   private static final String MISMATCH = "mismatch";
   private static final String NOT_FOUND = "notFound";
   private static final String DUPLICATED = "duplicated";
   private static final String EXTERNAL = "external";
   private static final String FAILED = "failed";
+  private static final String TIMED_OUT = "timedOut";
   private static final String UNABLE_TO_PARSE = "unableToParse";
   private static final String ENUMERATOR = "enumerator";
   private static final String NOT_EXIST = "notExist";
@@ -64,6 +67,10 @@ public abstract class MessageKeys {
           join(ERROR_EXTERNAL_API, CONNECTION, FAILED);
   public static final String ERROR_EXTERNAL_API_CLIENT_REQUEST_FAILED =
           join(ERROR_EXTERNAL_API, CLIENT, REQUEST, FAILED);
+  public static final String ERROR_EXTERNAL_API_IMPORT_FAILED =
+          join(ERROR_EXTERNAL_API, IMPORT, FAILED);
+  public static final String ERROR_EXTERNAL_API_IMPORT_TIMED_OUT =
+          join(ERROR_EXTERNAL_API, IMPORT, TIMED_OUT);
 
   public static final String ERROR_DATASET_NOT_FOUND = join(ERROR_PREFIX, DATASET, NOT_FOUND);
   public static final String ERROR_DATASET_ID_MISMATCH = join(ERROR_PREFIX, DATASET, ID, MISMATCH);
@@ -88,6 +95,9 @@ public abstract class MessageKeys {
   public static final String ERROR_PERIOD_TYPE_NOT_FOUND = join(ERROR_PREFIX, PERIOD_TYPE,
           NOT_FOUND);
 
+  public static final String ERROR_EXPORT_RUN_NOT_FOUND = join(ERROR_PREFIX, EXPORT_RUN,
+          NOT_FOUND);
+
   public static final String ERROR_ENUMERATOR_NOT_EXIST =
           join(ERROR_PREFIX, ENUMERATOR, NOT_EXIST);
 
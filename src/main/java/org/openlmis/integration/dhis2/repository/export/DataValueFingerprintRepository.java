@@ -0,0 +1,93 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+
+package org.openlmis.integration.dhis2.repository.export;
+
+import java.sql.Timestamp;
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import org.openlmis.integration.dhis2.domain.export.DataValueFingerprint;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Stores fingerprints of the values acknowledged by DHIS2 servers. Fingerprints are written in
+ * batches with an upsert, so concurrent exports of the same values do not conflict.
+ */
+@Repository
+public class DataValueFingerprintRepository {
+
+  private static final String SELECT_QUERY = "SELECT dataset, period, orgunit, dataelement,"
+      + " categoryoptioncombo, fingerprint\n"
+      + "FROM dhis2.data_value_fingerprint\n"
+      + "WHERE serverid = :serverId AND dataset = :dataSet AND period IN (:periods)";
+
+  private static final String UPSERT_QUERY = "INSERT INTO dhis2.data_value_fingerprint"
+      + " (serverid, dataset, period, orgunit, dataelement, categoryoptioncombo, fingerprint,"
+      + " acknowledgeddate)\n"
+      + "VALUES (:serverId, :dataSet, :period, :orgUnit, :dataElement, :categoryOptionCombo,"
+      + " :fingerprint, :acknowledgedDate)\n"
+      + "ON CONFLICT (serverid, dataset, period, orgunit, dataelement, categoryoptioncombo)\n"
+      + "DO UPDATE SET fingerprint = EXCLUDED.fingerprint,"
+      + " acknowledgeddate = EXCLUDED.acknowledgeddate";
+
+  @Autowired
+  private NamedParameterJdbcTemplate jdbcTemplate;
+
+  /**
+   * Retrieves fingerprints of all values of the given data set and periods.
+   */
+  public List<DataValueFingerprint> findByServerAndDataSet(UUID serverId, String dataSet,
+                                                           Collection<String> periods) {
+    MapSqlParameterSource parameters = new MapSqlParameterSource()
+        .addValue("serverId", serverId)
+        .addValue("dataSet", dataSet)
+        .addValue("periods", periods);
+
+    return jdbcTemplate.query(SELECT_QUERY, parameters, (rs, rowNum) -> new DataValueFingerprint(
+        rs.getString("dataset"), rs.getString("period"), rs.getString("orgunit"),
+        rs.getString("dataelement"), rs.getString("categoryoptioncombo"),
+        rs.getString("fingerprint")));
+  }
+
+  /**
+   * Inserts the given fingerprints or replaces the ones stored for the same values.
+   */
+  public void saveAll(UUID serverId, Collection<DataValueFingerprint> fingerprints,
+                      ZonedDateTime acknowledgedDate) {
+    Timestamp timestamp = Timestamp.from(acknowledgedDate.toInstant());
+
+    SqlParameterSource[] batch = fingerprints.stream()
+        .map(fingerprint -> new MapSqlParameterSource()
+            .addValue("serverId", serverId)
+            .addValue("dataSet", fingerprint.getDataSet())
+            .addValue("period", fingerprint.getPeriod())
+            .addValue("orgUnit", fingerprint.getOrgUnit())
+            .addValue("dataElement", fingerprint.getDataElement())
+            .addValue("categoryOptionCombo", fingerprint.getCategoryOptionCombo())
+            .addValue("fingerprint", fingerprint.getFingerprint())
+            .addValue("acknowledgedDate", timestamp))
+        .toArray(SqlParameterSource[]::new);
+
+    jdbcTemplate.batchUpdate(UPSERT_QUERY, batch);
+  }
+
+}
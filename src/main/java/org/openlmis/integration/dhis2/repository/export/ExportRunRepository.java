@@ -0,0 +1,254 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+
+package org.openlmis.integration.dhis2.repository.export;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.openlmis.integration.dhis2.domain.export.ExportRun;
+import org.openlmis.integration.dhis2.domain.export.ExportRunConflict;
+import org.openlmis.integration.dhis2.domain.export.ExportRunItem;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Stores outcomes of export runs. A run is stored when it starts and replaced once it is
+ * finished. Items and conflicts of a run are written in batches, as a run may consist of
+ * thousands of payloads.
+ */
+@Repository
+@SuppressWarnings("PMD.AvoidDuplicateLiterals")
+public class ExportRunRepository {
+
+  private static final String UPSERT_RUN_QUERY = "INSERT INTO dhis2.export_run"
+      + " (id, status, startdate, enddate, schedules, failedschedules, requests, failedrequests,"
+      + " datavalues, skippeddatavalues, imported, updated, ignored)\n"
+      + "VALUES (:id, :status, :startDate, :endDate, :schedules, :failedSchedules, :requests,"
+      + " :failedRequests, :dataValues, :skippedDataValues, :imported, :updated, :ignored)\n"
+      + "ON CONFLICT (id)\n"
+      + "DO UPDATE SET status = EXCLUDED.status, enddate = EXCLUDED.enddate,"
+      + " schedules = EXCLUDED.schedules, failedschedules = EXCLUDED.failedschedules,"
+      + " requests = EXCLUDED.requests, failedrequests = EXCLUDED.failedrequests,"
+      + " datavalues = EXCLUDED.datavalues, skippeddatavalues = EXCLUDED.skippeddatavalues,"
+      + " imported = EXCLUDED.imported, updated = EXCLUDED.updated,"
+      + " ignored = EXCLUDED.ignored";
+
+  private static final String INSERT_ITEM_QUERY = "INSERT INTO dhis2.export_run_item"
+      + " (id, runid, serverid, dataset, period, status, datavalues, imported, updated, ignored,"
+      + " deleted, error)\n"
+      + "VALUES (:id, :runId, :serverId, :dataSet, :period, :status, :dataValues, :imported,"
+      + " :updated, :ignored, :deleted, :error)";
+
+  private static final String INSERT_CONFLICT_QUERY = "INSERT INTO dhis2.export_run_conflict"
+      + " (itemid, object, value, errorcode, period, orgunit, dataelement, categoryoptioncombo)\n"
+      + "VALUES (:itemId, :object, :value, :errorCode, :period, :orgUnit, :dataElement,"
+      + " :categoryOptionCombo)";
+
+  private static final String RUN_COLUMNS = "id, status, startdate, enddate, schedules,"
+      + " failedschedules, requests, failedrequests, datavalues, skippeddatavalues, imported,"
+      + " updated, ignored";
+
+  private static final String SELECT_RUN_QUERY = "SELECT " + RUN_COLUMNS + "\n"
+      + "FROM dhis2.export_run\n"
+      + "WHERE id = :id";
+
+  private static final String SELECT_RUNS_QUERY = "SELECT " + RUN_COLUMNS + "\n"
+      + "FROM dhis2.export_run\n"
+      + "ORDER BY startdate DESC\n"
+      + "LIMIT :limit OFFSET :offset";
+
+  private static final String COUNT_RUNS_QUERY = "SELECT COUNT(*) FROM dhis2.export_run";
+
+  private static final String SELECT_ITEMS_QUERY = "SELECT id, serverid, dataset, period,"
+      + " status, datavalues, imported, updated, ignored, deleted, error\n"
+      + "FROM dhis2.export_run_item\n"
+      + "WHERE runid = :runId\n"
+      + "ORDER BY dataset, period, id\n"
+      + "LIMIT :limit OFFSET :offset";
+
+  private static final String COUNT_ITEMS_QUERY = "SELECT COUNT(*) FROM dhis2.export_run_item"
+      + " WHERE runid = :runId";
+
+  private static final String SELECT_CONFLICTS_QUERY = "SELECT itemid, object, value,"
+      + " errorcode, period, orgunit, dataelement, categoryoptioncombo\n"
+      + "FROM dhis2.export_run_conflict\n"
+      + "WHERE itemid IN (:itemIds)";
+
+  @Autowired
+  private NamedParameterJdbcTemplate jdbcTemplate;
+
+  /**
+   * Inserts the given run or replaces the one stored with the same id. The given items and
+   * their conflicts are added to the ones stored already, all in a single transaction.
+   */
+  @Transactional
+  public void save(ExportRun run, Collection<ExportRunItem> items) {
+    jdbcTemplate.update(UPSERT_RUN_QUERY, new MapSqlParameterSource()
+        .addValue("id", run.getId())
+        .addValue("status", run.getStatus())
+        .addValue("startDate", toTimestamp(run.getStartDate()))
+        .addValue("endDate", toTimestamp(run.getEndDate()))
+        .addValue("schedules", run.getSchedules())
+        .addValue("failedSchedules", run.getFailedSchedules())
+        .addValue("requests", run.getRequests())
+        .addValue("failedRequests", run.getFailedRequests())
+        .addValue("dataValues", run.getDataValues())
+        .addValue("skippedDataValues", run.getSkippedDataValues())
+        .addValue("imported", run.getImported())
+        .addValue("updated", run.getUpdated())
+        .addValue("ignored", run.getIgnored()));
+
+    SqlParameterSource[] itemBatch = items.stream()
+        .map(item -> new MapSqlParameterSource()
+            .addValue("id", item.getId())
+            .addValue("runId", run.getId())
+            .addValue("serverId", item.getServerId())
+            .addValue("dataSet", item.getDataSet())
+            .addValue("period", item.getPeriod())
+            .addValue("status", item.getStatus())
+            .addValue("dataValues", item.getDataValues())
+            .addValue("imported", item.getImported())
+            .addValue("updated", item.getUpdated())
+            .addValue("ignored", item.getIgnored())
+            .addValue("deleted", item.getDeleted())
+            .addValue("error", item.getError()))
+        .toArray(SqlParameterSource[]::new);
+
+    SqlParameterSource[] conflictBatch = items.stream()
+        .flatMap(item -> item.getConflicts().stream()
+            .map(conflict -> new MapSqlParameterSource()
+                .addValue("itemId", item.getId())
+                .addValue("object", conflict.getObject())
+                .addValue("value", conflict.getValue())
+                .addValue("errorCode", conflict.getErrorCode())
+                .addValue("period", conflict.getPeriod())
+                .addValue("orgUnit", conflict.getOrgUnit())
+                .addValue("dataElement", conflict.getDataElement())
+                .addValue("categoryOptionCombo", conflict.getCategoryOptionCombo())))
+        .toArray(SqlParameterSource[]::new);
+
+    if (itemBatch.length > 0) {
+      jdbcTemplate.batchUpdate(INSERT_ITEM_QUERY, itemBatch);
+    }
+    if (conflictBatch.length > 0) {
+      jdbcTemplate.batchUpdate(INSERT_CONFLICT_QUERY, conflictBatch);
+    }
+  }
+
+  /**
+   * Retrieves the run with the given id.
+   */
+  public Optional<ExportRun> findById(UUID id) {
+    return jdbcTemplate
+        .query(SELECT_RUN_QUERY, new MapSqlParameterSource("id", id),
+            (rs, rowNum) -> toRun(rs))
+        .stream()
+        .findFirst();
+  }
+
+  /**
+   * Retrieves the given page of runs, the latest ones first.
+   */
+  public List<ExportRun> findAll(long offset, int limit) {
+    MapSqlParameterSource parameters = new MapSqlParameterSource()
+        .addValue("offset", offset)
+        .addValue("limit", limit);
+
+    return jdbcTemplate.query(SELECT_RUNS_QUERY, parameters, (rs, rowNum) -> toRun(rs));
+  }
+
+  /**
+   * Counts all stored runs.
+   */
+  public long count() {
+    return jdbcTemplate.queryForObject(COUNT_RUNS_QUERY, new MapSqlParameterSource(),
+        Long.class);
+  }
+
+  /**
+   * Retrieves the given page of items of a run, together with their conflicts.
+   */
+  public List<ExportRunItem> findItems(UUID runId, long offset, int limit) {
+    MapSqlParameterSource parameters = new MapSqlParameterSource()
+        .addValue("runId", runId)
+        .addValue("offset", offset)
+        .addValue("limit", limit);
+
+    List<ExportRunItem> items = jdbcTemplate.query(SELECT_ITEMS_QUERY, parameters,
+        (rs, rowNum) -> new ExportRunItem(rs.getObject("id", UUID.class),
+            rs.getObject("serverid", UUID.class), rs.getString("dataset"),
+            rs.getString("period"), rs.getString("status"), rs.getInt("datavalues"),
+            rs.getInt("imported"), rs.getInt("updated"), rs.getInt("ignored"),
+            rs.getInt("deleted"), rs.getString("error"), new ArrayList<>()));
+
+    if (!items.isEmpty()) {
+      Map<UUID, ExportRunItem> byId = items.stream()
+          .collect(Collectors.toMap(ExportRunItem::getId, Function.identity()));
+
+      jdbcTemplate.query(SELECT_CONFLICTS_QUERY,
+          new MapSqlParameterSource("itemIds", byId.keySet()),
+          rs -> {
+            byId.get(rs.getObject("itemid", UUID.class)).getConflicts()
+                .add(new ExportRunConflict(rs.getString("object"), rs.getString("value"),
+                    rs.getString("errorcode"), rs.getString("period"), rs.getString("orgunit"),
+                    rs.getString("dataelement"), rs.getString("categoryoptioncombo")));
+          });
+    }
+
+    return items;
+  }
+
+  /**
+   * Counts items of the given run.
+   */
+  public long countItems(UUID runId) {
+    return jdbcTemplate.queryForObject(COUNT_ITEMS_QUERY,
+        new MapSqlParameterSource("runId", runId), Long.class);
+  }
+
+  private static ExportRun toRun(ResultSet rs) throws SQLException {
+    return new ExportRun(rs.getObject("id", UUID.class), rs.getString("status"),
+        toZonedDateTime(rs.getTimestamp("startdate")),
+        toZonedDateTime(rs.getTimestamp("enddate")),
+        rs.getInt("schedules"), rs.getInt("failedschedules"), rs.getInt("requests"),
+        rs.getInt("failedrequests"), rs.getInt("datavalues"), rs.getInt("skippeddatavalues"),
+        rs.getInt("imported"), rs.getInt("updated"), rs.getInt("ignored"));
+  }
+
+  private static Timestamp toTimestamp(ZonedDateTime date) {
+    return date == null ? null : Timestamp.from(date.toInstant());
+  }
+
+  private static ZonedDateTime toZonedDateTime(Timestamp timestamp) {
+    return timestamp == null ? null : timestamp.toInstant().atZone(ZoneOffset.UTC);
+  }
+
+}
@@ -15,6 +15,8 @@
 
 package org.openlmis.integration.dhis2.repository.facility;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 import org.javers.spring.annotation.JaversSpringDataAuditable;
@@ -27,6 +29,7 @@ import org.springframework.data.repository.PagingAndSortingRepository;
 import org.springframework.data.repository.query.Param;
 
 @JaversSpringDataAuditable
+@SuppressWarnings("PMD.AvoidDuplicateLiterals")
 public interface SharedFacilityRepository extends PagingAndSortingRepository<SharedFacility, UUID>,
         BaseAuditableRepository<SharedFacility, UUID> {
 
@@ -52,4 +55,32 @@ public interface SharedFacilityRepository extends PagingAndSortingRepository<Sha
   Optional<SharedFacility> findByCodeAndServerId(@Param("code") String code,
                                                  @Param("serverid") UUID serverid);
 
+  @Query(value = "SELECT f.* FROM dhis2.shared_facility f\n"
+          + "WHERE f.serverid = :serverid", nativeQuery = true)
+  List<SharedFacility> findByServerId(@Param("serverid") UUID serverid);
+
+  @Query(value = "SELECT f.code AS \"code\", f.orgunitid AS \"orgUnitId\"\n"
+          + "FROM dhis2.shared_facility f\n"
+          + "WHERE f.serverid = :serverid\n"
+          + "ORDER BY f.code", nativeQuery = true)
+  List<OrgUnit> findOrgUnitsByServerId(@Param("serverid") UUID serverid);
+
+  @Query(value = "SELECT f.code AS \"code\", f.orgunitid AS \"orgUnitId\"\n"
+          + "FROM dhis2.shared_facility f\n"
+          + "WHERE f.serverid = :serverid AND f.code IN (:codes)\n"
+          + "ORDER BY f.code", nativeQuery = true)
+  List<OrgUnit> findOrgUnitsByServerIdAndCodeIn(@Param("serverid") UUID serverid,
+                                                @Param("codes") Collection<String> codes);
+
+  /**
+   * Code and DHIS2 organisation unit of a shared facility, read without loading the entity.
+   */
+  interface OrgUnit {
+
+    String getCode();
+
+    String getOrgUnitId();
+
+  }
+
 }
@@ -15,10 +15,11 @@
 
 package org.openlmis.integration.dhis2.repository.indicator;
 
-import javax.persistence.EntityManager;
-import javax.persistence.PersistenceContext;
-import javax.persistence.Query;
-import org.springframework.data.repository.query.Param;
+import java.util.Map;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Repository;
 
 @Repository
@@ -27,33 +28,48 @@ public class CceRepository {
   static final String STATUS = "status";
   static final String UTILIZATION = "utilization";
 
-  @PersistenceContext
-  EntityManager entityManager;
+  @Autowired
+  @Qualifier("indicatorJdbcTemplate")
+  private NamedParameterJdbcTemplate jdbcTemplate;
 
   /**
-   * Retrieves CCE count for a given status.
+   * Retrieves CCE counts for a given status of all facilities in one pass. Facilities without
+   * any such item are not present in the result.
+   *
+   * @return map of facility code to count
    */
-  public Long findCceCountByStatus(@Param(STATUS) String status) {
-    Query query = entityManager.createNativeQuery(
-            "SELECT COUNT(inventory.functionalstatus) FROM "
-                    + "cce.cce_inventory_items AS inventory "
-                    + "WHERE functionalstatus = :status");
-
-    return Long.parseLong(query.setParameter(status, status)
-            .getSingleResult().toString());
+  public Map<String, Long> findCceCountsByStatus(String status) {
+    return findCceCountsByFacility("functionalstatus", STATUS, status);
   }
 
   /**
-   * Retrieves CCE count for a given utilization.
+   * Retrieves CCE counts for a given utilization of all facilities in one pass. Facilities
+   * without any such item are not present in the result.
+   *
+   * @return map of facility code to count
    */
-  public Long findCceCountByUtilization(@Param(UTILIZATION) String utilization) {
-    Query query = entityManager.createNativeQuery(
-            "SELECT COUNT(inventory.utilization) FROM "
-                    + "cce.cce_inventory_items AS inventory "
-                    + "WHERE utilization = :utilization");
-
-    return Long.parseLong(query.setParameter(utilization, utilization)
-            .getSingleResult().toString());
+  public Map<String, Long> findCceCountsByUtilization(String utilization) {
+    return findCceCountsByFacility("utilization", UTILIZATION, utilization);
+  }
+
+  /**
+   * Counts items with the given value of the given column per facility. The column name is
+   * never user input.
+   */
+  private Map<String, Long> findCceCountsByFacility(String column, String parameter,
+                                                    String value) {
+    String sql = "SELECT facilities.code, COUNT(*) "
+        + "FROM cce.cce_inventory_items AS inventory "
+        + "JOIN referencedata.facilities AS facilities "
+        + "ON facilities.id = inventory.facilityid "
+        + "WHERE inventory." + column + " = :" + parameter + " "
+        + "GROUP BY facilities.code";
+
+    MapSqlParameterSource parameters = new MapSqlParameterSource()
+        .addValue(parameter, value);
+
+    return IndicatorQueryResults.toLongValues(
+        jdbcTemplate.query(sql, parameters, IndicatorQueryResults::toRow));
   }
 
 }
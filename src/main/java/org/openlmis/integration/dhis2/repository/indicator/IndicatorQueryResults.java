@@ -0,0 +1,73 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.integration.dhis2.repository.indicator;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+final class IndicatorQueryResults {
+
+  private IndicatorQueryResults() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Reads a row of (facility code, value) in the same form as a native query returns it.
+   */
+  static Object[] toRow(ResultSet resultSet, int rowNum) throws SQLException {
+    return new Object[]{resultSet.getString(1), resultSet.getObject(2)};
+  }
+
+  /**
+   * Converts the given date to the form Hibernate binds dates in, a timestamp in UTC.
+   */
+  static LocalDateTime toUtc(ZonedDateTime date) {
+    return date.withZoneSameInstant(ZoneOffset.UTC).toLocalDateTime();
+  }
+
+  /**
+   * Converts rows of (facility code, value) returned by a native query into a map.
+   */
+  static Map<String, Long> toLongValues(List<?> rows) {
+    return toValues(rows, value -> Long.parseLong(value.toString()));
+  }
+
+  /**
+   * Converts rows of (facility code, value) returned by a native query into a map.
+   */
+  static Map<String, Double> toDoubleValues(List<?> rows) {
+    return toValues(rows, value -> Double.parseDouble(value.toString()));
+  }
+
+  private static <T> Map<String, T> toValues(List<?> rows, Function<Object, T> parser) {
+    Map<String, T> values = new HashMap<>();
+
+    for (Object row : rows) {
+      Object[] columns = (Object[]) row;
+      values.put(columns[0].toString(), parser.apply(columns[1]));
+    }
+
+    return values;
+  }
+
+}
@@ -0,0 +1,52 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+
+package org.openlmis.integration.dhis2.repository.indicator;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Keeps the latest version of every orderable in the dhis2 schema, so indicator queries can
+ * join it directly instead of looking for the maximum version number of each line item.
+ */
+@Repository
+public class LatestOrderableRepository {
+
+  @PersistenceContext
+  EntityManager entityManager;
+
+  /**
+   * Replaces the stored orderables with the latest versions from referencedata. Queries running
+   * at the same time keep seeing the previous content until the refresh is committed.
+   *
+   * @return number of stored orderables
+   */
+  @Transactional
+  public int refresh() {
+    entityManager.createNativeQuery("DELETE FROM dhis2.latest_orderable").executeUpdate();
+
+    return entityManager.createNativeQuery(
+            "INSERT INTO dhis2.latest_orderable (id, versionnumber, fullproductname) "
+                    + "SELECT DISTINCT ON (id) id, versionnumber, fullproductname "
+                    + "FROM referencedata.orderables "
+                    + "ORDER BY id, versionnumber DESC")
+        .executeUpdate();
+  }
+
+}
@@ -16,130 +16,91 @@
 package org.openlmis.integration.dhis2.repository.indicator;
 
 import java.time.ZonedDateTime;
-import javax.persistence.EntityManager;
-import javax.persistence.PersistenceContext;
-import javax.persistence.Query;
-import org.springframework.data.repository.query.Param;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Repository;
 
 @Repository
+@SuppressWarnings("PMD.AvoidDuplicateLiterals")
 public class RequisitionRepository {
 
   static final String START_DATE = "startDate";
-  static final String END_DATE = "endDate";
   static final String ORDERABLE = "orderable";
-  static final String FACILITY = "facility";
+  static final String FACILITIES = "facilities";
 
-  @PersistenceContext
-  EntityManager entityManager;
+  @Autowired
+  @Qualifier("indicatorJdbcTemplate")
+  private NamedParameterJdbcTemplate jdbcTemplate;
 
   /**
-   * Retrieves opening balance from requisition for a given period.
+   * Retrieves opening balances from requisition for a given period and all given facilities at
+   * once. Facilities without a requisition for the period are not present in the result.
+   *
+   * @return map of facility code to opening balance
    */
-  public Long findOpeningBalance(@Param(START_DATE) ZonedDateTime startDate,
-                                   @Param(ORDERABLE) String orderable,
-                                   @Param(FACILITY) String facility) {
-    Query query = entityManager.createNativeQuery(
-            "select bb from ( "
-                    + "(SELECT line_items.beginningbalance AS bb, pp.enddate as cd "
-                    + "FROM requisition.requisition_line_items AS line_items "
-                    + "JOIN referencedata.orderables AS products "
-                    + "ON line_items.orderableid = products.id "
-                    + "JOIN requisition.requisitions AS req ON line_items.requisitionid = req.id "
-                    + "JOIN referencedata.facilities AS facilities "
-                    + "ON facilities.id = req.facilityid "
-                    + "join referencedata.processing_periods pp "
-                    + "on pp.id = req.processingperiodid "
-                    + "WHERE products.versionnumber = "
-                    + "(SELECT MAX(versionnumber) FROM referencedata.orderables o2 "
-                    + "WHERE o2.id = products.id) "
-                    + "AND line_items.beginningbalance NOTNULL "
-                    + "AND pp.startdate = :startDate "
-                    + "AND products.fullproductname = :orderable "
-                    + "AND facilities.code = :facility "
-                    + ") UNION ( "
-                    + "select 0 as bb, '1900-01-01' as cd "
-                    + ") "
-                    + "ORDER BY cd desc "
-                    + "LIMIT 1 "
-                    + ") as result;");
-
-    return Long.parseLong(query.setParameter(START_DATE, startDate.toLocalDate())
-            .setParameter(ORDERABLE, orderable)
-            .setParameter(FACILITY, facility)
-            .getSingleResult().toString());
+  public Map<String, Long> findOpeningBalances(ZonedDateTime startDate, String orderable,
+                                               Collection<String> facilities) {
+    return IndicatorQueryResults.toLongValues(
+            findLatestLineItemValues("beginningbalance", startDate, orderable, facilities));
   }
 
   /**
-   * Retrieves closing balance from requisition for a given period.
+   * Retrieves closing balances from requisition for a given period and all given facilities at
+   * once. Facilities without a requisition for the period are not present in the result.
+   *
+   * @return map of facility code to closing balance
    */
-  public Long findClosingBalance(@Param(START_DATE) ZonedDateTime startDate,
-                                   @Param(ORDERABLE) String orderable,
-                                   @Param(FACILITY) String facility) {
-    Query query = entityManager.createNativeQuery(
-            "select soh from ( "
-                    + "(SELECT line_items.stockonhand AS soh, pp.enddate as cd "
-                    + "FROM requisition.requisition_line_items AS line_items "
-                    + "JOIN referencedata.orderables AS products "
-                    + "ON line_items.orderableid = products.id "
-                    + "JOIN requisition.requisitions AS req ON line_items.requisitionid = req.id "
-                    + "JOIN referencedata.facilities AS facilities "
-                    + "ON facilities.id = req.facilityid "
-                    + "join referencedata.processing_periods pp "
-                    + "on pp.id = req.processingperiodid "
-                    + "WHERE products.versionnumber = "
-                    + "(SELECT MAX(versionnumber) FROM referencedata.orderables o2 "
-                    + "WHERE o2.id = products.id) "
-                    + "AND line_items.stockonhand NOTNULL "
-                    + "AND pp.startdate = :startDate "
-                    + "AND products.fullproductname = :orderable "
-                    + "AND facilities.code = :facility) UNION ( "
-                    + "    select 0 as soh, '1900-01-01' as cd "
-                    + ") "
-                    + "ORDER BY cd desc "
-                    + "LIMIT 1 "
-                    + ") as result;");
+  public Map<String, Long> findClosingBalances(ZonedDateTime startDate, String orderable,
+                                               Collection<String> facilities) {
+    return IndicatorQueryResults.toLongValues(
+            findLatestLineItemValues("stockonhand", startDate, orderable, facilities));
+  }
 
-    return Long.parseLong(query.setParameter(START_DATE, startDate.toLocalDate())
-            .setParameter(ORDERABLE, orderable)
-            .setParameter(FACILITY, facility)
-            .getSingleResult().toString());
+  /**
+   * Retrieves received amounts of products from requisition for a given period and all given
+   * facilities at once. Facilities without a requisition for the period are not present in the
+   * result.
+   *
+   * @return map of facility code to received quantity
+   */
+  public Map<String, Double> findReceivedQuantities(ZonedDateTime startDate, String orderable,
+                                                    Collection<String> facilities) {
+    return IndicatorQueryResults.toDoubleValues(
+            findLatestLineItemValues("totalreceivedquantity", startDate, orderable, facilities));
   }
 
   /**
-   * Retrieves received amount of products from requisition for a given period.
+   * Picks, per facility, the given line item column of the requisition with the latest period
+   * end date. The column name is never user input.
    */
-  public Double findReceived(@Param(START_DATE) ZonedDateTime startDate,
-                                   @Param(ORDERABLE) String orderable,
-                                   @Param(FACILITY) String facility) {
-    Query query = entityManager.createNativeQuery(
-            "select received from ( "
-                    + "(SELECT line_items.totalreceivedquantity AS received, pp.enddate as cd "
-                    + "FROM requisition.requisition_line_items AS line_items "
-                    + "JOIN referencedata.orderables AS products "
-                    + "ON line_items.orderableid = products.id "
-                    + "JOIN requisition.requisitions AS req ON line_items.requisitionid = req.id "
-                    + "JOIN referencedata.facilities AS facilities "
-                    + "ON facilities.id = req.facilityid "
-                    + "join referencedata.processing_periods pp "
-                    + "on pp.id = req.processingperiodid "
-                    + "WHERE products.versionnumber = "
-                    + "(SELECT MAX(versionnumber) FROM referencedata.orderables o2 "
-                    + "WHERE o2.id = products.id) "
-                    + "AND line_items.totalreceivedquantity NOTNULL "
-                    + "AND pp.startdate = :startDate "
-                    + "AND products.fullproductname = :orderable "
-                    + "AND facilities.code = :facility) UNION ( "
-                    + "    select 0 as received, '1900-01-01' as cd "
-                    + ") "
-                    + "ORDER BY cd desc "
-                    + "LIMIT 1 "
-                    + ") as result;");
+  private List<Object[]> findLatestLineItemValues(String column, ZonedDateTime startDate,
+                                           String orderable, Collection<String> facilities) {
+    String sql = "SELECT DISTINCT ON (facilities.code) facilities.code, line_items." + column + " "
+        + "FROM requisition.requisition_line_items AS line_items "
+        + "JOIN dhis2.latest_orderable AS products "
+        + "ON line_items.orderableid = products.id "
+        + "JOIN requisition.requisitions AS req ON line_items.requisitionid = req.id "
+        + "JOIN referencedata.facilities AS facilities "
+        + "ON facilities.id = req.facilityid "
+        + "JOIN referencedata.processing_periods pp "
+        + "ON pp.id = req.processingperiodid "
+        + "WHERE line_items." + column + " NOTNULL "
+        + "AND pp.startdate = :startDate "
+        + "AND products.fullproductname = :orderable "
+        + "AND facilities.code IN (:facilities) "
+        + "ORDER BY facilities.code, pp.enddate DESC";
+
+    MapSqlParameterSource parameters = new MapSqlParameterSource()
+        .addValue(START_DATE, startDate.toLocalDate())
+        .addValue(ORDERABLE, orderable)
+        .addValue(FACILITIES, facilities);
 
-    return Double.parseDouble(query.setParameter(START_DATE, startDate.toLocalDate())
-            .setParameter(ORDERABLE, orderable)
-            .setParameter(FACILITY, facility)
-            .getSingleResult().toString());
+    return jdbcTemplate.query(sql, parameters, IndicatorQueryResults::toRow);
   }
 
 }
@@ -0,0 +1,254 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.integration.dhis2.repository.indicator;
+
+import static org.openlmis.integration.dhis2.repository.indicator.IndicatorQueryResults.toUtc;
+
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Keeps running totals of stock card line items per facility, orderable, reason and period.
+ * Each period has a watermark, the latest processed date of the line items folded into its
+ * totals. Stock card line items are never modified, so only the newer ones have to be read
+ * when the totals are brought up to date. Line items are read from the indicator database,
+ * the totals are kept in the main one.
+ */
+@Repository
+@SuppressWarnings("PMD.AvoidDuplicateLiterals")
+public class StockLineItemAggregateRepository {
+
+  static final String REASON_CATEGORY = "reasonCategory";
+  static final String REASON_TYPE = "reasonType";
+  static final String START_DATE = "startDate";
+  static final String END_DATE = "endDate";
+  static final String WATERMARK = "watermark";
+  static final String ORDERABLE = "orderable";
+  static final String FACILITIES = "facilities";
+  static final String FACILITY_ID = "facilityId";
+  static final String ORDERABLE_ID = "orderableId";
+  static final String QUANTITY = "quantity";
+  static final String CUTOFF = "cutoff";
+
+  private static final String LINE_ITEMS = "FROM stockmanagement.stock_card_line_items "
+      + "AS line_items "
+      + "JOIN stockmanagement.stock_cards AS cards "
+      + "ON line_items.stockcardid = cards.id "
+      + "JOIN stockmanagement.stock_card_line_item_reasons AS reasons "
+      + "ON reasons.id = line_items.reasonid "
+      + "WHERE reasons.reasoncategory = :reasonCategory "
+      + "AND reasons.reasontype = :reasonType "
+      + "AND line_items.occurreddate >= :startDate "
+      + "AND line_items.occurreddate < :endDate "
+      + "AND line_items.processeddate > :watermark ";
+
+  private static final String WATERMARK_CONDITION = "WHERE reasoncategory = :reasonCategory "
+      + "AND reasontype = :reasonType "
+      + "AND startdate = :startDate "
+      + "AND enddate = :endDate";
+
+  private static final String PRODUCTS_AND_FACILITIES = "JOIN dhis2.latest_orderable AS products "
+      + "ON totals.orderableid = products.id "
+      + "JOIN referencedata.facilities AS facilities "
+      + "ON facilities.id = totals.facilityid ";
+
+  private static final String PRODUCT_AND_FACILITY_CONDITION =
+      "products.fullproductname = :orderable "
+      + "AND facilities.code IN (:facilities) "
+      + "GROUP BY facilities.code";
+
+  @Autowired
+  private NamedParameterJdbcTemplate jdbcTemplate;
+
+  @Autowired
+  @Qualifier("indicatorJdbcTemplate")
+  private NamedParameterJdbcTemplate indicatorJdbcTemplate;
+
+  @Autowired
+  private Clock clock;
+
+  @Value("${dhis2.stockmanagement.retention}")
+  private long retention;
+
+  /**
+   * Folds line items processed since the last watermark of the given period into its totals.
+   * The new watermark is the latest processed date of the folded line items. Concurrent callers
+   * for the same period wait for each other, so no line item is counted twice.
+   *
+   * @return watermark of the totals, line items processed later are not included in them
+   */
+  @Transactional
+  public ZonedDateTime advance(String reasonCategory, String reasonType,
+                               ZonedDateTime startDate, ZonedDateTime endDate) {
+    jdbcTemplate.update("INSERT INTO dhis2.stock_line_item_watermark "
+            + "(reasoncategory, reasontype, startdate, enddate, processeddate) "
+            + "VALUES (:reasonCategory, :reasonType, :startDate, :endDate, "
+            + "TIMESTAMP WITH TIME ZONE 'epoch') "
+            + "ON CONFLICT DO NOTHING",
+        periodKey(reasonCategory, reasonType, startDate, endDate));
+
+    Timestamp watermark = jdbcTemplate.queryForObject(
+        "SELECT processeddate FROM dhis2.stock_line_item_watermark "
+            + WATERMARK_CONDITION + " FOR UPDATE",
+        periodKey(reasonCategory, reasonType, startDate, endDate), Timestamp.class);
+
+    List<SqlParameterSource> totals = new ArrayList<>();
+    Timestamp[] newWatermark = {watermark};
+    indicatorJdbcTemplate.query("SELECT cards.facilityid, cards.orderableid, "
+            + "SUM(line_items.quantity), MAX(line_items.processeddate) "
+            + LINE_ITEMS
+            + "GROUP BY cards.facilityid, cards.orderableid",
+        lineItems(reasonCategory, reasonType, startDate, endDate, watermark),
+        (ResultSet resultSet) -> {
+          totals.add(periodKey(reasonCategory, reasonType, startDate, endDate)
+              .addValue(FACILITY_ID, resultSet.getObject(1))
+              .addValue(ORDERABLE_ID, resultSet.getObject(2))
+              .addValue(QUANTITY, resultSet.getBigDecimal(3)));
+          Timestamp processed = resultSet.getTimestamp(4);
+          if (processed.after(newWatermark[0])) {
+            newWatermark[0] = processed;
+          }
+        });
+
+    if (totals.isEmpty()) {
+      return toZonedDateTime(watermark);
+    }
+
+    jdbcTemplate.batchUpdate("INSERT INTO dhis2.stock_line_item_aggregate "
+            + "(facilityid, orderableid, reasoncategory, reasontype, startdate, enddate, "
+            + "quantity) "
+            + "VALUES (:facilityId, :orderableId, :reasonCategory, :reasonType, :startDate, "
+            + ":endDate, :quantity) "
+            + "ON CONFLICT (reasoncategory, reasontype, startdate, enddate, facilityid, "
+            + "orderableid) DO UPDATE "
+            + "SET quantity = stock_line_item_aggregate.quantity + EXCLUDED.quantity",
+        totals.toArray(new SqlParameterSource[0]));
+
+    jdbcTemplate.update("UPDATE dhis2.stock_line_item_watermark SET processeddate = :watermark "
+            + WATERMARK_CONDITION,
+        periodKey(reasonCategory, reasonType, startDate, endDate)
+            .addValue(WATERMARK, newWatermark[0]));
+
+    return toZonedDateTime(newWatermark[0]);
+  }
+
+  /**
+   * Retrieves totals of the given period for all given facilities at once. Line items processed
+   * after the watermark are added to the stored totals directly.
+   *
+   * @return map of facility code to total quantity
+   */
+  public Map<String, Double> findQuantities(String reasonCategory, String reasonType,
+                                            ZonedDateTime startDate, ZonedDateTime endDate,
+                                            ZonedDateTime watermark, String orderable,
+                                            Collection<String> facilities) {
+    // the totals have just been written, so they are read from the main database
+    Map<String, Double> quantities = IndicatorQueryResults.toDoubleValues(jdbcTemplate.query(
+        "SELECT facilities.code, SUM(totals.quantity) "
+            + "FROM dhis2.stock_line_item_aggregate AS totals "
+            + PRODUCTS_AND_FACILITIES
+            + "WHERE totals.reasoncategory = :reasonCategory "
+            + "AND totals.reasontype = :reasonType "
+            + "AND totals.startdate = :startDate "
+            + "AND totals.enddate = :endDate "
+            + "AND " + PRODUCT_AND_FACILITY_CONDITION,
+        periodKey(reasonCategory, reasonType, startDate, endDate)
+            .addValue(ORDERABLE, orderable)
+            .addValue(FACILITIES, facilities),
+        IndicatorQueryResults::toRow));
+
+    Map<String, Double> newer = IndicatorQueryResults.toDoubleValues(indicatorJdbcTemplate.query(
+        "SELECT facilities.code, SUM(totals.quantity) "
+            + "FROM (SELECT cards.facilityid, cards.orderableid, line_items.quantity "
+            + LINE_ITEMS
+            + ") AS totals "
+            + PRODUCTS_AND_FACILITIES
+            + "WHERE " + PRODUCT_AND_FACILITY_CONDITION,
+        lineItems(reasonCategory, reasonType, startDate, endDate, toTimestamp(watermark))
+            .addValue(ORDERABLE, orderable)
+            .addValue(FACILITIES, facilities),
+        IndicatorQueryResults::toRow));
+
+    newer.forEach((facility, quantity) -> quantities.merge(facility, quantity, Double::sum));
+    return quantities;
+  }
+
+  /**
+   * Removes totals and watermarks of the periods which ended before the retention. If such a
+   * period is exported again, its totals are built from all of its line items once more.
+   *
+   * @return number of removed periods
+   */
+  @Transactional
+  public int removeExpired() {
+    MapSqlParameterSource cutoff = new MapSqlParameterSource(CUTOFF,
+        toTimestamp(ZonedDateTime.now(clock).minusDays(retention)));
+
+    // watermarks go first, so a concurrent advance of the same period waits until both are gone
+    int periods = jdbcTemplate.update(
+        "DELETE FROM dhis2.stock_line_item_watermark WHERE enddate < :cutoff", cutoff);
+    jdbcTemplate.update(
+        "DELETE FROM dhis2.stock_line_item_aggregate WHERE enddate < :cutoff", cutoff);
+
+    return periods;
+  }
+
+  private static MapSqlParameterSource periodKey(String reasonCategory, String reasonType,
+                                                 ZonedDateTime startDate,
+                                                 ZonedDateTime endDate) {
+    return new MapSqlParameterSource()
+        .addValue(REASON_CATEGORY, reasonCategory)
+        .addValue(REASON_TYPE, reasonType)
+        .addValue(START_DATE, toTimestamp(startDate))
+        .addValue(END_DATE, toTimestamp(endDate));
+  }
+
+  // line items are filtered by their dates the same way as the other stockmanagement queries
+  private static MapSqlParameterSource lineItems(String reasonCategory, String reasonType,
+                                                 ZonedDateTime startDate, ZonedDateTime endDate,
+                                                 Timestamp watermark) {
+    return new MapSqlParameterSource()
+        .addValue(REASON_CATEGORY, reasonCategory)
+        .addValue(REASON_TYPE, reasonType)
+        .addValue(START_DATE, toUtc(startDate))
+        .addValue(END_DATE, toUtc(endDate))
+        .addValue(WATERMARK, watermark);
+  }
+
+  private static Timestamp toTimestamp(ZonedDateTime date) {
+    return Timestamp.from(date.toInstant());
+  }
+
+  private static ZonedDateTime toZonedDateTime(Timestamp timestamp) {
+    return timestamp.toInstant().atZone(ZoneOffset.UTC);
+  }
+
+}
@@ -15,205 +15,302 @@
 
 package org.openlmis.integration.dhis2.repository.indicator;
 
+import static org.openlmis.integration.dhis2.repository.indicator.IndicatorQueryResults.toUtc;
+
+import java.sql.ResultSet;
 import java.time.ZonedDateTime;
-import javax.persistence.EntityManager;
-import javax.persistence.PersistenceContext;
-import javax.persistence.Query;
-import org.springframework.data.repository.query.Param;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionTemplate;
 
 @Repository
-@SuppressWarnings("PMD.AvoidDuplicateLiterals")
+@SuppressWarnings({"PMD.AvoidDuplicateLiterals", "PMD.TooManyMethods"})
 public class StockmanagementRepository {
 
   static final String START_DATE = "startDate";
   static final String END_DATE = "endDate";
   static final String ORDERABLE = "orderable";
-  static final String FACILITY = "facility";
+  static final String FACILITIES = "facilities";
+  static final String ORDERABLES = "orderables";
+  static final String DATE = "date";
+  static final String REASON_CATEGORY = "reasonCategory";
+  static final String REASON_TYPE = "reasonType";
+
+  @Autowired
+  @Qualifier("indicatorJdbcTemplate")
+  private NamedParameterJdbcTemplate jdbcTemplate;
+
+  @Autowired
+  private StockLineItemAggregateRepository stockLineItemAggregateRepository;
+
+  private TransactionTemplate cursorTransactionTemplate;
+
+  @Value("${dhis2.stockmanagement.incremental}")
+  private boolean incremental;
+
+  /**
+   * Creates read-only transactions on the indicator database, in which large results are
+   * streamed.
+   */
+  @PostConstruct
+  public void init() {
+    cursorTransactionTemplate = new TransactionTemplate(
+        new DataSourceTransactionManager(jdbcTemplate.getJdbcTemplate().getDataSource()));
+    cursorTransactionTemplate.setReadOnly(true);
+  }
+
+  /**
+   * Retrieves opening balances from stockmanagement for a given period and all given facilities
+   * at once. Facilities without any stock card line item are not present in the result.
+   *
+   * @return map of facility code to opening balance
+   */
+  public Map<String, Long> findOpeningBalances(ZonedDateTime startDate, String orderable,
+                                               Collection<String> facilities) {
+    return findBalances(startDate, orderable, facilities);
+  }
+
+  /**
+   * Retrieves closing balances from stockmanagement for a given period and all given facilities
+   * at once. Facilities without any stock card line item are not present in the result.
+   *
+   * @return map of facility code to closing balance
+   */
+  public Map<String, Long> findClosingBalances(ZonedDateTime endDate, String orderable,
+                                               Collection<String> facilities) {
+    return findBalances(endDate, orderable, facilities);
+  }
+
+  /**
+   * Retrieves stock on hand as of the given date of all given orderables in all given facilities
+   * in a single query. Pairs without any stock card are not present in the result.
+   *
+   * @return map of orderable name to map of facility code to stock on hand
+   */
+  public Map<String, Map<String, Long>> findStockOnHand(ZonedDateTime date,
+                                                        Collection<String> orderables,
+                                                        Collection<String> facilities) {
+    Map<String, Map<String, Long>> stockOnHand = new HashMap<>();
+    streamStockOnHand(date, orderables, facilities,
+        (facility, orderable, value) -> stockOnHand
+            .computeIfAbsent(orderable, product -> new HashMap<>())
+            .put(facility, value));
+    return stockOnHand;
+  }
+
+  /**
+   * Retrieves received amounts of products from stockmanagement for a given period and all given
+   * facilities at once. Facilities without any matching line item are not present in the result.
+   *
+   * @return map of facility code to received quantity
+   */
+  public Map<String, Double> findReceivedQuantities(ZonedDateTime startDate,
+                                                    ZonedDateTime endDate, String orderable,
+                                                    Collection<String> facilities) {
+    return findQuantities("TRANSFER", "CREDIT", startDate, endDate, orderable, facilities);
+  }
 
-  @PersistenceContext
-  EntityManager entityManager;
+  /**
+   * Retrieves sums of all positive adjustments from stockmanagement for a given period and all
+   * given facilities at once.
+   *
+   * @return map of facility code to sum of positive adjustments
+   */
+  public Map<String, Double> findPositiveAdjustmentTotals(ZonedDateTime startDate,
+                                                          ZonedDateTime endDate, String orderable,
+                                                          Collection<String> facilities) {
+    return findQuantities("ADJUSTMENT", "CREDIT", startDate, endDate, orderable, facilities);
+  }
 
   /**
-   * Retrieves opening balance from stockmanagement for a given period.
+   * Retrieves sums of all negative adjustments from stockmanagement for a given period and all
+   * given facilities at once.
+   *
+   * @return map of facility code to sum of negative adjustments
    */
-  public Long findOpeningBalance(@Param(START_DATE) ZonedDateTime startDate,
-                                   @Param(ORDERABLE) String orderable,
-                                   @Param(FACILITY) String facility) {
-    Query query = entityManager.createNativeQuery(
-            "(SELECT cal.stockonhand "
-                    + "FROM stockmanagement.stock_card_line_items AS line_items "
-                    + "JOIN stockmanagement.stock_cards AS cards "
-                    + "ON line_items.stockcardid = cards.id "
-                    + "JOIN stockmanagement.stock_card_line_item_reasons AS reasons "
-                    + "ON reasons.id = line_items.reasonid "
-                    + "JOIN stockmanagement.calculated_stocks_on_hand AS cal "
-                    + "ON cal.stockcardid = cards.id "
-                    + "JOIN referencedata.orderables AS products "
-                    + "ON cards.orderableid = products.id "
-                    + "JOIN referencedata.facilities AS facilities "
-                    + "ON facilities.id = cards.facilityid "
-                    + "WHERE products.versionnumber = ( "
-                    + "SELECT MAX(versionnumber) FROM referencedata.orderables o2 "
-                    + "WHERE o2.id = products.id "
-                    + ") "
-                    + "AND line_items.occurreddate <= :startDate "
-                    + "AND products.fullproductname = :orderable  "
-                    + "AND facilities.code = :facility "
-                    + "ORDER BY line_items.occurreddate desc) union ( "
-                    + "select 0 as stockonhand"
-                    + ") "
-                    + "LIMIT 1;");
-
-    return Long.parseLong(query.setParameter(START_DATE, startDate)
-            .setParameter(ORDERABLE, orderable)
-            .setParameter(FACILITY, facility)
-            .getSingleResult().toString());
+  public Map<String, Double> findNegativeAdjustmentTotals(ZonedDateTime startDate,
+                                                          ZonedDateTime endDate, String orderable,
+                                                          Collection<String> facilities) {
+    return findQuantities("ADJUSTMENT", "DEBIT", startDate, endDate, orderable, facilities);
   }
 
   /**
-   * Retrieves closing balance from stockmanagement for a given period.
+   * Retrieves sums of all adjustments from stockmanagement for a given period and all given
+   * facilities at once, split by the adjustment reason. All reasons are summed up in a single
+   * query. Quantities of debit reasons are negated, so each sum is the change of the stock on
+   * hand. Reasons without any line item are not present in the result.
+   *
+   * @return map of facility code to map of reason name to sum of adjustments
    */
-  public Long findClosingBalance(@Param(END_DATE) ZonedDateTime endDate,
-                                   @Param(ORDERABLE) String orderable,
-                                   @Param(FACILITY) String facility) {
-    Query query = entityManager.createNativeQuery(
-            "(SELECT cal.stockonhand "
-                    + "FROM stockmanagement.stock_card_line_items AS line_items "
-                    + "JOIN stockmanagement.stock_cards AS cards "
-                    + "ON line_items.stockcardid = cards.id "
-                    + "JOIN stockmanagement.stock_card_line_item_reasons AS reasons "
-                    + "ON reasons.id = line_items.reasonid "
-                    + "JOIN stockmanagement.calculated_stocks_on_hand AS cal "
-                    + "ON cal.stockcardid = cards.id "
-                    + "JOIN referencedata.orderables AS products "
-                    + "ON cards.orderableid = products.id "
-                    + "JOIN referencedata.facilities AS facilities "
-                    + "ON facilities.id = cards.facilityid "
-                    + "WHERE products.versionnumber = ( "
-                    + "SELECT MAX(versionnumber) FROM referencedata.orderables o2 "
-                    + "WHERE o2.id = products.id "
-                    + ") "
-                    + "AND line_items.occurreddate <= :endDate "
-                    + "AND products.fullproductname = :orderable "
-                    + "AND facilities.code = :facility "
-                    + "ORDER BY line_items.occurreddate DESC) UNION ("
-                    + "select 0 as stockonhand "
-                    + ") "
-                    + "LIMIT 1;");
-
-    return Long.parseLong(query.setParameter(END_DATE, endDate)
-            .setParameter(ORDERABLE, orderable)
-            .setParameter(FACILITY, facility)
-            .getSingleResult().toString());
+  public Map<String, Map<String, Double>> findAdjustmentsByReason(ZonedDateTime startDate,
+                                                                  ZonedDateTime endDate,
+                                                                  String orderable,
+                                                                  Collection<String> facilities) {
+    Map<String, Map<String, Double>> adjustments = new HashMap<>();
+    if (facilities.isEmpty()) {
+      return adjustments;
+    }
+
+    String sql = "SELECT facilities.code, reasons.name, "
+        + "COALESCE(SUM(CASE reasons.reasontype "
+        + "WHEN 'DEBIT' THEN -line_items.quantity "
+        + "ELSE line_items.quantity END), 0) AS quantity "
+        + "FROM stockmanagement.stock_card_line_items AS line_items "
+        + "JOIN stockmanagement.stock_cards AS cards "
+        + "ON line_items.stockcardid = cards.id "
+        + "JOIN stockmanagement.stock_card_line_item_reasons AS reasons "
+        + "ON reasons.id = line_items.reasonid "
+        + "JOIN dhis2.latest_orderable AS products "
+        + "ON cards.orderableid = products.id "
+        + "JOIN referencedata.facilities AS facilities "
+        + "ON facilities.id = cards.facilityid "
+        + "WHERE reasons.reasoncategory = 'ADJUSTMENT' "
+        + "AND line_items.occurreddate >= :startDate "
+        + "AND line_items.occurreddate < :endDate "
+        + "AND products.fullproductname = :orderable "
+        + "AND facilities.code IN (:facilities) "
+        + "GROUP BY facilities.code, reasons.name";
+
+    MapSqlParameterSource parameters = new MapSqlParameterSource()
+        .addValue(START_DATE, toUtc(startDate))
+        .addValue(END_DATE, toUtc(endDate))
+        .addValue(ORDERABLE, orderable)
+        .addValue(FACILITIES, facilities);
+
+    jdbcTemplate.query(sql, parameters, (ResultSet resultSet) -> {
+      adjustments.computeIfAbsent(resultSet.getString(1), facility -> new HashMap<>())
+          .put(resultSet.getString(2), resultSet.getDouble(3));
+    });
+    return adjustments;
   }
 
   /**
-   * Retrieves received amount of products from stockmanagement for a given period.
+   * Retrieves names of all adjustment reasons defined in stockmanagement.
    */
-  public Double findReceived(@Param(START_DATE) ZonedDateTime startDate,
-                             @Param(END_DATE) ZonedDateTime endDate,
-                             @Param(ORDERABLE) String orderable,
-                             @Param(FACILITY) String facility) {
-    Query query = entityManager.createNativeQuery(
-            "SELECT COALESCE(SUM(line_items.quantity), 0) AS quantity "
-                    + "FROM stockmanagement.stock_card_line_items AS line_items  "
-                    + "JOIN stockmanagement.stock_cards AS cards "
-                    + "ON line_items.stockcardid = cards.id "
-                    + "JOIN stockmanagement.stock_card_line_item_reasons AS reasons "
-                    + "ON reasons.id = line_items.reasonid "
-                    + "JOIN referencedata.orderables AS products "
-                    + "ON cards.orderableid = products.id  "
-                    + "JOIN referencedata.facilities AS facilities "
-                    + "ON facilities.id = cards.facilityid  "
-                    + "WHERE products.versionnumber = ( "
-                    + "SELECT MAX(versionnumber) FROM referencedata.orderables o2 "
-                    + "WHERE o2.id = products.id "
-                    + ") "
-                    + "AND reasons.reasoncategory = 'TRANSFER' "
-                    + "AND reasons.reasontype = 'CREDIT' "
-                    + "AND line_items.occurreddate >= :startDate "
-                    + "AND line_items.occurreddate < :endDate "
-                    + "AND products.fullproductname = :orderable  "
-                    + "AND facilities.code = :facility ");
-
-    return Double.parseDouble(query.setParameter(START_DATE, startDate)
-            .setParameter(END_DATE, endDate)
-            .setParameter(ORDERABLE, orderable)
-            .setParameter(FACILITY, facility)
-            .getSingleResult().toString());
+  public List<String> findAdjustmentReasons() {
+    String sql = "SELECT DISTINCT reasons.name "
+        + "FROM stockmanagement.stock_card_line_item_reasons AS reasons "
+        + "WHERE reasons.reasoncategory = 'ADJUSTMENT'";
+
+    return jdbcTemplate.queryForList(sql, new MapSqlParameterSource(), String.class);
   }
 
   /**
-   * Retrieves sum of all positive adjustments from stockmanagement for a given period.
+   * Streams stock on hand as of the given date of all given orderables in all given facilities.
+   * Each stock card holds a single lot, so the stock on hand of a product is the sum of the
+   * latest calculated stock on hand of all of its stock cards in the facility. The latest value
+   * of every stock card of the given facilities and orderables is picked in a single pass. Rows
+   * are read through a cursor, so the whole result is never held in memory.
+   *
+   * @param handler receives facility code, orderable name and stock on hand of each pair with
+   *                at least one stock card
    */
-  public Double findPositiveAdjustments(@Param(START_DATE) ZonedDateTime startDate,
-                                        @Param(END_DATE) ZonedDateTime endDate,
-                                        @Param(ORDERABLE) String orderable,
-                                        @Param(FACILITY) String facility) {
-    Query query = entityManager.createNativeQuery(
-            "SELECT COALESCE(SUM(line_items.quantity), 0) AS quantity "
-                    + "FROM stockmanagement.stock_card_line_items AS line_items  "
-                    + "JOIN stockmanagement.stock_cards AS cards "
-                    + "ON line_items.stockcardid = cards.id "
-                    + "JOIN stockmanagement.stock_card_line_item_reasons AS reasons "
-                    + "ON reasons.id = line_items.reasonid "
-                    + "JOIN referencedata.orderables AS products "
-                    + "ON cards.orderableid = products.id  "
-                    + "JOIN referencedata.facilities AS facilities "
-                    + "ON facilities.id = cards.facilityid  "
-                    + "WHERE products.versionnumber = ( "
-                    + "SELECT MAX(versionnumber) FROM referencedata.orderables o2 "
-                    + "WHERE o2.id = products.id "
-                    + ") "
-                    + "AND reasons.reasoncategory = 'ADJUSTMENT' "
-                    + "AND reasons.reasontype = 'CREDIT' "
-                    + "AND line_items.occurreddate >= :startDate "
-                    + "AND line_items.occurreddate < :endDate "
-                    + "AND products.fullproductname = :orderable  "
-                    + "AND facilities.code = :facility ");
-
-    return Double.parseDouble(query.setParameter(START_DATE, startDate)
-            .setParameter(END_DATE, endDate)
-            .setParameter(ORDERABLE, orderable)
-            .setParameter(FACILITY, facility)
-            .getSingleResult().toString());
+  public void streamStockOnHand(ZonedDateTime date, Collection<String> orderables,
+                                Collection<String> facilities, StockOnHandHandler handler) {
+    if (orderables.isEmpty() || facilities.isEmpty()) {
+      return;
+    }
+
+    String sql = "SELECT latest.code, latest.fullproductname, "
+        + "SUM(latest.stockonhand) AS stockonhand "
+        + "FROM ("
+        + "SELECT DISTINCT ON (cal.stockcardid) "
+        + "facilities.code, products.fullproductname, cal.stockonhand "
+        + "FROM stockmanagement.calculated_stocks_on_hand AS cal "
+        + "JOIN stockmanagement.stock_cards AS cards "
+        + "ON cal.stockcardid = cards.id "
+        + "JOIN dhis2.latest_orderable AS products "
+        + "ON cards.orderableid = products.id "
+        + "JOIN referencedata.facilities AS facilities "
+        + "ON facilities.id = cards.facilityid "
+        + "WHERE cal.occurreddate <= :date "
+        + "AND products.fullproductname IN (:orderables) "
+        + "AND facilities.code IN (:facilities) "
+        + "ORDER BY cal.stockcardid, cal.occurreddate DESC, cal.processeddate DESC"
+        + ") AS latest "
+        + "GROUP BY latest.code, latest.fullproductname";
+
+    MapSqlParameterSource parameters = new MapSqlParameterSource()
+        .addValue(DATE, toUtc(date))
+        .addValue(ORDERABLES, orderables)
+        .addValue(FACILITIES, facilities);
+
+    // PostgreSQL uses a cursor only within a transaction, otherwise it sends all rows at once
+    cursorTransactionTemplate.execute(status -> {
+      jdbcTemplate.query(sql, parameters, (ResultSet resultSet) -> handler.accept(
+          resultSet.getString(1), resultSet.getString(2), resultSet.getLong(3)));
+      return null;
+    });
+  }
+
+  private Map<String, Long> findBalances(ZonedDateTime date, String orderable,
+                                         Collection<String> facilities) {
+    Map<String, Long> balances = new HashMap<>();
+    streamStockOnHand(date, Collections.singletonList(orderable), facilities,
+        (facility, product, stockOnHand) -> balances.put(facility, stockOnHand));
+    return balances;
   }
 
   /**
-   * Retrieves sum of all negative adjustments from stockmanagement for a given period.
+   * Receives a stock on hand streamed by
+   * {@link #streamStockOnHand(ZonedDateTime, Collection, Collection, StockOnHandHandler)}.
    */
-  public Double findNegativeAdjustments(@Param(START_DATE) ZonedDateTime startDate,
-                                        @Param(END_DATE) ZonedDateTime endDate,
-                                        @Param(ORDERABLE) String orderable,
-                                        @Param(FACILITY) String facility) {
-    Query query = entityManager.createNativeQuery(
-            "SELECT COALESCE(SUM(line_items.quantity), 0) AS quantity "
-                    + "FROM stockmanagement.stock_card_line_items AS line_items  "
-                    + "JOIN stockmanagement.stock_cards AS cards "
-                    + "ON line_items.stockcardid = cards.id "
-                    + "JOIN stockmanagement.stock_card_line_item_reasons AS reasons "
-                    + "ON reasons.id = line_items.reasonid "
-                    + "JOIN referencedata.orderables AS products "
-                    + "ON cards.orderableid = products.id  "
-                    + "JOIN referencedata.facilities AS facilities "
-                    + "ON facilities.id = cards.facilityid  "
-                    + "WHERE products.versionnumber = ( "
-                    + "SELECT MAX(versionnumber) FROM referencedata.orderables o2 "
-                    + "WHERE o2.id = products.id "
-                    + ") "
-                    + "AND reasons.reasoncategory = 'ADJUSTMENT' "
-                    + "AND reasons.reasontype = 'DEBIT' "
-                    + "AND line_items.occurreddate >= :startDate "
-                    + "AND line_items.occurreddate < :endDate "
-                    + "AND products.fullproductname = :orderable  "
-                    + "AND facilities.code = :facility ");
-
-    return Double.parseDouble(query.setParameter(START_DATE, startDate)
-            .setParameter(END_DATE, endDate)
-            .setParameter(ORDERABLE, orderable)
-            .setParameter(FACILITY, facility)
-            .getSingleResult().toString());
+  @FunctionalInterface
+  public interface StockOnHandHandler {
+
+    void accept(String facility, String orderable, long stockOnHand);
+
+  }
+
+  private Map<String, Double> findQuantities(String reasonCategory, String reasonType,
+                                             ZonedDateTime startDate, ZonedDateTime endDate,
+                                             String orderable, Collection<String> facilities) {
+    if (incremental) {
+      ZonedDateTime watermark = stockLineItemAggregateRepository
+          .advance(reasonCategory, reasonType, startDate, endDate);
+      return stockLineItemAggregateRepository.findQuantities(reasonCategory, reasonType,
+          startDate, endDate, watermark, orderable, facilities);
+    }
+
+    String sql = "SELECT facilities.code, COALESCE(SUM(line_items.quantity), 0) AS quantity "
+        + "FROM stockmanagement.stock_card_line_items AS line_items "
+        + "JOIN stockmanagement.stock_cards AS cards "
+        + "ON line_items.stockcardid = cards.id "
+        + "JOIN stockmanagement.stock_card_line_item_reasons AS reasons "
+        + "ON reasons.id = line_items.reasonid "
+        + "JOIN dhis2.latest_orderable AS products "
+        + "ON cards.orderableid = products.id "
+        + "JOIN referencedata.facilities AS facilities "
+        + "ON facilities.id = cards.facilityid "
+        + "WHERE reasons.reasoncategory = :reasonCategory "
+        + "AND reasons.reasontype = :reasonType "
+        + "AND line_items.occurreddate >= :startDate "
+        + "AND line_items.occurreddate < :endDate "
+        + "AND products.fullproductname = :orderable "
+        + "AND facilities.code IN (:facilities) "
+        + "GROUP BY facilities.code";
+
+    MapSqlParameterSource parameters = new MapSqlParameterSource()
+        .addValue(REASON_CATEGORY, reasonCategory)
+        .addValue(REASON_TYPE, reasonType)
+        .addValue(START_DATE, toUtc(startDate))
+        .addValue(END_DATE, toUtc(endDate))
+        .addValue(ORDERABLE, orderable)
+        .addValue(FACILITIES, facilities);
+
+    return IndicatorQueryResults.toDoubleValues(
+        jdbcTemplate.query(sql, parameters, IndicatorQueryResults::toRow));
   }
 
 }
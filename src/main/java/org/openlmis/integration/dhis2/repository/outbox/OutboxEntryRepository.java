@@ -0,0 +1,51 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.integration.dhis2.repository.outbox;
+
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import org.openlmis.integration.dhis2.domain.outbox.OutboxEntry;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+public interface OutboxEntryRepository extends JpaRepository<OutboxEntry, UUID> {
+
+  /**
+   * Locks entries which are due for delivery. Entries locked by another transaction are
+   * skipped, so several instances can drain the outbox at the same time.
+   */
+  @Query(value = "SELECT e.* FROM dhis2.outbox_entry e\n"
+          + "WHERE e.nextattemptdate <= :now\n"
+          + "ORDER BY e.nextattemptdate\n"
+          + "LIMIT :limit\n"
+          + "FOR UPDATE SKIP LOCKED", nativeQuery = true)
+  List<OutboxEntry> findDueForUpdate(@Param("now") ZonedDateTime now,
+                                     @Param("limit") int limit);
+
+  @Modifying
+  @Query("UPDATE OutboxEntry e SET e.jobId = :jobId WHERE e.id = :id")
+  int updateJobId(@Param("id") UUID id, @Param("jobId") String jobId);
+
+  @Modifying
+  @Query("UPDATE OutboxEntry e SET e.nextAttemptDate = :leasedUntil WHERE e.id IN :ids")
+  int updateNextAttemptDate(@Param("ids") Collection<UUID> ids,
+                            @Param("leasedUntil") ZonedDateTime leasedUntil);
+
+}
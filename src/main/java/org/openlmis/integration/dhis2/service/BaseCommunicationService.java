@@ -52,14 +52,15 @@ import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.client.HttpStatusCodeException;
-import org.springframework.web.client.RestOperations;
 import org.springframework.web.client.RestTemplate;
 
 @SuppressWarnings("PMD.TooManyMethods")
 public abstract class BaseCommunicationService<T> {
 
   protected final Logger logger = LoggerFactory.getLogger(getClass());
-  private final RestOperations restTemplate = new RestTemplate();
+
+  @Autowired
+  private RestTemplate restTemplate;
 
   @Autowired
   private ReferenceDataAuthService authService;
@@ -15,13 +15,22 @@
 
 package org.openlmis.integration.dhis2.service.auth;
 
+import java.time.Clock;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
 import org.apache.commons.codec.binary.Base64;
 import org.openlmis.integration.dhis2.exception.ResponseParsingException;
 import org.openlmis.integration.dhis2.exception.RestOperationException;
 import org.openlmis.integration.dhis2.i18n.MessageKeys;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
@@ -36,12 +45,28 @@ public class DhisAuthService {
   public static final String API_AUTH_URL = "/api/apiToken";
   public static final String API_RESPONSE_DETAILS = "response";
   public static final String API_KEY = "key";
+  public static final String API_EXPIRE = "expire";
+
+  // tokens are refreshed a bit before they expire so that a request never starts with a token
+  // that DHIS2 rejects on arrival
+  private static final long EXPIRY_MARGIN_MILLIS = 30_000;
+
+  // a token being requested is kept as an unfinished future, which other callers wait for
+  private final ConcurrentMap<TokenKey, CompletableFuture<CachedToken>> tokens =
+      new ConcurrentHashMap<>();
 
   @Autowired
   private RestTemplate restTemplate;
 
+  @Autowired
+  private Clock clock;
+
+  @Value("${dhis2.token.timeToLive}")
+  private long tokenTimeToLive;
+
   /**
-   * Retrieves access token from the auth service.
+   * Retrieves access token for the given server. A token obtained earlier for the same server
+   * and user is reused until it expires or is invalidated.
    *
    * @param username  Name of the specific user.
    * @param password  User password.
@@ -49,15 +74,97 @@ public class DhisAuthService {
    * @return token.
    */
   public String obtainAccessToken(String username, String password, String serverUrl) {
+    TokenKey key = new TokenKey(serverUrl, username);
+
+    while (true) {
+      CompletableFuture<CachedToken> current = tokens.get(key);
+      if (current != null && !isExpired(current)) {
+        return await(current).token;
+      }
+
+      // only one thread per server obtains a new token, the others wait for it; the request
+      // is made outside of the map, so callers of other servers are never blocked by it
+      CompletableFuture<CachedToken> request = new CompletableFuture<>();
+      boolean claimed = current == null
+          ? tokens.putIfAbsent(key, request) == null
+          : tokens.replace(key, current, request);
+      if (claimed) {
+        return obtain(key, request, username, password, serverUrl).token;
+      }
+    }
+  }
+
+  /**
+   * Removes the given token from the cache, so the next call to
+   * {@link #obtainAccessToken(String, String, String)} asks DHIS2 for a new one. Nothing happens
+   * if the token has been already replaced by another thread.
+   *
+   * @param username  Name of the specific user.
+   * @param serverUrl User's server address.
+   * @param token     token rejected by the server.
+   */
+  public void invalidateAccessToken(String username, String serverUrl, String token) {
+    TokenKey key = new TokenKey(serverUrl, username);
+    CompletableFuture<CachedToken> current = tokens.get(key);
+    CachedToken cached = current == null ? null : getIfObtained(current);
+
+    if (cached != null && Objects.equals(cached.token, token)) {
+      tokens.remove(key, current);
+    }
+  }
+
+  private CachedToken obtain(TokenKey key, CompletableFuture<CachedToken> request,
+                             String username, String password, String serverUrl) {
+    try {
+      CachedToken token = requestAccessToken(username, password, serverUrl);
+      request.complete(token);
+      return token;
+    } catch (RuntimeException ex) {
+      // callers waiting for this request fail as well, the next one tries again
+      tokens.remove(key, request);
+      request.completeExceptionally(ex);
+      throw ex;
+    }
+  }
+
+  private boolean isExpired(CompletableFuture<CachedToken> token) {
+    // a token which is still being requested is not expired, it is waited for
+    if (!token.isDone()) {
+      return false;
+    }
+
+    CachedToken cached = getIfObtained(token);
+    return cached == null || !cached.isValid(clock.millis());
+  }
+
+  private static CachedToken getIfObtained(CompletableFuture<CachedToken> token) {
+    return token.isDone() && !token.isCompletedExceptionally() ? token.join() : null;
+  }
+
+  private static CachedToken await(CompletableFuture<CachedToken> token) {
+    try {
+      return token.join();
+    } catch (CompletionException ex) {
+      if (ex.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ex.getCause();
+      }
+      throw ex;
+    }
+  }
+
+  private CachedToken requestAccessToken(String username, String password, String serverUrl) {
+    long expiresAt = clock.millis() + tokenTimeToLive * 1000;
+
     String base64Creds = getEncodedUserCreds(username, password);
     String uri = serverUrl + API_AUTH_URL;
 
     HttpHeaders headers = new HttpHeaders();
     headers.add(HttpHeaders.AUTHORIZATION, "Basic " + base64Creds);
 
-    Map<String, String> emptyRequestBody = new HashMap<>();
+    Map<String, Object> requestBody = new HashMap<>();
+    requestBody.put(API_EXPIRE, expiresAt);
 
-    HttpEntity<?> request = new HttpEntity<>(emptyRequestBody, headers);
+    HttpEntity<?> request = new HttpEntity<>(requestBody, headers);
 
     ResponseEntity<?> response;
 
@@ -72,8 +179,12 @@ public class DhisAuthService {
     }
 
     try {
-      return ((Map<String, Map<String, String>>) response.getBody()).get(API_RESPONSE_DETAILS)
-              .get(API_KEY);
+      Map<String, Object> details = ((Map<String, Map<String, Object>>) response.getBody())
+              .get(API_RESPONSE_DETAILS);
+      Object expire = details.get(API_EXPIRE);
+
+      return new CachedToken(details.get(API_KEY).toString(),
+              expire instanceof Number ? ((Number) expire).longValue() : expiresAt);
     } catch (NullPointerException ex) {
       throw new ResponseParsingException(
               MessageKeys.ERROR_EXTERNAL_API_RESPONSE_BODY_UNABLE_TO_PARSE, ex);
@@ -87,4 +198,21 @@ public class DhisAuthService {
     return new String(base64CredsBytes);
   }
 
+  @EqualsAndHashCode
+  @AllArgsConstructor
+  private static final class TokenKey {
+    private final String serverUrl;
+    private final String username;
+  }
+
+  @AllArgsConstructor
+  private static final class CachedToken {
+    private final String token;
+    private final long expiresAt;
+
+    boolean isValid(long now) {
+      return now < expiresAt - EXPIRY_MARGIN_MILLIS;
+    }
+  }
+
 }
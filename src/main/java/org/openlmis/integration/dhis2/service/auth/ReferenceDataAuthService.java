@@ -17,23 +17,44 @@ package org.openlmis.integration.dhis2.service.auth;
 
 import static org.openlmis.integration.dhis2.util.RequestHelper.createUri;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import java.time.Clock;
 import java.util.Map;
+import lombok.AllArgsConstructor;
 import org.apache.commons.codec.binary.Base64;
 import org.openlmis.integration.dhis2.util.RequestParameters;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestOperations;
-import org.springframework.web.client.RestTemplate;
 
 @Service
 public class ReferenceDataAuthService {
 
   private static final String ACCESS_TOKEN = "access_token";
+  private static final String EXPIRES_IN = "expires_in";
+
+  // tokens are refreshed a bit before they expire so that a request never starts with a token
+  // that the auth service rejects on arrival
+  private static final long EXPIRY_MARGIN_MILLIS = 30_000;
+
+  static final String TOKEN_CACHE_METRIC = "referencedata.auth.token.cache";
+  static final String TOKEN_REFRESH_METRIC = "referencedata.auth.token.refresh";
+
+  private final Counter cacheHits = Metrics.counter(TOKEN_CACHE_METRIC, "result", "hit");
+  private final Counter cacheMisses = Metrics.counter(TOKEN_CACHE_METRIC, "result", "miss");
+  private final Timer refreshTimer = Timer.builder(TOKEN_REFRESH_METRIC)
+      .description("Time spent obtaining a new access token from the auth service")
+      .register(Metrics.globalRegistry);
+
+  private final Object refreshLock = new Object();
+  private volatile CachedToken cachedToken;
 
   @Value("${auth.server.clientId}")
   private String clientId;
@@ -44,14 +65,48 @@ public class ReferenceDataAuthService {
   @Value("${auth.server.authorizationUrl}")
   private String authorizationUrl;
 
-  private RestOperations restTemplate = new RestTemplate();
+  @Autowired
+  private RestOperations restTemplate;
+
+  @Autowired
+  private Clock clock;
 
   /**
-   * Retrieves access token from the auth service.
+   * Retrieves access token from the auth service. The token is cached and reused until shortly
+   * before it expires or until {@link #clearTokenCache()} is called.
    *
    * @return token.
    */
   public String obtainAccessToken() {
+    CachedToken current = cachedToken;
+    if (current != null && current.isValid(clock.millis())) {
+      cacheHits.increment();
+      return current.token;
+    }
+
+    synchronized (refreshLock) {
+      current = cachedToken;
+      if (current != null && current.isValid(clock.millis())) {
+        cacheHits.increment();
+        return current.token;
+      }
+
+      cacheMisses.increment();
+      current = refreshTimer.record(this::requestAccessToken);
+      cachedToken = current;
+      return current.token;
+    }
+  }
+
+  /**
+   * Drops the cached token, so the next call to {@link #obtainAccessToken()} asks the auth service
+   * for a new one.
+   */
+  public void clearTokenCache() {
+    cachedToken = null;
+  }
+
+  private CachedToken requestAccessToken() {
     String base64Creds = getEncodedUserCreds(clientId, clientSecret);
 
     HttpHeaders headers = new HttpHeaders();
@@ -67,16 +122,15 @@ public class ReferenceDataAuthService {
         createUri(authorizationUrl, params), HttpMethod.POST, request, Object.class
     );
 
-    return ((Map<String, String>) response.getBody()).get(ACCESS_TOKEN);
-  }
+    Map<String, Object> body = (Map<String, Object>) response.getBody();
+    Object expiresIn = body.get(EXPIRES_IN);
 
-  @CacheEvict(cacheNames = "token", allEntries = true)
-  public void clearTokenCache() {
-    // Intentionally blank
-  }
+    // without expiry information the token is used for the current request only
+    long expiresAt = expiresIn == null
+        ? 0
+        : clock.millis() + Long.parseLong(expiresIn.toString()) * 1000;
 
-  public void setRestTemplate(RestOperations restTemplate) {
-    this.restTemplate = restTemplate;
+    return new CachedToken((String) body.get(ACCESS_TOKEN), expiresAt);
   }
 
   private String getEncodedUserCreds(String clientId, String clientSecret) {
@@ -86,4 +140,14 @@ public class ReferenceDataAuthService {
     return new String(base64CredsBytes);
   }
 
+  @AllArgsConstructor
+  private static final class CachedToken {
+    private final String token;
+    private final long expiresAt;
+
+    boolean isValid(long now) {
+      return now < expiresAt - EXPIRY_MARGIN_MILLIS;
+    }
+  }
+
 }
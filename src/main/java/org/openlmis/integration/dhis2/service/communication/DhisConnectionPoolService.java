@@ -0,0 +1,83 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.integration.dhis2.service.communication;
+
+import java.net.URI;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.openlmis.integration.dhis2.domain.server.Server;
+import org.openlmis.integration.dhis2.repository.server.ServerRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+/**
+ * Applies a dedicated connection limit to every registered DHIS2 server, so one slow instance
+ * cannot take over the whole shared connection pool.
+ */
+@Service
+public class DhisConnectionPoolService {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(DhisConnectionPoolService.class);
+  private static final String HTTPS = "https";
+
+  @Autowired
+  private PoolingHttpClientConnectionManager connectionManager;
+
+  @Autowired
+  private ServerRepository serverRepository;
+
+  @Value("${http.client.dhis2.maxConnectionsPerServer}")
+  private int maxConnectionsPerServer;
+
+  /**
+   * Registers connection limits of all servers after application startup.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void registerServers() {
+    LOGGER.debug("Registering connection limits of DHIS2 servers");
+    serverRepository.findAll().forEach(this::registerServer);
+  }
+
+  /**
+   * Registers connection limit of the given server. Calling it again for the same server only
+   * overrides the limit.
+   */
+  public void registerServer(Server server) {
+    try {
+      connectionManager.setMaxPerRoute(getRoute(server.getUrl()), maxConnectionsPerServer);
+    } catch (IllegalArgumentException ex) {
+      LOGGER.warn("Unable to register connection limit of server with url: {}",
+          server.getUrl(), ex);
+    }
+  }
+
+  private HttpRoute getRoute(String url) {
+    URI uri = URI.create(url);
+    boolean secure = HTTPS.equalsIgnoreCase(uri.getScheme());
+
+    // the route planner always resolves the default port, so the route has to contain it too
+    int port = uri.getPort() > 0 ? uri.getPort() : (secure ? 443 : 80);
+
+    return new HttpRoute(new HttpHost(uri.getHost(), port, uri.getScheme()), null, secure);
+  }
+
+}
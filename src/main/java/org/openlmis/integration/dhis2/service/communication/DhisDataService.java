@@ -19,8 +19,10 @@ import static org.openlmis.integration.dhis2.util.RequestHelper.createEntity;
 import static org.openlmis.integration.dhis2.util.RequestHelper.createUri;
 
 import java.net.URI;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import lombok.AllArgsConstructor;
 import org.openlmis.integration.dhis2.dto.dhis.DataValueSet;
 import org.openlmis.integration.dhis2.dto.dhis.DhisCategoryOptionCombo;
 import org.openlmis.integration.dhis2.dto.dhis.DhisCategoryOptionComboResponseBody;
@@ -29,6 +31,8 @@ import org.openlmis.integration.dhis2.dto.dhis.DhisDatasetResponseBody;
 import org.openlmis.integration.dhis2.dto.dhis.DhisPeriodType;
 import org.openlmis.integration.dhis2.dto.dhis.DhisPeriodTypeResponseBody;
 import org.openlmis.integration.dhis2.dto.dhis.DhisResponseBody;
+import org.openlmis.integration.dhis2.dto.dhis.DhisResponseBodyDetails;
+import org.openlmis.integration.dhis2.dto.dhis.DhisTaskNotification;
 import org.openlmis.integration.dhis2.dto.dhis.OrganisationUnit;
 import org.openlmis.integration.dhis2.dto.dhis.OrganisationUnitResponseBody;
 import org.openlmis.integration.dhis2.dto.dhis.SimpleDhisDataset;
@@ -40,6 +44,7 @@ import org.openlmis.integration.dhis2.util.RequestParameters;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.HttpClientErrorException;
@@ -54,6 +59,9 @@ public class DhisDataService {
   public static final String API_ORG_UNITS_URL = "/api/organisationUnits";
   public static final String API_CATEGORY_OPTION_COMBOS_URL = "/api/categoryOptionCombos";
   public static final String API_PERIOD_TYPES_URL = "/api/periodTypes";
+  public static final String API_TASKS_URL = "/api/system/tasks";
+  public static final String API_TASK_SUMMARIES_URL = "/api/system/taskSummaries";
+  public static final String DATA_VALUE_IMPORT_JOB = "DATAVALUE_IMPORT";
   public static final String API_TOKEN = "ApiToken";
 
   @Autowired
@@ -73,8 +81,6 @@ public class DhisDataService {
    */
   public DhisDataset getDhisDataSetById(String id, String serverUrl, String username,
                                         String password) {
-    String token = authService.obtainAccessToken(username, password, serverUrl);
-
     RequestParameters params = RequestParameters
             .init()
             .set("fields", "periodType,"
@@ -83,7 +89,8 @@ public class DhisDataService {
 
     URI uri = createUri(serverUrl + API_DATASETS_URL + "/" + id, params);
 
-    return doRequest(DhisDataset.class, uri, token, HttpMethod.GET);
+    return doRequest(DhisDataset.class, uri, HttpMethod.GET,
+        new Credentials(serverUrl, username, password));
   }
 
   /**
@@ -96,14 +103,13 @@ public class DhisDataService {
    */
   public List<SimpleDhisDataset> getDhisDatasets(String serverUrl, String username,
                                                  String password) {
-    String token = authService.obtainAccessToken(username, password, serverUrl);
-
     RequestParameters params = RequestParameters.init();
 
     URI uri = createUri(serverUrl + API_DATASETS_URL, params);
 
     DhisDatasetResponseBody response =
-        doRequest(DhisDatasetResponseBody.class, uri, token, HttpMethod.GET);
+        doRequest(DhisDatasetResponseBody.class, uri, HttpMethod.GET,
+            new Credentials(serverUrl, username, password));
 
     return response.getDhisDatasets();
   }
@@ -118,8 +124,6 @@ public class DhisDataService {
    */
   public List<OrganisationUnit> getDhisOrgUnits(String serverUrl, String username,
                                                 String password) {
-    String token = authService.obtainAccessToken(username, password, serverUrl);
-
     RequestParameters params = RequestParameters
             .init()
             .set("fields", "id,name,code");
@@ -127,7 +131,8 @@ public class DhisDataService {
     URI uri = createUri(serverUrl + API_ORG_UNITS_URL, params);
 
     OrganisationUnitResponseBody response =
-        doRequest(OrganisationUnitResponseBody.class, uri, token, HttpMethod.GET);
+        doRequest(OrganisationUnitResponseBody.class, uri, HttpMethod.GET,
+            new Credentials(serverUrl, username, password));
 
     return response.getOrganisationUnits();
   }
@@ -143,14 +148,16 @@ public class DhisDataService {
   public List<DhisCategoryOptionCombo> getDhisCategoryOptionCombos(String serverUrl,
                                                                    String username,
                                                                    String password) {
-    String token = authService.obtainAccessToken(username, password, serverUrl);
-
-    RequestParameters params = RequestParameters.init();
+    RequestParameters params = RequestParameters
+            .init()
+            .set("fields", "id,displayName")
+            .set("paging", "false");
 
     URI uri = createUri(serverUrl + API_CATEGORY_OPTION_COMBOS_URL, params);
 
     DhisCategoryOptionComboResponseBody response =
-        doRequest(DhisCategoryOptionComboResponseBody.class, uri, token, HttpMethod.GET);
+        doRequest(DhisCategoryOptionComboResponseBody.class, uri, HttpMethod.GET,
+            new Credentials(serverUrl, username, password));
 
     return response.getCategoryOptionCombos();
   }
@@ -166,17 +173,97 @@ public class DhisDataService {
    */
   public DhisResponseBody sendDataValueSet(DataValueSet dataValueSet, String serverUrl,
                                              String username, String password) {
-    String token = authService.obtainAccessToken(username, password, serverUrl);
+    URI uri = createUri(serverUrl + API_DATA_VALUE_SETS_URL, getIdSchemes(false));
 
-    RequestParameters params = RequestParameters
-        .init()
-        .set("orgUnitIdScheme", "code")
-        .set("dataElementIdScheme", "name")
-        .set("categoryOptionComboIdScheme", "name");
+    return doRequest(DhisResponseBody.class, uri, HttpMethod.POST, dataValueSet,
+        new Credentials(serverUrl, username, password));
+  }
+
+  /**
+   * Send {@link DataValueSet} to DHIS2 API. Data elements, category option combos and
+   * organisation units of the payload are given by their DHIS2 UIDs, so DHIS2 does not have to
+   * look them up by name or code.
+   *
+   * @param dataValueSet Request's payload send to DHIS2 API.
+   * @param serverUrl    Url of the dhis2 server.
+   * @param username     Name of the specific user.
+   * @param password     User password.
+   * @return the {@link DhisResponseBody}
+   */
+  public DhisResponseBody sendDataValueSetWithUids(DataValueSet dataValueSet, String serverUrl,
+                                                   String username, String password) {
+    URI uri = createUri(serverUrl + API_DATA_VALUE_SETS_URL, getIdSchemes(true));
+
+    return doRequest(DhisResponseBody.class, uri, HttpMethod.POST, dataValueSet,
+        new Credentials(serverUrl, username, password));
+  }
+
+  /**
+   * Starts an asynchronous import of the {@link DataValueSet} in DHIS2. The request returns as
+   * soon as DHIS2 has accepted the payload, its progress can be checked with
+   * {@link #getDataValueSetImportTasks(String, String, String, String)}.
+   *
+   * @param dataValueSet Request's payload send to DHIS2 API.
+   * @param withUids     whether the payload refers to the metadata by UIDs.
+   * @param serverUrl    Url of the dhis2 server.
+   * @param username     Name of the specific user.
+   * @param password     User password.
+   * @return ID of the DHIS2 job importing the payload.
+   */
+  public String startDataValueSetImport(DataValueSet dataValueSet, boolean withUids,
+                                        String serverUrl, String username, String password) {
+    RequestParameters params = getIdSchemes(withUids)
+        .set("async", "true");
 
     URI uri = createUri(serverUrl + API_DATA_VALUE_SETS_URL, params);
 
-    return doRequest(DhisResponseBody.class, uri, token, HttpMethod.POST, dataValueSet);
+    DhisResponseBody response = doRequest(DhisResponseBody.class, uri, HttpMethod.POST,
+        dataValueSet, new Credentials(serverUrl, username, password));
+
+    return Optional.ofNullable(response.getResponse())
+        .map(DhisResponseBodyDetails::getId)
+        .orElseThrow(() -> new ResponseParsingException(
+            MessageKeys.ERROR_EXTERNAL_API_RESPONSE_BODY_UNABLE_TO_PARSE));
+  }
+
+  /**
+   * Get notifications of an asynchronous data value import from DHIS2 API, the latest first.
+   *
+   * @param jobId     ID of the DHIS2 job importing the payload.
+   * @param serverUrl Url of the dhis2 server.
+   * @param username  Name of the specific user.
+   * @param password  User password.
+   * @return the {@link DhisTaskNotification} list.
+   */
+  public List<DhisTaskNotification> getDataValueSetImportTasks(String jobId, String serverUrl,
+                                                               String username,
+                                                               String password) {
+    URI uri = createUri(serverUrl + API_TASKS_URL + "/" + DATA_VALUE_IMPORT_JOB + "/" + jobId,
+        null);
+
+    DhisTaskNotification[] notifications = doRequest(DhisTaskNotification[].class, uri,
+        HttpMethod.GET, new Credentials(serverUrl, username, password));
+
+    return Arrays.asList(notifications);
+  }
+
+  /**
+   * Get summary of a finished asynchronous data value import from DHIS2 API.
+   *
+   * @param jobId     ID of the DHIS2 job importing the payload.
+   * @param serverUrl Url of the dhis2 server.
+   * @param username  Name of the specific user.
+   * @param password  User password.
+   * @return the {@link DhisResponseBodyDetails} with the import summary.
+   */
+  public DhisResponseBodyDetails getDataValueSetImportSummary(String jobId, String serverUrl,
+                                                              String username,
+                                                              String password) {
+    URI uri = createUri(serverUrl + API_TASK_SUMMARIES_URL + "/" + DATA_VALUE_IMPORT_JOB + "/"
+        + jobId, null);
+
+    return doRequest(DhisResponseBodyDetails.class, uri, HttpMethod.GET,
+        new Credentials(serverUrl, username, password));
   }
 
   /**
@@ -189,31 +276,42 @@ public class DhisDataService {
    */
   public List<DhisPeriodType> getDhisPeriodTypes(String serverUrl, String username,
                                            String password) {
-    String token = authService.obtainAccessToken(username, password, serverUrl);
-
     URI uri = createUri(serverUrl + API_PERIOD_TYPES_URL, null);
 
     DhisPeriodTypeResponseBody response =
-        doRequest(DhisPeriodTypeResponseBody.class, uri, token, HttpMethod.GET);
+        doRequest(DhisPeriodTypeResponseBody.class, uri, HttpMethod.GET,
+            new Credentials(serverUrl, username, password));
 
     return response.getPeriodTypes();
   }
 
-  private <T> T doRequest(Class<T> clazz, URI uri, String token, HttpMethod method, Object object) {
-    HttpEntity<Object> entity =
-        (object == null) ? createEntity(token, API_TOKEN) : createEntity(object, token, API_TOKEN);
+  private RequestParameters getIdSchemes(boolean withUids) {
+    return RequestParameters
+        .init()
+        .set("orgUnitIdScheme", withUids ? "uid" : "code")
+        .set("dataElementIdScheme", withUids ? "uid" : "name")
+        .set("categoryOptionComboIdScheme", withUids ? "uid" : "name");
+  }
 
-    try {
-      ResponseEntity<T> response = restTemplate.exchange(
-          uri,
-          method,
-          entity,
-          clazz
-      );
-      return Optional.ofNullable(response.getBody())
-          .orElseThrow(() -> new ResponseParsingException(
-              MessageKeys.ERROR_EXTERNAL_API_RESPONSE_BODY_UNABLE_TO_PARSE));
+  private <T> T doRequest(Class<T> clazz, URI uri, HttpMethod method, Object object,
+                          Credentials credentials) {
+    String token = authService.obtainAccessToken(credentials.username, credentials.password,
+        credentials.serverUrl);
 
+    try {
+      try {
+        return exchange(clazz, uri, token, method, object);
+      } catch (HttpClientErrorException ex) {
+        if (HttpStatus.UNAUTHORIZED != ex.getStatusCode()) {
+          throw ex;
+        }
+
+        // the token has (most likely) expired or was revoked - drop it and retry once
+        authService.invalidateAccessToken(credentials.username, credentials.serverUrl, token);
+        String newToken = authService.obtainAccessToken(credentials.username,
+            credentials.password, credentials.serverUrl);
+        return exchange(clazz, uri, newToken, method, object);
+      }
     } catch (HttpClientErrorException ex) {
       throw new RestOperationException(
           MessageKeys.ERROR_EXTERNAL_API_CLIENT_REQUEST_FAILED, ex);
@@ -222,8 +320,31 @@ public class DhisDataService {
     }
   }
 
-  private <T> T doRequest(Class<T> clazz, URI uri, String token, HttpMethod method) {
-    return doRequest(clazz, uri, token, method, null);
+  private <T> T doRequest(Class<T> clazz, URI uri, HttpMethod method, Credentials credentials) {
+    return doRequest(clazz, uri, method, null, credentials);
+  }
+
+  private <T> T exchange(Class<T> clazz, URI uri, String token, HttpMethod method,
+                         Object object) {
+    HttpEntity<Object> entity =
+        (object == null) ? createEntity(token, API_TOKEN) : createEntity(object, token, API_TOKEN);
+
+    ResponseEntity<T> response = restTemplate.exchange(
+        uri,
+        method,
+        entity,
+        clazz
+    );
+    return Optional.ofNullable(response.getBody())
+        .orElseThrow(() -> new ResponseParsingException(
+            MessageKeys.ERROR_EXTERNAL_API_RESPONSE_BODY_UNABLE_TO_PARSE));
+  }
+
+  @AllArgsConstructor
+  private static final class Credentials {
+    private final String serverUrl;
+    private final String username;
+    private final String password;
   }
 
 }
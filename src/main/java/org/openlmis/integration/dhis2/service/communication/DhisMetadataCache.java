@@ -0,0 +1,169 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+
+package org.openlmis.integration.dhis2.service.communication;
+
+import java.time.Clock;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import org.openlmis.integration.dhis2.domain.server.Server;
+import org.openlmis.integration.dhis2.dto.dhis.DhisCategoryOptionCombo;
+import org.openlmis.integration.dhis2.dto.dhis.DhisDataElement;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * UIDs of the DHIS2 metadata that exported values refer to by name. Data elements are cached per
+ * server and dataset, category option combos per server. Entries are kept for the configured
+ * time to live, so metadata renamed in DHIS2 is picked up eventually.
+ */
+@Service
+public class DhisMetadataCache {
+
+  private static final String CATEGORY_OPTION_COMBOS = "categoryOptionCombos";
+
+  private final ConcurrentMap<MetadataKey, CompletableFuture<CachedIds>> ids =
+      new ConcurrentHashMap<>();
+
+  @Autowired
+  private DhisDataService dhisDataService;
+
+  @Autowired
+  private Clock clock;
+
+  @Value("${dhis2.metadata.timeToLive}")
+  private long timeToLive;
+
+  /**
+   * Returns UIDs of the data elements of the given DHIS2 dataset.
+   *
+   * @return map of data element name to its UID
+   */
+  public Map<String, String> getDataElementIds(Server server, String dhisDatasetId) {
+    return get(new MetadataKey(server.getId(), dhisDatasetId), () -> toIds(
+        dhisDataService.getDhisDataSetById(dhisDatasetId, server.getUrl(),
+            server.getUsername(), server.getPassword()).getDataSetElements(),
+        DhisDataElement::getName, DhisDataElement::getId));
+  }
+
+  /**
+   * Returns UIDs of all category option combos of the given server.
+   *
+   * @return map of category option combo name to its UID
+   */
+  public Map<String, String> getCategoryOptionComboIds(Server server) {
+    return get(new MetadataKey(server.getId(), CATEGORY_OPTION_COMBOS), () -> toIds(
+        dhisDataService.getDhisCategoryOptionCombos(server.getUrl(), server.getUsername(),
+            server.getPassword()),
+        DhisCategoryOptionCombo::getDisplayName, DhisCategoryOptionCombo::getId));
+  }
+
+  /**
+   * Removes all cached UIDs of the given server.
+   */
+  public void invalidate(Server server) {
+    ids.keySet().removeIf(key -> key.serverId.equals(server.getId()));
+  }
+
+  private Map<String, String> get(MetadataKey key, Supplier<Map<String, String>> loader) {
+    while (true) {
+      CompletableFuture<CachedIds> current = ids.get(key);
+      if (current != null && !isExpired(current)) {
+        return await(current).ids;
+      }
+
+      // only one thread per server and resource asks DHIS2, the others wait for it; the request
+      // is made outside of the map, so callers of other servers are never blocked by it
+      CompletableFuture<CachedIds> request = new CompletableFuture<>();
+      boolean claimed = current == null
+          ? ids.putIfAbsent(key, request) == null
+          : ids.replace(key, current, request);
+      if (claimed) {
+        return load(key, request, loader).ids;
+      }
+    }
+  }
+
+  private CachedIds load(MetadataKey key, CompletableFuture<CachedIds> request,
+                         Supplier<Map<String, String>> loader) {
+    try {
+      CachedIds cached = new CachedIds(loader.get(), clock.millis() + timeToLive * 1000);
+      request.complete(cached);
+      return cached;
+    } catch (RuntimeException ex) {
+      // callers waiting for this request fail as well, the next one tries again
+      ids.remove(key, request);
+      request.completeExceptionally(ex);
+      throw ex;
+    }
+  }
+
+  private boolean isExpired(CompletableFuture<CachedIds> cached) {
+    // UIDs which are still being loaded are not expired, they are waited for
+    if (!cached.isDone()) {
+      return false;
+    }
+    return cached.isCompletedExceptionally() || clock.millis() >= cached.join().expiresAt;
+  }
+
+  private static CachedIds await(CompletableFuture<CachedIds> cached) {
+    try {
+      return cached.join();
+    } catch (CompletionException ex) {
+      if (ex.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ex.getCause();
+      }
+      throw ex;
+    }
+  }
+
+  private <T> Map<String, String> toIds(List<T> metadata, Function<T, String> name,
+                                        Function<T, String> id) {
+    Map<String, String> result = new HashMap<>();
+    for (T element : metadata) {
+      if (name.apply(element) != null && id.apply(element) != null) {
+        result.put(name.apply(element), id.apply(element));
+      }
+    }
+    return Collections.unmodifiableMap(result);
+  }
+
+  @EqualsAndHashCode
+  @AllArgsConstructor
+  private static final class MetadataKey {
+    private final UUID serverId;
+    private final String resource;
+  }
+
+  @AllArgsConstructor
+  private static final class CachedIds {
+    private final Map<String, String> ids;
+    private final long expiresAt;
+  }
+
+}
@@ -15,15 +15,25 @@
 
 package org.openlmis.integration.dhis2.service.communication;
 
+import com.google.common.collect.Lists;
 import java.math.BigDecimal;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.BiFunction;
 import java.util.stream.Collectors;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
 import org.openlmis.integration.dhis2.domain.dataset.Dataset;
 import org.openlmis.integration.dhis2.domain.element.DataElement;
-import org.openlmis.integration.dhis2.domain.facility.SharedFacility;
 import org.openlmis.integration.dhis2.domain.periodmapping.PeriodMapping;
 import org.openlmis.integration.dhis2.domain.schedule.Schedule;
 import org.openlmis.integration.dhis2.domain.server.Server;
@@ -31,23 +41,32 @@ import org.openlmis.integration.dhis2.dto.dhis.DataValue;
 import org.openlmis.integration.dhis2.dto.dhis.DataValueSet;
 import org.openlmis.integration.dhis2.dto.dhis.DhisPeriodType;
 import org.openlmis.integration.dhis2.dto.dhis.DhisResponseBody;
+import org.openlmis.integration.dhis2.dto.dhis.DhisResponseBodyDetails;
+import org.openlmis.integration.dhis2.dto.dhis.DhisTaskNotification;
+import org.openlmis.integration.dhis2.exception.ImportFailedException;
 import org.openlmis.integration.dhis2.exception.NotFoundException;
+import org.openlmis.integration.dhis2.exception.RestOperationException;
 import org.openlmis.integration.dhis2.i18n.MessageKeys;
 import org.openlmis.integration.dhis2.repository.facility.SharedFacilityRepository;
+import org.openlmis.integration.dhis2.repository.facility.SharedFacilityRepository.OrgUnit;
 import org.openlmis.integration.dhis2.repository.periodmapping.PeriodMappingRepository;
 import org.openlmis.integration.dhis2.service.indicator.IndicatorService;
+import org.openlmis.integration.dhis2.service.indicator.IndicatorSupplier;
 import org.openlmis.integration.dhis2.service.schedule.PeriodGeneratorService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.util.Pair;
 import org.springframework.stereotype.Service;
 
 @Service
+@SuppressWarnings("PMD.TooManyMethods")
 public class ProcessedDataExchangeService {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(ProcessedDataExchangeService.class);
   private static final String DEFAULT_DHIS_PERIOD = "Monthly";
+  private static final String IMPORT_STATUS_ERROR = "ERROR";
 
   @Autowired
   private PeriodGeneratorService periodGeneratorService;
@@ -64,77 +83,305 @@ public class ProcessedDataExchangeService {
   @Autowired
   private PeriodMappingRepository periodMappingRepository;
 
+  @Autowired
+  private DhisMetadataCache dhisMetadataCache;
+
+  @Value("${dhis2.export.chunkSize}")
+  private int chunkSize;
+
+  @Value("${dhis2.export.useUids}")
+  private boolean useUids;
+
   /**
-   * Sends data from OpenLMIS to DHIS2.
+   * Calculates the values of all given schedules and splits them into payloads ready to be sent
+   * to DHIS2. Nothing is sent yet. The schedules have to belong to the same dataset, so the
+   * period and the org units are resolved once and the values of all data elements of a single
+   * org unit end up next to each other in the same payload.
    *
-   * @param schedule given {@link Schedule} object
+   * @param schedules {@link Schedule} objects of a single dataset
+   * @param periodMappingId id of specific {@link PeriodMapping}
+   * @param facilityCodes codes of the facilities to be included in data transfer
+   * @return data value sets holding at most chunk size values each
    */
-  public void sendData(Schedule schedule) {
-    sendData(schedule, null, null);
+  public List<DataValueSet> prepareDataValueSets(List<Schedule> schedules, UUID periodMappingId,
+                                                 List<String> facilityCodes) {
+    if (schedules.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    Schedule first = schedules.get(0);
+    Dataset dataset = first.getDataset();
+    Server server = first.getServer();
+
+    List<String> orgUnits = getOrgUnits(server, facilityCodes);
+
+    // requisition based elements use a different period than the rest, each is resolved once
+    Map<Boolean, ExportPeriod> periods = new HashMap<>();
+    // each indicator is calculated once for all orderables of the elements that use it
+    Map<IndicatorCall, Set<String>> orderables = new LinkedHashMap<>();
+    List<ElementValues> elements = new ArrayList<>();
+
+    for (Schedule schedule : schedules) {
+      DataElement dataElement = schedule.getDataElement();
+      ExportPeriod period = periods.computeIfAbsent(isRequisitionBased(dataElement),
+          requisitionBased -> resolvePeriod(requisitionBased, dataset, server,
+              periodMappingId));
+
+      IndicatorCall call = new IndicatorCall(dataElement.getSource(),
+          dataElement.getIndicator(), period);
+      orderables.computeIfAbsent(call, key -> new LinkedHashSet<>())
+          .add(dataElement.getOrderable());
+      elements.add(new ElementValues(dataElement, period, call));
+    }
+
+    Map<IndicatorCall, Map<String, Map<String, Map<String, BigDecimal>>>> calls =
+        new HashMap<>();
+    orderables.forEach((call, names) -> calls.put(call, indicatorService.generateKeyed(
+        call.source, call.indicator, call.period.range, names, orgUnits)));
+
+    Map<String, List<DataValue>> dataValues = new LinkedHashMap<>();
+    for (String orgUnit : orgUnits) {
+      for (ElementValues element : elements) {
+        List<DataValue> periodValues = dataValues
+            .computeIfAbsent(element.period.name, name -> new ArrayList<>());
+        calls.get(element.call)
+            .getOrDefault(element.dataElement.getOrderable(), Collections.emptyMap())
+            .getOrDefault(orgUnit, Collections.emptyMap())
+            .forEach((categoryOptionCombo, value) -> periodValues.add(buildDataValue(
+                element.dataElement.getOrderable(),
+                getCategoryOptionCombo(element.dataElement, categoryOptionCombo), orgUnit,
+                element.period.name, value)));
+      }
+    }
+
+    List<DataValueSet> dataValueSets = new ArrayList<>();
+    dataValues.forEach((period, values) -> dataValueSets.addAll(
+        toDataValueSets(dataset.getDhisDatasetId(), period, values)));
+    return dataValueSets;
   }
 
   /**
-   * Sends data from OpenLMIS to DHIS2.
+   * Looks up DHIS2 UIDs of the org units of the given server. They are resolved once per export
+   * and passed to every payload sent, nothing is looked up if values are not sent with UIDs.
    *
-   * @param schedule given {@link Schedule} object
-   * @param periodMappingId id of specific {@link PeriodMapping}
-   * @param facilityCodes codes of the facilities to be included in data transfer
+   * @param server target {@link Server}
+   * @return DHIS2 UIDs of the org units by their codes
+   */
+  public Map<String, String> getOrgUnitIds(Server server) {
+    if (!useUids) {
+      return Collections.emptyMap();
+    }
+
+    return sharedFacilityRepository
+        .findOrgUnitsByServerId(server.getId())
+        .stream()
+        .collect(Collectors.toMap(OrgUnit::getCode, OrgUnit::getOrgUnitId,
+            (first, second) -> first));
+  }
+
+  /**
+   * Sends a single payload to the given DHIS2 server. The payload is sent with DHIS2 UIDs
+   * if all of its data elements, category option combos and org units have one, otherwise it is
+   * sent by name and code as it is.
+   *
+   * @param dataValueSet payload to be sent
+   * @param server target {@link Server}
+   * @param orgUnitIds DHIS2 UIDs of the org units, as returned by {@link #getOrgUnitIds(Server)}
+   * @return response of the DHIS2 server
+   */
+  public DhisResponseBody sendDataValueSet(DataValueSet dataValueSet, Server server,
+                                           Map<String, String> orgUnitIds) {
+    LOGGER.debug("Sending data value set: " + dataValueSet);
+    DhisResponseBody dhisResponseBody = send(dataValueSet, server, orgUnitIds,
+        (payload, withUids) -> withUids
+            ? dhisDataService.sendDataValueSetWithUids(payload, server.getUrl(),
+                server.getUsername(), server.getPassword())
+            : dhisDataService.sendDataValueSet(payload, server.getUrl(),
+                server.getUsername(), server.getPassword()));
+    LOGGER.debug("DHIS2 response body: " + dhisResponseBody);
+    return dhisResponseBody;
+  }
+
+  /**
+   * Starts an asynchronous import of a single payload on the given DHIS2 server. The payload is
+   * sent with DHIS2 UIDs in the same way as by
+   * {@link #sendDataValueSet(DataValueSet, Server, Map)}.
+   *
+   * @param dataValueSet payload to be sent
+   * @param server target {@link Server}
+   * @param orgUnitIds DHIS2 UIDs of the org units, as returned by {@link #getOrgUnitIds(Server)}
+   * @return ID of the DHIS2 job importing the payload
+   */
+  public String startDataValueSetImport(DataValueSet dataValueSet, Server server,
+                                        Map<String, String> orgUnitIds) {
+    LOGGER.debug("Starting import of data value set: " + dataValueSet);
+    String jobId = send(dataValueSet, server, orgUnitIds, (payload, withUids) -> dhisDataService
+        .startDataValueSetImport(payload, withUids, server.getUrl(), server.getUsername(),
+            server.getPassword()));
+    LOGGER.debug("DHIS2 import job: " + jobId);
+    return jobId;
+  }
+
+  /**
+   * Checks whether an asynchronous import started by
+   * {@link #startDataValueSetImport(DataValueSet, Server, Map)} has finished.
+   *
+   * @param jobId ID of the DHIS2 job importing the payload
+   * @param server target {@link Server}
+   * @return response with the import summary, or empty if DHIS2 is still importing the payload
+   * @throws ImportFailedException if DHIS2 has failed to import the payload
+   */
+  public Optional<DhisResponseBody> findImportResult(String jobId, Server server) {
+    boolean completed = dhisDataService
+        .getDataValueSetImportTasks(jobId, server.getUrl(), server.getUsername(),
+            server.getPassword())
+        .stream()
+        .anyMatch(DhisTaskNotification::isCompleted);
+    if (!completed) {
+      return Optional.empty();
+    }
+
+    DhisResponseBodyDetails importSummary = dhisDataService.getDataValueSetImportSummary(jobId,
+        server.getUrl(), server.getUsername(), server.getPassword());
+    LOGGER.debug("DHIS2 import summary: " + importSummary);
+    if (IMPORT_STATUS_ERROR.equals(importSummary.getStatus())) {
+      LOGGER.warn("DHIS2 import job {} failed: {}", jobId, importSummary.getDescription());
+      throw new ImportFailedException(MessageKeys.ERROR_EXTERNAL_API_IMPORT_FAILED);
+    }
+
+    DhisResponseBody dhisResponseBody = new DhisResponseBody();
+    dhisResponseBody.setStatus(importSummary.getStatus());
+    dhisResponseBody.setResponse(importSummary);
+    return Optional.of(dhisResponseBody);
+  }
+
+  /**
+   * Sends the payload with DHIS2 UIDs if all of them are known, otherwise as it is.
+   */
+  private <T> T send(DataValueSet dataValueSet, Server server, Map<String, String> orgUnitIds,
+                     BiFunction<DataValueSet, Boolean, T> request) {
+    DataValueSet withUids = useUids ? toUids(dataValueSet, server, orgUnitIds) : null;
+    if (withUids == null) {
+      return request.apply(dataValueSet, false);
+    }
+
+    try {
+      return request.apply(withUids, true);
+    } catch (RestOperationException ex) {
+      // the metadata may have changed in DHIS2, the next attempt looks the UIDs up again
+      dhisMetadataCache.invalidate(server);
+      throw ex;
+    }
+  }
+
+  /**
+   * Replaces names and codes of the given payload with DHIS2 UIDs. Returns null if any of them
+   * has no known UID or the metadata can not be retrieved.
    */
-  public void sendData(Schedule schedule, UUID periodMappingId, List<String> facilityCodes) {
-    DataElement dataElement = schedule.getDataElement();
-    final String orderable = dataElement.getOrderable();
-    final String categoryOptionCombo = dataElement.getCategoryCombo();
-    final String sourceTable = dataElement.getSource();
-    final String indicator = dataElement.getIndicator();
-
-    Dataset dataset = schedule.getDataset();
-    final String dhisDatasetId = dataset.getDhisDatasetId();
-    final String periodEnum = dataset.getCronExpression();
-    final int timeOffset = dataset.getTimeOffset();
-
-    Server server = schedule.getServer();
-
-    Pair<ZonedDateTime, ZonedDateTime> periodRange;
-    String formattedStartDate;
-    if (sourceTable.equals("Requisition")) {
-      if (periodMappingId != null) {
-        PeriodMapping periodMapping = getPeriodMapping(periodMappingId);
-        periodRange = periodGeneratorService.generateRange(periodMapping);
-
-        formattedStartDate = periodGeneratorService.formatDate(periodRange.getSecond(),
-                getDhisPeriodTypeWithName(periodMapping.getDhisPeriod(), server));
-      } else {
-        periodRange = periodGeneratorService.getLastRequisitionPeriod();
-        formattedStartDate = periodGeneratorService.formatDate(periodRange.getSecond(),
-                DEFAULT_DHIS_PERIOD);
+  private DataValueSet toUids(DataValueSet dataValueSet, Server server,
+                              Map<String, String> orgUnits) {
+    Map<String, String> dataElements;
+    Map<String, String> categoryOptionCombos;
+    try {
+      dataElements = dhisMetadataCache.getDataElementIds(server, dataValueSet.getDataSet());
+      categoryOptionCombos = dhisMetadataCache.getCategoryOptionComboIds(server);
+    } catch (RuntimeException ex) {
+      LOGGER.warn("Unable to retrieve DHIS2 metadata, sending values by name", ex);
+      return null;
+    }
+
+    List<DataValue> dataValues = new ArrayList<>();
+    for (DataValue dataValue : dataValueSet.getDataValues()) {
+      if (!hasUid(dataElements, dataValue.getDataElement())
+          || !hasUid(categoryOptionCombos, dataValue.getCategoryOptionCombo())
+          || !hasUid(orgUnits, dataValue.getOrgUnit())) {
+        LOGGER.debug("No DHIS2 UID of {}, sending values by name", dataValue);
+        return null;
       }
+      dataValues.add(new DataValue(toUid(dataElements, dataValue.getDataElement()),
+          toUid(categoryOptionCombos, dataValue.getCategoryOptionCombo()),
+          toUid(orgUnits, dataValue.getOrgUnit()), dataValue.getPeriod(),
+          dataValue.getValue()));
+    }
+
+    if (!hasUid(orgUnits, dataValueSet.getOrgUnit())) {
+      return null;
+    }
+    return new DataValueSet(dataValueSet.getDataSet(), dataValueSet.getPeriod(),
+        toUid(orgUnits, dataValueSet.getOrgUnit()), dataValues);
+  }
+
+  private boolean hasUid(Map<String, String> uids, String name) {
+    return name == null || uids.containsKey(name);
+  }
+
+  private String toUid(Map<String, String> uids, String name) {
+    return name == null ? null : uids.get(name);
+  }
+
+  /**
+   * Groups the given values into as few payloads as possible. All values end up in a single
+   * payload unless the chunk size is positive, in which case each payload holds at most that
+   * many values.
+   */
+  private List<DataValueSet> toDataValueSets(String dhisDatasetId, String period,
+                                             List<DataValue> dataValues) {
+    if (dataValues.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    List<List<DataValue>> chunks = chunkSize > 0
+        ? Lists.partition(dataValues, chunkSize)
+        : Collections.singletonList(dataValues);
+
+    return chunks.stream()
+        .map(chunk -> buildDataValueSet(dhisDatasetId, period, chunk))
+        .collect(Collectors.toList());
+  }
+
+  private List<String> getOrgUnits(Server server, List<String> facilityCodes) {
+    List<OrgUnit> orgUnits;
+    if (facilityCodes == null) {
+      orgUnits = sharedFacilityRepository.findOrgUnitsByServerId(server.getId());
+    } else if (facilityCodes.isEmpty()) {
+      orgUnits = Collections.emptyList();
     } else {
-      periodRange = periodGeneratorService.generateRange(periodEnum, timeOffset);
-      formattedStartDate = periodGeneratorService.formatDate(periodRange.getFirst(), periodEnum);
+      orgUnits = sharedFacilityRepository
+              .findOrgUnitsByServerIdAndCodeIn(server.getId(), facilityCodes);
     }
 
-    List<String> orgUnits = sharedFacilityRepository.findAll().stream()
-            .map(SharedFacility::getCode)
+    return orgUnits.stream()
+            .map(OrgUnit::getCode)
             .collect(Collectors.toList());
+  }
+
+  private boolean isRequisitionBased(DataElement dataElement) {
+    return dataElement.getSource().equals("Requisition");
+  }
 
-    if (facilityCodes != null) {
-      orgUnits = orgUnits.stream()
-              .filter(facilityCodes::contains)
-              .collect(Collectors.toList());
+  private ExportPeriod resolvePeriod(boolean requisitionBased, Dataset dataset, Server server,
+                                     UUID periodMappingId) {
+    if (!requisitionBased) {
+      final String periodEnum = dataset.getCronExpression();
+      Pair<ZonedDateTime, ZonedDateTime> periodRange = periodGeneratorService
+              .generateRange(periodEnum, dataset.getTimeOffset());
+      return new ExportPeriod(periodRange,
+              periodGeneratorService.formatDate(periodRange.getFirst(), periodEnum));
     }
 
-    for (String orgUnit: orgUnits) {
-      final BigDecimal calculatedIndicator = indicatorService.generate(sourceTable,
-              indicator, periodRange, orderable, orgUnit);
-
-      DataValue dataValue = buildDataValue(orderable, categoryOptionCombo, calculatedIndicator);
-      DataValueSet dataValueSet = buildDataValueSet(dhisDatasetId, formattedStartDate, orgUnit,
-              dataValue);
-      DhisResponseBody dhisResponseBody = dhisDataService.sendDataValueSet(dataValueSet,
-              server.getUrl(), server.getUsername(), server.getPassword());
-      LOGGER.debug("Sending data value set: " + dataValueSet);
-      LOGGER.debug("DHIS2 response body: " + dhisResponseBody);
+    if (periodMappingId != null) {
+      PeriodMapping periodMapping = getPeriodMapping(periodMappingId);
+      Pair<ZonedDateTime, ZonedDateTime> periodRange = periodGeneratorService
+              .generateRange(periodMapping);
+      return new ExportPeriod(periodRange, periodGeneratorService.formatDate(
+              periodRange.getSecond(),
+              getDhisPeriodTypeWithName(periodMapping.getDhisPeriod(), server)));
     }
+
+    Pair<ZonedDateTime, ZonedDateTime> periodRange = periodGeneratorService
+            .getLastRequisitionPeriod();
+    return new ExportPeriod(periodRange, periodGeneratorService.formatDate(
+            periodRange.getSecond(), DEFAULT_DHIS_PERIOD));
   }
 
   private PeriodMapping getPeriodMapping(UUID periodMappingId) {
@@ -153,23 +400,51 @@ public class ProcessedDataExchangeService {
             .orElseThrow(() -> new NotFoundException(MessageKeys.ERROR_PERIOD_TYPE_NOT_FOUND));
   }
 
+  private String getCategoryOptionCombo(DataElement dataElement, String categoryOptionCombo) {
+    return IndicatorSupplier.DEFAULT_CATEGORY_OPTION_COMBO.equals(categoryOptionCombo)
+        ? dataElement.getCategoryCombo()
+        : categoryOptionCombo;
+  }
+
   private DataValue buildDataValue(String dataElement, String categoryOptionCombo,
-                                   BigDecimal value) {
+                                   String orgUnit, String period, BigDecimal value) {
     DataValue dataValue = new DataValue();
     dataValue.setDataElement(dataElement);
     dataValue.setCategoryOptionCombo(categoryOptionCombo);
+    dataValue.setOrgUnit(orgUnit);
+    dataValue.setPeriod(period);
     dataValue.setValue(value);
     return dataValue;
   }
 
-  private DataValueSet buildDataValueSet(String dataset, String period, String orgUnit,
-                                         DataValue dataValue) {
+  private DataValueSet buildDataValueSet(String dataset, String period,
+                                         List<DataValue> dataValues) {
     DataValueSet dataValueSet = new DataValueSet();
     dataValueSet.setDataSet(dataset);
     dataValueSet.setPeriod(period);
-    dataValueSet.setOrgUnit(orgUnit);
-    dataValueSet.setDataValues(Collections.singletonList(dataValue));
+    dataValueSet.setDataValues(dataValues);
     return dataValueSet;
   }
 
+  @AllArgsConstructor
+  private static final class ExportPeriod {
+    private final Pair<ZonedDateTime, ZonedDateTime> range;
+    private final String name;
+  }
+
+  @AllArgsConstructor
+  private static final class ElementValues {
+    private final DataElement dataElement;
+    private final ExportPeriod period;
+    private final IndicatorCall call;
+  }
+
+  @EqualsAndHashCode
+  @AllArgsConstructor
+  private static final class IndicatorCall {
+    private final String source;
+    private final String indicator;
+    private final ExportPeriod period;
+  }
+
 }
@@ -0,0 +1,218 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.integration.dhis2.service.communication;
+
+import static org.openlmis.integration.dhis2.service.communication.ReferenceDataService.PROCESSING_PERIODS_RESOURCE_PATH;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import javax.annotation.PostConstruct;
+import lombok.AllArgsConstructor;
+import org.openlmis.integration.dhis2.dto.referencedata.PageDto;
+import org.openlmis.integration.dhis2.dto.referencedata.ProcessingPeriodDto;
+import org.openlmis.integration.dhis2.service.ServiceResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Local copy of the reference data resources used by exports. Each resource is kept for the
+ * configured time to live. After that its pages are requested again with the ETags received
+ * before, so pages which have not changed are not transferred again. Concurrent callers of an
+ * expired resource wait for a single request.
+ */
+@Service
+public class ReferenceDataCache {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReferenceDataCache.class);
+
+  static final String CACHE_METRIC = "referencedata.cache";
+  private static final String RESULT_TAG = "result";
+
+  private final Counter hits = Metrics.counter(CACHE_METRIC, RESULT_TAG, "hit");
+  private final Counter misses = Metrics.counter(CACHE_METRIC, RESULT_TAG, "miss");
+  private final Counter notModified = Metrics.counter(CACHE_METRIC, RESULT_TAG, "notModified");
+
+  // a resource being loaded is kept as an unfinished future, which other callers wait for
+  private final ConcurrentMap<String, CompletableFuture<CachedResource<?>>> resources =
+      new ConcurrentHashMap<>();
+
+  @Autowired
+  private ReferenceDataService referenceDataService;
+
+  @Autowired
+  private Clock clock;
+
+  @Value("${referencedata.cache.timeToLive}")
+  private long timeToLive;
+
+  /**
+   * Registers the size of the cache as a metric.
+   */
+  @PostConstruct
+  public void init() {
+    Metrics.globalRegistry.gaugeMapSize(CACHE_METRIC + ".size", Tags.empty(), resources);
+  }
+
+  /**
+   * Returns all processing periods from referencedata service.
+   */
+  public List<ProcessingPeriodDto> getProcessingPeriods() {
+    return getAll(PROCESSING_PERIODS_RESOURCE_PATH, ProcessingPeriodDto.class);
+  }
+
+  /**
+   * Returns the processing period with the given ID. The period is looked up in the cached
+   * list first and requested directly only if it is not there, e.g. because it has been just
+   * created.
+   */
+  public ProcessingPeriodDto getProcessingPeriod(UUID processingPeriodId) {
+    return getProcessingPeriods().stream()
+        .filter(period -> processingPeriodId.equals(period.getId()))
+        .findFirst()
+        .orElseGet(() -> referenceDataService.findProcessingPeriod(processingPeriodId));
+  }
+
+  private <T> List<T> getAll(String resourcePath, Class<T> clazz) {
+    while (true) {
+      CompletableFuture<CachedResource<?>> current = resources.get(resourcePath);
+      if (current != null && !isExpired(current)) {
+        hits.increment();
+        return CachedResource.<T>cast(await(current)).content;
+      }
+
+      // only one caller requests the resource, the others wait for it; the ETags of the expired
+      // copy are sent along, so unchanged pages are not transferred again
+      CompletableFuture<CachedResource<?>> request = new CompletableFuture<>();
+      boolean claimed = current == null
+          ? resources.putIfAbsent(resourcePath, request) == null
+          : resources.replace(resourcePath, current, request);
+      if (claimed) {
+        misses.increment();
+        CachedResource<T> previous = current == null || current.isCompletedExceptionally()
+            ? null
+            : CachedResource.cast(current.join());
+        return load(resourcePath, clazz, previous, request).content;
+      }
+    }
+  }
+
+  private <T> CachedResource<T> load(String resourcePath, Class<T> clazz,
+                                     CachedResource<T> previous,
+                                     CompletableFuture<CachedResource<?>> request) {
+    try {
+      CachedResource<T> loaded = loadPages(resourcePath, clazz, previous);
+      request.complete(loaded);
+      return loaded;
+    } catch (RuntimeException ex) {
+      // callers waiting for this request fail as well, the next one tries again
+      resources.remove(resourcePath, request);
+      request.completeExceptionally(ex);
+      throw ex;
+    }
+  }
+
+  private boolean isExpired(CompletableFuture<CachedResource<?>> cached) {
+    // a resource which is still being loaded is not expired, it is waited for
+    if (!cached.isDone()) {
+      return false;
+    }
+    return cached.isCompletedExceptionally() || clock.millis() >= cached.join().expiresAt;
+  }
+
+  private static CachedResource<?> await(CompletableFuture<CachedResource<?>> cached) {
+    try {
+      return cached.join();
+    } catch (CompletionException ex) {
+      if (ex.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ex.getCause();
+      }
+      throw ex;
+    }
+  }
+
+  private <T> CachedResource<T> loadPages(String resourcePath, Class<T> clazz,
+                                          CachedResource<T> previous) {
+    Map<Integer, String> etags = new ConcurrentHashMap<>();
+
+    IntFunction<PageDto<T>> pageSupplier = number -> {
+      String etag = previous == null ? null : previous.getETag(number);
+      ServiceResponse<PageDto<T>> response = referenceDataService
+          .findPage(resourcePath, clazz, number, etag);
+
+      if (!response.isModified() && etag != null) {
+        notModified.increment();
+        etags.put(number, etag);
+        return previous.pages.get(number);
+      }
+
+      if (response.getETag() != null) {
+        etags.put(number, response.getETag());
+      }
+      return response.getBody();
+    };
+
+    List<PageDto<T>> pages = new ArrayList<>();
+    referenceDataService.iteratePages(pageSupplier).forEachRemaining(pages::add);
+
+    List<String> pageETags = IntStream.range(0, pages.size())
+        .mapToObj(etags::get)
+        .collect(Collectors.toList());
+    List<T> content = pages.stream()
+        .map(PageDto::getContent)
+        .flatMap(Collection::stream)
+        .collect(Collectors.collectingAndThen(Collectors.toList(),
+            Collections::unmodifiableList));
+
+    LOGGER.debug("Loaded {} elements of {}", content.size(), resourcePath);
+    return new CachedResource<>(pages, pageETags, content, clock.millis() + timeToLive * 1000);
+  }
+
+  @AllArgsConstructor
+  private static final class CachedResource<T> {
+    private final List<PageDto<T>> pages;
+    private final List<String> etags;
+    private final List<T> content;
+    private final long expiresAt;
+
+    String getETag(int page) {
+      return page < etags.size() ? etags.get(page) : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> CachedResource<T> cast(CachedResource<?> resource) {
+      return (CachedResource<T>) resource;
+    }
+  }
+
+}
@@ -18,7 +18,15 @@ package org.openlmis.integration.dhis2.service.communication;
 import static org.openlmis.integration.dhis2.util.RequestHelper.createEntity;
 
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import org.openlmis.integration.dhis2.dto.referencedata.MinimalFacilityDto;
 import org.openlmis.integration.dhis2.dto.referencedata.OrderableDto;
 import org.openlmis.integration.dhis2.dto.referencedata.PageDto;
@@ -26,19 +34,27 @@ import org.openlmis.integration.dhis2.dto.referencedata.ProcessingPeriodDto;
 import org.openlmis.integration.dhis2.exception.ResponseParsingException;
 import org.openlmis.integration.dhis2.exception.RestOperationException;
 import org.openlmis.integration.dhis2.i18n.MessageKeys;
+import org.openlmis.integration.dhis2.service.ServiceResponse;
 import org.openlmis.integration.dhis2.service.auth.ReferenceDataAuthService;
+import org.openlmis.integration.dhis2.util.Merger;
+import org.openlmis.integration.dhis2.util.PageIterator;
+import org.openlmis.integration.dhis2.util.RequestHeaders;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.core.ResolvableType;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
 
 @Service
+@SuppressWarnings("PMD.TooManyMethods")
 public class ReferenceDataService {
 
   public static final String API_URL = "/api/";
@@ -49,37 +65,91 @@ public class ReferenceDataService {
   @Value("${service.url}")
   private String serviceUrl;
 
+  @Value("${referencedata.pageSize}")
+  private int pageSize;
+
+  @Value("${referencedata.pageWindow}")
+  private int pageWindow;
+
   @Autowired
   private RestTemplate restTemplate;
 
   @Autowired
   private ReferenceDataAuthService authService;
 
+  private ExecutorService pageExecutor;
+
+  /**
+   * Creates the pool the following pages of a resource are retrieved on.
+   */
+  @PostConstruct
+  public void init() {
+    pageExecutor = Executors.newFixedThreadPool(Math.max(pageWindow, 1),
+        new CustomizableThreadFactory("referencedata-page-"));
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    pageExecutor.shutdownNow();
+  }
+
   /**
-   * Retrieves {@link PageDto} of {@link MinimalFacilityDto} objects from referencedata service.
+   * Retrieves {@link PageDto} of all {@link MinimalFacilityDto} objects from referencedata
+   * service.
    *
    * @return page of MinimalFacilityDto objects.
    */
   public PageDto<MinimalFacilityDto> findAllFacilities() {
-    return doPageRequest(FACILITIES_RESOURCE_PATH, MinimalFacilityDto.class);
+    return findAll(FACILITIES_RESOURCE_PATH, MinimalFacilityDto.class);
   }
 
   /**
-   * Retrieves {@link PageDto} of {@link OrderableDto} objects from referencedata service.
+   * Retrieves {@link PageDto} of all {@link OrderableDto} objects from referencedata service.
    *
    * @return page of OrderableDto objects.
    */
   public PageDto<OrderableDto> findAllOrderables() {
-    return doPageRequest(ORDERABLES_RESOURCE_PATH, OrderableDto.class);
+    return findAll(ORDERABLES_RESOURCE_PATH, OrderableDto.class);
   }
 
   /**
-   * Retrieves {@link PageDto} of {@link ProcessingPeriodDto} objects from referencedata service.
+   * Retrieves {@link PageDto} of all {@link ProcessingPeriodDto} objects from referencedata
+   * service.
    *
    * @return page of ProcessingPeriodDto objects.
    */
   public PageDto<ProcessingPeriodDto> findAllProcessingPeriods() {
-    return doPageRequest(PROCESSING_PERIODS_RESOURCE_PATH, ProcessingPeriodDto.class);
+    return findAll(PROCESSING_PERIODS_RESOURCE_PATH, ProcessingPeriodDto.class);
+  }
+
+  /**
+   * Streams all {@link MinimalFacilityDto} objects from referencedata service. Pages are
+   * retrieved while the stream is consumed.
+   *
+   * @return stream of MinimalFacilityDto objects.
+   */
+  public Stream<MinimalFacilityDto> streamAllFacilities() {
+    return streamAll(FACILITIES_RESOURCE_PATH, MinimalFacilityDto.class);
+  }
+
+  /**
+   * Streams all {@link OrderableDto} objects from referencedata service. Pages are retrieved
+   * while the stream is consumed.
+   *
+   * @return stream of OrderableDto objects.
+   */
+  public Stream<OrderableDto> streamAllOrderables() {
+    return streamAll(ORDERABLES_RESOURCE_PATH, OrderableDto.class);
+  }
+
+  /**
+   * Streams all {@link ProcessingPeriodDto} objects from referencedata service. Pages are
+   * retrieved while the stream is consumed.
+   *
+   * @return stream of ProcessingPeriodDto objects.
+   */
+  public Stream<ProcessingPeriodDto> streamAllProcessingPeriods() {
+    return streamAll(PROCESSING_PERIODS_RESOURCE_PATH, ProcessingPeriodDto.class);
   }
 
   /**
@@ -107,22 +177,63 @@ public class ReferenceDataService {
     }
   }
 
-  private <T> PageDto<T> doPageRequest(String resourcePath, Class<T> clazz) {
+  private <T> PageDto<T> findAll(String resourcePath, Class<T> clazz) {
+    List<PageDto<T>> pages = new ArrayList<>();
+    new PageIterator<>(page -> doPageRequest(resourcePath, clazz, page), pageExecutor,
+        pageWindow).forEachRemaining(pages::add);
+
+    return Merger
+        .ofPages(pages)
+        .withDefaultValue(PageDto::new)
+        .merge();
+  }
+
+  private <T> Stream<T> streamAll(String resourcePath, Class<T> clazz) {
+    return PageIterator.stream(page -> doPageRequest(resourcePath, clazz, page), pageExecutor,
+        pageWindow);
+  }
+
+  /**
+   * Creates iterator over pages returned by the given supplier. Pages are retrieved on the pool
+   * of this service, with the same window as all other paginated requests.
+   */
+  public <T> PageIterator<T> iteratePages(IntFunction<PageDto<T>> pageSupplier) {
+    return new PageIterator<>(pageSupplier, pageExecutor, pageWindow);
+  }
+
+  /**
+   * Retrieves a single page of the given resource. If the etag is given, the request is
+   * conditional and the response has no body when the page has not changed since.
+   */
+  public <T> ServiceResponse<PageDto<T>> findPage(String resourcePath, Class<T> clazz,
+                                                  int page, String etag) {
+    URI uri = UriComponentsBuilder.fromHttpUrl(serviceUrl + API_URL + resourcePath)
+        .queryParam("page", page)
+        .queryParam("size", pageSize)
+        .build()
+        .toUri();
+
+    RequestHeaders headers = RequestHeaders.init()
+        .setAuth(authService.obtainAccessToken())
+        .setIfNoneMatch(etag);
+
     try {
       ResponseEntity<PageDto<T>> response = restTemplate.exchange(
-              URI.create(serviceUrl + API_URL + resourcePath),
+              uri,
               HttpMethod.GET,
-              createEntity(authService.obtainAccessToken(), "Bearer"),
+              createEntity(headers),
               ParameterizedTypeReference.forType(
                       ResolvableType.forClassWithGenerics(PageDto.class, clazz).getType())
       );
 
-      try {
-        return response.getBody();
-      } catch (NullPointerException ex) {
+      if (response.getStatusCode() == HttpStatus.NOT_MODIFIED) {
+        return new ServiceResponse<>(null, response.getHeaders(), false);
+      }
+      if (response.getBody() == null) {
         throw new ResponseParsingException(
-                MessageKeys.ERROR_EXTERNAL_API_RESPONSE_BODY_UNABLE_TO_PARSE, ex);
+                MessageKeys.ERROR_EXTERNAL_API_RESPONSE_BODY_UNABLE_TO_PARSE);
       }
+      return new ServiceResponse<>(response.getBody(), response.getHeaders(), true);
     } catch (HttpClientErrorException ex) {
       throw new RestOperationException(
               MessageKeys.ERROR_EXTERNAL_API_CLIENT_REQUEST_FAILED, ex);
@@ -131,4 +242,8 @@ public class ReferenceDataService {
     }
   }
 
+  private <T> PageDto<T> doPageRequest(String resourcePath, Class<T> clazz, int page) {
+    return findPage(resourcePath, clazz, page, null).getBody();
+  }
+
 }
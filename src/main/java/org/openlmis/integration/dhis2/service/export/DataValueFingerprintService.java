@@ -0,0 +1,181 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+
+package org.openlmis.integration.dhis2.service.export;
+
+import java.time.Clock;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.apache.commons.lang3.StringUtils;
+import org.openlmis.integration.dhis2.domain.export.DataValueFingerprint;
+import org.openlmis.integration.dhis2.domain.server.Server;
+import org.openlmis.integration.dhis2.dto.dhis.DataValue;
+import org.openlmis.integration.dhis2.dto.dhis.DataValueSet;
+import org.openlmis.integration.dhis2.dto.dhis.DhisImportConflict;
+import org.openlmis.integration.dhis2.dto.dhis.DhisImportCount;
+import org.openlmis.integration.dhis2.dto.dhis.DhisResponseBody;
+import org.openlmis.integration.dhis2.dto.dhis.DhisResponseBodyDetails;
+import org.openlmis.integration.dhis2.repository.export.DataValueFingerprintRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Detects values which have not changed since they were last acknowledged by a DHIS2 server, so
+ * they do not have to be sent again.
+ */
+@Service
+public class DataValueFingerprintService {
+
+  @Autowired
+  private DataValueFingerprintRepository dataValueFingerprintRepository;
+
+  @Autowired
+  private Clock clock;
+
+  /**
+   * Removes values which have been already acknowledged by the given server with the same
+   * value. Sets left without values are removed as well.
+   *
+   * @param server target server
+   * @param dataValueSets payloads to be sent
+   * @return payloads with changed values only, in the original order
+   */
+  public List<DataValueSet> removeUnchanged(Server server, List<DataValueSet> dataValueSets) {
+    Map<String, Map<List<String>, String>> acknowledged = new HashMap<>();
+
+    return dataValueSets.stream()
+        .map(dataValueSet -> {
+          Map<List<String>, String> fingerprints = acknowledged.computeIfAbsent(
+              dataValueSet.getDataSet(),
+              dataSet -> findFingerprints(server, dataSet, dataValueSets));
+
+          List<DataValue> changed = dataValueSet.getDataValues().stream()
+              .filter(dataValue -> {
+                DataValueFingerprint fingerprint = toFingerprint(dataValueSet, dataValue);
+                return !Objects.equals(fingerprints.get(getKey(fingerprint)),
+                    fingerprint.getFingerprint());
+              })
+              .collect(Collectors.toList());
+
+          return new DataValueSet(dataValueSet.getDataSet(), dataValueSet.getPeriod(),
+              dataValueSet.getOrgUnit(), changed);
+        })
+        .filter(dataValueSet -> !dataValueSet.getDataValues().isEmpty())
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Stores fingerprints of the values of the given payload which the server has acknowledged.
+   * A value ignored by the server, because it already holds the same value, is acknowledged as
+   * well. Values the server reported a conflict for are left out. If the response does not show
+   * that all other values have been acknowledged, nothing is recorded, so they are all sent
+   * again next time.
+   *
+   * @param server server which has answered the payload
+   * @param dataValueSet payload, as it has been sent
+   * @param response import summary of the payload
+   */
+  public void recordAcknowledged(Server server, DataValueSet dataValueSet,
+                                 DhisResponseBody response) {
+    List<DataValueFingerprint> fingerprints = getStored(dataValueSet, response).stream()
+        .map(dataValue -> toFingerprint(dataValueSet, dataValue))
+        .collect(Collectors.toList());
+
+    if (!fingerprints.isEmpty()) {
+      dataValueFingerprintRepository.saveAll(server.getId(), fingerprints,
+          ZonedDateTime.now(clock));
+    }
+  }
+
+  private static List<DataValue> getStored(DataValueSet dataValueSet,
+                                           DhisResponseBody response) {
+    DhisResponseBodyDetails details = response == null ? null : response.getResponse();
+    if (details == null || details.getImportCount() == null) {
+      return Collections.emptyList();
+    }
+
+    // indexes point at the rejected values of the payload, as it has been sent
+    Set<Integer> rejected = new HashSet<>();
+    if (details.getConflicts() != null) {
+      for (DhisImportConflict conflict : details.getConflicts()) {
+        if (conflict.getIndexes() == null || conflict.getIndexes().isEmpty()) {
+          // it is not known which values the conflict is about
+          return Collections.emptyList();
+        }
+        rejected.addAll(conflict.getIndexes());
+      }
+    }
+
+    List<DataValue> dataValues = dataValueSet.getDataValues();
+    List<DataValue> stored = IntStream.range(0, dataValues.size())
+        .filter(index -> !rejected.contains(index))
+        .mapToObj(dataValues::get)
+        .collect(Collectors.toList());
+
+    DhisImportCount importCount = details.getImportCount();
+    int acknowledged = importCount.getImported() + importCount.getUpdated()
+        + importCount.getIgnored();
+    return acknowledged < stored.size()
+        ? Collections.emptyList()
+        : stored;
+  }
+
+  private Map<List<String>, String> findFingerprints(Server server, String dataSet,
+                                                     List<DataValueSet> dataValueSets) {
+    // all periods of the data set are loaded at once, usually there is only one of them
+    Set<String> periods = dataValueSets.stream()
+        .filter(dataValueSet -> Objects.equals(dataSet, dataValueSet.getDataSet()))
+        .flatMap(dataValueSet -> dataValueSet.getDataValues().stream()
+            .map(dataValue -> toFingerprint(dataValueSet, dataValue).getPeriod()))
+        .collect(Collectors.toSet());
+
+    return dataValueFingerprintRepository
+        .findByServerAndDataSet(server.getId(), dataSet, periods)
+        .stream()
+        .collect(Collectors.toMap(DataValueFingerprintService::getKey,
+            DataValueFingerprint::getFingerprint));
+  }
+
+  private static DataValueFingerprint toFingerprint(DataValueSet dataValueSet,
+                                                    DataValue dataValue) {
+    // organisation unit and period of a value may be given on the enclosing set only
+    String value = dataValue.getValue() == null
+        ? ""
+        : dataValue.getValue().stripTrailingZeros().toPlainString();
+
+    return new DataValueFingerprint(dataValueSet.getDataSet(),
+        StringUtils.defaultString(dataValue.getPeriod(), dataValueSet.getPeriod()),
+        StringUtils.defaultString(dataValue.getOrgUnit(), dataValueSet.getOrgUnit()),
+        dataValue.getDataElement(),
+        StringUtils.defaultString(dataValue.getCategoryOptionCombo()),
+        value);
+  }
+
+  private static List<String> getKey(DataValueFingerprint fingerprint) {
+    return Arrays.asList(fingerprint.getPeriod(), fingerprint.getOrgUnit(),
+        fingerprint.getDataElement(), fingerprint.getCategoryOptionCombo());
+  }
+
+}
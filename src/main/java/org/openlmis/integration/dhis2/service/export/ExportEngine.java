@@ -0,0 +1,485 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.integration.dhis2.service.export;
+
+import java.time.Clock;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.openlmis.integration.dhis2.domain.dataset.Dataset;
+import org.openlmis.integration.dhis2.domain.outbox.OutboxEntry;
+import org.openlmis.integration.dhis2.domain.schedule.Schedule;
+import org.openlmis.integration.dhis2.domain.server.Server;
+import org.openlmis.integration.dhis2.dto.dhis.DataValueSet;
+import org.openlmis.integration.dhis2.dto.dhis.DhisResponseBody;
+import org.openlmis.integration.dhis2.exception.ImportPendingException;
+import org.openlmis.integration.dhis2.service.communication.ProcessedDataExchangeService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * Runs exports as a two stage pipeline. Indicator values of each dataset are calculated on a
+ * shared, bounded compute pool, while the resulting payloads are sent on a separate pool per
+ * DHIS2 server. The size of each server pool is the concurrency limit of that server, so a slow
+ * instance only delays its own payloads.
+ */
+@Service
+@SuppressWarnings("PMD.TooManyMethods")
+public class ExportEngine {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ExportEngine.class);
+  private static final long SUBMIT_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+  @Autowired
+  private ProcessedDataExchangeService processedDataExchangeService;
+
+  @Autowired
+  private OutboxService outboxService;
+
+  @Autowired
+  private DataValueFingerprintService dataValueFingerprintService;
+
+  @Autowired
+  private ImportPoller importPoller;
+
+  @Autowired
+  private ExportRunService exportRunService;
+
+  @Autowired
+  private Clock clock;
+
+  @Value("${dhis2.export.computeThreads}")
+  private int computeThreads;
+
+  @Value("${dhis2.export.computeQueueSize}")
+  private int computeQueueSize;
+
+  @Value("${dhis2.export.maxConcurrentRequestsPerServer}")
+  private int maxConcurrentRequestsPerServer;
+
+  @Value("${dhis2.export.async}")
+  private boolean asyncImport;
+
+  private ThreadPoolExecutor computeExecutor;
+
+  private ExecutorService runExecutor;
+
+  private final ConcurrentMap<UUID, ExecutorService> submitExecutors = new ConcurrentHashMap<>();
+
+  // asynchronous imports running on each server, they count towards the limit of its requests
+  private final ConcurrentMap<UUID, Semaphore> importPermits = new ConcurrentHashMap<>();
+
+  // outbox entries submitted by this instance which have not been delivered or failed yet
+  private final Set<UUID> inFlightEntries = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Creates the compute pool. When its queue is full the caller calculates the values itself,
+   * which slows down whoever produces the work instead of dropping it. Exports started in the
+   * background are run one after another, so they do not compete for the same pools.
+   */
+  @PostConstruct
+  public void init() {
+    computeExecutor = new ThreadPoolExecutor(computeThreads, computeThreads,
+        0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(computeQueueSize),
+        new CustomizableThreadFactory("export-compute-"),
+        new ThreadPoolExecutor.CallerRunsPolicy());
+    runExecutor = Executors.newSingleThreadExecutor(
+        new CustomizableThreadFactory("export-run-"));
+  }
+
+  /**
+   * Stops all pools, interrupting exports that are still running.
+   */
+  @PreDestroy
+  public void shutdown() {
+    runExecutor.shutdownNow();
+    computeExecutor.shutdownNow();
+    submitExecutors.values().forEach(ExecutorService::shutdownNow);
+  }
+
+  /**
+   * Retries delivery of the outbox entries which are due, using the same per server limits as
+   * regular exports.
+   *
+   * @return summary of the retries
+   */
+  public ExportSummary drainOutbox() {
+    ExportSummary summary = new ExportSummary(ZonedDateTime.now(clock));
+    // an entry still in flight here has been claimed only because its lease was not renewed
+    List<OutboxEntry> entries = outboxService.claimDueEntries().stream()
+        .filter(entry -> !inFlightEntries.contains(entry.getId()))
+        .collect(Collectors.toList());
+
+    // org units are looked up once per server, not for every entry
+    Map<UUID, Map<String, String>> orgUnitIds = new HashMap<>();
+    CompletableFuture<?>[] retries = entries.stream()
+        .map(entry -> retry(entry, orgUnitIds, summary))
+        .toArray(CompletableFuture[]::new);
+
+    CompletableFuture.allOf(retries).join();
+    summary.finish(ZonedDateTime.now(clock));
+
+    if (!entries.isEmpty()) {
+      LOGGER.info("Outbox drained: {}", summary);
+      save(summary);
+    }
+    return summary;
+  }
+
+  /**
+   * Extends the lease of the outbox entries which are still being delivered by this instance,
+   * so no other drain claims them while they wait for a request slot or for their import.
+   */
+  public void renewLeases() {
+    if (inFlightEntries.isEmpty()) {
+      return;
+    }
+
+    try {
+      outboxService.renewLeases(new ArrayList<>(inFlightEntries));
+    } catch (RuntimeException ex) {
+      // the renewal is tried again shortly, well before the current lease expires
+      LOGGER.error("Unable to renew lease of outbox entries", ex);
+    }
+  }
+
+  private CompletableFuture<Void> retry(OutboxEntry entry,
+                                        Map<UUID, Map<String, String>> orgUnitIds,
+                                        ExportSummary summary) {
+    Server server = entry.getServer();
+    DataValueSet dataValueSet;
+    Map<String, String> serverOrgUnitIds;
+    try {
+      dataValueSet = outboxService.getDataValueSet(entry);
+      serverOrgUnitIds = orgUnitIds.computeIfAbsent(server.getId(),
+          id -> processedDataExchangeService.getOrgUnitIds(server));
+    } catch (RuntimeException ex) {
+      LOGGER.error("Unable to read outbox entry {}", entry.getId(), ex);
+      markFailed(entry, ex);
+      return CompletableFuture.completedFuture(null);
+    }
+
+    return submit(server, entry, dataValueSet, serverOrgUnitIds, summary);
+  }
+
+  /**
+   * Exports the given schedules and waits until all of their payloads have been answered.
+   *
+   * @param schedules schedules to be exported
+   * @return summary of the run
+   */
+  public ExportSummary export(List<Schedule> schedules) {
+    return export(schedules, null, null, false);
+  }
+
+  /**
+   * Exports the given schedules and waits until all of their payloads have been answered.
+   * Failures of single datasets or payloads are recorded in the summary and do not stop the
+   * rest of the run. Values which the server has already acknowledged with the same value are
+   * skipped, unless the export is forced.
+   *
+   * @param schedules schedules to be exported
+   * @param periodMappingId id of specific period mapping, may be null
+   * @param facilityCodes codes of the facilities to be included, null means all of them
+   * @param force whether unchanged values should be sent as well
+   * @return summary of the run
+   */
+  public ExportSummary export(List<Schedule> schedules, UUID periodMappingId,
+                              List<String> facilityCodes, boolean force) {
+    ExportSummary summary = new ExportSummary(ZonedDateTime.now(clock));
+    start(summary);
+    return runExport(schedules, periodMappingId, facilityCodes, force, summary);
+  }
+
+  private CompletableFuture<Void> export(List<Schedule> schedules, UUID periodMappingId,
+                                         List<String> facilityCodes, boolean force,
+                                         ExportSummary summary) {
+    summary.addSchedules(schedules.size());
+    Server server = schedules.get(0).getServer();
+
+    return CompletableFuture
+        .supplyAsync(() -> {
+          List<DataValueSet> prepared = processedDataExchangeService
+              .prepareDataValueSets(schedules, periodMappingId, facilityCodes);
+          if (force) {
+            summary.addPrepared(prepared);
+            return prepared;
+          }
+
+          List<DataValueSet> changed = dataValueFingerprintService
+              .removeUnchanged(server, prepared);
+          summary.addSkippedDataValues(countDataValues(prepared) - countDataValues(changed));
+          summary.addPrepared(changed);
+          return changed;
+        }, computeExecutor)
+        .thenCompose(dataValueSets -> {
+          // org units are looked up once for all payloads of the dataset
+          Map<String, String> orgUnitIds = processedDataExchangeService.getOrgUnitIds(server);
+
+          // payloads are stored before the first attempt, so a failed one can be retried later
+          List<OutboxEntry> entries;
+          try {
+            entries = outboxService.enqueue(server, dataValueSets);
+          } catch (RuntimeException ex) {
+            Dataset dataset = schedules.get(0).getDataset();
+            LOGGER.error("Unable to store payloads of dataset {} in outbox", dataset.getId(), ex);
+            summary.addDatasetFailure(dataset, schedules.size(), ex);
+            return CompletableFuture.completedFuture(null);
+          }
+
+          return CompletableFuture.allOf(IntStream.range(0, entries.size())
+              .mapToObj(index -> submit(server, entries.get(index), dataValueSets.get(index),
+                  orgUnitIds, summary))
+              .toArray(CompletableFuture[]::new));
+        })
+        .exceptionally(ex -> {
+          Dataset dataset = schedules.get(0).getDataset();
+          LOGGER.error("Unable to prepare data of dataset {}", dataset.getId(), ex);
+          summary.addDatasetFailure(dataset, schedules.size(), ex);
+          return null;
+        });
+  }
+
+  /**
+   * Starts export of the schedules given by the supplier and returns without waiting for it.
+   * The supplier is called on the background thread as well, so any preparation it does
+   * delays only the export. The progress of the run can be followed by the id of the returned
+   * summary.
+   *
+   * @param schedules supplier of the schedules to be exported
+   * @param periodMappingId id of specific period mapping, may be null
+   * @param facilityCodes codes of the facilities to be included, null means all of them
+   * @param force whether unchanged values should be sent as well
+   * @return summary of the run, updated while the run goes on
+   */
+  public ExportSummary exportInBackground(Supplier<List<Schedule>> schedules,
+                                          UUID periodMappingId, List<String> facilityCodes,
+                                          boolean force) {
+    ExportSummary summary = new ExportSummary(ZonedDateTime.now(clock));
+    start(summary);
+
+    runExecutor.execute(() -> {
+      try {
+        runExport(schedules.get(), periodMappingId, facilityCodes, force, summary);
+      } catch (RuntimeException ex) {
+        LOGGER.error("Export {} failed", summary.getId(), ex);
+        summary.addFailure(ex);
+        summary.finish(ZonedDateTime.now(clock));
+        save(summary);
+      }
+    });
+    return summary;
+  }
+
+  private ExportSummary runExport(List<Schedule> schedules, UUID periodMappingId,
+                                  List<String> facilityCodes, boolean force,
+                                  ExportSummary summary) {
+    // all elements of a dataset are exported as one unit, so their values share the payloads
+    Map<UUID, List<Schedule>> datasets = schedules.stream()
+        .collect(Collectors.groupingBy(schedule -> schedule.getDataset().getId(),
+            LinkedHashMap::new, Collectors.toList()));
+    summary.addDatasets(datasets.size());
+
+    CompletableFuture<?>[] exports = datasets.values().stream()
+        .map(datasetSchedules -> export(datasetSchedules, periodMappingId, facilityCodes,
+            force, summary))
+        .toArray(CompletableFuture[]::new);
+
+    CompletableFuture.allOf(exports).join();
+    summary.finish(ZonedDateTime.now(clock));
+
+    LOGGER.info("Export finished: {}", summary);
+    save(summary);
+    return summary;
+  }
+
+  private CompletableFuture<Void> submit(Server server, OutboxEntry entry,
+                                         DataValueSet dataValueSet,
+                                         Map<String, String> orgUnitIds,
+                                         ExportSummary summary) {
+    inFlightEntries.add(entry.getId());
+
+    // an asynchronous import holds a permit of the server until the poller sees it finished,
+    // while the submit thread moves on to the next payload as soon as the import is started
+    CompletableFuture<DhisResponseBody> request = asyncImport || entry.getJobId() != null
+        ? CompletableFuture
+            .supplyAsync(() -> startImport(server, entry, dataValueSet, orgUnitIds),
+                getSubmitExecutor(server))
+            .thenCompose(jobId -> awaitImport(server, jobId))
+        : CompletableFuture
+            .supplyAsync(() -> processedDataExchangeService
+                .sendDataValueSet(dataValueSet, server, orgUnitIds), getSubmitExecutor(server));
+
+    return request
+        .thenApply(response -> {
+          markDelivered(entry);
+          recordAcknowledged(server, dataValueSet, response);
+          return response;
+        })
+        .handle((response, ex) -> {
+          if (ex == null) {
+            summary.addResponse(server, dataValueSet, response);
+          } else if (ImportPendingException.isPending(ex)) {
+            LOGGER.warn("Import job {} of server {} has not finished in time, it will be checked"
+                + " again later", entry.getJobId(), server.getUrl(), ex);
+            summary.addPendingImport(server, dataValueSet);
+            markFailed(entry, ex);
+          } else {
+            LOGGER.error("Unable to send data to server {}", server.getUrl(), ex);
+            summary.addRequestFailure(server, dataValueSet, ex);
+            markFailed(entry, ex);
+          }
+          inFlightEntries.remove(entry.getId());
+          return null;
+        });
+  }
+
+  private String startImport(Server server, OutboxEntry entry, DataValueSet dataValueSet,
+                             Map<String, String> orgUnitIds) {
+    Semaphore permits = getImportPermits(server);
+    permits.acquireUninterruptibly();
+
+    // the payload has been handed over already, only the outcome of its import is unknown
+    if (entry.getJobId() != null) {
+      return entry.getJobId();
+    }
+
+    String jobId;
+    try {
+      jobId = processedDataExchangeService.startDataValueSetImport(dataValueSet, server,
+          orgUnitIds);
+    } catch (RuntimeException ex) {
+      permits.release();
+      throw ex;
+    }
+
+    try {
+      outboxService.recordJob(entry, jobId);
+    } catch (RuntimeException ex) {
+      // without the job, an import which does not finish in time is started once more
+      LOGGER.error("Unable to record import job of outbox entry {}", entry.getId(), ex);
+    }
+    return jobId;
+  }
+
+  private CompletableFuture<DhisResponseBody> awaitImport(Server server, String jobId) {
+    Semaphore permits = getImportPermits(server);
+    CompletableFuture<DhisResponseBody> result;
+    try {
+      result = importPoller.await(server, jobId);
+    } catch (RuntimeException ex) {
+      permits.release();
+      throw ex;
+    }
+    return result.whenComplete((response, ex) -> permits.release());
+  }
+
+  private void start(ExportSummary summary) {
+    try {
+      exportRunService.start(summary);
+    } catch (RuntimeException ex) {
+      // the run is still tracked in memory, it is stored again once finished
+      LOGGER.error("Unable to store start of export run {}", summary.getId(), ex);
+    }
+  }
+
+  private void save(ExportSummary summary) {
+    try {
+      exportRunService.save(summary);
+    } catch (RuntimeException ex) {
+      // the values have been sent already, only the history of the run is lost
+      LOGGER.error("Unable to store export run {}", summary.getId(), ex);
+    }
+  }
+
+  private void markDelivered(OutboxEntry entry) {
+    try {
+      outboxService.markDelivered(entry);
+    } catch (RuntimeException ex) {
+      // the server has accepted the payload, so this must not be counted as a failed delivery
+      LOGGER.error("Unable to remove delivered outbox entry {}", entry.getId(), ex);
+    }
+  }
+
+  private void markFailed(OutboxEntry entry, Throwable cause) {
+    try {
+      if (outboxService.markFailed(entry, cause)) {
+        LOGGER.info("Outbox entry {} will be retried", entry.getId());
+      }
+    } catch (RuntimeException ex) {
+      // the lease expires eventually, so the entry is retried even if this update is lost
+      LOGGER.error("Unable to record failure of outbox entry {}", entry.getId(), ex);
+    }
+  }
+
+  private void recordAcknowledged(Server server, DataValueSet dataValueSet,
+                                  DhisResponseBody response) {
+    try {
+      dataValueFingerprintService.recordAcknowledged(server, dataValueSet, response);
+    } catch (RuntimeException ex) {
+      // the payload has been delivered already, at worst its values are sent once more
+      LOGGER.error("Unable to record values acknowledged by server {}", server.getUrl(), ex);
+    }
+  }
+
+  private static int countDataValues(List<DataValueSet> dataValueSets) {
+    return dataValueSets.stream()
+        .mapToInt(dataValueSet -> dataValueSet.getDataValues().size())
+        .sum();
+  }
+
+  private Semaphore getImportPermits(Server server) {
+    return importPermits.computeIfAbsent(server.getId(),
+        id -> new Semaphore(maxConcurrentRequestsPerServer));
+  }
+
+  private ExecutorService getSubmitExecutor(Server server) {
+    return submitExecutors.computeIfAbsent(server.getId(), id -> {
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(
+          maxConcurrentRequestsPerServer, maxConcurrentRequestsPerServer,
+          SUBMIT_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+          new CustomizableThreadFactory("export-submit-" + id + "-"));
+      // servers are exported only from time to time, so idle pools should not keep threads
+      executor.allowCoreThreadTimeOut(true);
+      return executor;
+    });
+  }
+
+}
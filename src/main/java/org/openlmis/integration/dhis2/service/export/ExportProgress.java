@@ -0,0 +1,74 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+
+package org.openlmis.integration.dhis2.service.export;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import org.openlmis.integration.dhis2.domain.export.ExportRun;
+
+/**
+ * Snapshot of the progress of an export run. Throughput is given in data values per second.
+ * The remaining time is given in seconds and is null while it cannot be estimated yet.
+ */
+@Getter
+@AllArgsConstructor
+@ToString
+public class ExportProgress {
+
+  private final UUID runId;
+  private final String status;
+  private final ZonedDateTime startDate;
+  private final ZonedDateTime endDate;
+  private final int datasets;
+  private final int finishedDatasets;
+  private final int facilities;
+  private final int finishedFacilities;
+  private final int dataValues;
+  private final int sentDataValues;
+  private final int skippedDataValues;
+  private final int requests;
+  private final int failedRequests;
+  private final int errorCount;
+  private final double throughput;
+  private final Long remainingSeconds;
+  private final List<String> errors;
+
+  /**
+   * Creates progress of a run which is not tracked in memory any more. Only the totals stored
+   * with the run are known.
+   */
+  public static ExportProgress of(ExportRun run) {
+    double seconds = run.getEndDate() == null
+        ? 0
+        : Duration.between(run.getStartDate(), run.getEndDate()).toMillis() / 1000.0;
+    int processed = run.getDataValues();
+
+    return new ExportProgress(run.getId(), run.getStatus(), run.getStartDate(),
+        run.getEndDate(), 0, 0, 0, 0, processed, run.getDataValues(),
+        run.getSkippedDataValues(), run.getRequests(), run.getFailedRequests(),
+        run.getFailedSchedules() + run.getFailedRequests(),
+        seconds > 0 ? processed / seconds : 0,
+        run.getEndDate() == null ? null : 0L, Collections.emptyList());
+  }
+
+}
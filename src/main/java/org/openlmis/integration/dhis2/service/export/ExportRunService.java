@@ -0,0 +1,136 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+
+package org.openlmis.integration.dhis2.service.export;
+
+import java.time.Clock;
+import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.openlmis.integration.dhis2.domain.export.ExportRun;
+import org.openlmis.integration.dhis2.domain.export.ExportRunItem;
+import org.openlmis.integration.dhis2.exception.NotFoundException;
+import org.openlmis.integration.dhis2.i18n.MessageKeys;
+import org.openlmis.integration.dhis2.repository.export.ExportRunRepository;
+import org.openlmis.integration.dhis2.util.Pagination;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Keeps the history of export runs: the totals of each run and the outcome of every payload
+ * sent during it, including the values rejected by DHIS2. Runs of this instance are tracked in
+ * memory as well, so their progress can be reported while they are running.
+ */
+@Service
+public class ExportRunService {
+
+  // finished runs are kept in memory for a while, so their detailed progress can be read
+  private static final int MAX_TRACKED_RUNS = 20;
+
+  private final Map<UUID, ExportSummary> trackedRuns = Collections.synchronizedMap(
+      new LinkedHashMap<UUID, ExportSummary>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<UUID, ExportSummary> eldest) {
+          return size() > MAX_TRACKED_RUNS && eldest.getValue().getEndDate() != null;
+        }
+      });
+
+  @Autowired
+  private ExportRunRepository exportRunRepository;
+
+  @Autowired
+  private Clock clock;
+
+  /**
+   * Starts tracking the given run and stores it as running.
+   */
+  @Transactional
+  public void start(ExportSummary summary) {
+    trackedRuns.put(summary.getId(), summary);
+    exportRunRepository.save(toRun(summary), Collections.emptyList());
+  }
+
+  /**
+   * Stores the given run together with the outcomes of its payloads collected so far.
+   */
+  @Transactional
+  public void save(ExportSummary summary) {
+    exportRunRepository.save(toRun(summary), summary.drainItems());
+  }
+
+  /**
+   * Retrieves the progress of the given run. Detailed progress is known only for the runs
+   * tracked by this instance, for the other ones it is based on the stored totals.
+   *
+   * @throws NotFoundException if there is no such run
+   */
+  public ExportProgress getProgress(UUID runId) {
+    ExportSummary summary = trackedRuns.get(runId);
+    if (summary != null) {
+      return summary.getProgress(ZonedDateTime.now(clock));
+    }
+    return ExportProgress.of(findRun(runId));
+  }
+
+  /**
+   * Retrieves the given page of runs, the latest ones first.
+   */
+  public Page<ExportRun> findRuns(Pageable pageable) {
+    int pageSize = Pagination.getPageSize(pageable);
+    List<ExportRun> runs = exportRunRepository.findAll(
+        (long) Pagination.getPageNumber(pageable) * pageSize, pageSize);
+    return Pagination.getPage(runs, pageable, exportRunRepository.count());
+  }
+
+  /**
+   * Retrieves the run with the given id.
+   *
+   * @throws NotFoundException if there is no such run
+   */
+  public ExportRun findRun(UUID id) {
+    return exportRunRepository.findById(id)
+        .orElseThrow(() -> new NotFoundException(MessageKeys.ERROR_EXPORT_RUN_NOT_FOUND));
+  }
+
+  /**
+   * Retrieves the given page of payloads sent during a run, with the values rejected by DHIS2.
+   *
+   * @throws NotFoundException if there is no such run
+   */
+  public Page<ExportRunItem> findItems(UUID runId, Pageable pageable) {
+    findRun(runId);
+
+    int pageSize = Pagination.getPageSize(pageable);
+    List<ExportRunItem> items = exportRunRepository.findItems(runId,
+        (long) Pagination.getPageNumber(pageable) * pageSize, pageSize);
+    return Pagination.getPage(items, pageable, exportRunRepository.countItems(runId));
+  }
+
+  private static ExportRun toRun(ExportSummary summary) {
+    return new ExportRun(summary.getId(), summary.getStatus(), summary.getStartDate(),
+        summary.getEndDate(), summary.getSchedules(), summary.getFailedSchedules(),
+        summary.getRequests(), summary.getFailedRequests(), summary.getDataValues(),
+        summary.getSkippedDataValues(), summary.getImported(), summary.getUpdated(),
+        summary.getIgnored());
+  }
+
+}
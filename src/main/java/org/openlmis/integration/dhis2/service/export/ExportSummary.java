@@ -0,0 +1,282 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.integration.dhis2.service.export;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.ToString;
+import org.apache.commons.lang3.StringUtils;
+import org.openlmis.integration.dhis2.domain.dataset.Dataset;
+import org.openlmis.integration.dhis2.domain.export.ExportRun;
+import org.openlmis.integration.dhis2.domain.export.ExportRunItem;
+import org.openlmis.integration.dhis2.domain.server.Server;
+import org.openlmis.integration.dhis2.dto.dhis.DataValueSet;
+import org.openlmis.integration.dhis2.dto.dhis.DhisImportCount;
+import org.openlmis.integration.dhis2.dto.dhis.DhisResponseBody;
+import org.openlmis.integration.dhis2.dto.dhis.DhisResponseBodyDetails;
+
+/**
+ * Outcome of a single export run. The engine updates it from many threads at once, so all
+ * mutators are synchronized. Besides the totals, the outcome of each payload is collected, so
+ * the whole run can be stored once it is finished, and the payloads still waiting for an answer
+ * are counted, so the progress of a running export can be reported.
+ */
+@Getter
+@ToString
+@SuppressWarnings("PMD.TooManyMethods")
+public class ExportSummary {
+
+  private static final int MAX_ERRORS = 100;
+
+  private final UUID id = UUID.randomUUID();
+  private final ZonedDateTime startDate;
+  private ZonedDateTime endDate;
+  private int schedules;
+  private int failedSchedules;
+  private int requests;
+  private int failedRequests;
+  private int pendingRequests;
+  private int dataValues;
+  private int skippedDataValues;
+  private int imported;
+  private int updated;
+  private int ignored;
+  private final List<String> errors = new ArrayList<>();
+
+  @Getter(AccessLevel.NONE)
+  @ToString.Exclude
+  private final List<ExportRunItem> items = new ArrayList<>();
+
+  @Getter(AccessLevel.NONE)
+  @ToString.Exclude
+  private boolean failed;
+
+  @Getter(AccessLevel.NONE)
+  @ToString.Exclude
+  private int errorCount;
+
+  @Getter(AccessLevel.NONE)
+  @ToString.Exclude
+  private int datasets;
+
+  @Getter(AccessLevel.NONE)
+  @ToString.Exclude
+  private int finishedDatasets;
+
+  @Getter(AccessLevel.NONE)
+  @ToString.Exclude
+  private int preparedDataValues;
+
+  @Getter(AccessLevel.NONE)
+  @ToString.Exclude
+  private int failedDataValues;
+
+  // number of payloads still waiting for an answer, by data set and organisation unit
+  @Getter(AccessLevel.NONE)
+  @ToString.Exclude
+  private final Map<List<String>, Integer> pendingFacilities = new HashMap<>();
+
+  @Getter(AccessLevel.NONE)
+  @ToString.Exclude
+  private int facilities;
+
+  @Getter(AccessLevel.NONE)
+  @ToString.Exclude
+  private int finishedFacilities;
+
+  public ExportSummary(ZonedDateTime startDate) {
+    this.startDate = startDate;
+  }
+
+  synchronized void addSchedules(int count) {
+    schedules += count;
+  }
+
+  synchronized void addDatasets(int count) {
+    datasets += count;
+  }
+
+  synchronized void addPrepared(List<DataValueSet> dataValueSets) {
+    finishedDatasets++;
+    for (DataValueSet dataValueSet : dataValueSets) {
+      preparedDataValues += dataValueSet.getDataValues().size();
+      for (List<String> facility : getFacilities(dataValueSet)) {
+        if (pendingFacilities.merge(facility, 1, Integer::sum) == 1) {
+          facilities++;
+        }
+      }
+    }
+  }
+
+  synchronized void addDatasetFailure(Dataset dataset, int scheduleCount, Throwable cause) {
+    finishedDatasets++;
+    failedSchedules += scheduleCount;
+    addError("Dataset " + dataset.getName() + ": " + getMessage(cause));
+  }
+
+  synchronized void addFailure(Throwable cause) {
+    failed = true;
+    addError("Export: " + getMessage(cause));
+  }
+
+  synchronized void addResponse(Server server, DataValueSet dataValueSet,
+                                DhisResponseBody response) {
+    requests++;
+    dataValues += dataValueSet.getDataValues().size();
+    items.add(ExportRunItem.of(server.getId(), dataValueSet, response));
+    finishPayload(dataValueSet);
+
+    Optional.ofNullable(response)
+        .map(DhisResponseBody::getResponse)
+        .map(DhisResponseBodyDetails::getImportCount)
+        .ifPresent(this::addImportCount);
+  }
+
+  synchronized void addSkippedDataValues(int count) {
+    skippedDataValues += count;
+  }
+
+  synchronized void addRequestFailure(Server server, DataValueSet dataValueSet,
+                                      Throwable cause) {
+    requests++;
+    failedRequests++;
+    addError("Data set " + dataValueSet.getDataSet() + " (" + dataValueSet.getPeriod() + "): "
+        + getMessage(cause));
+    items.add(ExportRunItem.failed(server.getId(), dataValueSet, getMessage(cause)));
+    failedDataValues += dataValueSet.getDataValues().size();
+    finishPayload(dataValueSet);
+  }
+
+  synchronized void addPendingImport(Server server, DataValueSet dataValueSet) {
+    requests++;
+    pendingRequests++;
+    items.add(ExportRunItem.pending(server.getId(), dataValueSet));
+    finishPayload(dataValueSet);
+  }
+
+  synchronized void finish(ZonedDateTime endDate) {
+    this.endDate = endDate;
+  }
+
+  /**
+   * Returns the current progress of the run. Until all datasets have been prepared, the totals
+   * cover only the prepared ones, so no estimate of the remaining time is given.
+   *
+   * @param now current date
+   * @return snapshot of the progress
+   */
+  public synchronized ExportProgress getProgress(ZonedDateTime now) {
+    int processedDataValues = dataValues + failedDataValues;
+    double seconds = Duration.between(startDate, endDate == null ? now : endDate).toMillis()
+        / 1000.0;
+    double throughput = seconds > 0 ? processedDataValues / seconds : 0;
+
+    Long remainingSeconds = null;
+    if (endDate != null) {
+      remainingSeconds = 0L;
+    } else if (finishedDatasets >= datasets && throughput > 0
+        && preparedDataValues > processedDataValues) {
+      remainingSeconds = Math.round((preparedDataValues - processedDataValues) / throughput);
+    }
+
+    return new ExportProgress(id, getStatus(), startDate, endDate, datasets,
+        Math.min(finishedDatasets, datasets),
+        facilities, finishedFacilities, preparedDataValues, dataValues, skippedDataValues,
+        requests, failedRequests, errorCount, throughput, remainingSeconds,
+        getErrors());
+  }
+
+  /**
+   * Returns the status of the run, as it is stored.
+   */
+  public synchronized String getStatus() {
+    if (endDate == null) {
+      return ExportRun.STATUS_RUNNING;
+    }
+    return failed ? ExportRun.STATUS_FAILED : ExportRun.STATUS_FINISHED;
+  }
+
+  public synchronized List<String> getErrors() {
+    return Collections.unmodifiableList(new ArrayList<>(errors));
+  }
+
+  /**
+   * Returns outcomes of the payloads collected since the last call. The summary is kept in
+   * memory for a while after the run, so they are not held twice once they have been stored.
+   */
+  synchronized List<ExportRunItem> drainItems() {
+    List<ExportRunItem> drained = new ArrayList<>(items);
+    items.clear();
+    return drained;
+  }
+
+  public synchronized boolean isSuccessful() {
+    return !failed && failedSchedules == 0 && failedRequests == 0;
+  }
+
+  private void finishPayload(DataValueSet dataValueSet) {
+    for (List<String> facility : getFacilities(dataValueSet)) {
+      // payloads of retried outbox entries have not been prepared during this run
+      if (pendingFacilities.containsKey(facility) && pendingFacilities.computeIfPresent(
+          facility, (key, count) -> count > 1 ? count - 1 : null) == null) {
+        finishedFacilities++;
+      }
+    }
+  }
+
+  private static Set<List<String>> getFacilities(DataValueSet dataValueSet) {
+    return dataValueSet.getDataValues().stream()
+        .map(dataValue -> Arrays.asList(dataValueSet.getDataSet(),
+            StringUtils.defaultString(dataValue.getOrgUnit(), dataValueSet.getOrgUnit())))
+        .collect(Collectors.toSet());
+  }
+
+  private void addImportCount(DhisImportCount importCount) {
+    imported += importCount.getImported();
+    updated += importCount.getUpdated();
+    ignored += importCount.getIgnored();
+  }
+
+  private void addError(String error) {
+    errorCount++;
+    // keep the summary small even if a whole DHIS2 instance is down
+    if (errors.size() < MAX_ERRORS) {
+      errors.add(error);
+    }
+  }
+
+  private static String getMessage(Throwable cause) {
+    Throwable root = cause;
+    while (root.getCause() != null && root instanceof CompletionException) {
+      root = root.getCause();
+    }
+    return root.getClass().getSimpleName() + ": " + root.getMessage();
+  }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+
+package org.openlmis.integration.dhis2.service.export;
+
+import java.time.Clock;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.openlmis.integration.dhis2.domain.server.Server;
+import org.openlmis.integration.dhis2.dto.dhis.DhisResponseBody;
+import org.openlmis.integration.dhis2.exception.ImportFailedException;
+import org.openlmis.integration.dhis2.exception.ImportPendingException;
+import org.openlmis.integration.dhis2.i18n.MessageKeys;
+import org.openlmis.integration.dhis2.service.communication.ProcessedDataExchangeService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * Waits for asynchronous DHIS2 imports to finish. Each import is polled on a small shared pool,
+ * first after the initial delay and then with the delay doubled each time up to the maximum, so
+ * no thread is blocked while DHIS2 is importing. Errors of single polls are retried until the
+ * timeout, as the import itself goes on regardless of them.
+ */
+@Service
+public class ImportPoller {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ImportPoller.class);
+
+  @Autowired
+  private ProcessedDataExchangeService processedDataExchangeService;
+
+  @Autowired
+  private Clock clock;
+
+  @Value("${dhis2.export.async.pollThreads}")
+  private int pollThreads;
+
+  @Value("${dhis2.export.async.initialPollDelay}")
+  private long initialPollDelay;
+
+  @Value("${dhis2.export.async.maxPollDelay}")
+  private long maxPollDelay;
+
+  @Value("${dhis2.export.async.timeout}")
+  private long timeout;
+
+  private ScheduledExecutorService pollExecutor;
+
+  /**
+   * Creates the pool the imports are polled on.
+   */
+  @PostConstruct
+  public void init() {
+    pollExecutor = Executors.newScheduledThreadPool(Math.max(pollThreads, 1),
+        new CustomizableThreadFactory("export-poll-"));
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    pollExecutor.shutdownNow();
+  }
+
+  /**
+   * Polls the given import until DHIS2 finishes it.
+   *
+   * @param server server running the import
+   * @param jobId ID of the DHIS2 job importing the payload
+   * @return future completed with the import summary, or exceptionally if the import fails;
+   *         if its outcome is not known within the timeout, the future fails with
+   *         {@link ImportPendingException}
+   */
+  public CompletableFuture<DhisResponseBody> await(Server server, String jobId) {
+    CompletableFuture<DhisResponseBody> result = new CompletableFuture<>();
+    schedule(server, jobId, initialPollDelay, clock.millis() + timeout * 1000, result);
+    return result;
+  }
+
+  private void schedule(Server server, String jobId, long delay, long deadline,
+                        CompletableFuture<DhisResponseBody> result) {
+    pollExecutor.schedule(() -> poll(server, jobId, delay, deadline, result), delay,
+        TimeUnit.MILLISECONDS);
+  }
+
+  private void poll(Server server, String jobId, long delay, long deadline,
+                    CompletableFuture<DhisResponseBody> result) {
+    try {
+      Optional<DhisResponseBody> response = processedDataExchangeService
+          .findImportResult(jobId, server);
+
+      if (response.isPresent()) {
+        result.complete(response.get());
+      } else {
+        retry(server, jobId, delay, deadline, result, null);
+      }
+    } catch (ImportFailedException ex) {
+      result.completeExceptionally(ex);
+    } catch (RuntimeException ex) {
+      LOGGER.warn("Unable to check status of DHIS2 import job {}", jobId, ex);
+      retry(server, jobId, delay, deadline, result, ex);
+    }
+  }
+
+  private void retry(Server server, String jobId, long delay, long deadline,
+                     CompletableFuture<DhisResponseBody> result, RuntimeException error) {
+    if (clock.millis() >= deadline) {
+      // the import may still be running, its outcome has to be checked again later
+      result.completeExceptionally(new ImportPendingException(
+          MessageKeys.ERROR_EXTERNAL_API_IMPORT_TIMED_OUT, error));
+    } else {
+      schedule(server, jobId, Math.min(delay * 2, maxPollDelay), deadline, result);
+    }
+  }
+
+}
@@ -0,0 +1,229 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.integration.dhis2.service.export;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import java.io.IOException;
+import java.time.Clock;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import org.openlmis.integration.dhis2.domain.outbox.OutboxDeadLetter;
+import org.openlmis.integration.dhis2.domain.outbox.OutboxEntry;
+import org.openlmis.integration.dhis2.domain.server.Server;
+import org.openlmis.integration.dhis2.dto.dhis.DataValueSet;
+import org.openlmis.integration.dhis2.exception.ImportPendingException;
+import org.openlmis.integration.dhis2.repository.outbox.OutboxDeadLetterRepository;
+import org.openlmis.integration.dhis2.repository.outbox.OutboxEntryRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.client.HttpClientErrorException;
+
+/**
+ * Keeps payloads which have to be delivered to DHIS2 in the database. Payloads are written
+ * before the first attempt, so nothing is lost when a server is down. Failed deliveries are
+ * retried with exponential backoff and moved to the dead letter table when they fail for good.
+ */
+@Service
+public class OutboxService {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(OutboxService.class);
+  private static final int MAX_ERROR_LENGTH = 2000;
+  private static final int MAX_IDS_PER_QUERY = 1000;
+
+  @Autowired
+  private OutboxEntryRepository outboxEntryRepository;
+
+  @Autowired
+  private OutboxDeadLetterRepository outboxDeadLetterRepository;
+
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  @Autowired
+  private Clock clock;
+
+  @Value("${dhis2.outbox.batchSize}")
+  private int batchSize;
+
+  @Value("${dhis2.outbox.maxAttempts}")
+  private int maxAttempts;
+
+  @Value("${dhis2.outbox.initialBackoff}")
+  private long initialBackoff;
+
+  @Value("${dhis2.outbox.maxBackoff}")
+  private long maxBackoff;
+
+  @Value("${dhis2.outbox.lease}")
+  private long lease;
+
+  /**
+   * Stores the given payloads. They are leased right away to the caller, which is expected to
+   * make the first delivery attempt itself.
+   *
+   * @param server target server
+   * @param dataValueSets payloads to be delivered
+   * @return stored entries, in the order of the payloads
+   */
+  @Transactional
+  public List<OutboxEntry> enqueue(Server server, List<DataValueSet> dataValueSets) {
+    ZonedDateTime now = ZonedDateTime.now(clock);
+    List<OutboxEntry> entries = dataValueSets.stream()
+        .map(dataValueSet -> new OutboxEntry(server, dataValueSet.getDataSet(),
+            dataValueSet.getPeriod(), toPayload(dataValueSet), 0, null, now,
+            now.plusSeconds(lease), null))
+        .collect(Collectors.toList());
+
+    return outboxEntryRepository.saveAll(entries);
+  }
+
+  /**
+   * Leases a batch of entries which are due for another attempt. A leased entry is not
+   * returned again until the lease expires, so an entry of a crashed instance is retried later.
+   * The lease is renewed for as long as the entry is being delivered.
+   *
+   * @return entries to be delivered
+   */
+  @Transactional
+  public List<OutboxEntry> claimDueEntries() {
+    ZonedDateTime now = ZonedDateTime.now(clock);
+    List<OutboxEntry> entries = outboxEntryRepository.findDueForUpdate(now, batchSize);
+    entries.forEach(entry -> entry.setNextAttemptDate(now.plusSeconds(lease)));
+
+    return outboxEntryRepository.saveAll(entries);
+  }
+
+  /**
+   * Extends the lease of the given entries, which are still being delivered, so they are not
+   * claimed again while they wait for a free request slot or for their import.
+   *
+   * @param ids IDs of the entries, entries which have been removed already are ignored
+   */
+  @Transactional
+  public void renewLeases(Collection<UUID> ids) {
+    ZonedDateTime leasedUntil = ZonedDateTime.now(clock).plusSeconds(lease);
+    Lists.partition(new ArrayList<>(ids), MAX_IDS_PER_QUERY)
+        .forEach(batch -> outboxEntryRepository.updateNextAttemptDate(batch, leasedUntil));
+  }
+
+  /**
+   * Restores the payload of the given entry.
+   */
+  public DataValueSet getDataValueSet(OutboxEntry entry) {
+    try {
+      return objectMapper.readValue(entry.getPayload(), DataValueSet.class);
+    } catch (IOException ex) {
+      throw new IllegalStateException("Unable to read payload of outbox entry " + entry.getId(),
+          ex);
+    }
+  }
+
+  /**
+   * Records the DHIS2 job importing the payload of the given entry, so the job is checked
+   * instead of importing the payload again, if its outcome is not known in time.
+   */
+  @Transactional
+  public void recordJob(OutboxEntry entry, String jobId) {
+    entry.setJobId(jobId);
+    outboxEntryRepository.updateJobId(entry.getId(), jobId);
+  }
+
+  /**
+   * Removes the entry after it has been accepted by the server.
+   */
+  @Transactional
+  public void markDelivered(OutboxEntry entry) {
+    outboxEntryRepository.deleteById(entry.getId());
+  }
+
+  /**
+   * Records a failed attempt. The entry is scheduled for another attempt, unless the error is
+   * permanent or there have been too many attempts already. Then it is moved to the dead letter
+   * table. If the outcome of the import is only unknown, the next attempt checks the same DHIS2
+   * job again, otherwise the payload is sent once more.
+   *
+   * @return true if the entry will be retried
+   */
+  @Transactional
+  public boolean markFailed(OutboxEntry entry, Throwable cause) {
+    ZonedDateTime now = ZonedDateTime.now(clock);
+    entry.setAttempts(entry.getAttempts() + 1);
+    entry.setLastError(getMessage(cause));
+    if (!ImportPendingException.isPending(cause)) {
+      entry.setJobId(null);
+    }
+
+    if (entry.getAttempts() >= maxAttempts || isPermanent(cause)) {
+      LOGGER.warn("Giving up on outbox entry {} after {} attempts", entry.getId(),
+          entry.getAttempts());
+      outboxDeadLetterRepository.save(OutboxDeadLetter.newInstance(entry, now));
+      outboxEntryRepository.deleteById(entry.getId());
+      return false;
+    }
+
+    entry.setNextAttemptDate(now.plusSeconds(getBackoff(entry.getAttempts())));
+    outboxEntryRepository.save(entry);
+    return true;
+  }
+
+  private long getBackoff(int attempts) {
+    // 2^(attempts - 1) times the initial backoff, without overflowing for large values
+    int exponent = Math.min(attempts - 1, 30);
+    return Math.min(initialBackoff << exponent, maxBackoff);
+  }
+
+  private String toPayload(DataValueSet dataValueSet) {
+    try {
+      return objectMapper.writeValueAsString(dataValueSet);
+    } catch (JsonProcessingException ex) {
+      throw new IllegalStateException("Unable to store payload of data set "
+          + dataValueSet.getDataSet(), ex);
+    }
+  }
+
+  // client errors other than timeouts and rate limits will not go away by themselves
+  private static boolean isPermanent(Throwable cause) {
+    for (Throwable current = cause; current != null; current = current.getCause()) {
+      if (current instanceof HttpClientErrorException) {
+        HttpStatus status = ((HttpClientErrorException) current).getStatusCode();
+        return status != HttpStatus.REQUEST_TIMEOUT && status != HttpStatus.TOO_MANY_REQUESTS
+            && status != HttpStatus.UNAUTHORIZED;
+      }
+    }
+    return false;
+  }
+
+  private static String getMessage(Throwable cause) {
+    Throwable root = cause;
+    while (root.getCause() != null && root.getCause() != root) {
+      root = root.getCause();
+    }
+    String message = root.getClass().getSimpleName() + ": " + root.getMessage();
+    return message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message;
+  }
+
+}
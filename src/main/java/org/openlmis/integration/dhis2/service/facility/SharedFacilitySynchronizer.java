@@ -15,25 +15,33 @@
 
 package org.openlmis.integration.dhis2.service.facility;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import org.openlmis.integration.dhis2.domain.facility.SharedFacility;
 import org.openlmis.integration.dhis2.domain.server.Server;
 import org.openlmis.integration.dhis2.dto.dhis.OrganisationUnit;
 import org.openlmis.integration.dhis2.dto.facility.SharedFacilityDto;
 import org.openlmis.integration.dhis2.dto.referencedata.MinimalFacilityDto;
-import org.openlmis.integration.dhis2.dto.referencedata.PageDto;
 import org.openlmis.integration.dhis2.dto.server.ServerDto;
 import org.openlmis.integration.dhis2.repository.facility.SharedFacilityRepository;
+import org.openlmis.integration.dhis2.repository.indicator.LatestOrderableRepository;
 import org.openlmis.integration.dhis2.repository.server.ServerRepository;
 import org.openlmis.integration.dhis2.service.communication.DhisDataService;
 import org.openlmis.integration.dhis2.service.communication.ReferenceDataService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 @Service
 public class SharedFacilitySynchronizer {
@@ -52,60 +60,99 @@ public class SharedFacilitySynchronizer {
   @Autowired
   private SharedFacilityRepository sharedFacilityRepository;
 
+  @Autowired
+  private LatestOrderableRepository latestOrderableRepository;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  /**
+   * Refreshes the latest orderable versions used by indicator queries. It also runs on startup,
+   * so exports do not have to wait for the first facility refresh.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void refreshLatestOrderables() {
+    try {
+      int count = latestOrderableRepository.refresh();
+      LOGGER.debug("Refreshed {} latest orderable versions", count);
+    } catch (RuntimeException ex) {
+      // indicators keep using the versions stored by the previous refresh
+      LOGGER.error("Unable to refresh latest orderable versions", ex);
+    }
+  }
+
   /**
    * Refreshes facilities between OpenLMIS and DHIS2. It deletes certain facilities if they are
-   * no longer present in any of the services and adds new if a matching facility occurred
+   * no longer present in any of the services and adds new if a matching facility occurred.
+   * Facilities and org units are matched by code. All changes are applied in one transaction
+   * after the data of every server has been retrieved. The latest orderable versions used by
+   * indicator queries are refreshed afterwards.
    */
   public void refreshSharedFacilities() {
     LOGGER.debug("Refreshing shared facilities");
-    PageDto<MinimalFacilityDto> refDataFacilitiesPage = referenceDataService.findAllFacilities();
-    List<MinimalFacilityDto> refDataFacilities = refDataFacilitiesPage.getContent();
-
-    List<Server> servers = serverRepository.findAll();
-    for (Server server: servers) {
-      Set<SharedFacilityDto> allMatchingFacilities = new HashSet<>();
-      Set<SharedFacilityDto> allNotMatchingFacilities = new HashSet<>();
-      List<OrganisationUnit> organisationUnits = dhisDataService.getDhisOrgUnits(
-          server.getUrl(), server.getUsername(), server.getPassword());
-
-      for (OrganisationUnit orgUnit: organisationUnits) {
-        String orgUnitCode = orgUnit.getCode();
-
-        for (MinimalFacilityDto facilityDto : refDataFacilities) {
-          String facilityCode = facilityDto.getCode();
-          if (facilityCode.equals(orgUnitCode)) {
-            allMatchingFacilities.add(new SharedFacilityDto(orgUnitCode, facilityDto.getId(),
-                orgUnit.getId(), ServerDto.newInstance(server)));
-          } else {
-            allNotMatchingFacilities.add((new SharedFacilityDto(orgUnitCode, facilityDto.getId(),
-                orgUnit.getId(), ServerDto.newInstance(server))));
-          }
-        }
+    Map<String, MinimalFacilityDto> refDataFacilities = referenceDataService
+        .streamAllFacilities()
+        .filter(facility -> facility.getCode() != null)
+        .collect(Collectors.toMap(MinimalFacilityDto::getCode, Function.identity(),
+            (first, second) -> first));
+
+    Map<Server, List<OrganisationUnit>> organisationUnits = new LinkedHashMap<>();
+    for (Server server : serverRepository.findAll()) {
+      organisationUnits.put(server, dhisDataService.getDhisOrgUnits(
+          server.getUrl(), server.getUsername(), server.getPassword()));
+    }
+
+    new TransactionTemplate(transactionManager).execute(status -> {
+      organisationUnits.forEach((server, orgUnits) ->
+          refreshSharedFacilities(server, orgUnits, refDataFacilities));
+      return null;
+    });
+
+    refreshLatestOrderables();
+  }
+
+  private void refreshSharedFacilities(Server server, List<OrganisationUnit> orgUnits,
+                                       Map<String, MinimalFacilityDto> refDataFacilities) {
+    Map<String, SharedFacility> existing = sharedFacilityRepository.findByServerId(server.getId())
+        .stream()
+        .collect(Collectors.toMap(SharedFacility::getCode, Function.identity(),
+            (first, second) -> first));
+
+    List<SharedFacility> toSave = new ArrayList<>();
+    Set<String> matchingCodes = new HashSet<>();
+
+    for (OrganisationUnit orgUnit : orgUnits) {
+      MinimalFacilityDto facility = refDataFacilities.get(orgUnit.getCode());
+      if (facility == null || !matchingCodes.add(orgUnit.getCode())) {
+        continue;
       }
 
-      // if previously added facilities are not matching then delete from db
-      for (SharedFacilityDto notMatchingFacilityDto: allNotMatchingFacilities) {
-        Optional<SharedFacility> sharedFacilityOptional =
-            sharedFacilityRepository.findByCodeAndServerId(notMatchingFacilityDto.getCode(),
-                notMatchingFacilityDto.getServerDto().getId());
-        if (sharedFacilityOptional.isPresent()) {
-          SharedFacility sharedFacility = sharedFacilityOptional.get();
-          sharedFacilityRepository.delete(sharedFacility);
-        }
+      SharedFacility sharedFacility = existing.get(orgUnit.getCode());
+      if (sharedFacility == null) {
+        toSave.add(SharedFacility.newInstance(new SharedFacilityDto(orgUnit.getCode(),
+            facility.getId(), orgUnit.getId(), ServerDto.newInstance(server))));
+      } else if (!facility.getId().equals(sharedFacility.getFacilityId())
+          || !orgUnit.getId().equals(sharedFacility.getOrgUnitId())) {
+        sharedFacility.setFacilityId(facility.getId());
+        sharedFacility.setOrgUnitId(orgUnit.getId());
+        toSave.add(sharedFacility);
       }
+    }
 
-      // if previously added facilities are matching then add them to db
-      for (SharedFacilityDto matchingFacilityDto: allMatchingFacilities) {
-        SharedFacility matchingFacility = SharedFacility.newInstance(matchingFacilityDto);
-        Optional<SharedFacility> sharedFacilityOptional =
-            sharedFacilityRepository.findByCodeAndServerId(matchingFacilityDto.getCode(),
-                matchingFacilityDto.getServerDto().getId());
+    // previously added facilities which are no longer matching
+    List<SharedFacility> toDelete = existing.values().stream()
+        .filter(sharedFacility -> !matchingCodes.contains(sharedFacility.getCode()))
+        .collect(Collectors.toList());
 
-        if (!sharedFacilityOptional.isPresent()) {
-          sharedFacilityRepository.save(matchingFacility);
-        }
-      }
+    LOGGER.debug("Server {}: saving {} and deleting {} shared facilities", server.getUrl(),
+        toSave.size(), toDelete.size());
+
+    if (!toDelete.isEmpty()) {
+      sharedFacilityRepository.deleteAll(toDelete);
+    }
+    if (!toSave.isEmpty()) {
+      sharedFacilityRepository.saveAll(toSave);
     }
   }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,83 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+
+package org.openlmis.integration.dhis2.service.indicator;
+
+import static org.openlmis.integration.dhis2.i18n.MessageKeys.ERROR_ENUMERATOR_NOT_EXIST;
+
+import java.math.BigDecimal;
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.openlmis.integration.dhis2.domain.enumerator.IndicatorEnum;
+import org.openlmis.integration.dhis2.exception.ValidationMessageException;
+import org.openlmis.integration.dhis2.repository.indicator.StockmanagementRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.util.Pair;
+import org.springframework.stereotype.Component;
+
+@Component
+public class AdjustmentsByReason implements IndicatorSupplier {
+
+  public static final String NAME = IndicatorEnum.ADJUSTMENTS_BY_REASON.toString();
+
+  @Autowired
+  private StockmanagementRepository stockmanagementRepository;
+
+  public String getIndicatorName() {
+    return NAME;
+  }
+
+  @Override
+  public boolean isKeyed() {
+    return true;
+  }
+
+  /**
+   * Calculate adjustments split by reason of many orderables for many facilities. Values are
+   * keyed with the reason name, so each reason is sent with the category option combo of the
+   * same name. Reasons a facility has no adjustments of get zero.
+   */
+  @Override
+  public Map<String, Map<String, Map<String, BigDecimal>>> calculateKeyedValues(String source,
+      Pair<ZonedDateTime, ZonedDateTime> period, Collection<String> orderables,
+      Collection<String> facilities) {
+    if (!source.equals(STOCKMANAGEMENT)) {
+      throw new ValidationMessageException(ERROR_ENUMERATOR_NOT_EXIST);
+    }
+
+    List<String> reasons = stockmanagementRepository.findAdjustmentReasons();
+    Map<String, Map<String, Map<String, BigDecimal>>> values = new HashMap<>();
+    for (String orderable : orderables) {
+      Map<String, Map<String, Double>> adjustments = stockmanagementRepository
+          .findAdjustmentsByReason(period.getFirst(), period.getSecond(), orderable, facilities);
+
+      Map<String, Map<String, BigDecimal>> orderableValues = new HashMap<>();
+      for (String facility : facilities) {
+        Map<String, Double> facilityAdjustments = new HashMap<>();
+        reasons.forEach(reason -> facilityAdjustments.put(reason, 0d));
+        facilityAdjustments.putAll(adjustments.getOrDefault(facility, Collections.emptyMap()));
+        orderableValues.put(facility, IndicatorSupplier.toIndicatorValues(facilityAdjustments));
+      }
+      values.put(orderable, orderableValues);
+    }
+    return values;
+  }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+
+package org.openlmis.integration.dhis2.service.indicator;
+
+import java.math.BigDecimal;
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.openlmis.integration.dhis2.domain.enumerator.IndicatorEnum;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.util.Pair;
+import org.springframework.stereotype.Component;
+
+@Component
+public class CceAllocated implements IndicatorSupplier {
+
+  public static final String NAME = IndicatorEnum.CCE_ALLOCATED.toString();
+
+  @Autowired
+  private CceInventoryCounts cceInventoryCounts;
+
+  public String getIndicatorName() {
+    return NAME;
+  }
+
+  /**
+   * Calculate numbers of allocated cold chain equipment items of many facilities. Source, period
+   * and orderable do not apply to the equipment inventory, so all orderables get the same
+   * values.
+   */
+  @Override
+  public Map<String, Map<String, Map<String, BigDecimal>>> calculateKeyedValues(String source,
+      Pair<ZonedDateTime, ZonedDateTime> period, Collection<String> orderables,
+      Collection<String> facilities) {
+    Map<String, Long> counts = cceInventoryCounts.getAllocatedCounts();
+    Map<String, BigDecimal> values = IndicatorSupplier.toIndicatorValues(facilities.stream()
+        .filter(counts::containsKey)
+        .distinct()
+        .collect(Collectors.toMap(facility -> facility, counts::get)));
+    return IndicatorSupplier.calculatePerOrderable(orderables, orderable -> values);
+  }
+
+}
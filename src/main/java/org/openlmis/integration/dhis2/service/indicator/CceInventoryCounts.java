@@ -0,0 +1,132 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+
+package org.openlmis.integration.dhis2.service.indicator;
+
+import java.time.Clock;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+import lombok.AllArgsConstructor;
+import org.openlmis.integration.dhis2.repository.indicator.CceRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Counts of cold chain equipment per facility. The inventory has no history, so the counts do
+ * not depend on the period. They are loaded for all facilities in one query and reused until
+ * they expire, so an export run counts the inventory once instead of once per facility.
+ */
+@Component
+public class CceInventoryCounts {
+
+  static final String FUNCTIONING = "FUNCTIONING";
+  static final String ACTIVE = "ACTIVE";
+
+  // counts being loaded are kept as an unfinished future, which other callers wait for
+  private final ConcurrentMap<String, CompletableFuture<CachedCounts>> counts =
+      new ConcurrentHashMap<>();
+
+  @Autowired
+  private CceRepository cceRepository;
+
+  @Autowired
+  private Clock clock;
+
+  @Value("${dhis2.cce.countsTimeToLive}")
+  private long timeToLive;
+
+  /**
+   * Retrieves the number of functioning items per facility code.
+   */
+  public Map<String, Long> getOperationalCounts() {
+    return getCounts(FUNCTIONING, () -> cceRepository.findCceCountsByStatus(FUNCTIONING));
+  }
+
+  /**
+   * Retrieves the number of items in active use per facility code.
+   */
+  public Map<String, Long> getAllocatedCounts() {
+    return getCounts(ACTIVE, () -> cceRepository.findCceCountsByUtilization(ACTIVE));
+  }
+
+  private Map<String, Long> getCounts(String key, Supplier<Map<String, Long>> loader) {
+    while (true) {
+      CompletableFuture<CachedCounts> current = counts.get(key);
+      if (current != null && !isExpired(current)) {
+        return await(current).counts;
+      }
+
+      // only one thread loads expired counts, the others wait for it; the query runs outside
+      // of the map, so it never blocks callers of the other counts
+      CompletableFuture<CachedCounts> load = new CompletableFuture<>();
+      boolean claimed = current == null
+          ? counts.putIfAbsent(key, load) == null
+          : counts.replace(key, current, load);
+      if (claimed) {
+        return load(key, load, loader).counts;
+      }
+    }
+  }
+
+  private CachedCounts load(String key, CompletableFuture<CachedCounts> load,
+                            Supplier<Map<String, Long>> loader) {
+    try {
+      CachedCounts loaded = new CachedCounts(loader.get(), clock.millis() + timeToLive * 1000);
+      load.complete(loaded);
+      return loaded;
+    } catch (RuntimeException ex) {
+      // callers waiting for this load fail as well, the next one tries again
+      counts.remove(key, load);
+      load.completeExceptionally(ex);
+      throw ex;
+    }
+  }
+
+  private boolean isExpired(CompletableFuture<CachedCounts> cached) {
+    // counts which are still being loaded are not expired, they are waited for
+    if (!cached.isDone()) {
+      return false;
+    }
+    return cached.isCompletedExceptionally() || !cached.join().isValid(clock.millis());
+  }
+
+  private static CachedCounts await(CompletableFuture<CachedCounts> cached) {
+    try {
+      return cached.join();
+    } catch (CompletionException ex) {
+      if (ex.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ex.getCause();
+      }
+      throw ex;
+    }
+  }
+
+  @AllArgsConstructor
+  private static final class CachedCounts {
+    private final Map<String, Long> counts;
+    private final long expiresAt;
+
+    boolean isValid(long now) {
+      return now < expiresAt;
+    }
+  }
+
+}
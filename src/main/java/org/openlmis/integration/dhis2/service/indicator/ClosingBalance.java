@@ -18,8 +18,11 @@ package org.openlmis.integration.dhis2.service.indicator;
 import static org.openlmis.integration.dhis2.i18n.MessageKeys.ERROR_ENUMERATOR_NOT_EXIST;
 
 import java.math.BigDecimal;
-import java.math.MathContext;
 import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.Function;
 import org.openlmis.integration.dhis2.domain.enumerator.IndicatorEnum;
 import org.openlmis.integration.dhis2.exception.ValidationMessageException;
 import org.openlmis.integration.dhis2.repository.indicator.RequisitionRepository;
@@ -44,22 +47,26 @@ public class ClosingBalance implements IndicatorSupplier {
   }
 
   /**
-   * Calculate closing balance.
+   * Calculate closing balances of many orderables for many facilities. Stock management balances
+   * of all orderables are retrieved at once.
    */
-  public BigDecimal calculateValue(String source, Pair<ZonedDateTime, ZonedDateTime> period,
-                                   String orderable, String facility) {
-    Long calculatedIndicator;
+  @Override
+  public Map<String, Map<String, Map<String, BigDecimal>>> calculateKeyedValues(String source,
+      Pair<ZonedDateTime, ZonedDateTime> period, Collection<String> orderables,
+      Collection<String> facilities) {
+    Function<String, Map<String, Long>> calculation;
     if (source.equals(STOCKMANAGEMENT)) {
-      calculatedIndicator = stockmanagementRepository.findClosingBalance(
-      period.getSecond(), orderable, facility);
+      Map<String, Map<String, Long>> stockOnHand = stockmanagementRepository
+          .findStockOnHand(period.getSecond(), orderables, facilities);
+      calculation = orderable -> stockOnHand.getOrDefault(orderable, Collections.emptyMap());
     } else if (source.equals(REQUISITION)) {
-      calculatedIndicator = requisitionRepository.findClosingBalance(
-              period.getFirst(), orderable, facility);
+      calculation = orderable -> requisitionRepository.findClosingBalances(
+              period.getFirst(), orderable, facilities);
     } else {
       throw new ValidationMessageException(ERROR_ENUMERATOR_NOT_EXIST);
     }
-
-    return new BigDecimal(calculatedIndicator.toString(), MathContext.DECIMAL64);
+    return IndicatorSupplier.calculatePerOrderable(orderables,
+        orderable -> IndicatorSupplier.toIndicatorValues(calculation.apply(orderable)));
   }
 
 }
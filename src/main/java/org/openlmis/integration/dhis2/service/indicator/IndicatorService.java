@@ -13,14 +13,19 @@
  * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
  */
 
+
 package org.openlmis.integration.dhis2.service.indicator;
 
 import java.math.BigDecimal;
 import java.math.MathContext;
 import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.PostConstruct;
 import org.openlmis.integration.dhis2.domain.enumerator.IndicatorEnum;
-import org.openlmis.integration.dhis2.exception.ValidationMessageException;
-import org.openlmis.integration.dhis2.i18n.MessageKeys;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.util.Pair;
 import org.springframework.stereotype.Service;
@@ -29,74 +34,66 @@ import org.springframework.stereotype.Service;
 public class IndicatorService {
 
   @Autowired
-  OpeningBalance openingBalance;
-
-  @Autowired
-  ClosingBalance closingBalance;
+  private List<IndicatorSupplier> indicatorSuppliers;
 
-  @Autowired
-  ReceivedBalance receivedBalance;
-
-  @Autowired
-  PositiveAdjustment positiveAdjustment;
-
-  @Autowired
-  NegativeAdjustment negativeAdjustment;
+  private Map<String, IndicatorSupplier> suppliers;
 
   /**
-   * Counts quantity of items for a given indicator enumerator.
-   *
-   * @param indicatorEnum Enumerator used to calculate indicators
-   * @param period Pair containing starting date and end date
-   * @return BigDecimal with generated indicator value for a given period
+   * Registers all indicator suppliers by their names, so a new indicator only needs a new
+   * {@link IndicatorSupplier} bean.
    */
-  public BigDecimal generate(String source, IndicatorEnum indicatorEnum, Pair<ZonedDateTime,
-          ZonedDateTime> period, String orderable, String facility) {
-    BigDecimal calculatedIndicator = new BigDecimal("0", MathContext.DECIMAL64);
-    switch (indicatorEnum) {
-      case OPENING_BALANCE:
-        calculatedIndicator = openingBalance.calculateValue(
-                source, period, orderable, facility);
-        break;
-      case RECEIVED:
-        calculatedIndicator = receivedBalance.calculateValue(
-                source, period, orderable, facility);
-        break;
-      case CLOSING_BALANCE:
-        calculatedIndicator = closingBalance.calculateValue(
-                source, period, orderable, facility);
-        break;
-      case CCE_ALLOCATED:
-        break;
-      case CCE_OPERATIONAL:
-        break;
-      case NEGATIVE_ADJUSTMENTS:
-        calculatedIndicator = negativeAdjustment.calculateValue(
-                source, period, orderable, facility);
-        break;
-      case POSITIVE_ADJUSTMENTS:
-        calculatedIndicator = positiveAdjustment.calculateValue(
-                source, period, orderable, facility);
-        break;
-      case ADJUSTMENTS_BY_REASON:
-        break;
-      default:
-        throw new ValidationMessageException(MessageKeys.ERROR_ENUMERATOR_NOT_EXIST);
+  @PostConstruct
+  public void init() {
+    suppliers = new HashMap<>();
+    for (IndicatorSupplier supplier : indicatorSuppliers) {
+      IndicatorSupplier previous = suppliers.put(supplier.getIndicatorName(), supplier);
+      if (previous != null) {
+        throw new IllegalStateException(String.format(
+                "There is more than one indicator with name '%s'", supplier.getIndicatorName()));
+      }
     }
-
-    return calculatedIndicator;
   }
 
   /**
-   * Counts quantity of items for a given indicator enumerator.
+   * Calculates values of a given indicator for all given orderables and facilities with a single
+   * call to its supplier. Values are keyed with the name of the category option combo they are
+   * sent with, see {@link IndicatorSupplier#calculateKeyedValues}. Facilities without source
+   * data get a single zero, unless the indicator is split, in which case they get no values at
+   * all.
    *
    * @param indicatorName Enumerator name used to calculate indicators
    * @param period Pair containing starting date and end date
-   * @return BigDecimal with generated indicator value for a given period
+   * @param orderables names of the orderables the indicator is calculated for
+   * @param facilities codes of the facilities the indicator is calculated for
+   * @return map of orderable name to map of facility code to generated indicator values keyed
+   *         by category option combo
    */
-  public BigDecimal generate(String source, String indicatorName, Pair<ZonedDateTime,
-          ZonedDateTime> period, String orderable, String facility) {
-    return generate(source, fromString(indicatorName), period, orderable, facility);
+  public Map<String, Map<String, Map<String, BigDecimal>>> generateKeyed(String source,
+          String indicatorName, Pair<ZonedDateTime, ZonedDateTime> period,
+          Collection<String> orderables, List<String> facilities) {
+    Map<String, Map<String, Map<String, BigDecimal>>> result = new HashMap<>();
+    if (orderables.isEmpty() || facilities.isEmpty()) {
+      return result;
+    }
+
+    IndicatorSupplier supplier = getSupplier(indicatorName);
+    Map<String, Map<String, Map<String, BigDecimal>>> calculatedIndicators = supplier
+            .calculateKeyedValues(source, period, orderables, facilities);
+
+    Map<String, BigDecimal> defaultValue = supplier.isKeyed()
+            ? Collections.emptyMap()
+            : Collections.singletonMap(IndicatorSupplier.DEFAULT_CATEGORY_OPTION_COMBO,
+                new BigDecimal("0", MathContext.DECIMAL64));
+    for (String orderable : orderables) {
+      Map<String, Map<String, BigDecimal>> values = calculatedIndicators
+              .getOrDefault(orderable, Collections.emptyMap());
+      Map<String, Map<String, BigDecimal>> orderableResult = new HashMap<>();
+      for (String facility : facilities) {
+        orderableResult.put(facility, values.getOrDefault(facility, defaultValue));
+      }
+      result.put(orderable, orderableResult);
+    }
+    return result;
   }
 
   /**
@@ -104,11 +101,24 @@ public class IndicatorService {
    */
   public IndicatorEnum fromString(String name) {
     try {
-      return IndicatorEnum.valueOf(name.replaceAll(" ", "_").toUpperCase());
+      return IndicatorEnum.valueOf(toIndicatorName(name));
     } catch (IllegalArgumentException ex) {
       throw new IllegalArgumentException(String.format(
               "There is no enumerator with name '%s'", name), ex);
     }
   }
 
+  private IndicatorSupplier getSupplier(String indicatorName) {
+    IndicatorSupplier supplier = suppliers.get(toIndicatorName(indicatorName));
+    if (supplier == null) {
+      throw new IllegalArgumentException(String.format(
+              "There is no enumerator with name '%s'", indicatorName));
+    }
+    return supplier;
+  }
+
+  private String toIndicatorName(String name) {
+    return name.replaceAll(" ", "_").toUpperCase();
+  }
+
 }
@@ -16,7 +16,14 @@
 package org.openlmis.integration.dhis2.service.indicator;
 
 import java.math.BigDecimal;
+import java.math.MathContext;
 import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import org.springframework.data.util.Pair;
 import org.springframework.stereotype.Component;
 
@@ -26,9 +33,68 @@ public interface IndicatorSupplier {
   String STOCKMANAGEMENT = "Stock Management";
   String REQUISITION = "Requisition";
 
+  /**
+   * Key of the value sent with the category option combo configured on the data element.
+   */
+  String DEFAULT_CATEGORY_OPTION_COMBO = "";
+
   String getIndicatorName();
 
-  BigDecimal calculateValue(String source, Pair<ZonedDateTime, ZonedDateTime> period,
-                            String facility, String orderable);
+  /**
+   * Tells whether the indicator is split into many values per facility, keyed with category
+   * option combos other than {@link #DEFAULT_CATEGORY_OPTION_COMBO}.
+   */
+  default boolean isKeyed() {
+    return false;
+  }
+
+  /**
+   * Calculates the indicator for all given orderables and facilities at once, as many values per
+   * facility as the indicator is split into. Each value is keyed with the name of the category
+   * option combo it is sent to DHIS2 with. Indicators that are not split return a single value
+   * per facility, keyed with {@link #DEFAULT_CATEGORY_OPTION_COMBO}. Orderables and facilities
+   * for which there is no source data may be missing from the result.
+   *
+   * @return map of orderable name to map of facility code to values keyed by category option
+   *         combo
+   */
+  Map<String, Map<String, Map<String, BigDecimal>>> calculateKeyedValues(String source,
+      Pair<ZonedDateTime, ZonedDateTime> period, Collection<String> orderables,
+      Collection<String> facilities);
+
+  /**
+   * Calculates an indicator that is not split for each of the given orderables separately.
+   *
+   * @param calculation returns map of facility code to indicator value of an orderable
+   * @return map of orderable name to map of facility code to values keyed by the default
+   *         category option combo
+   */
+  static Map<String, Map<String, Map<String, BigDecimal>>> calculatePerOrderable(
+      Collection<String> orderables, Function<String, Map<String, BigDecimal>> calculation) {
+    Map<String, Map<String, Map<String, BigDecimal>>> values = new HashMap<>();
+    for (String orderable : orderables) {
+      values.put(orderable, toKeyedValues(calculation.apply(orderable)));
+    }
+    return values;
+  }
+
+  /**
+   * Converts values of an indicator that is not split into values keyed by the default
+   * category option combo.
+   */
+  static Map<String, Map<String, BigDecimal>> toKeyedValues(Map<String, BigDecimal> values) {
+    return values.entrySet().stream()
+            .collect(Collectors.toMap(Map.Entry::getKey, entry -> Collections.singletonMap(
+                DEFAULT_CATEGORY_OPTION_COMBO, entry.getValue())));
+  }
+
+  /**
+   * Converts raw values returned by the indicator repositories into indicator values.
+   */
+  static Map<String, BigDecimal> toIndicatorValues(Map<String, ? extends Number> values) {
+    return values.entrySet().stream()
+            .collect(Collectors.toMap(Map.Entry::getKey,
+                entry -> new BigDecimal(entry.getValue().toString(), MathContext.DECIMAL64)));
+  }
 
 }
@@ -18,8 +18,9 @@ package org.openlmis.integration.dhis2.service.indicator;
 import static org.openlmis.integration.dhis2.i18n.MessageKeys.ERROR_ENUMERATOR_NOT_EXIST;
 
 import java.math.BigDecimal;
-import java.math.MathContext;
 import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.Map;
 import org.openlmis.integration.dhis2.domain.enumerator.IndicatorEnum;
 import org.openlmis.integration.dhis2.exception.ValidationMessageException;
 import org.openlmis.integration.dhis2.repository.indicator.StockmanagementRepository;
@@ -30,7 +31,7 @@ import org.springframework.stereotype.Component;
 @Component
 public class NegativeAdjustment implements IndicatorSupplier {
 
-  public static final String NAME = IndicatorEnum.POSITIVE_ADJUSTMENTS.toString();
+  public static final String NAME = IndicatorEnum.NEGATIVE_ADJUSTMENTS.toString();
 
   @Autowired
   private StockmanagementRepository stockmanagementRepository;
@@ -40,19 +41,18 @@ public class NegativeAdjustment implements IndicatorSupplier {
   }
 
   /**
-   * Calculate negative adjustments.
+   * Calculate negative adjustments of many orderables for many facilities.
    */
-  public BigDecimal calculateValue(String source, Pair<ZonedDateTime, ZonedDateTime> period,
-                                   String orderable, String facility) {
-    Double calculatedIndicator;
-    if (source.equals(STOCKMANAGEMENT)) {
-      calculatedIndicator = stockmanagementRepository.findNegativeAdjustments(
-              period.getFirst(), period.getSecond(), orderable, facility);
-    } else {
+  @Override
+  public Map<String, Map<String, Map<String, BigDecimal>>> calculateKeyedValues(String source,
+      Pair<ZonedDateTime, ZonedDateTime> period, Collection<String> orderables,
+      Collection<String> facilities) {
+    if (!source.equals(STOCKMANAGEMENT)) {
       throw new ValidationMessageException(ERROR_ENUMERATOR_NOT_EXIST);
     }
-
-    return new BigDecimal(calculatedIndicator.toString(), MathContext.DECIMAL64);
+    return IndicatorSupplier.calculatePerOrderable(orderables, orderable -> IndicatorSupplier
+        .toIndicatorValues(stockmanagementRepository.findNegativeAdjustmentTotals(
+            period.getFirst(), period.getSecond(), orderable, facilities)));
   }
 
 }
@@ -18,8 +18,9 @@ package org.openlmis.integration.dhis2.service.indicator;
 import static org.openlmis.integration.dhis2.i18n.MessageKeys.ERROR_ENUMERATOR_NOT_EXIST;
 
 import java.math.BigDecimal;
-import java.math.MathContext;
 import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.Map;
 import org.openlmis.integration.dhis2.domain.enumerator.IndicatorEnum;
 import org.openlmis.integration.dhis2.exception.ValidationMessageException;
 import org.openlmis.integration.dhis2.repository.indicator.StockmanagementRepository;
@@ -40,19 +41,18 @@ public class PositiveAdjustment implements IndicatorSupplier {
   }
 
   /**
-   * Calculate positive adjustments.
+   * Calculate positive adjustments of many orderables for many facilities.
    */
-  public BigDecimal calculateValue(String source, Pair<ZonedDateTime, ZonedDateTime> period,
-                                   String orderable, String facility) {
-    Double calculatedIndicator;
-    if (source.equals(STOCKMANAGEMENT)) {
-      calculatedIndicator = stockmanagementRepository.findPositiveAdjustments(
-              period.getFirst(), period.getSecond(), orderable, facility);
-    } else {
+  @Override
+  public Map<String, Map<String, Map<String, BigDecimal>>> calculateKeyedValues(String source,
+      Pair<ZonedDateTime, ZonedDateTime> period, Collection<String> orderables,
+      Collection<String> facilities) {
+    if (!source.equals(STOCKMANAGEMENT)) {
       throw new ValidationMessageException(ERROR_ENUMERATOR_NOT_EXIST);
     }
-
-    return new BigDecimal(calculatedIndicator.toString(), MathContext.DECIMAL64);
+    return IndicatorSupplier.calculatePerOrderable(orderables, orderable -> IndicatorSupplier
+        .toIndicatorValues(stockmanagementRepository.findPositiveAdjustmentTotals(
+            period.getFirst(), period.getSecond(), orderable, facilities)));
   }
 
 }
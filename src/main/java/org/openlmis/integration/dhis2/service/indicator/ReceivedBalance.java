@@ -18,8 +18,10 @@ package org.openlmis.integration.dhis2.service.indicator;
 import static org.openlmis.integration.dhis2.i18n.MessageKeys.ERROR_ENUMERATOR_NOT_EXIST;
 
 import java.math.BigDecimal;
-import java.math.MathContext;
 import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.Function;
 import org.openlmis.integration.dhis2.domain.enumerator.IndicatorEnum;
 import org.openlmis.integration.dhis2.exception.ValidationMessageException;
 import org.openlmis.integration.dhis2.repository.indicator.RequisitionRepository;
@@ -44,22 +46,24 @@ public class ReceivedBalance implements IndicatorSupplier {
   }
 
   /**
-   * Calculate received balance.
+   * Calculate received balances of many orderables for many facilities.
    */
-  public BigDecimal calculateValue(String source, Pair<ZonedDateTime, ZonedDateTime> period,
-                                   String orderable, String facility) {
-    Double calculatedIndicator;
+  @Override
+  public Map<String, Map<String, Map<String, BigDecimal>>> calculateKeyedValues(String source,
+      Pair<ZonedDateTime, ZonedDateTime> period, Collection<String> orderables,
+      Collection<String> facilities) {
+    Function<String, Map<String, Double>> calculation;
     if (source.equals(STOCKMANAGEMENT)) {
-      calculatedIndicator = stockmanagementRepository.findReceived(
-              period.getFirst(), period.getSecond(), orderable, facility);
+      calculation = orderable -> stockmanagementRepository.findReceivedQuantities(
+              period.getFirst(), period.getSecond(), orderable, facilities);
     } else if (source.equals(REQUISITION)) {
-      calculatedIndicator = requisitionRepository.findReceived(
-              period.getFirst(), orderable, facility);
+      calculation = orderable -> requisitionRepository.findReceivedQuantities(
+              period.getFirst(), orderable, facilities);
     } else {
       throw new ValidationMessageException(ERROR_ENUMERATOR_NOT_EXIST);
     }
-
-    return new BigDecimal(calculatedIndicator.toString(), MathContext.DECIMAL64);
+    return IndicatorSupplier.calculatePerOrderable(orderables,
+        orderable -> IndicatorSupplier.toIndicatorValues(calculation.apply(orderable)));
   }
 
 }
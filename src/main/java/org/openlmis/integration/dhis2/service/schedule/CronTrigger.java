@@ -15,8 +15,11 @@
 
 package org.openlmis.integration.dhis2.service.schedule;
 
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import java.time.ZonedDateTime;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 import org.openlmis.integration.dhis2.domain.enumerator.DhisPeriod;
 import org.springframework.data.util.Pair;
 import org.springframework.lang.Nullable;
@@ -25,10 +28,13 @@ import org.springframework.scheduling.TriggerContext;
 
 public class CronTrigger implements Trigger {
 
+  private static final String LAG_METRIC = "scheduler.trigger.lag";
+
   private final PeriodGeneratorService periodGeneratorService;
 
   private final DhisPeriod periodEnum;
   private final int offsetMinutes;
+  private final Timer lag;
 
   /**
    * Creates new instance of cron trigger.
@@ -38,14 +44,33 @@ public class CronTrigger implements Trigger {
     this.periodGeneratorService = periodGeneratorService;
     this.periodEnum = periodEnum;
     this.offsetMinutes = offsetMinutes;
+    this.lag = Timer.builder(LAG_METRIC)
+        .description("Delay between the planned and the actual start of a schedule run")
+        .tag("period", periodEnum.name())
+        .register(Metrics.globalRegistry);
   }
 
   @Override
   public Date nextExecutionTime(@Nullable TriggerContext triggerContext) {
+    recordLag(triggerContext);
+
     Pair<ZonedDateTime, ZonedDateTime> range = periodGeneratorService.generateRange(
             periodEnum, offsetMinutes);
     ZonedDateTime periodEnd = range.getSecond();
     return Date.from(periodEnd.toInstant());
   }
 
+  // the scheduler asks for the next execution time right after a run, so this is the place
+  // where the start time of the previous run is known
+  private void recordLag(TriggerContext triggerContext) {
+    if (triggerContext == null || triggerContext.lastScheduledExecutionTime() == null
+        || triggerContext.lastActualExecutionTime() == null) {
+      return;
+    }
+
+    long delay = triggerContext.lastActualExecutionTime().getTime()
+        - triggerContext.lastScheduledExecutionTime().getTime();
+    lag.record(Math.max(delay, 0), TimeUnit.MILLISECONDS);
+  }
+
 }
@@ -15,14 +15,17 @@
 
 package org.openlmis.integration.dhis2.service.schedule;
 
-import java.util.HashMap;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
 import java.util.List;
-import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ScheduledFuture;
 import org.openlmis.integration.dhis2.domain.enumerator.DhisPeriod;
 import org.openlmis.integration.dhis2.domain.schedule.Schedule;
-import org.openlmis.integration.dhis2.service.communication.ProcessedDataExchangeService;
+import org.openlmis.integration.dhis2.repository.indicator.StockLineItemAggregateRepository;
+import org.openlmis.integration.dhis2.service.export.ExportEngine;
 import org.openlmis.integration.dhis2.service.facility.SharedFacilitySynchronizer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,8 +43,11 @@ public class DynamicCronScheduler {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(DynamicCronScheduler.class);
   private static final String FACILITY_REFRESH_CRON = "0 20 * * * *";
+  private static final String STOCK_TOTALS_CLEANUP_CRON = "0 0 3 * * *";
 
-  private Map<UUID, ScheduledFuture<?>> scheduledProcesses = new HashMap<>();
+  private final ConcurrentMap<UUID, ScheduledFuture<?>> scheduledProcesses =
+      Metrics.globalRegistry.gaugeMapSize("scheduler.datasets", Tags.empty(),
+          new ConcurrentHashMap<>());
 
   @Autowired
   private TaskScheduler taskScheduler;
@@ -56,25 +62,50 @@ public class DynamicCronScheduler {
   private SharedFacilitySynchronizer sharedFacilitySynchronizer;
 
   @Autowired
-  private ProcessedDataExchangeService processedDataExchangeService;
+  private ExportEngine exportEngine;
+
+  @Autowired
+  private StockLineItemAggregateRepository stockLineItemAggregateRepository;
 
   @Scheduled(cron = FACILITY_REFRESH_CRON)  // every day at 8:00 PM UTC
   private void refreshSharedFacilities() {
     sharedFacilitySynchronizer.refreshSharedFacilities();
   }
 
+  @Scheduled(fixedDelayString = "${dhis2.outbox.drainDelay}")
+  private void drainOutbox() {
+    exportEngine.drainOutbox();
+  }
+
+  @Scheduled(cron = STOCK_TOTALS_CLEANUP_CRON)  // every day at 3:00 AM UTC
+  private void removeExpiredStockTotals() {
+    int periods = stockLineItemAggregateRepository.removeExpired();
+    LOGGER.info("Removed stock line item totals of {} expired periods", periods);
+  }
+
+  @Scheduled(fixedDelayString = "${dhis2.outbox.leaseRenewalDelay}")
+  private void renewOutboxLeases() {
+    exportEngine.renewLeases();
+  }
+
   /**
-   * Creates single new cron job.
+   * Creates single new cron job for the dataset of the given schedule. The job exports all
+   * schedules of that dataset in one pass, so nothing happens if the dataset already has one.
    */
   public void createNewCron(Schedule schedule) {
-    LOGGER.debug("Creating new cron job");
-    DhisPeriod periodEnum = periodGeneratorService.fromString(schedule.getPeriodEnumerator());
-    int offset = schedule.getTimeOffset();
-    CronTrigger cronTrigger = new CronTrigger(periodGeneratorService, periodEnum, offset);
-
-    ScheduledFuture<?> newProcess = taskScheduler.schedule(
-        () -> processedDataExchangeService.sendData(schedule), cronTrigger);
-    scheduledProcesses.putIfAbsent(schedule.getId(), newProcess);
+    UUID serverId = schedule.getServer().getId();
+    UUID datasetId = schedule.getDataset().getId();
+
+    scheduledProcesses.computeIfAbsent(datasetId, id -> {
+      LOGGER.debug("Creating new cron job");
+      DhisPeriod periodEnum = periodGeneratorService.fromString(schedule.getPeriodEnumerator());
+      int offset = schedule.getTimeOffset();
+      CronTrigger cronTrigger = new CronTrigger(periodGeneratorService, periodEnum, offset);
+
+      // schedules are loaded on each run, so elements added later are exported as well
+      return taskScheduler.schedule(() -> exportEngine.export(
+          scheduleService.getSchedulesByServerAndDatasetId(serverId, datasetId)), cronTrigger);
+    });
   }
 
   /**
@@ -21,14 +21,13 @@ import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Comparator;
 import java.util.Date;
-import java.util.List;
 import java.util.Optional;
 import org.openlmis.integration.dhis2.domain.enumerator.DhisPeriod;
 import org.openlmis.integration.dhis2.domain.periodmapping.PeriodMapping;
 import org.openlmis.integration.dhis2.dto.dhis.DhisPeriodType;
 import org.openlmis.integration.dhis2.dto.referencedata.ProcessingPeriodDto;
 import org.openlmis.integration.dhis2.exception.ValidationMessageException;
-import org.openlmis.integration.dhis2.service.communication.ReferenceDataService;
+import org.openlmis.integration.dhis2.service.communication.ReferenceDataCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.util.Pair;
 import org.springframework.stereotype.Service;
@@ -40,7 +39,7 @@ public class PeriodGeneratorService {
   private Clock clock;
 
   @Autowired
-  private ReferenceDataService referenceDataService;
+  private ReferenceDataCache referenceDataCache;
 
   public PeriodGeneratorService() {
   }
@@ -75,8 +74,8 @@ public class PeriodGeneratorService {
    * @return Pair of starting and end date
    */
   public Pair<ZonedDateTime, ZonedDateTime> generateRange(PeriodMapping periodMapping) {
-    ProcessingPeriodDto processingPeriod = referenceDataService
-                    .findProcessingPeriod(periodMapping.getProcessingPeriodId());
+    ProcessingPeriodDto processingPeriod = referenceDataCache
+                    .getProcessingPeriod(periodMapping.getProcessingPeriodId());
     ZonedDateTime startDate = ZonedDateTime
             .ofInstant(processingPeriod.getStartDate().toInstant(), ZoneId.systemDefault());
     ZonedDateTime endDate = ZonedDateTime
@@ -90,11 +89,9 @@ public class PeriodGeneratorService {
    */
   public Pair<ZonedDateTime, ZonedDateTime> getLastRequisitionPeriod() {
     Date currentDate = Date.from(ZonedDateTime.now().toInstant());
-    List<ProcessingPeriodDto> processingPeriods =
-            referenceDataService.findAllProcessingPeriods().getContent();
-
-    processingPeriods.sort(Comparator.comparing(ProcessingPeriodDto::getStartDate));
-    Optional<ProcessingPeriodDto> lastPeriodOptional = processingPeriods.stream()
+    Optional<ProcessingPeriodDto> lastPeriodOptional = referenceDataCache
+            .getProcessingPeriods()
+            .stream()
             .filter(e -> e.getEndDate().before(currentDate))
             .max(Comparator.comparing(ProcessingPeriodDto::getStartDate));
 
@@ -0,0 +1,121 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.integration.dhis2.util;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.openlmis.integration.dhis2.dto.referencedata.PageDto;
+
+/**
+ * Iterates over all pages of a paginated resource. The first page is retrieved on creation to
+ * find out how many pages there are. The following ones are requested ahead of time, but never
+ * more than the given window, so only a few pages are held in memory at once no matter how big
+ * the resource is.
+ */
+public final class PageIterator<T> implements Iterator<PageDto<T>> {
+
+  private final IntFunction<PageDto<T>> pageSupplier;
+  private final Executor executor;
+  private final int window;
+  private final int totalPages;
+
+  private final Queue<CompletableFuture<PageDto<T>>> pending = new ArrayDeque<>();
+  private PageDto<T> firstPage;
+  private int nextToRequest = 1;
+
+  /**
+   * Creates new iterator.
+   *
+   * @param pageSupplier retrieves the page with the given number
+   * @param executor executor the following pages are retrieved on
+   * @param window maximum number of pages retrieved at the same time
+   */
+  public PageIterator(IntFunction<PageDto<T>> pageSupplier, Executor executor, int window) {
+    this.pageSupplier = pageSupplier;
+    this.executor = executor;
+    this.window = Math.max(window, 1);
+    this.firstPage = pageSupplier.apply(0);
+    this.totalPages = firstPage == null ? 0 : Math.max(firstPage.getTotalPages(), 1);
+
+    fillWindow();
+  }
+
+  /**
+   * Returns stream of all elements of all pages. Pages are retrieved lazily while the stream is
+   * consumed.
+   */
+  public static <T> Stream<T> stream(IntFunction<PageDto<T>> pageSupplier, Executor executor,
+                                     int window) {
+    Iterator<PageDto<T>> pages = new PageIterator<>(pageSupplier, executor, window);
+    return StreamSupport
+        .stream(Spliterators.spliteratorUnknownSize(pages, Spliterator.ORDERED), false)
+        .flatMap(page -> page.getContent().stream());
+  }
+
+  @Override
+  public boolean hasNext() {
+    return firstPage != null || !pending.isEmpty();
+  }
+
+  @Override
+  public PageDto<T> next() {
+    if (firstPage != null) {
+      PageDto<T> page = firstPage;
+      firstPage = null;
+      return page;
+    }
+
+    CompletableFuture<PageDto<T>> future = pending.poll();
+    if (future == null) {
+      throw new NoSuchElementException();
+    }
+
+    PageDto<T> page = join(future);
+    fillWindow();
+    return page;
+  }
+
+  private void fillWindow() {
+    while (pending.size() < window && nextToRequest < totalPages) {
+      int pageNumber = nextToRequest++;
+      pending.add(CompletableFuture.supplyAsync(() -> pageSupplier.apply(pageNumber), executor));
+    }
+  }
+
+  private PageDto<T> join(CompletableFuture<PageDto<T>> future) {
+    try {
+      return future.join();
+    } catch (CompletionException ex) {
+      // callers expect the same exceptions as for the first page, which is retrieved directly
+      if (ex.getCause() instanceof RuntimeException) {
+        pending.forEach(other -> other.cancel(true));
+        throw (RuntimeException) ex.getCause();
+      }
+      throw ex;
+    }
+  }
+
+}
@@ -15,11 +15,12 @@
 
 package org.openlmis.integration.dhis2.web.execution;
 
-import java.util.List;
 import java.util.UUID;
-import org.openlmis.integration.dhis2.domain.schedule.Schedule;
 import org.openlmis.integration.dhis2.dto.facility.FacilityCodesWrapper;
-import org.openlmis.integration.dhis2.service.communication.ProcessedDataExchangeService;
+import org.openlmis.integration.dhis2.service.export.ExportEngine;
+import org.openlmis.integration.dhis2.service.export.ExportProgress;
+import org.openlmis.integration.dhis2.service.export.ExportRunService;
+import org.openlmis.integration.dhis2.service.export.ExportSummary;
 import org.openlmis.integration.dhis2.service.facility.SharedFacilitySynchronizer;
 import org.openlmis.integration.dhis2.service.role.PermissionService;
 import org.openlmis.integration.dhis2.service.schedule.ScheduleService;
@@ -29,14 +30,18 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
 
 /**
- * Controller used to expose manual sync execution.
+ * Controller used to expose manual sync execution. Executions run in the background, their
+ * progress can be followed by the id of the run.
  */
 @Controller
 @RequestMapping(ManualExecutionController.RESOURCE_PATH)
@@ -47,7 +52,10 @@ public class ManualExecutionController extends BaseController {
   public static final String RESOURCE_PATH = API_PATH + "/execute";
 
   @Autowired
-  private ProcessedDataExchangeService processedDataExchangeService;
+  private ExportEngine exportEngine;
+
+  @Autowired
+  private ExportRunService exportRunService;
 
   @Autowired
   private SharedFacilitySynchronizer sharedFacilitySynchronizer;
@@ -59,36 +67,54 @@ public class ManualExecutionController extends BaseController {
   private PermissionService permissionService;
 
   /**
-   * Run manual execution.
+   * Start manual execution. Values which have not changed since the last export are skipped,
+   * unless force is set.
    */
   @PostMapping
-  @ResponseStatus(HttpStatus.OK)
-  public void runExecution() {
+  @ResponseStatus(HttpStatus.ACCEPTED)
+  @ResponseBody
+  public ExportProgress runExecution(@RequestParam(value = "force", required = false,
+                                             defaultValue = "false") boolean force) {
     permissionService.canManageDhisIntegration();
-    LOGGER.debug("Running manual execution");
-    sharedFacilitySynchronizer.refreshSharedFacilities();
-    scheduleService.getAllSchedules().forEach(
-        schedule -> processedDataExchangeService.sendData(schedule));
+    LOGGER.debug("Starting manual execution");
+    ExportSummary summary = exportEngine.exportInBackground(() -> {
+      sharedFacilitySynchronizer.refreshSharedFacilities();
+      return scheduleService.getAllSchedules();
+    }, null, null, force);
+    return exportRunService.getProgress(summary.getId());
   }
 
   /**
-   * Run manual execution for certain server, dataset, period mapping and facilities.
+   * Start manual execution for certain server, dataset, period mapping and facilities.
    */
   @PostMapping(params = {"serverId", "datasetId", "periodMappingId"})
-  @ResponseStatus(HttpStatus.OK)
-  public void runExecution(@RequestParam(value = "serverId") UUID serverId,
+  @ResponseStatus(HttpStatus.ACCEPTED)
+  @ResponseBody
+  public ExportProgress runExecution(@RequestParam(value = "serverId") UUID serverId,
                            @RequestParam(value = "datasetId") UUID datasetId,
                            @RequestParam(value = "periodMappingId",
                                    required = false) UUID periodMappingId,
+                           @RequestParam(value = "force", required = false,
+                                   defaultValue = "false") boolean force,
                            @RequestBody(required = false) FacilityCodesWrapper facilityCodes) {
     permissionService.canManageDhisIntegration();
-    LOGGER.debug("Running manual execution");
-    sharedFacilitySynchronizer.refreshSharedFacilities();
+    LOGGER.debug("Starting manual execution");
+    ExportSummary summary = exportEngine.exportInBackground(() -> {
+      sharedFacilitySynchronizer.refreshSharedFacilities();
+      return scheduleService.getSchedulesByServerAndDatasetId(serverId, datasetId);
+    }, periodMappingId, facilityCodes == null ? null : facilityCodes.getFacilityCodes(), force);
+    return exportRunService.getProgress(summary.getId());
+  }
 
-    List<Schedule> schedules = scheduleService
-        .getSchedulesByServerAndDatasetId(serverId, datasetId);
-    schedules.forEach(schedule -> processedDataExchangeService
-            .sendData(schedule, periodMappingId, facilityCodes.getFacilityCodes()));
+  /**
+   * Retrieves progress of the specified execution.
+   */
+  @GetMapping(value = "/{runId}")
+  @ResponseStatus(HttpStatus.OK)
+  @ResponseBody
+  public ExportProgress getExecution(@PathVariable("runId") UUID runId) {
+    permissionService.canManageDhisIntegration();
+    return exportRunService.getProgress(runId);
   }
 
 }
\ No newline at end of file
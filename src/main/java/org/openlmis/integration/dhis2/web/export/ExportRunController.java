@@ -0,0 +1,86 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+
+package org.openlmis.integration.dhis2.web.export;
+
+import java.util.UUID;
+import org.openlmis.integration.dhis2.domain.export.ExportRun;
+import org.openlmis.integration.dhis2.domain.export.ExportRunItem;
+import org.openlmis.integration.dhis2.service.export.ExportRunService;
+import org.openlmis.integration.dhis2.service.role.PermissionService;
+import org.openlmis.integration.dhis2.web.BaseController;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Controller used to expose the history of export runs via HTTP.
+ */
+@Controller
+@RequestMapping(ExportRunController.RESOURCE_PATH)
+public class ExportRunController extends BaseController {
+
+  public static final String RESOURCE_PATH = API_PATH + "/exportRuns";
+
+  @Autowired
+  private ExportRunService exportRunService;
+
+  @Autowired
+  private PermissionService permissionService;
+
+  /**
+   * Retrieves all export runs, the latest ones first.
+   */
+  @GetMapping
+  @ResponseStatus(HttpStatus.OK)
+  @ResponseBody
+  public Page<ExportRun> getAllExportRuns(Pageable pageable) {
+    permissionService.canManageDhisIntegration();
+    return exportRunService.findRuns(pageable);
+  }
+
+  /**
+   * Retrieves the specified export run.
+   */
+  @GetMapping(value = "/{id}")
+  @ResponseStatus(HttpStatus.OK)
+  @ResponseBody
+  public ExportRun getExportRun(@PathVariable("id") UUID id) {
+    permissionService.canManageDhisIntegration();
+    return exportRunService.findRun(id);
+  }
+
+  /**
+   * Retrieves the payloads sent during the specified export run, with their import counts and
+   * the values rejected by DHIS2.
+   */
+  @GetMapping(value = "/{id}/items")
+  @ResponseStatus(HttpStatus.OK)
+  @ResponseBody
+  public Page<ExportRunItem> getExportRunItems(@PathVariable("id") UUID id,
+                                               Pageable pageable) {
+    permissionService.canManageDhisIntegration();
+    return exportRunService.findItems(id, pageable);
+  }
+
+}
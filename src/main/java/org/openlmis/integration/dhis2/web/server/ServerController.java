@@ -25,6 +25,7 @@ import org.openlmis.integration.dhis2.exception.NotFoundException;
 import org.openlmis.integration.dhis2.exception.ValidationMessageException;
 import org.openlmis.integration.dhis2.i18n.MessageKeys;
 import org.openlmis.integration.dhis2.repository.server.ServerRepository;
+import org.openlmis.integration.dhis2.service.communication.DhisConnectionPoolService;
 import org.openlmis.integration.dhis2.service.role.PermissionService;
 import org.openlmis.integration.dhis2.util.Pagination;
 import org.openlmis.integration.dhis2.web.BaseController;
@@ -66,6 +67,9 @@ public class ServerController extends BaseController {
   @Autowired
   private PermissionService permissionService;
 
+  @Autowired
+  private DhisConnectionPoolService connectionPoolService;
+
   /**
    * Retrieves the specified server.
    */
@@ -117,6 +121,7 @@ public class ServerController extends BaseController {
       throw new ValidationMessageException(MessageKeys.ERROR_SERVER_CODE_DUPLICATED, e);
     }
 
+    connectionPoolService.registerServer(newServer);
     return ServerDto.newInstance(newServer);
   }
 
@@ -144,6 +149,7 @@ public class ServerController extends BaseController {
       throw new ValidationMessageException(MessageKeys.ERROR_SERVER_CODE_DUPLICATED, e);
     }
 
+    connectionPoolService.registerServer(serverToSave);
     return ServerDto.newInstance(serverToSave);
   }
 
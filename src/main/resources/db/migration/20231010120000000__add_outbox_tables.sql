@@ -0,0 +1,32 @@
+CREATE TABLE outbox_entry (
+    id UUID NOT NULL,
+    serverId UUID NOT NULL,
+    dataSet TEXT,
+    period TEXT,
+    payload TEXT NOT NULL,
+    attempts INTEGER NOT NULL DEFAULT 0,
+    lastError TEXT,
+    jobId TEXT,
+    createdDate TIMESTAMP WITH TIME ZONE NOT NULL,
+    nextAttemptDate TIMESTAMP WITH TIME ZONE NOT NULL,
+
+    CONSTRAINT outbox_entry_pkey PRIMARY KEY (id),
+    CONSTRAINT server_fkey FOREIGN KEY (serverId) REFERENCES server(id) ON DELETE CASCADE
+);
+
+CREATE INDEX outbox_entry_nextattemptdate_idx ON outbox_entry (nextAttemptDate);
+
+CREATE TABLE outbox_dead_letter (
+    id UUID NOT NULL,
+    serverId UUID NOT NULL,
+    dataSet TEXT,
+    period TEXT,
+    payload TEXT NOT NULL,
+    attempts INTEGER NOT NULL,
+    lastError TEXT,
+    createdDate TIMESTAMP WITH TIME ZONE NOT NULL,
+    failedDate TIMESTAMP WITH TIME ZONE NOT NULL,
+
+    CONSTRAINT outbox_dead_letter_pkey PRIMARY KEY (id),
+    CONSTRAINT server_fkey FOREIGN KEY (serverId) REFERENCES server(id) ON DELETE CASCADE
+);
@@ -0,0 +1,14 @@
+CREATE TABLE data_value_fingerprint (
+    serverId UUID NOT NULL,
+    dataSet TEXT NOT NULL,
+    period TEXT NOT NULL,
+    orgUnit TEXT NOT NULL,
+    dataElement TEXT NOT NULL,
+    categoryOptionCombo TEXT NOT NULL,
+    fingerprint TEXT NOT NULL,
+    acknowledgedDate TIMESTAMP WITH TIME ZONE NOT NULL,
+
+    CONSTRAINT data_value_fingerprint_pkey
+        PRIMARY KEY (serverId, dataSet, period, orgUnit, dataElement, categoryOptionCombo),
+    CONSTRAINT server_fkey FOREIGN KEY (serverId) REFERENCES server(id) ON DELETE CASCADE
+);
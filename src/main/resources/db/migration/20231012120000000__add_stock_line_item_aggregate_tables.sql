@@ -0,0 +1,23 @@
+CREATE TABLE stock_line_item_aggregate (
+    facilityId UUID NOT NULL,
+    orderableId UUID NOT NULL,
+    reasonCategory TEXT NOT NULL,
+    reasonType TEXT NOT NULL,
+    startDate TIMESTAMP WITH TIME ZONE NOT NULL,
+    endDate TIMESTAMP WITH TIME ZONE NOT NULL,
+    quantity NUMERIC NOT NULL,
+
+    CONSTRAINT stock_line_item_aggregate_pkey
+        PRIMARY KEY (reasonCategory, reasonType, startDate, endDate, facilityId, orderableId)
+);
+
+CREATE TABLE stock_line_item_watermark (
+    reasonCategory TEXT NOT NULL,
+    reasonType TEXT NOT NULL,
+    startDate TIMESTAMP WITH TIME ZONE NOT NULL,
+    endDate TIMESTAMP WITH TIME ZONE NOT NULL,
+    processedDate TIMESTAMP WITH TIME ZONE NOT NULL,
+
+    CONSTRAINT stock_line_item_watermark_pkey
+        PRIMARY KEY (reasonCategory, reasonType, startDate, endDate)
+);
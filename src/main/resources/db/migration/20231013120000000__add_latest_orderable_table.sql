@@ -0,0 +1,9 @@
+CREATE TABLE latest_orderable (
+    id UUID NOT NULL,
+    versionNumber BIGINT NOT NULL,
+    fullProductName TEXT,
+
+    CONSTRAINT latest_orderable_pkey PRIMARY KEY (id)
+);
+
+CREATE INDEX latest_orderable_fullproductname_idx ON latest_orderable (fullProductName);
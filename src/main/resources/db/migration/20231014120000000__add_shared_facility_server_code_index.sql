@@ -0,0 +1 @@
+CREATE INDEX shared_facility_serverid_code_idx ON shared_facility (serverId, code);
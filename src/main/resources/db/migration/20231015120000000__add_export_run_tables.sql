@@ -0,0 +1,56 @@
+CREATE TABLE export_run (
+    id UUID NOT NULL,
+    startDate TIMESTAMP WITH TIME ZONE NOT NULL,
+    endDate TIMESTAMP WITH TIME ZONE,
+    status TEXT NOT NULL,
+    schedules INTEGER NOT NULL,
+    failedSchedules INTEGER NOT NULL,
+    requests INTEGER NOT NULL,
+    failedRequests INTEGER NOT NULL,
+    dataValues INTEGER NOT NULL,
+    skippedDataValues INTEGER NOT NULL,
+    imported INTEGER NOT NULL,
+    updated INTEGER NOT NULL,
+    ignored INTEGER NOT NULL,
+
+    CONSTRAINT export_run_pkey PRIMARY KEY (id)
+);
+
+CREATE INDEX export_run_startdate_idx ON export_run (startDate);
+
+CREATE TABLE export_run_item (
+    id UUID NOT NULL,
+    runId UUID NOT NULL,
+    serverId UUID,
+    dataSet TEXT,
+    period TEXT,
+    status TEXT NOT NULL,
+    dataValues INTEGER NOT NULL,
+    imported INTEGER NOT NULL,
+    updated INTEGER NOT NULL,
+    ignored INTEGER NOT NULL,
+    deleted INTEGER NOT NULL,
+    error TEXT,
+
+    CONSTRAINT export_run_item_pkey PRIMARY KEY (id),
+    CONSTRAINT export_run_fkey FOREIGN KEY (runId) REFERENCES export_run(id) ON DELETE CASCADE,
+    CONSTRAINT server_fkey FOREIGN KEY (serverId) REFERENCES server(id) ON DELETE SET NULL
+);
+
+CREATE INDEX export_run_item_runid_idx ON export_run_item (runId);
+
+CREATE TABLE export_run_conflict (
+    itemId UUID NOT NULL,
+    object TEXT,
+    value TEXT,
+    errorCode TEXT,
+    period TEXT,
+    orgUnit TEXT,
+    dataElement TEXT,
+    categoryOptionCombo TEXT,
+
+    CONSTRAINT export_run_item_fkey
+        FOREIGN KEY (itemId) REFERENCES export_run_item(id) ON DELETE CASCADE
+);
+
+CREATE INDEX export_run_conflict_itemid_idx ON export_run_conflict (itemId);
@@ -25,17 +25,23 @@ public class DataElementDataBuilder {
   private static final String NAME = "test-name";
   private static final String SOURCE = "test-source";
   private static final String INDICATOR = "test-indicator";
-  private static final String ORDERABLE = "test-orderable";
+  private static final String DEFAULT_ORDERABLE = "test-orderable";
   private static final String ELEMENT = "test-element";
   private static final String CATEGORYCOMBO = "test-category-combo";
 
   private Dataset dataset = new DatasetDataBuilder().build();
+  private String orderable = DEFAULT_ORDERABLE;
 
   public DataElementDataBuilder withDataset(Dataset dataset) {
     this.dataset = dataset;
     return this;
   }
 
+  public DataElementDataBuilder withOrderable(String orderable) {
+    this.orderable = orderable;
+    return this;
+  }
+
   /**
    * Builds new instance of Dataset (with id field).
    */
@@ -52,7 +58,7 @@ public class DataElementDataBuilder {
    */
   public DataElement buildAsNew() {
     DataElement dataElement = new DataElement(
-        NAME, SOURCE, INDICATOR, ORDERABLE, ELEMENT, CATEGORYCOMBO);
+        NAME, SOURCE, INDICATOR, orderable, ELEMENT, CATEGORYCOMBO);
     dataElement.setDataset(dataset);
     return dataElement;
   }
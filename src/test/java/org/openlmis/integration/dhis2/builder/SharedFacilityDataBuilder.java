@@ -22,12 +22,17 @@ import org.openlmis.integration.dhis2.domain.server.Server;
 public class SharedFacilityDataBuilder {
 
   private static final UUID ID = UUID.randomUUID();
-  private static final String CODE = "test-code";
   private static final UUID FACILITY_ID = UUID.randomUUID();
   private static final String ORG_UNIT_ID = "test-unit-id";
 
+  private String code = "test-code";
   private Server server = new ServerDataBuilder().build();
 
+  public SharedFacilityDataBuilder withCode(String code) {
+    this.code = code;
+    return this;
+  }
+
   public SharedFacilityDataBuilder withServer(Server server) {
     this.server = server;
     return this;
@@ -46,7 +51,7 @@ public class SharedFacilityDataBuilder {
    * Builds new instance of SharedFacility as a new object (without id field).
    */
   public SharedFacility buildAsNew() {
-    return new SharedFacility(CODE, FACILITY_ID, ORG_UNIT_ID, server);
+    return new SharedFacility(code, FACILITY_ID, ORG_UNIT_ID, server);
   }
 
 }
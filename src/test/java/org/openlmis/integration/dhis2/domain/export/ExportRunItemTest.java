@@ -0,0 +1,118 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+
+package org.openlmis.integration.dhis2.domain.export;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import org.junit.Test;
+import org.openlmis.integration.dhis2.dto.dhis.DataValue;
+import org.openlmis.integration.dhis2.dto.dhis.DataValueSet;
+import org.openlmis.integration.dhis2.dto.dhis.DhisImportConflict;
+import org.openlmis.integration.dhis2.dto.dhis.DhisImportCount;
+import org.openlmis.integration.dhis2.dto.dhis.DhisResponseBody;
+import org.openlmis.integration.dhis2.dto.dhis.DhisResponseBodyDetails;
+
+public class ExportRunItemTest {
+
+  private static final UUID SERVER_ID = UUID.randomUUID();
+  private static final String DATA_SET = "data-set";
+  private static final String PERIOD = "202301";
+  private static final String ORG_UNIT = "org-unit";
+
+  private final DataValueSet dataValueSet = new DataValueSet(DATA_SET, PERIOD, ORG_UNIT,
+      Arrays.asList(
+          new DataValue("element-1", "combo-1", null, null, BigDecimal.ONE),
+          new DataValue("element-2", "combo-2", "other-org-unit", "202302", BigDecimal.TEN)));
+
+  @Test
+  public void shouldMapImportCountsAndStatus() {
+    ExportRunItem item = ExportRunItem.of(SERVER_ID, dataValueSet,
+        response("WARNING", Collections.emptyList()));
+
+    assertThat(item.getServerId()).isEqualTo(SERVER_ID);
+    assertThat(item.getDataSet()).isEqualTo(DATA_SET);
+    assertThat(item.getPeriod()).isEqualTo(PERIOD);
+    assertThat(item.getStatus()).isEqualTo("WARNING");
+    assertThat(item.getDataValues()).isEqualTo(2);
+    assertThat(item.getImported()).isEqualTo(1);
+    assertThat(item.getIgnored()).isEqualTo(1);
+    assertThat(item.getConflicts()).isEmpty();
+  }
+
+  @Test
+  public void shouldMapConflictsToRejectedValues() {
+    DhisImportConflict conflict = conflict("element-2", Collections.singletonList(1));
+
+    ExportRunItem item = ExportRunItem.of(SERVER_ID, dataValueSet,
+        response("WARNING", Collections.singletonList(conflict)));
+
+    assertThat(item.getConflicts()).containsExactly(new ExportRunConflict("element-2",
+        "Value is not valid", "E7619", "202302", "other-org-unit", "element-2", "combo-2"));
+  }
+
+  @Test
+  public void shouldKeepConflictsWithoutIndexes() {
+    DhisImportConflict conflict = conflict("element-1", null);
+
+    ExportRunItem item = ExportRunItem.of(SERVER_ID, dataValueSet,
+        response("WARNING", Collections.singletonList(conflict)));
+
+    assertThat(item.getConflicts()).containsExactly(new ExportRunConflict("element-1",
+        "Value is not valid", "E7619", PERIOD, ORG_UNIT, null, null));
+  }
+
+  @Test
+  public void shouldCreateFailedItem() {
+    ExportRunItem item = ExportRunItem.failed(SERVER_ID, dataValueSet, "error");
+
+    assertThat(item.getStatus()).isEqualTo(ExportRunItem.STATUS_FAILED);
+    assertThat(item.getError()).isEqualTo("error");
+    assertThat(item.getDataValues()).isEqualTo(2);
+    assertThat(item.getImported()).isZero();
+  }
+
+  private DhisImportConflict conflict(String object, List<Integer> indexes) {
+    DhisImportConflict conflict = new DhisImportConflict();
+    conflict.setObject(object);
+    conflict.setValue("Value is not valid");
+    conflict.setErrorCode("E7619");
+    conflict.setIndexes(indexes);
+    return conflict;
+  }
+
+  private DhisResponseBody response(String status,
+                                    List<DhisImportConflict> conflicts) {
+    DhisImportCount importCount = new DhisImportCount();
+    importCount.setImported(1);
+    importCount.setIgnored(1);
+
+    DhisResponseBodyDetails details = new DhisResponseBodyDetails();
+    details.setStatus(status);
+    details.setImportCount(importCount);
+    details.setConflicts(conflicts);
+
+    DhisResponseBody response = new DhisResponseBody();
+    response.setResponse(details);
+    return response;
+  }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+
+package org.openlmis.integration.dhis2.service;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openlmis.integration.dhis2.repository.indicator.CceRepository;
+import org.openlmis.integration.dhis2.service.indicator.CceInventoryCounts;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CceInventoryCountsTest {
+
+  private static final String FACILITY = "facility";
+  private static final long TIME_TO_LIVE = 300;
+  private static final Instant NOW = Instant.parse("2023-01-01T00:00:00Z");
+  private static final long WAIT_SECONDS = 5;
+
+  @Mock
+  private CceRepository cceRepository;
+
+  @InjectMocks
+  private CceInventoryCounts cceInventoryCounts;
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(cceInventoryCounts, "timeToLive", TIME_TO_LIVE);
+    setTime(NOW);
+  }
+
+  @Test
+  public void shouldCountInventoryOnceUntilCountsExpire() {
+    when(cceRepository.findCceCountsByStatus("FUNCTIONING"))
+        .thenReturn(Collections.singletonMap(FACILITY, 3L));
+
+    cceInventoryCounts.getOperationalCounts();
+    setTime(NOW.plusSeconds(TIME_TO_LIVE - 1));
+    assertThat(cceInventoryCounts.getOperationalCounts().get(FACILITY), is(3L));
+    verify(cceRepository).findCceCountsByStatus("FUNCTIONING");
+
+    setTime(NOW.plusSeconds(TIME_TO_LIVE));
+    cceInventoryCounts.getOperationalCounts();
+    verify(cceRepository, times(2)).findCceCountsByStatus("FUNCTIONING");
+  }
+
+  @Test
+  public void shouldKeepOperationalAndAllocatedCountsApart() {
+    when(cceRepository.findCceCountsByStatus("FUNCTIONING"))
+        .thenReturn(Collections.singletonMap(FACILITY, 3L));
+    when(cceRepository.findCceCountsByUtilization("ACTIVE"))
+        .thenReturn(Collections.singletonMap(FACILITY, 2L));
+
+    assertThat(cceInventoryCounts.getOperationalCounts().get(FACILITY), is(3L));
+    assertThat(cceInventoryCounts.getAllocatedCounts().get(FACILITY), is(2L));
+  }
+
+  @Test
+  public void shouldLoadCountsAgainAfterFailedQuery() {
+    when(cceRepository.findCceCountsByStatus("FUNCTIONING"))
+        .thenThrow(new IllegalStateException("database is down"))
+        .thenReturn(Collections.singletonMap(FACILITY, 3L));
+
+    try {
+      cceInventoryCounts.getOperationalCounts();
+      fail("Expected the first query to fail");
+    } catch (IllegalStateException ex) {
+      // the failed query must not be cached
+    }
+
+    assertThat(cceInventoryCounts.getOperationalCounts().get(FACILITY), is(3L));
+  }
+
+  @Test
+  public void shouldNotBlockOtherCountsWhileCountsAreLoaded() throws Exception {
+    CountDownLatch loading = new CountDownLatch(1);
+    CountDownLatch released = new CountDownLatch(1);
+    when(cceRepository.findCceCountsByStatus("FUNCTIONING")).thenAnswer(invocation -> {
+      loading.countDown();
+      released.await(WAIT_SECONDS, TimeUnit.SECONDS);
+      return Collections.singletonMap(FACILITY, 3L);
+    });
+    when(cceRepository.findCceCountsByUtilization("ACTIVE"))
+        .thenReturn(Collections.singletonMap(FACILITY, 2L));
+
+    final CompletableFuture<Map<String, Long>> operational = CompletableFuture
+        .supplyAsync(cceInventoryCounts::getOperationalCounts);
+    assertThat(loading.await(WAIT_SECONDS, TimeUnit.SECONDS), is(true));
+    final CompletableFuture<Map<String, Long>> waiting = CompletableFuture
+        .supplyAsync(cceInventoryCounts::getOperationalCounts);
+
+    assertThat(cceInventoryCounts.getAllocatedCounts().get(FACILITY), is(2L));
+
+    released.countDown();
+    assertThat(operational.get(WAIT_SECONDS, TimeUnit.SECONDS).get(FACILITY), is(3L));
+    assertThat(waiting.get(WAIT_SECONDS, TimeUnit.SECONDS).get(FACILITY), is(3L));
+    verify(cceRepository).findCceCountsByStatus("FUNCTIONING");
+  }
+
+  private void setTime(Instant instant) {
+    ReflectionTestUtils.setField(cceInventoryCounts, "clock",
+        Clock.fixed(instant, ZoneOffset.UTC));
+  }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.integration.dhis2.service;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.ZonedDateTime;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openlmis.integration.dhis2.domain.enumerator.DhisPeriod;
+import org.openlmis.integration.dhis2.service.schedule.CronTrigger;
+import org.openlmis.integration.dhis2.service.schedule.PeriodGeneratorService;
+import org.springframework.data.util.Pair;
+import org.springframework.scheduling.support.SimpleTriggerContext;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CronTriggerTest {
+
+  private static final String LAG_METRIC = "scheduler.trigger.lag";
+
+  @Mock
+  private PeriodGeneratorService periodGeneratorService;
+
+  private SimpleMeterRegistry registry;
+  private CronTrigger trigger;
+  private ZonedDateTime periodEnd;
+
+  @Before
+  public void setUp() {
+    registry = new SimpleMeterRegistry();
+    Metrics.addRegistry(registry);
+
+    periodEnd = ZonedDateTime.now().plusDays(1);
+    when(periodGeneratorService.generateRange(DhisPeriod.MONTHLY, 10))
+        .thenReturn(Pair.of(periodEnd.minusMonths(1), periodEnd));
+
+    trigger = new CronTrigger(periodGeneratorService, DhisPeriod.MONTHLY, 10);
+  }
+
+  @After
+  public void tearDown() {
+    Metrics.removeRegistry(registry);
+  }
+
+  @Test
+  public void shouldReturnEndOfPeriodAsNextExecutionTime() {
+    Date next = trigger.nextExecutionTime(new SimpleTriggerContext());
+
+    assertThat(next, is(Date.from(periodEnd.toInstant())));
+  }
+
+  @Test
+  public void shouldNotRecordLagBeforeFirstExecution() {
+    trigger.nextExecutionTime(new SimpleTriggerContext());
+
+    assertThat(getLagTimer().count(), is(0L));
+  }
+
+  @Test
+  public void shouldRecordLagOfPreviousExecution() {
+    Date scheduled = new Date(100_000);
+    Date actual = new Date(103_500);
+
+    trigger.nextExecutionTime(new SimpleTriggerContext(scheduled, actual, actual));
+
+    Timer lag = getLagTimer();
+    assertThat(lag.count(), is(1L));
+    assertThat(lag.totalTime(TimeUnit.MILLISECONDS), is(3500.0));
+  }
+
+  private Timer getLagTimer() {
+    return registry.get(LAG_METRIC).tag("period", DhisPeriod.MONTHLY.name()).timer();
+  }
+
+}
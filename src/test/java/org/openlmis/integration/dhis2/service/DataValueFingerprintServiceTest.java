@@ -0,0 +1,255 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+
+package org.openlmis.integration.dhis2.service;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openlmis.integration.dhis2.builder.ServerDataBuilder;
+import org.openlmis.integration.dhis2.domain.export.DataValueFingerprint;
+import org.openlmis.integration.dhis2.domain.server.Server;
+import org.openlmis.integration.dhis2.dto.dhis.DataValue;
+import org.openlmis.integration.dhis2.dto.dhis.DataValueSet;
+import org.openlmis.integration.dhis2.dto.dhis.DhisImportConflict;
+import org.openlmis.integration.dhis2.dto.dhis.DhisImportCount;
+import org.openlmis.integration.dhis2.dto.dhis.DhisResponseBody;
+import org.openlmis.integration.dhis2.dto.dhis.DhisResponseBodyDetails;
+import org.openlmis.integration.dhis2.repository.export.DataValueFingerprintRepository;
+import org.openlmis.integration.dhis2.service.export.DataValueFingerprintService;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DataValueFingerprintServiceTest {
+
+  private static final String DATA_SET = "data-set";
+  private static final String PERIOD = "202301";
+  private static final String ELEMENT = "element";
+  private static final String FACILITY_A = "facility-a";
+  private static final String FACILITY_B = "facility-b";
+  private static final Instant NOW = Instant.parse("2023-01-01T00:00:00Z");
+
+  @Mock
+  private DataValueFingerprintRepository dataValueFingerprintRepository;
+
+  @Captor
+  private ArgumentCaptor<List<DataValueFingerprint>> fingerprintsCaptor;
+
+  @InjectMocks
+  private DataValueFingerprintService dataValueFingerprintService;
+
+  private Server server;
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(dataValueFingerprintService, "clock",
+        Clock.fixed(NOW, ZoneOffset.UTC));
+    server = new ServerDataBuilder().build();
+  }
+
+  @Test
+  public void shouldRemoveValuesAcknowledgedWithSameValue() {
+    when(dataValueFingerprintRepository.findByServerAndDataSet(server.getId(), DATA_SET,
+        Collections.singleton(PERIOD)))
+        .thenReturn(Arrays.asList(fingerprint(FACILITY_A, "10"), fingerprint(FACILITY_B, "5")));
+
+    List<DataValueSet> changed = dataValueFingerprintService.removeUnchanged(server,
+        Collections.singletonList(dataValueSet(
+            dataValue(FACILITY_A, new BigDecimal("10.00")),
+            dataValue(FACILITY_B, BigDecimal.TEN))));
+
+    assertThat(changed, hasSize(1));
+    assertThat(getOrgUnits(changed.get(0)), contains(FACILITY_B));
+  }
+
+  @Test
+  public void shouldRemoveSetsWithoutChangedValues() {
+    when(dataValueFingerprintRepository.findByServerAndDataSet(server.getId(), DATA_SET,
+        Collections.singleton(PERIOD)))
+        .thenReturn(Collections.singletonList(fingerprint(FACILITY_A, "10")));
+
+    List<DataValueSet> changed = dataValueFingerprintService.removeUnchanged(server,
+        Arrays.asList(dataValueSet(dataValue(FACILITY_A, BigDecimal.TEN)),
+            dataValueSet(dataValue(FACILITY_B, BigDecimal.ONE))));
+
+    assertThat(changed, hasSize(1));
+    assertThat(getOrgUnits(changed.get(0)), contains(FACILITY_B));
+    verify(dataValueFingerprintRepository).findByServerAndDataSet(any(), any(), anyCollection());
+  }
+
+  @Test
+  public void shouldKeepAllValuesWhenNothingWasAcknowledged() {
+    when(dataValueFingerprintRepository.findByServerAndDataSet(server.getId(), DATA_SET,
+        Collections.singleton(PERIOD)))
+        .thenReturn(Collections.emptyList());
+
+    List<DataValueSet> changed = dataValueFingerprintService.removeUnchanged(server,
+        Collections.singletonList(dataValueSet(dataValue(FACILITY_A, BigDecimal.TEN))));
+
+    assertThat(getOrgUnits(changed.get(0)), contains(FACILITY_A));
+  }
+
+  @Test
+  public void shouldRecordFingerprintsOfAcknowledgedValues() {
+    dataValueFingerprintService.recordAcknowledged(server, dataValueSet(
+        dataValue(FACILITY_A, new BigDecimal("10.00")), dataValue(FACILITY_B, null)),
+        response(1, 1, 0));
+
+    verify(dataValueFingerprintRepository).saveAll(eq(server.getId()),
+        fingerprintsCaptor.capture(), eq(ZonedDateTime.ofInstant(NOW, ZoneOffset.UTC)));
+    assertThat(fingerprintsCaptor.getValue(),
+        containsInAnyOrder(fingerprint(FACILITY_A, "10"), fingerprint(FACILITY_B, "")));
+  }
+
+  @Test
+  public void shouldRecordFingerprintsOfIgnoredValues() {
+    dataValueFingerprintService.recordAcknowledged(server, dataValueSet(
+        dataValue(FACILITY_A, BigDecimal.TEN), dataValue(FACILITY_B, BigDecimal.ONE)),
+        response(0, 1, 1));
+
+    verify(dataValueFingerprintRepository).saveAll(eq(server.getId()),
+        fingerprintsCaptor.capture(), any());
+    assertThat(fingerprintsCaptor.getValue(),
+        containsInAnyOrder(fingerprint(FACILITY_A, "10"), fingerprint(FACILITY_B, "1")));
+  }
+
+  @Test
+  public void shouldNotRecordIgnoredValuesWithConflicts() {
+    DhisResponseBody response = response(0, 0, 2, conflict(0));
+
+    dataValueFingerprintService.recordAcknowledged(server, dataValueSet(
+        dataValue(FACILITY_A, BigDecimal.TEN), dataValue(FACILITY_B, BigDecimal.ONE)),
+        response);
+
+    verify(dataValueFingerprintRepository).saveAll(eq(server.getId()),
+        fingerprintsCaptor.capture(), any());
+    assertThat(fingerprintsCaptor.getValue(), contains(fingerprint(FACILITY_B, "1")));
+  }
+
+  @Test
+  public void shouldNotRecordEmptySets() {
+    dataValueFingerprintService.recordAcknowledged(server, dataValueSet(), response(0, 0, 0));
+
+    verify(dataValueFingerprintRepository, never()).saveAll(any(), anyCollection(), any());
+  }
+
+  @Test
+  public void shouldNotRecordValuesWithConflicts() {
+    DhisResponseBody response = response(1, 0, 0, conflict(1));
+
+    dataValueFingerprintService.recordAcknowledged(server, dataValueSet(
+        dataValue(FACILITY_A, BigDecimal.TEN), dataValue(FACILITY_B, BigDecimal.ONE)),
+        response);
+
+    verify(dataValueFingerprintRepository).saveAll(eq(server.getId()),
+        fingerprintsCaptor.capture(), any());
+    assertThat(fingerprintsCaptor.getValue(), contains(fingerprint(FACILITY_A, "10")));
+  }
+
+  @Test
+  public void shouldNotRecordValuesWhenConflictDoesNotTellWhichValuesWereRejected() {
+    DhisResponseBody response = response(1, 0, 0, conflict());
+
+    dataValueFingerprintService.recordAcknowledged(server, dataValueSet(
+        dataValue(FACILITY_A, BigDecimal.TEN), dataValue(FACILITY_B, BigDecimal.ONE)),
+        response);
+
+    verify(dataValueFingerprintRepository, never()).saveAll(any(), anyCollection(), any());
+  }
+
+  @Test
+  public void shouldNotRecordValuesWhenNotAllOfThemWereStored() {
+    dataValueFingerprintService.recordAcknowledged(server, dataValueSet(
+        dataValue(FACILITY_A, BigDecimal.TEN), dataValue(FACILITY_B, BigDecimal.ONE)),
+        response(1, 0, 0));
+
+    verify(dataValueFingerprintRepository, never()).saveAll(any(), anyCollection(), any());
+  }
+
+  @Test
+  public void shouldNotRecordValuesWithoutImportCount() {
+    dataValueFingerprintService.recordAcknowledged(server, dataValueSet(
+        dataValue(FACILITY_A, BigDecimal.TEN)), new DhisResponseBody());
+
+    verify(dataValueFingerprintRepository, never()).saveAll(any(), anyCollection(), any());
+  }
+
+  private DhisResponseBody response(int imported, int updated, int ignored,
+                                    DhisImportConflict... conflicts) {
+    DhisImportCount importCount = new DhisImportCount();
+    importCount.setImported(imported);
+    importCount.setUpdated(updated);
+    importCount.setIgnored(ignored);
+
+    DhisResponseBodyDetails details = new DhisResponseBodyDetails();
+    details.setImportCount(importCount);
+    details.setConflicts(Arrays.asList(conflicts));
+
+    DhisResponseBody response = new DhisResponseBody();
+    response.setResponse(details);
+    return response;
+  }
+
+  private DhisImportConflict conflict(Integer... indexes) {
+    DhisImportConflict conflict = new DhisImportConflict();
+    conflict.setIndexes(Arrays.asList(indexes));
+    return conflict;
+  }
+
+  private DataValueFingerprint fingerprint(String orgUnit, String value) {
+    return new DataValueFingerprint(DATA_SET, PERIOD, orgUnit, ELEMENT, "", value);
+  }
+
+  private DataValue dataValue(String orgUnit, BigDecimal value) {
+    return new DataValue(ELEMENT, null, orgUnit, null, value);
+  }
+
+  private DataValueSet dataValueSet(DataValue... dataValues) {
+    return new DataValueSet(DATA_SET, PERIOD, null, Arrays.asList(dataValues));
+  }
+
+  private List<String> getOrgUnits(DataValueSet dataValueSet) {
+    return dataValueSet.getDataValues().stream()
+        .map(DataValue::getOrgUnit)
+        .collect(Collectors.toList());
+  }
+
+}
@@ -21,15 +21,22 @@ import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.matchesPattern;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.common.collect.ImmutableMap;
+import java.time.Clock;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
@@ -43,6 +50,7 @@ import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
@@ -54,15 +62,32 @@ public class DhisAuthServiceTest {
   private static final String USERNAME = "username";
   private static final String PASSWORD = "p@ssw0rd";
 
+  private static final String TOKEN = "r4nd0m70k3n";
+  private static final long NOW = 1_600_000_000_000L;
+  private static final long TIME_TO_LIVE = 3600;
+  private static final long WAIT_SECONDS = 5;
+
   @Mock
   private RestTemplate restTemplate;
 
+  @Mock
+  private Clock clock;
+
   @Captor
   private ArgumentCaptor<HttpEntity<String>> entityStringCaptor;
 
+  @Captor
+  private ArgumentCaptor<HttpEntity<Map<String, Object>>> entityMapCaptor;
+
   @InjectMocks
   private DhisAuthService authService;
 
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(authService, "tokenTimeToLive", TIME_TO_LIVE);
+    when(clock.millis()).thenReturn(NOW);
+  }
+
   @Test
   public void shouldObtainAccessToken() {
     final String token = "r4nd0m70k3n";
@@ -105,4 +130,185 @@ public class DhisAuthServiceTest {
     assertNull(obtainedToken);
   }
 
+  @Test
+  public void shouldRequestTokenWithConfiguredExpiry() {
+    mockTokenResponse(ImmutableMap.of(DhisAuthService.API_KEY, TOKEN));
+
+    authService.obtainAccessToken(USERNAME, PASSWORD, SERVER_URL);
+
+    verify(restTemplate).exchange(
+            eq(AUTHORIZATION_URL), eq(HttpMethod.POST),
+            entityMapCaptor.capture(), eq(Object.class)
+    );
+    assertThat(entityMapCaptor.getValue().getBody().get(DhisAuthService.API_EXPIRE),
+            is(NOW + TIME_TO_LIVE * 1000));
+  }
+
+  @Test
+  public void shouldReuseCachedTokenForSameServerAndUser() {
+    mockTokenResponse(ImmutableMap.of(DhisAuthService.API_KEY, TOKEN));
+
+    authService.obtainAccessToken(USERNAME, PASSWORD, SERVER_URL);
+    String obtainedToken = authService.obtainAccessToken(USERNAME, PASSWORD, SERVER_URL);
+
+    assertThat(obtainedToken, is(TOKEN));
+    verify(restTemplate, times(1)).exchange(
+            eq(AUTHORIZATION_URL), eq(HttpMethod.POST), any(HttpEntity.class), eq(Object.class));
+  }
+
+  @Test
+  public void shouldNotShareTokenBetweenUsers() {
+    mockTokenResponse(ImmutableMap.of(DhisAuthService.API_KEY, TOKEN));
+
+    authService.obtainAccessToken(USERNAME, PASSWORD, SERVER_URL);
+    authService.obtainAccessToken("other-user", PASSWORD, SERVER_URL);
+
+    verify(restTemplate, times(2)).exchange(
+            eq(AUTHORIZATION_URL), eq(HttpMethod.POST), any(HttpEntity.class), eq(Object.class));
+  }
+
+  @Test
+  public void shouldObtainNewTokenAfterInvalidation() {
+    mockTokenResponse(ImmutableMap.of(DhisAuthService.API_KEY, TOKEN));
+
+    authService.obtainAccessToken(USERNAME, PASSWORD, SERVER_URL);
+    authService.invalidateAccessToken(USERNAME, SERVER_URL, TOKEN);
+    authService.obtainAccessToken(USERNAME, PASSWORD, SERVER_URL);
+
+    verify(restTemplate, times(2)).exchange(
+            eq(AUTHORIZATION_URL), eq(HttpMethod.POST), any(HttpEntity.class), eq(Object.class));
+  }
+
+  @Test
+  public void shouldKeepTokenWhenOtherTokenIsInvalidated() {
+    mockTokenResponse(ImmutableMap.of(DhisAuthService.API_KEY, TOKEN));
+
+    authService.obtainAccessToken(USERNAME, PASSWORD, SERVER_URL);
+    authService.invalidateAccessToken(USERNAME, SERVER_URL, "replaced-token");
+    authService.obtainAccessToken(USERNAME, PASSWORD, SERVER_URL);
+
+    verify(restTemplate, times(1)).exchange(
+            eq(AUTHORIZATION_URL), eq(HttpMethod.POST), any(HttpEntity.class), eq(Object.class));
+  }
+
+  @Test
+  public void shouldObtainNewTokenWhenCachedOneExpires() {
+    mockTokenResponse(ImmutableMap.of(DhisAuthService.API_KEY, TOKEN));
+
+    authService.obtainAccessToken(USERNAME, PASSWORD, SERVER_URL);
+    when(clock.millis()).thenReturn(NOW + TIME_TO_LIVE * 1000);
+    authService.obtainAccessToken(USERNAME, PASSWORD, SERVER_URL);
+
+    verify(restTemplate, times(2)).exchange(
+            eq(AUTHORIZATION_URL), eq(HttpMethod.POST), any(HttpEntity.class), eq(Object.class));
+  }
+
+  @Test
+  public void shouldUseExpiryReturnedByServer() {
+    mockTokenResponse(ImmutableMap.of(DhisAuthService.API_KEY, TOKEN,
+            DhisAuthService.API_EXPIRE, NOW + 1000));
+
+    authService.obtainAccessToken(USERNAME, PASSWORD, SERVER_URL);
+    authService.obtainAccessToken(USERNAME, PASSWORD, SERVER_URL);
+
+    verify(restTemplate, times(2)).exchange(
+            eq(AUTHORIZATION_URL), eq(HttpMethod.POST), any(HttpEntity.class), eq(Object.class));
+  }
+
+  @Test
+  public void shouldRequestTokenAgainAfterFailedRequest() {
+    ResponseEntity<Object> response = tokenResponse(ImmutableMap.of(DhisAuthService.API_KEY,
+        TOKEN));
+    when(restTemplate.exchange(
+            eq(AUTHORIZATION_URL), eq(HttpMethod.POST),
+            any(HttpEntity.class), eq(Object.class)
+    )).thenThrow(RestClientException.class).thenReturn(response);
+
+    try {
+      authService.obtainAccessToken(USERNAME, PASSWORD, SERVER_URL);
+      fail("Expected the first request to fail");
+    } catch (RestOperationException ex) {
+      // the failed request must not be cached
+    }
+
+    assertThat(authService.obtainAccessToken(USERNAME, PASSWORD, SERVER_URL), is(TOKEN));
+  }
+
+  @Test
+  public void shouldShareTokenRequestBetweenConcurrentCallers() throws Exception {
+    CountDownLatch requested = new CountDownLatch(1);
+    CountDownLatch released = new CountDownLatch(1);
+    ResponseEntity<Object> response = tokenResponse(ImmutableMap.of(DhisAuthService.API_KEY,
+        TOKEN));
+    when(restTemplate.exchange(
+            eq(AUTHORIZATION_URL), eq(HttpMethod.POST),
+            any(HttpEntity.class), eq(Object.class)
+    )).thenAnswer(invocation -> {
+      requested.countDown();
+      released.await(WAIT_SECONDS, TimeUnit.SECONDS);
+      return response;
+    });
+
+    CompletableFuture<String> first = CompletableFuture.supplyAsync(
+        () -> authService.obtainAccessToken(USERNAME, PASSWORD, SERVER_URL));
+    assertThat(requested.await(WAIT_SECONDS, TimeUnit.SECONDS), is(true));
+    CompletableFuture<String> second = CompletableFuture.supplyAsync(
+        () -> authService.obtainAccessToken(USERNAME, PASSWORD, SERVER_URL));
+    released.countDown();
+
+    assertThat(first.get(WAIT_SECONDS, TimeUnit.SECONDS), is(TOKEN));
+    assertThat(second.get(WAIT_SECONDS, TimeUnit.SECONDS), is(TOKEN));
+    verify(restTemplate, times(1)).exchange(
+            eq(AUTHORIZATION_URL), eq(HttpMethod.POST), any(HttpEntity.class), eq(Object.class));
+  }
+
+  @Test
+  public void shouldNotBlockOtherServersWhileTokenIsRequested() throws Exception {
+    String otherServerUrl = "https://other.dhis2.org";
+    CountDownLatch requested = new CountDownLatch(1);
+    CountDownLatch released = new CountDownLatch(1);
+    ResponseEntity<Object> response = tokenResponse(ImmutableMap.of(DhisAuthService.API_KEY,
+        TOKEN));
+    when(restTemplate.exchange(
+            eq(AUTHORIZATION_URL), eq(HttpMethod.POST),
+            any(HttpEntity.class), eq(Object.class)
+    )).thenAnswer(invocation -> {
+      requested.countDown();
+      released.await(WAIT_SECONDS, TimeUnit.SECONDS);
+      return response;
+    });
+    when(restTemplate.exchange(
+            eq(otherServerUrl + DhisAuthService.API_AUTH_URL), eq(HttpMethod.POST),
+            any(HttpEntity.class), eq(Object.class)
+    )).thenReturn(response);
+
+    CompletableFuture<String> slow = CompletableFuture.supplyAsync(
+        () -> authService.obtainAccessToken(USERNAME, PASSWORD, SERVER_URL));
+    assertThat(requested.await(WAIT_SECONDS, TimeUnit.SECONDS), is(true));
+
+    assertThat(authService.obtainAccessToken(USERNAME, PASSWORD, otherServerUrl), is(TOKEN));
+    assertThat(slow.isDone(), is(false));
+
+    released.countDown();
+    assertThat(slow.get(WAIT_SECONDS, TimeUnit.SECONDS), is(TOKEN));
+  }
+
+  private ResponseEntity<Object> tokenResponse(Map<String, Object> tokenBody) {
+    ResponseEntity<Object> response = mock(ResponseEntity.class);
+    Map<String, Map> body = ImmutableMap.of(DhisAuthService.API_RESPONSE_DETAILS, tokenBody);
+    when(response.getBody()).thenReturn(body);
+    return response;
+  }
+
+  private void mockTokenResponse(Map<String, Object> tokenBody) {
+    ResponseEntity<Object> response = mock(ResponseEntity.class);
+    Map<String, Map> body = ImmutableMap.of(DhisAuthService.API_RESPONSE_DETAILS, tokenBody);
+
+    when(restTemplate.exchange(
+            eq(AUTHORIZATION_URL), eq(HttpMethod.POST),
+            any(HttpEntity.class), eq(Object.class)
+    )).thenReturn(response);
+    when(response.getBody()).thenReturn(body);
+  }
+
 }
@@ -0,0 +1,109 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.integration.dhis2.service;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openlmis.integration.dhis2.builder.ServerDataBuilder;
+import org.openlmis.integration.dhis2.domain.server.Server;
+import org.openlmis.integration.dhis2.repository.server.ServerRepository;
+import org.openlmis.integration.dhis2.service.communication.DhisConnectionPoolService;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DhisConnectionPoolServiceTest {
+
+  private static final int MAX_CONNECTIONS_PER_SERVER = 7;
+
+  @Spy
+  private PoolingHttpClientConnectionManager connectionManager =
+      new PoolingHttpClientConnectionManager();
+
+  @Mock
+  private ServerRepository serverRepository;
+
+  @InjectMocks
+  private DhisConnectionPoolService connectionPoolService;
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(connectionPoolService, "maxConnectionsPerServer",
+        MAX_CONNECTIONS_PER_SERVER);
+  }
+
+  @Test
+  public void shouldLimitConnectionsOfHttpsServerWithDefaultPort() {
+    connectionPoolService.registerServer(serverWithUrl("https://play.dhis2.org/2.39.0.1"));
+
+    HttpRoute route = new HttpRoute(new HttpHost("play.dhis2.org", 443, "https"), null, true);
+    assertThat(connectionManager.getMaxPerRoute(route), is(MAX_CONNECTIONS_PER_SERVER));
+  }
+
+  @Test
+  public void shouldLimitConnectionsOfHttpServerWithExplicitPort() {
+    connectionPoolService.registerServer(serverWithUrl("http://localhost:8085"));
+
+    HttpRoute route = new HttpRoute(new HttpHost("localhost", 8085, "http"), null, false);
+    assertThat(connectionManager.getMaxPerRoute(route), is(MAX_CONNECTIONS_PER_SERVER));
+  }
+
+  @Test
+  public void shouldRegisterAllServersOnStartup() {
+    when(serverRepository.findAll()).thenReturn(Arrays.asList(
+        serverWithUrl("https://first.org"), serverWithUrl("https://second.org")));
+
+    connectionPoolService.registerServers();
+
+    assertThat(connectionManager.getMaxPerRoute(
+        new HttpRoute(new HttpHost("first.org", 443, "https"), null, true)),
+        is(MAX_CONNECTIONS_PER_SERVER));
+    assertThat(connectionManager.getMaxPerRoute(
+        new HttpRoute(new HttpHost("second.org", 443, "https"), null, true)),
+        is(MAX_CONNECTIONS_PER_SERVER));
+  }
+
+  @Test
+  public void shouldIgnoreServerWithoutHost() {
+    connectionPoolService.registerServer(serverWithUrl("not a url"));
+
+    verify(connectionManager, never())
+        .setMaxPerRoute(any(HttpRoute.class), anyInt());
+  }
+
+  private Server serverWithUrl(String url) {
+    Server server = new ServerDataBuilder().build();
+    server.setUrl(url);
+    return server;
+  }
+
+}
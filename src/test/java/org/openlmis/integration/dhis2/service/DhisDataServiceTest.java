@@ -22,6 +22,8 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.net.URI;
@@ -48,6 +50,7 @@ import org.openlmis.integration.dhis2.service.auth.DhisAuthService;
 import org.openlmis.integration.dhis2.service.communication.DhisDataService;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
@@ -59,6 +62,7 @@ public class DhisDataServiceTest {
   private static final String USERNAME = "username";
   private static final String PASSWORD = "p@ssw0rd";
   private static final String DATASET_ID = "dataset-id";
+  private static final String TOKEN = "r4nd0m70k3n";
   private DataValueSet dataValueSet;
 
   @Mock
@@ -72,9 +76,8 @@ public class DhisDataServiceTest {
 
   @Before
   public void setUp() {
-    final String token = "r4nd0m70k3n";
     dataValueSet = mock(DataValueSet.class);
-    when(authService.obtainAccessToken(anyString(), anyString(), anyString())).thenReturn(token);
+    when(authService.obtainAccessToken(anyString(), anyString(), anyString())).thenReturn(TOKEN);
   }
 
   @Test
@@ -212,4 +215,31 @@ public class DhisDataServiceTest {
     dhisDataService.getDhisPeriodTypes(SERVER_URL, USERNAME, PASSWORD);
   }
 
+  @Test
+  public void shouldRetryOnceWithNewTokenWhenUnauthorized() {
+    final ResponseEntity<DhisResponseBody> response = mock(ResponseEntity.class);
+    final DhisResponseBody dhisResponseBody = mock(DhisResponseBody.class);
+
+    when(restTemplate.exchange(any(URI.class), eq(HttpMethod.POST), any(HttpEntity.class),
+            eq(DhisResponseBody.class))
+    ).thenThrow(new HttpClientErrorException(HttpStatus.UNAUTHORIZED)).thenReturn(response);
+    when(response.getBody()).thenReturn(dhisResponseBody);
+
+    DhisResponseBody newDhisResponseBody = dhisDataService.sendDataValueSet(dataValueSet,
+            SERVER_URL, USERNAME, PASSWORD);
+
+    assertThat(newDhisResponseBody, is(equalTo(dhisResponseBody)));
+    verify(authService).invalidateAccessToken(USERNAME, SERVER_URL, TOKEN);
+    verify(authService, times(2)).obtainAccessToken(USERNAME, PASSWORD, SERVER_URL);
+  }
+
+  @Test(expected = RestOperationException.class)
+  public void shouldThrowExceptionWhenStillUnauthorizedAfterRetry() {
+    when(restTemplate.exchange(any(URI.class), eq(HttpMethod.POST), any(HttpEntity.class),
+            eq(DhisResponseBody.class))
+    ).thenThrow(new HttpClientErrorException(HttpStatus.UNAUTHORIZED));
+
+    dhisDataService.sendDataValueSet(dataValueSet, SERVER_URL, USERNAME, PASSWORD);
+  }
+
 }
@@ -0,0 +1,155 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+
+package org.openlmis.integration.dhis2.service;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openlmis.integration.dhis2.builder.ServerDataBuilder;
+import org.openlmis.integration.dhis2.domain.server.Server;
+import org.openlmis.integration.dhis2.dto.dhis.DhisCategoryOptionCombo;
+import org.openlmis.integration.dhis2.service.communication.DhisDataService;
+import org.openlmis.integration.dhis2.service.communication.DhisMetadataCache;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DhisMetadataCacheTest {
+
+  private static final String COMBO_ID = "combo-id";
+  private static final String COMBO_NAME = "combo-name";
+  private static final long TIME_TO_LIVE = 3600;
+  private static final Instant NOW = Instant.parse("2023-01-01T00:00:00Z");
+  private static final long WAIT_SECONDS = 5;
+
+  @Mock
+  private DhisDataService dhisDataService;
+
+  @InjectMocks
+  private DhisMetadataCache dhisMetadataCache;
+
+  private final Server server = new ServerDataBuilder().build();
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(dhisMetadataCache, "timeToLive", TIME_TO_LIVE);
+    setTime(NOW);
+    when(dhisDataService.getDhisCategoryOptionCombos(server.getUrl(), server.getUsername(),
+        server.getPassword())).thenReturn(Collections.singletonList(
+            new DhisCategoryOptionCombo(COMBO_ID, COMBO_NAME)));
+  }
+
+  @Test
+  public void shouldAskDhisForIdsOnceUntilTheyExpire() {
+    dhisMetadataCache.getCategoryOptionComboIds(server);
+    setTime(NOW.plusSeconds(TIME_TO_LIVE - 1));
+    assertThat(dhisMetadataCache.getCategoryOptionComboIds(server).get(COMBO_NAME),
+        is(COMBO_ID));
+    verify(dhisDataService).getDhisCategoryOptionCombos(server.getUrl(), server.getUsername(),
+        server.getPassword());
+
+    setTime(NOW.plusSeconds(TIME_TO_LIVE));
+    dhisMetadataCache.getCategoryOptionComboIds(server);
+    verify(dhisDataService, times(2)).getDhisCategoryOptionCombos(server.getUrl(),
+        server.getUsername(), server.getPassword());
+  }
+
+  @Test
+  public void shouldAskDhisAgainAfterServerIsInvalidated() {
+    dhisMetadataCache.getCategoryOptionComboIds(server);
+    dhisMetadataCache.invalidate(server);
+    dhisMetadataCache.getCategoryOptionComboIds(server);
+
+    verify(dhisDataService, times(2)).getDhisCategoryOptionCombos(server.getUrl(),
+        server.getUsername(), server.getPassword());
+  }
+
+  @Test
+  public void shouldAskDhisAgainAfterFailedRequest() {
+    when(dhisDataService.getDhisCategoryOptionCombos(server.getUrl(), server.getUsername(),
+        server.getPassword()))
+        .thenThrow(new IllegalStateException("error"))
+        .thenReturn(Collections.singletonList(new DhisCategoryOptionCombo(COMBO_ID, COMBO_NAME)));
+
+    try {
+      dhisMetadataCache.getCategoryOptionComboIds(server);
+      fail("Expected the failure of the request");
+    } catch (IllegalStateException ex) {
+      assertThat(ex.getMessage(), is("error"));
+    }
+
+    assertThat(dhisMetadataCache.getCategoryOptionComboIds(server).get(COMBO_NAME),
+        is(COMBO_ID));
+  }
+
+  @Test
+  public void shouldNotBlockOtherServersWhileIdsAreLoaded() throws Exception {
+    Server otherServer = new ServerDataBuilder().buildAsNew();
+    otherServer.setId(UUID.randomUUID());
+    otherServer.setUrl("http://other.server");
+    CountDownLatch loading = new CountDownLatch(1);
+    CountDownLatch released = new CountDownLatch(1);
+    when(dhisDataService.getDhisCategoryOptionCombos(server.getUrl(), server.getUsername(),
+        server.getPassword())).thenAnswer(invocation -> {
+          loading.countDown();
+          released.await(WAIT_SECONDS, TimeUnit.SECONDS);
+          return Collections.singletonList(new DhisCategoryOptionCombo(COMBO_ID, COMBO_NAME));
+        });
+    when(dhisDataService.getDhisCategoryOptionCombos(otherServer.getUrl(),
+        otherServer.getUsername(), otherServer.getPassword()))
+        .thenReturn(Collections.singletonList(new DhisCategoryOptionCombo("other", COMBO_NAME)));
+
+    final CompletableFuture<Map<String, String>> loaded = CompletableFuture
+        .supplyAsync(() -> dhisMetadataCache.getCategoryOptionComboIds(server));
+    assertThat(loading.await(WAIT_SECONDS, TimeUnit.SECONDS), is(true));
+    final CompletableFuture<Map<String, String>> waiting = CompletableFuture
+        .supplyAsync(() -> dhisMetadataCache.getCategoryOptionComboIds(server));
+
+    assertThat(dhisMetadataCache.getCategoryOptionComboIds(otherServer).get(COMBO_NAME),
+        is("other"));
+
+    released.countDown();
+    assertThat(loaded.get(WAIT_SECONDS, TimeUnit.SECONDS).get(COMBO_NAME), is(COMBO_ID));
+    assertThat(waiting.get(WAIT_SECONDS, TimeUnit.SECONDS).get(COMBO_NAME), is(COMBO_ID));
+    verify(dhisDataService).getDhisCategoryOptionCombos(server.getUrl(), server.getUsername(),
+        server.getPassword());
+  }
+
+  private void setTime(Instant instant) {
+    ReflectionTestUtils.setField(dhisMetadataCache, "clock",
+        Clock.fixed(instant, ZoneOffset.UTC));
+  }
+
+}
@@ -0,0 +1,620 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.integration.dhis2.service;
+
+import static java.util.Collections.singletonList;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openlmis.integration.dhis2.builder.DatasetDataBuilder;
+import org.openlmis.integration.dhis2.builder.ScheduleDataBuilder;
+import org.openlmis.integration.dhis2.builder.ServerDataBuilder;
+import org.openlmis.integration.dhis2.domain.dataset.Dataset;
+import org.openlmis.integration.dhis2.domain.export.ExportRun;
+import org.openlmis.integration.dhis2.domain.outbox.OutboxEntry;
+import org.openlmis.integration.dhis2.domain.schedule.Schedule;
+import org.openlmis.integration.dhis2.domain.server.Server;
+import org.openlmis.integration.dhis2.dto.dhis.DataValue;
+import org.openlmis.integration.dhis2.dto.dhis.DataValueSet;
+import org.openlmis.integration.dhis2.dto.dhis.DhisImportCount;
+import org.openlmis.integration.dhis2.dto.dhis.DhisResponseBody;
+import org.openlmis.integration.dhis2.dto.dhis.DhisResponseBodyDetails;
+import org.openlmis.integration.dhis2.exception.ImportPendingException;
+import org.openlmis.integration.dhis2.exception.RestOperationException;
+import org.openlmis.integration.dhis2.service.communication.ProcessedDataExchangeService;
+import org.openlmis.integration.dhis2.service.export.DataValueFingerprintService;
+import org.openlmis.integration.dhis2.service.export.ExportEngine;
+import org.openlmis.integration.dhis2.service.export.ExportProgress;
+import org.openlmis.integration.dhis2.service.export.ExportRunService;
+import org.openlmis.integration.dhis2.service.export.ExportSummary;
+import org.openlmis.integration.dhis2.service.export.ImportPoller;
+import org.openlmis.integration.dhis2.service.export.OutboxService;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ExportEngineTest {
+
+  private static final int MAX_CONCURRENT_REQUESTS_PER_SERVER = 2;
+  private static final String JOB_ID = "job-id";
+  private static final Map<String, String> ORG_UNIT_IDS =
+      Collections.singletonMap("facility", "facility-uid");
+  private static final long WAIT_MILLIS = 5000;
+  private static final Clock CLOCK =
+      Clock.fixed(Instant.parse("2020-01-01T00:00:00Z"), ZoneOffset.UTC);
+
+  @Mock
+  private ProcessedDataExchangeService processedDataExchangeService;
+
+  @Mock
+  private OutboxService outboxService;
+
+  @Mock
+  private DataValueFingerprintService dataValueFingerprintService;
+
+  @Mock
+  private ImportPoller importPoller;
+
+  @Mock
+  private ExportRunService exportRunService;
+
+  @InjectMocks
+  private ExportEngine exportEngine;
+
+  private Server server;
+  private Schedule schedule;
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(exportEngine, "clock", CLOCK);
+    ReflectionTestUtils.setField(exportEngine, "computeThreads", 2);
+    ReflectionTestUtils.setField(exportEngine, "computeQueueSize", 10);
+    ReflectionTestUtils.setField(exportEngine, "maxConcurrentRequestsPerServer",
+        MAX_CONCURRENT_REQUESTS_PER_SERVER);
+    exportEngine.init();
+
+    server = new ServerDataBuilder().build();
+    schedule = new ScheduleDataBuilder().withServer(server).build();
+
+    // not every test exports, the drain test only retries stored entries
+    lenient().when(outboxService.enqueue(eq(server), anyList())).thenAnswer(invocation -> {
+      List<DataValueSet> dataValueSets = invocation.getArgument(1);
+      return dataValueSets.stream()
+          .map(dataValueSet -> outboxEntry())
+          .collect(Collectors.toList());
+    });
+    lenient().when(dataValueFingerprintService.removeUnchanged(eq(server), anyList()))
+        .thenAnswer(invocation -> invocation.getArgument(1));
+    lenient().when(processedDataExchangeService.getOrgUnitIds(server)).thenReturn(ORG_UNIT_IDS);
+  }
+
+  @After
+  public void tearDown() {
+    exportEngine.shutdown();
+  }
+
+  @Test
+  public void shouldSendAllPreparedPayloadsAndSummarizeThem() {
+    DataValueSet first = dataValueSet(3);
+    DataValueSet second = dataValueSet(2);
+    when(processedDataExchangeService.prepareDataValueSets(singletonList(schedule), null, null))
+        .thenReturn(Arrays.asList(first, second));
+    when(processedDataExchangeService.sendDataValueSet(any(DataValueSet.class), eq(server),
+        eq(ORG_UNIT_IDS)))
+        .thenReturn(response(4, 1));
+
+    ExportSummary summary = exportEngine.export(Collections.singletonList(schedule));
+
+    assertThat(summary.getSchedules(), is(1));
+    assertThat(summary.getRequests(), is(2));
+    assertThat(summary.getDataValues(), is(5));
+    assertThat(summary.getImported(), is(8));
+    assertThat(summary.getUpdated(), is(2));
+    assertThat(summary.isSuccessful(), is(true));
+    assertThat(summary.getEndDate(), is(summary.getStartDate()));
+    verify(processedDataExchangeService).getOrgUnitIds(server);
+  }
+
+  @Test
+  public void shouldRecordFailedPayloadAndContinueWithOthers() {
+    DataValueSet failing = dataValueSet(1);
+    DataValueSet passing = dataValueSet(1);
+    when(processedDataExchangeService.prepareDataValueSets(singletonList(schedule), null, null))
+        .thenReturn(Arrays.asList(failing, passing));
+    when(processedDataExchangeService.sendDataValueSet(failing, server, ORG_UNIT_IDS))
+        .thenThrow(new RestOperationException("error"));
+    when(processedDataExchangeService.sendDataValueSet(passing, server, ORG_UNIT_IDS))
+        .thenReturn(response(1, 0));
+
+    ExportSummary summary = exportEngine.export(Collections.singletonList(schedule));
+
+    assertThat(summary.getRequests(), is(2));
+    assertThat(summary.getFailedRequests(), is(1));
+    assertThat(summary.getImported(), is(1));
+    assertThat(summary.getErrors(), hasSize(1));
+    assertThat(summary.isSuccessful(), is(false));
+    verify(outboxService).markDelivered(any(OutboxEntry.class));
+    verify(outboxService).markFailed(any(OutboxEntry.class), any(Throwable.class));
+  }
+
+  @Test
+  public void shouldRecordDatasetWhichCouldNotBePrepared() {
+    Dataset otherDataset = new DatasetDataBuilder().withServer(server).build();
+    otherDataset.setId(UUID.randomUUID());
+    Schedule other = new ScheduleDataBuilder().withServer(server).withDataset(otherDataset)
+        .build();
+    ReflectionTestUtils.setField(other, "id", UUID.randomUUID());
+    when(processedDataExchangeService.prepareDataValueSets(singletonList(schedule), null, null))
+        .thenThrow(new IllegalStateException("no period"));
+    when(processedDataExchangeService.prepareDataValueSets(singletonList(other), null, null))
+        .thenReturn(Collections.singletonList(dataValueSet(1)));
+    when(processedDataExchangeService.sendDataValueSet(any(DataValueSet.class), eq(server),
+        eq(ORG_UNIT_IDS)))
+        .thenReturn(response(1, 0));
+
+    ExportSummary summary = exportEngine.export(Arrays.asList(schedule, other));
+
+    assertThat(summary.getSchedules(), is(2));
+    assertThat(summary.getFailedSchedules(), is(1));
+    assertThat(summary.getRequests(), is(1));
+    assertThat(summary.getErrors(), hasSize(1));
+  }
+
+  @Test
+  public void shouldRecordDatasetWhosePayloadsCouldNotBeStored() {
+    DataValueSet dataValueSet = dataValueSet(2);
+    when(processedDataExchangeService.prepareDataValueSets(singletonList(schedule), null, null))
+        .thenReturn(singletonList(dataValueSet));
+    when(outboxService.enqueue(server, singletonList(dataValueSet)))
+        .thenThrow(new IllegalStateException("database is down"));
+
+    ExportSummary summary = exportEngine.export(singletonList(schedule));
+
+    assertThat(summary.getFailedSchedules(), is(1));
+    assertThat(summary.getRequests(), is(0));
+    assertThat(summary.getErrors(), hasSize(1));
+    verify(processedDataExchangeService, never())
+        .sendDataValueSet(dataValueSet, server, ORG_UNIT_IDS);
+  }
+
+  @Test
+  public void shouldNotExceedConcurrencyLimitOfServer() {
+    List<DataValueSet> dataValueSets = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      dataValueSets.add(dataValueSet(1));
+    }
+    when(processedDataExchangeService
+        .prepareDataValueSets(eq(singletonList(schedule)), isNull(), isNull()))
+        .thenReturn(dataValueSets);
+
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    when(processedDataExchangeService.sendDataValueSet(any(DataValueSet.class), eq(server),
+        eq(ORG_UNIT_IDS)))
+        .thenAnswer(invocation -> {
+          maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+          Thread.sleep(20);
+          running.decrementAndGet();
+          return response(1, 0);
+        });
+
+    ExportSummary summary = exportEngine.export(Collections.singletonList(schedule));
+
+    assertThat(summary.getRequests(), is(8));
+    assertThat(maxRunning.get(), is(lessThanOrEqualTo(MAX_CONCURRENT_REQUESTS_PER_SERVER)));
+  }
+
+  @Test
+  public void shouldPrepareAllSchedulesOfDatasetTogether() {
+    Schedule sameDataset = new ScheduleDataBuilder().withServer(server).build();
+    ReflectionTestUtils.setField(sameDataset, "id", UUID.randomUUID());
+    when(processedDataExchangeService.prepareDataValueSets(
+        Arrays.asList(schedule, sameDataset), null, null))
+        .thenReturn(Collections.singletonList(dataValueSet(2)));
+    when(processedDataExchangeService.sendDataValueSet(any(DataValueSet.class), eq(server),
+        eq(ORG_UNIT_IDS)))
+        .thenReturn(response(2, 0));
+
+    ExportSummary summary = exportEngine.export(Arrays.asList(schedule, sameDataset));
+
+    assertThat(summary.getSchedules(), is(2));
+    assertThat(summary.getRequests(), is(1));
+    assertThat(summary.getDataValues(), is(2));
+  }
+
+  @Test
+  public void shouldSkipUnchangedValuesAndRecordAcknowledgedOnes() {
+    DataValueSet prepared = dataValueSet(3);
+    DataValueSet changed = dataValueSet(1);
+    when(processedDataExchangeService.prepareDataValueSets(singletonList(schedule), null, null))
+        .thenReturn(singletonList(prepared));
+    when(dataValueFingerprintService.removeUnchanged(server, singletonList(prepared)))
+        .thenReturn(singletonList(changed));
+    when(processedDataExchangeService.sendDataValueSet(changed, server, ORG_UNIT_IDS))
+        .thenReturn(response(0, 1));
+
+    ExportSummary summary = exportEngine.export(singletonList(schedule));
+
+    assertThat(summary.getDataValues(), is(1));
+    assertThat(summary.getSkippedDataValues(), is(2));
+    verify(dataValueFingerprintService).recordAcknowledged(eq(server), eq(changed),
+        any(DhisResponseBody.class));
+  }
+
+  @Test
+  public void shouldSendUnchangedValuesWhenForced() {
+    DataValueSet prepared = dataValueSet(3);
+    when(processedDataExchangeService.prepareDataValueSets(singletonList(schedule), null, null))
+        .thenReturn(singletonList(prepared));
+    when(processedDataExchangeService.sendDataValueSet(prepared, server, ORG_UNIT_IDS))
+        .thenReturn(response(0, 3));
+
+    ExportSummary summary = exportEngine.export(singletonList(schedule), null, null, true);
+
+    assertThat(summary.getDataValues(), is(3));
+    assertThat(summary.getSkippedDataValues(), is(0));
+    verify(dataValueFingerprintService, never()).removeUnchanged(any(Server.class), anyList());
+  }
+
+  @Test
+  public void shouldRetryDueOutboxEntries() {
+    OutboxEntry entry = outboxEntry();
+    DataValueSet dataValueSet = dataValueSet(3);
+    when(outboxService.claimDueEntries()).thenReturn(Collections.singletonList(entry));
+    when(outboxService.getDataValueSet(entry)).thenReturn(dataValueSet);
+    when(processedDataExchangeService.sendDataValueSet(dataValueSet, server, ORG_UNIT_IDS))
+        .thenReturn(response(3, 0));
+
+    ExportSummary summary = exportEngine.drainOutbox();
+
+    assertThat(summary.getRequests(), is(1));
+    assertThat(summary.getImported(), is(3));
+    verify(outboxService).markDelivered(entry);
+  }
+
+  @Test
+  public void shouldRenewLeaseOfEntryUntilItsImportIsFinished() {
+    OutboxEntry entry = outboxEntry();
+    entry.setJobId(JOB_ID);
+    DataValueSet dataValueSet = dataValueSet(3);
+    when(outboxService.claimDueEntries()).thenReturn(Collections.singletonList(entry));
+    when(outboxService.getDataValueSet(entry)).thenReturn(dataValueSet);
+    CompletableFuture<DhisResponseBody> importResult = new CompletableFuture<>();
+    when(importPoller.await(server, JOB_ID)).thenReturn(importResult);
+
+    final CompletableFuture<ExportSummary> drain = CompletableFuture
+        .supplyAsync(exportEngine::drainOutbox);
+    verify(importPoller, timeout(WAIT_MILLIS)).await(server, JOB_ID);
+
+    exportEngine.renewLeases();
+    verify(outboxService).renewLeases(singletonList(entry.getId()));
+
+    // the entry is claimed again by another drain, but it is still being delivered here
+    ExportSummary concurrentDrain = exportEngine.drainOutbox();
+    assertThat(concurrentDrain.getRequests(), is(0));
+
+    importResult.complete(response(3, 0));
+    assertThat(drain.join().getImported(), is(3));
+
+    exportEngine.renewLeases();
+    verify(outboxService).renewLeases(anyList());
+  }
+
+  @Test
+  public void shouldNotCountDeliveredPayloadAsFailedWhenEntryCannotBeRemoved() {
+    DataValueSet dataValueSet = dataValueSet(2);
+    when(processedDataExchangeService.prepareDataValueSets(singletonList(schedule), null, null))
+        .thenReturn(singletonList(dataValueSet));
+    when(processedDataExchangeService.sendDataValueSet(dataValueSet, server, ORG_UNIT_IDS))
+        .thenReturn(response(2, 0));
+    doThrow(new IllegalStateException("error"))
+        .when(outboxService).markDelivered(any(OutboxEntry.class));
+
+    ExportSummary summary = exportEngine.export(singletonList(schedule));
+
+    assertThat(summary.getImported(), is(2));
+    assertThat(summary.getFailedRequests(), is(0));
+    verify(outboxService, never()).markFailed(any(OutboxEntry.class), any(Throwable.class));
+    verify(dataValueFingerprintService).recordAcknowledged(eq(server), eq(dataValueSet),
+        any(DhisResponseBody.class));
+  }
+
+  @Test
+  public void shouldWaitForAsynchronousImportBeforeMarkingPayloadDelivered() {
+    ReflectionTestUtils.setField(exportEngine, "asyncImport", true);
+    DataValueSet dataValueSet = dataValueSet(2);
+    when(processedDataExchangeService.prepareDataValueSets(singletonList(schedule), null, null))
+        .thenReturn(singletonList(dataValueSet));
+    when(processedDataExchangeService.startDataValueSetImport(dataValueSet, server, ORG_UNIT_IDS))
+        .thenReturn(JOB_ID);
+    when(importPoller.await(server, JOB_ID))
+        .thenReturn(CompletableFuture.completedFuture(response(2, 0)));
+
+    ExportSummary summary = exportEngine.export(singletonList(schedule));
+
+    assertThat(summary.getImported(), is(2));
+    assertThat(summary.isSuccessful(), is(true));
+    verify(outboxService).markDelivered(any(OutboxEntry.class));
+    verify(processedDataExchangeService, never())
+        .sendDataValueSet(dataValueSet, server, ORG_UNIT_IDS);
+  }
+
+  @Test
+  public void shouldNotExceedConcurrencyLimitOfServerWithAsynchronousImports() {
+    ReflectionTestUtils.setField(exportEngine, "asyncImport", true);
+    List<DataValueSet> dataValueSets = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      dataValueSets.add(dataValueSet(1));
+    }
+    when(processedDataExchangeService
+        .prepareDataValueSets(eq(singletonList(schedule)), isNull(), isNull()))
+        .thenReturn(dataValueSets);
+    when(processedDataExchangeService.startDataValueSetImport(any(DataValueSet.class),
+        eq(server), eq(ORG_UNIT_IDS))).thenReturn(JOB_ID);
+
+    // an import runs from the moment it is started until the poller completes it
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    when(importPoller.await(server, JOB_ID)).thenAnswer(invocation -> {
+      maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+      return CompletableFuture.supplyAsync(() -> {
+        try {
+          Thread.sleep(20);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+        running.decrementAndGet();
+        return response(1, 0);
+      });
+    });
+
+    ExportSummary summary = exportEngine.export(Collections.singletonList(schedule));
+
+    assertThat(summary.getRequests(), is(8));
+    assertThat(summary.getFailedRequests(), is(0));
+    assertThat(maxRunning.get(), is(lessThanOrEqualTo(MAX_CONCURRENT_REQUESTS_PER_SERVER)));
+  }
+
+  @Test
+  public void shouldStartNextImportOnceRunningImportIsFinished() throws Exception {
+    ReflectionTestUtils.setField(exportEngine, "asyncImport", true);
+    List<DataValueSet> dataValueSets = new ArrayList<>();
+    for (int i = 0; i <= MAX_CONCURRENT_REQUESTS_PER_SERVER; i++) {
+      dataValueSets.add(dataValueSet(1));
+    }
+    when(processedDataExchangeService
+        .prepareDataValueSets(eq(singletonList(schedule)), isNull(), isNull()))
+        .thenReturn(dataValueSets);
+    when(processedDataExchangeService.startDataValueSetImport(any(DataValueSet.class),
+        eq(server), eq(ORG_UNIT_IDS))).thenReturn(JOB_ID);
+    BlockingQueue<CompletableFuture<DhisResponseBody>> imports = new LinkedBlockingQueue<>();
+    when(importPoller.await(server, JOB_ID)).thenAnswer(invocation -> {
+      CompletableFuture<DhisResponseBody> result = new CompletableFuture<>();
+      imports.add(result);
+      return result;
+    });
+
+    final CompletableFuture<ExportSummary> export = CompletableFuture
+        .supplyAsync(() -> exportEngine.export(singletonList(schedule)));
+
+    List<CompletableFuture<DhisResponseBody>> running = new ArrayList<>();
+    for (int i = 0; i < MAX_CONCURRENT_REQUESTS_PER_SERVER; i++) {
+      running.add(imports.poll(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+    // the submit threads are free, but the server has no permit for another import
+    verify(processedDataExchangeService, after(100).times(MAX_CONCURRENT_REQUESTS_PER_SERVER))
+        .startDataValueSetImport(any(DataValueSet.class), eq(server), eq(ORG_UNIT_IDS));
+
+    running.get(0).complete(response(1, 0));
+    running.add(imports.poll(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+    running.forEach(result -> result.complete(response(1, 0)));
+
+    assertThat(export.get(WAIT_MILLIS, TimeUnit.MILLISECONDS).getImported(),
+        is(MAX_CONCURRENT_REQUESTS_PER_SERVER + 1));
+  }
+
+  @Test
+  public void shouldRecordFailedAsynchronousImport() {
+    ReflectionTestUtils.setField(exportEngine, "asyncImport", true);
+    DataValueSet dataValueSet = dataValueSet(2);
+    when(processedDataExchangeService.prepareDataValueSets(singletonList(schedule), null, null))
+        .thenReturn(singletonList(dataValueSet));
+    when(processedDataExchangeService.startDataValueSetImport(dataValueSet, server, ORG_UNIT_IDS))
+        .thenReturn(JOB_ID);
+    CompletableFuture<DhisResponseBody> failed = new CompletableFuture<>();
+    failed.completeExceptionally(new RestOperationException("error"));
+    when(importPoller.await(server, JOB_ID)).thenReturn(failed);
+
+    ExportSummary summary = exportEngine.export(singletonList(schedule));
+
+    assertThat(summary.getFailedRequests(), is(1));
+    verify(outboxService, never()).markDelivered(any(OutboxEntry.class));
+    verify(outboxService).markFailed(any(OutboxEntry.class), any(Throwable.class));
+  }
+
+  @Test
+  public void shouldKeepUnfinishedAsynchronousImportForLaterCheck() {
+    ReflectionTestUtils.setField(exportEngine, "asyncImport", true);
+    DataValueSet dataValueSet = dataValueSet(2);
+    when(processedDataExchangeService.prepareDataValueSets(singletonList(schedule), null, null))
+        .thenReturn(singletonList(dataValueSet));
+    when(processedDataExchangeService.startDataValueSetImport(dataValueSet, server, ORG_UNIT_IDS))
+        .thenReturn(JOB_ID);
+    CompletableFuture<DhisResponseBody> pending = new CompletableFuture<>();
+    pending.completeExceptionally(new ImportPendingException("error"));
+    when(importPoller.await(server, JOB_ID)).thenReturn(pending);
+
+    ExportSummary summary = exportEngine.export(singletonList(schedule));
+
+    assertThat(summary.getPendingRequests(), is(1));
+    assertThat(summary.getFailedRequests(), is(0));
+    verify(outboxService).recordJob(any(OutboxEntry.class), eq(JOB_ID));
+    verify(outboxService, never()).markDelivered(any(OutboxEntry.class));
+    verify(outboxService).markFailed(any(OutboxEntry.class),
+        argThat(ImportPendingException::isPending));
+  }
+
+  @Test
+  public void shouldCheckStartedImportInsteadOfSendingPayloadAgain() {
+    OutboxEntry entry = outboxEntry();
+    entry.setJobId(JOB_ID);
+    DataValueSet dataValueSet = dataValueSet(3);
+    when(outboxService.claimDueEntries()).thenReturn(Collections.singletonList(entry));
+    when(outboxService.getDataValueSet(entry)).thenReturn(dataValueSet);
+    when(importPoller.await(server, JOB_ID))
+        .thenReturn(CompletableFuture.completedFuture(response(3, 0)));
+
+    ExportSummary summary = exportEngine.drainOutbox();
+
+    assertThat(summary.getImported(), is(3));
+    verify(outboxService).markDelivered(entry);
+    verify(processedDataExchangeService, never())
+        .startDataValueSetImport(any(DataValueSet.class), any(Server.class), anyMap());
+    verify(processedDataExchangeService, never())
+        .sendDataValueSet(any(DataValueSet.class), any(Server.class), anyMap());
+  }
+
+  @Test
+  public void shouldStoreFinishedRun() {
+    DataValueSet dataValueSet = dataValueSet(2);
+    when(processedDataExchangeService.prepareDataValueSets(singletonList(schedule), null, null))
+        .thenReturn(singletonList(dataValueSet));
+    when(processedDataExchangeService.sendDataValueSet(dataValueSet, server, ORG_UNIT_IDS))
+        .thenReturn(response(2, 0));
+
+    ExportSummary summary = exportEngine.export(singletonList(schedule));
+
+    verify(exportRunService).save(summary);
+    assertThat(summary.getEndDate(), is(notNullValue()));
+  }
+
+  @Test
+  public void shouldReturnSummaryWhenRunCannotBeStored() {
+    when(processedDataExchangeService.prepareDataValueSets(singletonList(schedule), null, null))
+        .thenReturn(Collections.emptyList());
+    doThrow(new IllegalStateException("db")).when(exportRunService)
+        .save(any(ExportSummary.class));
+
+    ExportSummary summary = exportEngine.export(singletonList(schedule));
+
+    assertThat(summary.isSuccessful(), is(true));
+  }
+
+  @Test
+  public void shouldExportInBackgroundAndTrackProgress() {
+    DataValueSet dataValueSet = dataValueSet(2);
+    dataValueSet.setDataSet("data-set");
+    dataValueSet.setOrgUnit("org-unit");
+    when(processedDataExchangeService.prepareDataValueSets(singletonList(schedule), null, null))
+        .thenReturn(singletonList(dataValueSet));
+    when(processedDataExchangeService.sendDataValueSet(dataValueSet, server, ORG_UNIT_IDS))
+        .thenReturn(response(2, 0));
+
+    ExportSummary summary = exportEngine.exportInBackground(() -> singletonList(schedule),
+        null, null, false);
+
+    verify(exportRunService).start(summary);
+    verify(exportRunService, timeout(WAIT_MILLIS)).save(summary);
+
+    ExportProgress progress = summary.getProgress(ZonedDateTime.now(CLOCK));
+    assertThat(progress.getRunId(), is(summary.getId()));
+    assertThat(progress.getStatus(), is(ExportRun.STATUS_FINISHED));
+    assertThat(progress.getFinishedDatasets(), is(1));
+    assertThat(progress.getFacilities(), is(1));
+    assertThat(progress.getFinishedFacilities(), is(1));
+    assertThat(progress.getDataValues(), is(2));
+    assertThat(progress.getSentDataValues(), is(2));
+    assertThat(progress.getRemainingSeconds(), is(0L));
+  }
+
+  @Test
+  public void shouldFinishBackgroundExportWhenSchedulesCannotBeRetrieved() {
+    ExportSummary summary = exportEngine.exportInBackground(() -> {
+      throw new IllegalStateException("referencedata");
+    }, null, null, false);
+
+    verify(exportRunService, timeout(WAIT_MILLIS)).save(summary);
+
+    assertThat(summary.getStatus(), is(ExportRun.STATUS_FAILED));
+    assertThat(summary.isSuccessful(), is(false));
+    assertThat(summary.getErrors(), hasSize(1));
+  }
+
+  private OutboxEntry outboxEntry() {
+    OutboxEntry entry = new OutboxEntry();
+    entry.setId(UUID.randomUUID());
+    entry.setServer(server);
+    return entry;
+  }
+
+  private DataValueSet dataValueSet(int size) {
+    DataValueSet dataValueSet = new DataValueSet();
+    dataValueSet.setDataValues(new ArrayList<>(Collections.nCopies(size, new DataValue())));
+    return dataValueSet;
+  }
+
+  private DhisResponseBody response(int imported, int updated) {
+    DhisImportCount importCount = new DhisImportCount();
+    importCount.setImported(imported);
+    importCount.setUpdated(updated);
+
+    DhisResponseBodyDetails details = new DhisResponseBodyDetails();
+    details.setImportCount(importCount);
+
+    DhisResponseBody response = new DhisResponseBody();
+    response.setResponse(details);
+    return response;
+  }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+
+package org.openlmis.integration.dhis2.service;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Optional;
+import java.util.UUID;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openlmis.integration.dhis2.domain.export.ExportRun;
+import org.openlmis.integration.dhis2.exception.NotFoundException;
+import org.openlmis.integration.dhis2.repository.export.ExportRunRepository;
+import org.openlmis.integration.dhis2.service.export.ExportProgress;
+import org.openlmis.integration.dhis2.service.export.ExportRunService;
+import org.openlmis.integration.dhis2.service.export.ExportSummary;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ExportRunServiceTest {
+
+  private static final Instant NOW = Instant.parse("2020-01-01T00:10:00Z");
+  private static final ZonedDateTime START_DATE =
+      ZonedDateTime.parse("2020-01-01T00:00:00Z");
+
+  @Mock
+  private ExportRunRepository exportRunRepository;
+
+  @InjectMocks
+  private ExportRunService exportRunService;
+
+  private final ArgumentCaptor<ExportRun> runCaptor = ArgumentCaptor.forClass(ExportRun.class);
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(exportRunService, "clock", Clock.fixed(NOW, ZoneOffset.UTC));
+  }
+
+  @Test
+  public void shouldStoreStartedRunAsRunning() {
+    ExportSummary summary = new ExportSummary(START_DATE);
+
+    exportRunService.start(summary);
+
+    verify(exportRunRepository).save(runCaptor.capture(), any());
+    assertThat(runCaptor.getValue().getId(), is(summary.getId()));
+    assertThat(runCaptor.getValue().getStatus(), is(ExportRun.STATUS_RUNNING));
+    assertThat(runCaptor.getValue().getEndDate(), is(nullValue()));
+  }
+
+  @Test
+  public void shouldReportProgressOfTrackedRun() {
+    ExportSummary summary = new ExportSummary(START_DATE);
+    exportRunService.start(summary);
+
+    ExportProgress progress = exportRunService.getProgress(summary.getId());
+
+    assertThat(progress.getRunId(), is(summary.getId()));
+    assertThat(progress.getStatus(), is(ExportRun.STATUS_RUNNING));
+    assertThat(progress.getRemainingSeconds(), is(nullValue()));
+    verify(exportRunRepository, never()).findById(summary.getId());
+  }
+
+  @Test
+  public void shouldTrackRunEvenIfItCannotBeStored() {
+    ExportSummary summary = new ExportSummary(START_DATE);
+    doThrow(new IllegalStateException("db")).when(exportRunRepository)
+        .save(any(ExportRun.class), anyCollection());
+
+    try {
+      exportRunService.start(summary);
+    } catch (IllegalStateException ex) {
+      // the engine only logs this failure
+    }
+
+    assertThat(exportRunService.getProgress(summary.getId()).getRunId(), is(summary.getId()));
+  }
+
+  @Test
+  public void shouldReportProgressOfStoredRun() {
+    UUID id = UUID.randomUUID();
+    ExportRun run = new ExportRun(id, ExportRun.STATUS_FINISHED, START_DATE,
+        START_DATE.plusSeconds(100), 2, 0, 5, 1, 500, 10, 400, 100, 0);
+    when(exportRunRepository.findById(id)).thenReturn(Optional.of(run));
+
+    ExportProgress progress = exportRunService.getProgress(id);
+
+    assertThat(progress.getStatus(), is(ExportRun.STATUS_FINISHED));
+    assertThat(progress.getSentDataValues(), is(500));
+    assertThat(progress.getFailedRequests(), is(1));
+    assertThat(progress.getThroughput(), is(5.0));
+    assertThat(progress.getRemainingSeconds(), is(0L));
+  }
+
+  @Test(expected = NotFoundException.class)
+  public void shouldThrowWhenRunDoesNotExist() {
+    UUID id = UUID.randomUUID();
+    when(exportRunRepository.findById(id)).thenReturn(Optional.empty());
+
+    exportRunService.getProgress(id);
+  }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+
+package org.openlmis.integration.dhis2.service;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openlmis.integration.dhis2.builder.ServerDataBuilder;
+import org.openlmis.integration.dhis2.domain.server.Server;
+import org.openlmis.integration.dhis2.dto.dhis.DhisResponseBody;
+import org.openlmis.integration.dhis2.exception.ImportFailedException;
+import org.openlmis.integration.dhis2.exception.ImportPendingException;
+import org.openlmis.integration.dhis2.exception.RestOperationException;
+import org.openlmis.integration.dhis2.service.communication.ProcessedDataExchangeService;
+import org.openlmis.integration.dhis2.service.export.ImportPoller;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ImportPollerTest {
+
+  private static final String JOB_ID = "job-id";
+  private static final long WAIT_SECONDS = 5;
+
+  @Mock
+  private ProcessedDataExchangeService processedDataExchangeService;
+
+  @InjectMocks
+  private ImportPoller importPoller;
+
+  private final Server server = new ServerDataBuilder().build();
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(importPoller, "clock", Clock.systemUTC());
+    ReflectionTestUtils.setField(importPoller, "pollThreads", 1);
+    ReflectionTestUtils.setField(importPoller, "initialPollDelay", 1L);
+    ReflectionTestUtils.setField(importPoller, "maxPollDelay", 4L);
+    ReflectionTestUtils.setField(importPoller, "timeout", 60L);
+    importPoller.init();
+  }
+
+  @After
+  public void tearDown() {
+    importPoller.shutdown();
+  }
+
+  @Test
+  public void shouldPollUntilImportIsFinished() throws Exception {
+    DhisResponseBody response = new DhisResponseBody();
+    when(processedDataExchangeService.findImportResult(JOB_ID, server))
+        .thenReturn(Optional.empty(), Optional.empty(), Optional.of(response));
+
+    DhisResponseBody result = importPoller.await(server, JOB_ID)
+        .get(WAIT_SECONDS, TimeUnit.SECONDS);
+
+    assertThat(result, is(response));
+    verify(processedDataExchangeService, times(3)).findImportResult(JOB_ID, server);
+  }
+
+  @Test
+  public void shouldReportPendingImportWhenNotFinishedInTime() throws Exception {
+    ReflectionTestUtils.setField(importPoller, "clock",
+        Clock.fixed(Instant.parse("2020-01-01T00:00:00Z"), ZoneOffset.UTC));
+    ReflectionTestUtils.setField(importPoller, "timeout", 0L);
+    when(processedDataExchangeService.findImportResult(JOB_ID, server))
+        .thenReturn(Optional.empty());
+
+    try {
+      importPoller.await(server, JOB_ID).get(WAIT_SECONDS, TimeUnit.SECONDS);
+      fail("Expected the import to time out");
+    } catch (ExecutionException ex) {
+      assertThat(ex.getCause(), is(instanceOf(ImportPendingException.class)));
+    }
+  }
+
+  @Test
+  public void shouldRetryPollWhichFailed() throws Exception {
+    DhisResponseBody response = new DhisResponseBody();
+    when(processedDataExchangeService.findImportResult(JOB_ID, server))
+        .thenThrow(new RestOperationException("error"))
+        .thenReturn(Optional.of(response));
+
+    DhisResponseBody result = importPoller.await(server, JOB_ID)
+        .get(WAIT_SECONDS, TimeUnit.SECONDS);
+
+    assertThat(result, is(response));
+    verify(processedDataExchangeService, times(2)).findImportResult(JOB_ID, server);
+  }
+
+  @Test
+  public void shouldFailWhenImportFailed() throws Exception {
+    when(processedDataExchangeService.findImportResult(JOB_ID, server))
+        .thenThrow(new ImportFailedException("error"));
+
+    try {
+      importPoller.await(server, JOB_ID).get(WAIT_SECONDS, TimeUnit.SECONDS);
+      fail("Expected the import to fail");
+    } catch (ExecutionException ex) {
+      assertThat(ex.getCause(), is(instanceOf(ImportFailedException.class)));
+    }
+    verify(processedDataExchangeService, times(1)).findImportResult(JOB_ID, server);
+  }
+
+}
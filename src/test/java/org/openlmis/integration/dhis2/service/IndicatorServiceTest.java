@@ -0,0 +1,140 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+
+package org.openlmis.integration.dhis2.service;
+
+import static java.util.Collections.singletonList;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openlmis.integration.dhis2.domain.enumerator.IndicatorEnum;
+import org.openlmis.integration.dhis2.service.indicator.IndicatorService;
+import org.openlmis.integration.dhis2.service.indicator.IndicatorSupplier;
+import org.springframework.data.util.Pair;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class IndicatorServiceTest {
+
+  private static final String SOURCE = IndicatorSupplier.STOCKMANAGEMENT;
+  private static final String ORDERABLE_A = "orderable-a";
+  private static final String ORDERABLE_B = "orderable-b";
+  private static final String FACILITY_A = "facility-a";
+  private static final String FACILITY_B = "facility-b";
+  private static final BigDecimal ZERO = new BigDecimal("0", MathContext.DECIMAL64);
+
+  @Mock
+  private IndicatorSupplier openingBalance;
+
+  @Mock
+  private IndicatorSupplier adjustmentsByReason;
+
+  @InjectMocks
+  private IndicatorService indicatorService;
+
+  private final Pair<ZonedDateTime, ZonedDateTime> period =
+      Pair.of(ZonedDateTime.now(), ZonedDateTime.now());
+
+  private final List<String> facilities = Arrays.asList(FACILITY_A, FACILITY_B);
+
+  @Before
+  public void setUp() {
+    when(openingBalance.getIndicatorName()).thenReturn(IndicatorEnum.OPENING_BALANCE.toString());
+    when(adjustmentsByReason.getIndicatorName())
+        .thenReturn(IndicatorEnum.ADJUSTMENTS_BY_REASON.toString());
+    ReflectionTestUtils.setField(indicatorService, "indicatorSuppliers",
+        Arrays.asList(openingBalance, adjustmentsByReason));
+    indicatorService.init();
+  }
+
+  @Test
+  public void shouldDispatchToSupplierRegisteredWithIndicatorName() {
+    when(openingBalance.calculateKeyedValues(SOURCE, period, singletonList(ORDERABLE_A),
+        facilities)).thenReturn(Collections.emptyMap());
+
+    indicatorService.generateKeyed(SOURCE, "Opening balance", period,
+        singletonList(ORDERABLE_A), facilities);
+
+    verify(openingBalance).calculateKeyedValues(SOURCE, period, singletonList(ORDERABLE_A),
+        facilities);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldThrowWhenThereIsNoSupplierForIndicator() {
+    indicatorService.generateKeyed(SOURCE, IndicatorEnum.RECEIVED.toString(), period,
+        singletonList(ORDERABLE_A), facilities);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldNotRegisterTwoSuppliersWithTheSameName() {
+    when(adjustmentsByReason.getIndicatorName())
+        .thenReturn(IndicatorEnum.OPENING_BALANCE.toString());
+
+    indicatorService.init();
+  }
+
+  @Test
+  public void shouldCalculateAllOrderablesWithOneSupplierCall() {
+    when(openingBalance.calculateKeyedValues(eq(SOURCE), eq(period), anyCollection(),
+        eq(facilities))).thenReturn(Collections.singletonMap(ORDERABLE_A, Collections
+            .singletonMap(FACILITY_A, Collections.singletonMap(
+                IndicatorSupplier.DEFAULT_CATEGORY_OPTION_COMBO, BigDecimal.TEN))));
+
+    Map<String, Map<String, Map<String, BigDecimal>>> values = indicatorService
+        .generateKeyed(SOURCE, "OPENING_BALANCE", period,
+            Arrays.asList(ORDERABLE_A, ORDERABLE_B), facilities);
+
+    assertThat(values.get(ORDERABLE_A).get(FACILITY_A).get(
+        IndicatorSupplier.DEFAULT_CATEGORY_OPTION_COMBO), is(BigDecimal.TEN));
+    assertThat(values.get(ORDERABLE_A).get(FACILITY_B).get(
+        IndicatorSupplier.DEFAULT_CATEGORY_OPTION_COMBO), is(ZERO));
+    assertThat(values.get(ORDERABLE_B).get(FACILITY_B).get(
+        IndicatorSupplier.DEFAULT_CATEGORY_OPTION_COMBO), is(ZERO));
+    verify(openingBalance).calculateKeyedValues(SOURCE, period,
+        Arrays.asList(ORDERABLE_A, ORDERABLE_B), facilities);
+  }
+
+  @Test
+  public void shouldNotAddZerosToSplitIndicator() {
+    when(adjustmentsByReason.isKeyed()).thenReturn(true);
+    when(adjustmentsByReason.calculateKeyedValues(eq(SOURCE), eq(period), anyCollection(),
+        eq(facilities))).thenReturn(Collections.emptyMap());
+
+    Map<String, Map<String, Map<String, BigDecimal>>> values = indicatorService
+        .generateKeyed(SOURCE, "Adjustments by reason", period,
+            singletonList(ORDERABLE_A), facilities);
+
+    assertThat(values.get(ORDERABLE_A).get(FACILITY_A).isEmpty(), is(true));
+  }
+
+}
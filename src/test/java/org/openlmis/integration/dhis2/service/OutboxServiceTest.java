@@ -0,0 +1,227 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.integration.dhis2.service;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openlmis.integration.dhis2.builder.ServerDataBuilder;
+import org.openlmis.integration.dhis2.domain.outbox.OutboxDeadLetter;
+import org.openlmis.integration.dhis2.domain.outbox.OutboxEntry;
+import org.openlmis.integration.dhis2.domain.server.Server;
+import org.openlmis.integration.dhis2.dto.dhis.DataValue;
+import org.openlmis.integration.dhis2.dto.dhis.DataValueSet;
+import org.openlmis.integration.dhis2.exception.ImportPendingException;
+import org.openlmis.integration.dhis2.exception.RestOperationException;
+import org.openlmis.integration.dhis2.repository.outbox.OutboxDeadLetterRepository;
+import org.openlmis.integration.dhis2.repository.outbox.OutboxEntryRepository;
+import org.openlmis.integration.dhis2.service.export.OutboxService;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+@RunWith(MockitoJUnitRunner.class)
+public class OutboxServiceTest {
+
+  private static final Instant NOW = Instant.parse("2020-01-01T00:00:00Z");
+  private static final long INITIAL_BACKOFF = 60;
+  private static final long MAX_BACKOFF = 300;
+  private static final String JOB_ID = "job-id";
+
+  @Mock
+  private OutboxEntryRepository outboxEntryRepository;
+
+  @Mock
+  private OutboxDeadLetterRepository outboxDeadLetterRepository;
+
+  @Captor
+  private ArgumentCaptor<List<OutboxEntry>> entriesCaptor;
+
+  @InjectMocks
+  private OutboxService outboxService;
+
+  private Server server;
+  private ZonedDateTime now;
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(outboxService, "objectMapper", new ObjectMapper());
+    ReflectionTestUtils.setField(outboxService, "clock", Clock.fixed(NOW, ZoneOffset.UTC));
+    ReflectionTestUtils.setField(outboxService, "batchSize", 10);
+    ReflectionTestUtils.setField(outboxService, "maxAttempts", 5);
+    ReflectionTestUtils.setField(outboxService, "initialBackoff", INITIAL_BACKOFF);
+    ReflectionTestUtils.setField(outboxService, "maxBackoff", MAX_BACKOFF);
+    ReflectionTestUtils.setField(outboxService, "lease", 300L);
+
+    server = new ServerDataBuilder().build();
+    now = ZonedDateTime.now(Clock.fixed(NOW, ZoneOffset.UTC));
+  }
+
+  @Test
+  public void shouldStorePayloadWhichCanBeRestored() {
+    DataValueSet dataValueSet = new DataValueSet("data-set", "202001", null,
+        Collections.singletonList(new DataValue("element", "combo", "org-unit", "202001",
+            BigDecimal.TEN)));
+    when(outboxEntryRepository.saveAll(any())).thenAnswer(invocation -> invocation.getArgument(0));
+
+    List<OutboxEntry> entries = outboxService.enqueue(server,
+        Collections.singletonList(dataValueSet));
+
+    OutboxEntry entry = entries.get(0);
+    assertThat(entry.getServer(), is(server));
+    assertThat(entry.getDataSet(), is("data-set"));
+    assertThat(entry.getNextAttemptDate(), is(now.plusSeconds(300)));
+
+    DataValueSet restored = outboxService.getDataValueSet(entry);
+    assertThat(restored.getDataValues().get(0).getOrgUnit(), is("org-unit"));
+    assertThat(restored.getDataValues().get(0).getValue(), is(BigDecimal.TEN));
+  }
+
+  @Test
+  public void shouldLeaseClaimedEntries() {
+    OutboxEntry entry = entry(0);
+    when(outboxEntryRepository.findDueForUpdate(now, 10))
+        .thenReturn(Collections.singletonList(entry));
+
+    outboxService.claimDueEntries();
+
+    verify(outboxEntryRepository).saveAll(entriesCaptor.capture());
+    assertThat(entriesCaptor.getValue(), contains(entry));
+    assertThat(entry.getNextAttemptDate(), is(now.plusSeconds(300)));
+  }
+
+  @Test
+  public void shouldBackOffExponentially() {
+    OutboxEntry entry = entry(2);
+
+    boolean retried = outboxService.markFailed(entry, connectionFailure());
+
+    assertThat(retried, is(true));
+    assertThat(entry.getAttempts(), is(3));
+    assertThat(entry.getNextAttemptDate(), is(now.plusSeconds(INITIAL_BACKOFF * 4)));
+    verify(outboxEntryRepository).save(entry);
+  }
+
+  @Test
+  public void shouldNotBackOffLongerThanMaximum() {
+    OutboxEntry entry = entry(3);
+
+    outboxService.markFailed(entry, connectionFailure());
+
+    assertThat(entry.getNextAttemptDate(), is(now.plusSeconds(MAX_BACKOFF)));
+  }
+
+  @Test
+  public void shouldMoveEntryToDeadLetterAfterTooManyAttempts() {
+    OutboxEntry entry = entry(4);
+
+    boolean retried = outboxService.markFailed(entry, connectionFailure());
+
+    assertThat(retried, is(false));
+    verify(outboxDeadLetterRepository).save(any(OutboxDeadLetter.class));
+    verify(outboxEntryRepository).deleteById(entry.getId());
+  }
+
+  @Test
+  public void shouldMoveEntryToDeadLetterOnPermanentError() {
+    OutboxEntry entry = entry(0);
+    RestOperationException conflict = new RestOperationException("error",
+        new HttpClientErrorException(HttpStatus.CONFLICT));
+
+    boolean retried = outboxService.markFailed(entry, conflict);
+
+    assertThat(retried, is(false));
+    verify(outboxDeadLetterRepository).save(any(OutboxDeadLetter.class));
+    verify(outboxEntryRepository, never()).save(entry);
+  }
+
+  @Test
+  public void shouldRenewLeasesOfEntriesInFlight() {
+    List<UUID> ids = Collections.singletonList(UUID.randomUUID());
+
+    outboxService.renewLeases(ids);
+
+    verify(outboxEntryRepository).updateNextAttemptDate(ids, now.plusSeconds(300));
+  }
+
+  @Test
+  public void shouldKeepJobOfPendingImport() {
+    OutboxEntry entry = entry(0);
+    entry.setJobId(JOB_ID);
+
+    boolean retried = outboxService.markFailed(entry,
+        new ImportPendingException("error"));
+
+    assertThat(retried, is(true));
+    assertThat(entry.getJobId(), is(JOB_ID));
+  }
+
+  @Test
+  public void shouldForgetJobOfFailedImport() {
+    OutboxEntry entry = entry(0);
+    entry.setJobId(JOB_ID);
+
+    outboxService.markFailed(entry, connectionFailure());
+
+    assertThat(entry.getJobId(), is(nullValue()));
+  }
+
+  @Test
+  public void shouldRecordImportJob() {
+    OutboxEntry entry = entry(0);
+
+    outboxService.recordJob(entry, JOB_ID);
+
+    assertThat(entry.getJobId(), is(JOB_ID));
+    verify(outboxEntryRepository).updateJobId(entry.getId(), JOB_ID);
+  }
+
+  private RestOperationException connectionFailure() {
+    return new RestOperationException("error", new ResourceAccessException("timeout"));
+  }
+
+  private OutboxEntry entry(int attempts) {
+    OutboxEntry entry = new OutboxEntry(server, "data-set", "202001", "{}", attempts, null,
+        now, now, null);
+    entry.setId(UUID.randomUUID());
+    return entry;
+  }
+
+}
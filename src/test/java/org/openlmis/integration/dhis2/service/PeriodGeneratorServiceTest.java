@@ -38,7 +38,7 @@ import org.openlmis.integration.dhis2.domain.enumerator.DhisPeriod;
 import org.openlmis.integration.dhis2.domain.periodmapping.PeriodMapping;
 import org.openlmis.integration.dhis2.dto.dhis.DhisPeriodType;
 import org.openlmis.integration.dhis2.dto.referencedata.ProcessingPeriodDto;
-import org.openlmis.integration.dhis2.service.communication.ReferenceDataService;
+import org.openlmis.integration.dhis2.service.communication.ReferenceDataCache;
 import org.openlmis.integration.dhis2.service.schedule.PeriodGeneratorService;
 import org.springframework.data.util.Pair;
 
@@ -66,7 +66,7 @@ public class PeriodGeneratorServiceTest {
           ZonedDateTime.ofInstant(februaryFirstInstant, zoneId);
 
   @Mock
-  private ReferenceDataService referenceDataService;
+  private ReferenceDataCache referenceDataCache;
 
   @InjectMocks
   private PeriodGeneratorService periodGeneratorService;
@@ -120,7 +120,7 @@ public class PeriodGeneratorServiceTest {
     ProcessingPeriodDto processingPeriodDto = new ProcessingPeriodDto();
     processingPeriodDto.setStartDate(new Date(1000));
     processingPeriodDto.setEndDate(new Date(30000));
-    when(referenceDataService.findProcessingPeriod(processingPeriodId))
+    when(referenceDataCache.getProcessingPeriod(processingPeriodId))
             .thenReturn(processingPeriodDto);
 
     Pair<ZonedDateTime, ZonedDateTime> range = periodGeneratorService.generateRange(periodMapping);
@@ -0,0 +1,351 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.integration.dhis2.service;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableMap;
+import java.math.BigDecimal;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openlmis.integration.dhis2.builder.DataElementDataBuilder;
+import org.openlmis.integration.dhis2.builder.ScheduleDataBuilder;
+import org.openlmis.integration.dhis2.domain.schedule.Schedule;
+import org.openlmis.integration.dhis2.domain.server.Server;
+import org.openlmis.integration.dhis2.dto.dhis.DataValue;
+import org.openlmis.integration.dhis2.dto.dhis.DataValueSet;
+import org.openlmis.integration.dhis2.repository.facility.SharedFacilityRepository;
+import org.openlmis.integration.dhis2.repository.facility.SharedFacilityRepository.OrgUnit;
+import org.openlmis.integration.dhis2.repository.periodmapping.PeriodMappingRepository;
+import org.openlmis.integration.dhis2.service.communication.DhisDataService;
+import org.openlmis.integration.dhis2.service.communication.DhisMetadataCache;
+import org.openlmis.integration.dhis2.service.communication.ProcessedDataExchangeService;
+import org.openlmis.integration.dhis2.service.indicator.IndicatorService;
+import org.openlmis.integration.dhis2.service.indicator.IndicatorSupplier;
+import org.openlmis.integration.dhis2.service.schedule.PeriodGeneratorService;
+import org.springframework.data.util.Pair;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ProcessedDataExchangeServiceTest {
+
+  private static final String PERIOD = "202301";
+  private static final String FACILITY_A = "facility-a";
+  private static final String FACILITY_B = "facility-b";
+  private static final String FACILITY_C = "facility-c";
+  private static final String DEFAULT_ORDERABLE = "test-orderable";
+  private static final String ORDERABLE = "other-orderable";
+  private static final String REASON_A = "Damaged";
+  private static final String REASON_B = "Expired";
+  private static final String DATASET = "dataset";
+  private static final String UID_PREFIX = "uid-";
+  private static final String JOB_ID = "job-id";
+
+  @Mock
+  private PeriodGeneratorService periodGeneratorService;
+
+  @Mock
+  private IndicatorService indicatorService;
+
+  @Mock
+  private DhisDataService dhisDataService;
+
+  @Mock
+  private SharedFacilityRepository sharedFacilityRepository;
+
+  @Mock
+  private PeriodMappingRepository periodMappingRepository;
+
+  @Mock
+  private DhisMetadataCache dhisMetadataCache;
+
+  @Captor
+  private ArgumentCaptor<DataValueSet> dataValueSetCaptor;
+
+  @InjectMocks
+  private ProcessedDataExchangeService processedDataExchangeService;
+
+  private Schedule schedule;
+
+  @Before
+  public void setUp() {
+    schedule = new ScheduleDataBuilder()
+        .withElement(new DataElementDataBuilder().build())
+        .build();
+
+    ZonedDateTime now = ZonedDateTime.now();
+    when(periodGeneratorService.generateRange(anyString(), anyInt()))
+        .thenReturn(Pair.of(now, now));
+    when(periodGeneratorService.formatDate(any(ZonedDateTime.class), anyString()))
+        .thenReturn(PERIOD);
+
+    List<OrgUnit> orgUnits = Arrays.asList(mockOrgUnit(FACILITY_A), mockOrgUnit(FACILITY_B),
+        mockOrgUnit(FACILITY_C));
+    lenient().when(sharedFacilityRepository.findOrgUnitsByServerId(schedule.getServer().getId()))
+        .thenReturn(orgUnits);
+  }
+
+  @Test
+  public void shouldPrepareAllFacilitiesInOnePayloadWhenChunkSizeIsNotPositive() {
+    ReflectionTestUtils.setField(processedDataExchangeService, "chunkSize", 0);
+    stubIndicatorValue();
+
+    List<DataValueSet> dataValueSets = processedDataExchangeService
+        .prepareDataValueSets(Collections.singletonList(schedule), null, null);
+
+    assertThat(dataValueSets, hasSize(1));
+    DataValueSet dataValueSet = dataValueSets.get(0);
+    assertThat(dataValueSet.getOrgUnit(), is(nullValue()));
+    assertThat(dataValueSet.getPeriod(), is(PERIOD));
+    assertThat(getOrgUnits(dataValueSet.getDataValues()),
+        contains(FACILITY_A, FACILITY_B, FACILITY_C));
+  }
+
+  @Test
+  public void shouldSplitValuesIntoChunksOfConfiguredSize() {
+    ReflectionTestUtils.setField(processedDataExchangeService, "chunkSize", 2);
+    stubIndicatorValue();
+
+    List<DataValueSet> dataValueSets = processedDataExchangeService
+        .prepareDataValueSets(Collections.singletonList(schedule), null, null);
+
+    assertThat(dataValueSets, hasSize(2));
+    assertThat(getOrgUnits(dataValueSets.get(0).getDataValues()),
+        contains(FACILITY_A, FACILITY_B));
+    assertThat(getOrgUnits(dataValueSets.get(1).getDataValues()), contains(FACILITY_C));
+    verify(indicatorService).generateKeyed(anyString(), anyString(), any(), anyCollection(),
+        eq(Arrays.asList(FACILITY_A, FACILITY_B, FACILITY_C)));
+  }
+
+  @Test
+  public void shouldOnlyPrepareValuesOfRequestedFacilities() {
+    ReflectionTestUtils.setField(processedDataExchangeService, "chunkSize", 100);
+    stubIndicatorValue();
+    List<OrgUnit> orgUnits = Collections.singletonList(mockOrgUnit(FACILITY_B));
+    when(sharedFacilityRepository.findOrgUnitsByServerIdAndCodeIn(schedule.getServer().getId(),
+        Collections.singletonList(FACILITY_B))).thenReturn(orgUnits);
+
+    List<DataValueSet> dataValueSets = processedDataExchangeService.prepareDataValueSets(
+        Collections.singletonList(schedule), null, Collections.singletonList(FACILITY_B));
+
+    assertThat(dataValueSets, hasSize(1));
+    assertThat(getOrgUnits(dataValueSets.get(0).getDataValues()), contains(FACILITY_B));
+  }
+
+  @Test
+  public void shouldPrepareNothingWhenThereAreNoFacilities() {
+    ReflectionTestUtils.setField(processedDataExchangeService, "chunkSize", 100);
+
+    List<DataValueSet> dataValueSets = processedDataExchangeService.prepareDataValueSets(
+        Collections.singletonList(schedule), null, Collections.emptyList());
+
+    assertThat(dataValueSets, hasSize(0));
+    verify(sharedFacilityRepository, never()).findOrgUnitsByServerIdAndCodeIn(any(), any());
+  }
+
+  @Test
+  public void shouldCombineValuesOfAllElementsOfDatasetPerOrgUnit() {
+    ReflectionTestUtils.setField(processedDataExchangeService, "chunkSize", 4);
+    stubIndicatorValue();
+    Schedule second = new ScheduleDataBuilder()
+        .withElement(new DataElementDataBuilder().withOrderable(ORDERABLE).build())
+        .build();
+
+    List<DataValueSet> dataValueSets = processedDataExchangeService
+        .prepareDataValueSets(Arrays.asList(schedule, second), null, null);
+
+    assertThat(dataValueSets, hasSize(2));
+    assertThat(getOrgUnits(dataValueSets.get(0).getDataValues()),
+        contains(FACILITY_A, FACILITY_A, FACILITY_B, FACILITY_B));
+    assertThat(dataValueSets.get(0).getDataValues().get(1).getDataElement(), is(ORDERABLE));
+    assertThat(getOrgUnits(dataValueSets.get(1).getDataValues()),
+        contains(FACILITY_C, FACILITY_C));
+    verify(periodGeneratorService).generateRange(anyString(), anyInt());
+    verify(sharedFacilityRepository).findOrgUnitsByServerId(schedule.getServer().getId());
+    verify(indicatorService).generateKeyed(anyString(), anyString(), any(),
+        eq(new LinkedHashSet<>(Arrays.asList(DEFAULT_ORDERABLE, ORDERABLE))), anyList());
+  }
+
+  @Test
+  public void shouldSendOneValuePerCategoryOptionComboOfSplitIndicator() {
+    ReflectionTestUtils.setField(processedDataExchangeService, "chunkSize", 100);
+    Map<String, BigDecimal> reasons = new LinkedHashMap<>();
+    reasons.put(REASON_A, BigDecimal.ONE);
+    reasons.put(REASON_B, BigDecimal.TEN);
+    when(indicatorService.generateKeyed(anyString(), anyString(), any(), anyCollection(),
+        anyList())).thenReturn(Collections.singletonMap(DEFAULT_ORDERABLE,
+            ImmutableMap.of(FACILITY_A, reasons, FACILITY_B, Collections.emptyMap())));
+
+    List<DataValueSet> dataValueSets = processedDataExchangeService
+        .prepareDataValueSets(Collections.singletonList(schedule), null, null);
+
+    assertThat(dataValueSets, hasSize(1));
+    List<DataValue> dataValues = dataValueSets.get(0).getDataValues();
+    assertThat(getOrgUnits(dataValues), contains(FACILITY_A, FACILITY_A));
+    assertThat(dataValues.stream()
+        .map(DataValue::getCategoryOptionCombo)
+        .collect(Collectors.toList()), contains(REASON_A, REASON_B));
+    assertThat(dataValues.get(1).getValue(), is(BigDecimal.TEN));
+  }
+
+  @Test
+  public void shouldSendValuesWithUidsWhenAllOfThemAreKnown() {
+    ReflectionTestUtils.setField(processedDataExchangeService, "useUids", true);
+    Server server = schedule.getServer();
+    when(dhisMetadataCache.getDataElementIds(server, DATASET))
+        .thenReturn(Collections.singletonMap(DEFAULT_ORDERABLE, UID_PREFIX + DEFAULT_ORDERABLE));
+    when(dhisMetadataCache.getCategoryOptionComboIds(server))
+        .thenReturn(Collections.singletonMap(REASON_A, UID_PREFIX + REASON_A));
+
+    processedDataExchangeService.sendDataValueSet(buildDataValueSet(), server,
+        processedDataExchangeService.getOrgUnitIds(server));
+
+    verify(dhisDataService).sendDataValueSetWithUids(dataValueSetCaptor.capture(), anyString(),
+        anyString(), anyString());
+    DataValue dataValue = dataValueSetCaptor.getValue().getDataValues().get(0);
+    assertThat(dataValue.getDataElement(), is(UID_PREFIX + DEFAULT_ORDERABLE));
+    assertThat(dataValue.getCategoryOptionCombo(), is(UID_PREFIX + REASON_A));
+    assertThat(dataValue.getOrgUnit(), is(UID_PREFIX + FACILITY_A));
+    assertThat(dataValueSetCaptor.getValue().getOrgUnit(), is(nullValue()));
+  }
+
+  @Test
+  public void shouldSendValuesByNameWhenAnyUidIsUnknown() {
+    ReflectionTestUtils.setField(processedDataExchangeService, "useUids", true);
+    Server server = schedule.getServer();
+    when(dhisMetadataCache.getDataElementIds(server, DATASET))
+        .thenReturn(Collections.singletonMap(DEFAULT_ORDERABLE, UID_PREFIX + DEFAULT_ORDERABLE));
+    when(dhisMetadataCache.getCategoryOptionComboIds(server)).thenReturn(Collections.emptyMap());
+    DataValueSet dataValueSet = buildDataValueSet();
+
+    processedDataExchangeService.sendDataValueSet(dataValueSet, server,
+        processedDataExchangeService.getOrgUnitIds(server));
+
+    verify(dhisDataService).sendDataValueSet(dataValueSet, server.getUrl(),
+        server.getUsername(), server.getPassword());
+    verify(dhisDataService, never()).sendDataValueSetWithUids(any(DataValueSet.class),
+        anyString(), anyString(), anyString());
+  }
+
+  @Test
+  public void shouldStartImportWithUidsWhenAllOfThemAreKnown() {
+    ReflectionTestUtils.setField(processedDataExchangeService, "useUids", true);
+    Server server = schedule.getServer();
+    when(dhisMetadataCache.getDataElementIds(server, DATASET))
+        .thenReturn(Collections.singletonMap(DEFAULT_ORDERABLE, UID_PREFIX + DEFAULT_ORDERABLE));
+    when(dhisMetadataCache.getCategoryOptionComboIds(server))
+        .thenReturn(Collections.singletonMap(REASON_A, UID_PREFIX + REASON_A));
+    when(dhisDataService.startDataValueSetImport(any(DataValueSet.class), eq(true), anyString(),
+        anyString(), anyString())).thenReturn(JOB_ID);
+
+    String jobId = processedDataExchangeService.startDataValueSetImport(buildDataValueSet(),
+        server, processedDataExchangeService.getOrgUnitIds(server));
+
+    assertThat(jobId, is(JOB_ID));
+    verify(dhisDataService).startDataValueSetImport(dataValueSetCaptor.capture(), eq(true),
+        anyString(), anyString(), anyString());
+    assertThat(dataValueSetCaptor.getValue().getDataValues().get(0).getOrgUnit(),
+        is(UID_PREFIX + FACILITY_A));
+  }
+
+  @Test
+  public void shouldStartImportByNameWhenMetadataCanNotBeRetrieved() {
+    ReflectionTestUtils.setField(processedDataExchangeService, "useUids", true);
+    Server server = schedule.getServer();
+    when(dhisMetadataCache.getDataElementIds(server, DATASET))
+        .thenThrow(new IllegalStateException("DHIS2 is unavailable"));
+    DataValueSet dataValueSet = buildDataValueSet();
+
+    processedDataExchangeService.startDataValueSetImport(dataValueSet, server,
+        processedDataExchangeService.getOrgUnitIds(server));
+
+    verify(dhisDataService).startDataValueSetImport(dataValueSet, false, server.getUrl(),
+        server.getUsername(), server.getPassword());
+  }
+
+  @Test
+  public void shouldNotLookUpOrgUnitsWhenValuesAreSentByName() {
+    Map<String, String> orgUnitIds = processedDataExchangeService
+        .getOrgUnitIds(schedule.getServer());
+
+    assertThat(orgUnitIds.isEmpty(), is(true));
+    verify(sharedFacilityRepository, never()).findOrgUnitsByServerId(any());
+  }
+
+  private DataValueSet buildDataValueSet() {
+    return new DataValueSet(DATASET, PERIOD, null, Collections.singletonList(
+        new DataValue(DEFAULT_ORDERABLE, REASON_A, FACILITY_A, null, BigDecimal.TEN)));
+  }
+
+  private void stubIndicatorValue() {
+    when(indicatorService.generateKeyed(anyString(), anyString(), any(), anyCollection(),
+        anyList())).thenAnswer(invocation -> {
+          Collection<String> orderables = invocation.getArgument(3);
+          List<String> facilities = invocation.getArgument(4);
+          Map<String, Map<String, BigDecimal>> values = facilities.stream()
+              .collect(Collectors.toMap(Function.identity(), facility -> Collections
+                  .singletonMap(IndicatorSupplier.DEFAULT_CATEGORY_OPTION_COMBO,
+                      BigDecimal.TEN)));
+          return orderables.stream()
+              .collect(Collectors.toMap(Function.identity(), orderable -> values));
+        });
+  }
+
+  private OrgUnit mockOrgUnit(String code) {
+    OrgUnit orgUnit = mock(OrgUnit.class);
+    when(orgUnit.getCode()).thenReturn(code);
+    lenient().when(orgUnit.getOrgUnitId()).thenReturn(UID_PREFIX + code);
+    return orgUnit;
+  }
+
+  private List<String> getOrgUnits(List<DataValue> dataValues) {
+    return dataValues.stream()
+        .map(DataValue::getOrgUnit)
+        .collect(Collectors.toList());
+  }
+
+}
@@ -22,17 +22,28 @@ import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.common.collect.ImmutableMap;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.net.URI;
+import java.time.Clock;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
+import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.openlmis.integration.dhis2.service.auth.ReferenceDataAuthService;
@@ -46,6 +57,7 @@ import org.springframework.web.client.RestTemplate;
 public class ReferenceDataAuthServiceTest {
 
   private static final String TOKEN = "random-token";
+  private static final long NOW = 1_600_000_000_000L;
   private static final String AUTHORIZATION_URL = "http://localhost/auth/oauth/token";
   private static final URI AUTHORIZATION_URI = URI.create(
           AUTHORIZATION_URL + "?grant_type=client_credentials"
@@ -54,15 +66,18 @@ public class ReferenceDataAuthServiceTest {
   @Mock
   private RestTemplate restTemplate;
 
+  @Mock
+  private Clock clock;
+
   @Captor
   private ArgumentCaptor<HttpEntity<String>> entityStringCaptor;
 
+  @InjectMocks
   private ReferenceDataAuthService authService;
 
   @Before
   public void setUp() throws Exception {
-    authService = new ReferenceDataAuthService();
-    authService.setRestTemplate(restTemplate);
+    when(clock.millis()).thenReturn(NOW);
 
     ReflectionTestUtils.setField(authService, "clientId", "trusted-client");
     ReflectionTestUtils.setField(authService, "clientSecret", "secret");
@@ -71,14 +86,7 @@ public class ReferenceDataAuthServiceTest {
 
   @Test
   public void shouldObtainAccessToken() throws Exception {
-    ResponseEntity<Object> response = mock(ResponseEntity.class);
-    Map<String, String> body = ImmutableMap.of("access_token", TOKEN);
-
-    when(restTemplate.exchange(
-            eq(AUTHORIZATION_URI), eq(HttpMethod.POST), any(HttpEntity.class), eq(Object.class)
-    )).thenReturn(response);
-
-    when(response.getBody()).thenReturn(body);
+    mockTokenResponse(ImmutableMap.of("access_token", TOKEN));
 
     String token = authService.obtainAccessToken();
     assertThat(token, is(equalTo(TOKEN)));
@@ -95,4 +103,97 @@ public class ReferenceDataAuthServiceTest {
     );
   }
 
+  @Test
+  public void shouldReuseTokenUntilItExpires() {
+    mockTokenResponse(ImmutableMap.of("access_token", TOKEN, "expires_in", 1800));
+
+    authService.obtainAccessToken();
+    authService.obtainAccessToken();
+    verifyTokenRequests(1);
+
+    when(clock.millis()).thenReturn(NOW + 1800 * 1000);
+    authService.obtainAccessToken();
+    verifyTokenRequests(2);
+  }
+
+  @Test
+  public void shouldNotCacheTokenWithoutExpiry() {
+    mockTokenResponse(ImmutableMap.of("access_token", TOKEN));
+
+    authService.obtainAccessToken();
+    authService.obtainAccessToken();
+
+    verifyTokenRequests(2);
+  }
+
+  @Test
+  public void shouldObtainNewTokenAfterCacheIsCleared() {
+    mockTokenResponse(ImmutableMap.of("access_token", TOKEN, "expires_in", "1800"));
+
+    authService.obtainAccessToken();
+    authService.clearTokenCache();
+    authService.obtainAccessToken();
+
+    verifyTokenRequests(2);
+  }
+
+  @Test
+  public void shouldRefreshTokenOnlyOnceForConcurrentCallers() throws Exception {
+    mockTokenResponse(ImmutableMap.of("access_token", TOKEN, "expires_in", 1800));
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Callable<String>> calls = Collections.nCopies(32, authService::obtainAccessToken);
+      for (Future<String> token : executor.invokeAll(calls)) {
+        assertThat(token.get(), is(TOKEN));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    verifyTokenRequests(1);
+  }
+
+  @Test
+  public void shouldCountCacheHitsAndMisses() {
+    mockTokenResponse(ImmutableMap.of("access_token", TOKEN, "expires_in", 1800));
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    Metrics.addRegistry(registry);
+
+    try {
+      // the meters are registered when the service is created, so it has to be created here
+      authService = new ReferenceDataAuthService();
+      ReflectionTestUtils.setField(authService, "restTemplate", restTemplate);
+      ReflectionTestUtils.setField(authService, "clock", clock);
+      ReflectionTestUtils.setField(authService, "authorizationUrl", AUTHORIZATION_URL);
+
+      authService.obtainAccessToken();
+      authService.obtainAccessToken();
+      authService.obtainAccessToken();
+
+      assertThat(registry.get("referencedata.auth.token.cache").tag("result", "hit")
+          .counter().count(), is(2.0));
+      assertThat(registry.get("referencedata.auth.token.cache").tag("result", "miss")
+          .counter().count(), is(1.0));
+      assertThat(registry.get("referencedata.auth.token.refresh").timer().count(), is(1L));
+    } finally {
+      Metrics.removeRegistry(registry);
+    }
+  }
+
+  private void mockTokenResponse(Map<String, Object> body) {
+    ResponseEntity<Object> response = mock(ResponseEntity.class);
+
+    when(restTemplate.exchange(
+            eq(AUTHORIZATION_URI), eq(HttpMethod.POST), any(HttpEntity.class), eq(Object.class)
+    )).thenReturn(response);
+
+    when(response.getBody()).thenReturn(body);
+  }
+
+  private void verifyTokenRequests(int count) {
+    verify(restTemplate, times(count)).exchange(
+            eq(AUTHORIZATION_URI), eq(HttpMethod.POST), any(HttpEntity.class), eq(Object.class));
+  }
+
 }
@@ -0,0 +1,207 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.integration.dhis2.service;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.openlmis.integration.dhis2.service.communication.ReferenceDataService.PROCESSING_PERIODS_RESOURCE_PATH;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openlmis.integration.dhis2.dto.referencedata.PageDto;
+import org.openlmis.integration.dhis2.dto.referencedata.ProcessingPeriodDto;
+import org.openlmis.integration.dhis2.service.communication.ReferenceDataCache;
+import org.openlmis.integration.dhis2.service.communication.ReferenceDataService;
+import org.openlmis.integration.dhis2.util.PageIterator;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ReferenceDataCacheTest {
+
+  private static final String ETAG = "\"etag-1\"";
+  private static final long TIME_TO_LIVE = 60;
+  private static final long WAIT_SECONDS = 5;
+
+  @Mock
+  private ReferenceDataService referenceDataService;
+
+  @Mock
+  private Clock clock;
+
+  @InjectMocks
+  private ReferenceDataCache referenceDataCache;
+
+  private SimpleMeterRegistry registry;
+  private ProcessingPeriodDto first;
+  private ProcessingPeriodDto second;
+
+  @Before
+  public void setUp() {
+    registry = new SimpleMeterRegistry();
+    Metrics.addRegistry(registry);
+
+    ReflectionTestUtils.setField(referenceDataCache, "timeToLive", TIME_TO_LIVE);
+    referenceDataCache.init();
+
+    Executor sameThread = Runnable::run;
+    when(referenceDataService.iteratePages(any())).thenAnswer(invocation ->
+        new PageIterator<ProcessingPeriodDto>(invocation.getArgument(0), sameThread, 1));
+
+    first = period();
+    second = period();
+  }
+
+  @After
+  public void tearDown() {
+    Metrics.removeRegistry(registry);
+  }
+
+  @Test
+  public void shouldReturnCachedPeriodsBeforeTheyExpire() {
+    when(clock.millis()).thenReturn(0L, 1000L);
+    mockPage(null, new ServiceResponse<>(page(first, second), etagHeaders(), true));
+
+    referenceDataCache.getProcessingPeriods();
+    List<ProcessingPeriodDto> result = referenceDataCache.getProcessingPeriods();
+
+    assertThat(result, contains(first, second));
+    verify(referenceDataService, times(1))
+        .findPage(eq(PROCESSING_PERIODS_RESOURCE_PATH), eq(ProcessingPeriodDto.class), anyInt(),
+            any());
+    assertThat(registry.get("referencedata.cache").tag("result", "hit").counter().count(),
+        is(1.0));
+  }
+
+  @Test
+  public void shouldReuseCachedPageIfNotModifiedAfterExpiration() {
+    when(clock.millis()).thenReturn(0L, TIME_TO_LIVE * 1000 + 1);
+    mockPage(null, new ServiceResponse<>(page(first, second), etagHeaders(), true));
+    mockPage(ETAG, new ServiceResponse<>(null, etagHeaders(), false));
+
+    referenceDataCache.getProcessingPeriods();
+    List<ProcessingPeriodDto> result = referenceDataCache.getProcessingPeriods();
+
+    assertThat(result, contains(first, second));
+    assertThat(registry.get("referencedata.cache").tag("result", "notModified").counter()
+        .count(), is(1.0));
+  }
+
+  @Test
+  public void shouldFindProcessingPeriodInCachedList() {
+    when(clock.millis()).thenReturn(0L);
+    mockPage(null, new ServiceResponse<>(page(first, second), new HttpHeaders(), true));
+
+    ProcessingPeriodDto result = referenceDataCache.getProcessingPeriod(second.getId());
+
+    assertThat(result, is(second));
+    verify(referenceDataService, never()).findProcessingPeriod(any(UUID.class));
+  }
+
+  @Test
+  public void shouldRequestPeriodsOnceForConcurrentCallers() throws Exception {
+    when(clock.millis()).thenReturn(0L);
+    CountDownLatch requested = new CountDownLatch(1);
+    CountDownLatch released = new CountDownLatch(1);
+    when(referenceDataService.findPage(eq(PROCESSING_PERIODS_RESOURCE_PATH),
+        eq(ProcessingPeriodDto.class), eq(0), isNull())).thenAnswer(invocation -> {
+          requested.countDown();
+          released.await(WAIT_SECONDS, TimeUnit.SECONDS);
+          return new ServiceResponse<>(page(first, second), new HttpHeaders(), true);
+        });
+
+    CompletableFuture<List<ProcessingPeriodDto>> loading = CompletableFuture
+        .supplyAsync(referenceDataCache::getProcessingPeriods);
+    assertThat(requested.await(WAIT_SECONDS, TimeUnit.SECONDS), is(true));
+    CompletableFuture<List<ProcessingPeriodDto>> waiting = CompletableFuture
+        .supplyAsync(referenceDataCache::getProcessingPeriods);
+    released.countDown();
+
+    assertThat(loading.get(WAIT_SECONDS, TimeUnit.SECONDS), contains(first, second));
+    assertThat(waiting.get(WAIT_SECONDS, TimeUnit.SECONDS), contains(first, second));
+    verify(referenceDataService, times(1))
+        .findPage(eq(PROCESSING_PERIODS_RESOURCE_PATH), eq(ProcessingPeriodDto.class), anyInt(),
+            any());
+  }
+
+  @Test
+  public void shouldRequestPeriodsAgainAfterFailedRequest() {
+    when(clock.millis()).thenReturn(0L);
+    when(referenceDataService.findPage(eq(PROCESSING_PERIODS_RESOURCE_PATH),
+        eq(ProcessingPeriodDto.class), eq(0), isNull()))
+        .thenThrow(new IllegalStateException("referencedata is unavailable"))
+        .thenReturn(new ServiceResponse<>(page(first), new HttpHeaders(), true));
+
+    try {
+      referenceDataCache.getProcessingPeriods();
+      fail("Expected the failure of the request");
+    } catch (IllegalStateException ex) {
+      // the failed request is not cached
+    }
+
+    assertThat(referenceDataCache.getProcessingPeriods(), contains(first));
+  }
+
+  private void mockPage(String etag, ServiceResponse<PageDto<ProcessingPeriodDto>> response) {
+    when(referenceDataService.findPage(eq(PROCESSING_PERIODS_RESOURCE_PATH),
+        eq(ProcessingPeriodDto.class), eq(0), etag == null ? isNull() : eq(etag)))
+        .thenReturn(response);
+  }
+
+  private HttpHeaders etagHeaders() {
+    HttpHeaders headers = new HttpHeaders();
+    headers.setETag(ETAG);
+    return headers;
+  }
+
+  private PageDto<ProcessingPeriodDto> page(ProcessingPeriodDto... periods) {
+    return new PageDto<>(true, true, 1, periods.length, periods.length, 0, periods.length,
+        Sort.unsorted(), Arrays.asList(periods));
+  }
+
+  private ProcessingPeriodDto period() {
+    ProcessingPeriodDto period = new ProcessingPeriodDto();
+    period.setId(UUID.randomUUID());
+    return period;
+  }
+
+}
@@ -15,6 +15,7 @@
 
 package org.openlmis.integration.dhis2.service;
 
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
@@ -28,8 +29,11 @@ import static org.openlmis.integration.dhis2.service.communication.ReferenceData
 import static org.openlmis.integration.dhis2.service.communication.ReferenceDataService.PROCESSING_PERIODS_RESOURCE_PATH;
 
 import java.net.URI;
+import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
+import java.util.stream.Collectors;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -58,6 +62,7 @@ public class ReferenceDataServiceTest {
 
   private static final String TOKEN = "4u7h-70k3n";
   private static final String SERVICE_URL = "http://localhost";
+  private static final int PAGE_SIZE = 2;
 
   @Mock
   private RestTemplate restTemplate;
@@ -71,6 +76,14 @@ public class ReferenceDataServiceTest {
   @Before
   public void setUp() throws Exception {
     ReflectionTestUtils.setField(referenceDataService, "serviceUrl", SERVICE_URL);
+    ReflectionTestUtils.setField(referenceDataService, "pageSize", PAGE_SIZE);
+    ReflectionTestUtils.setField(referenceDataService, "pageWindow", 2);
+    referenceDataService.init();
+  }
+
+  @After
+  public void tearDown() {
+    referenceDataService.shutdown();
   }
 
   @Test
@@ -79,7 +92,7 @@ public class ReferenceDataServiceTest {
     final PageDto<MinimalFacilityDto> minimalFacilityDtos = createPageDto(dtos);
     ResponseEntity<PageDto<MinimalFacilityDto>> response =
             new ResponseEntity<>(minimalFacilityDtos, HttpStatus.OK);
-    URI uri = URI.create(SERVICE_URL + API_URL + FACILITIES_RESOURCE_PATH);
+    URI uri = pageUri(FACILITIES_RESOURCE_PATH, 0);
 
     when(restTemplate.exchange(eq(uri),
             eq(HttpMethod.GET), any(HttpEntity.class),
@@ -97,7 +110,7 @@ public class ReferenceDataServiceTest {
     final PageDto<OrderableDto> orderableDtos = createPageDto(dtos);
     ResponseEntity<PageDto<OrderableDto>> response =
             new ResponseEntity<>(orderableDtos, HttpStatus.OK);
-    URI uri = URI.create(SERVICE_URL + API_URL + ORDERABLES_RESOURCE_PATH);
+    URI uri = pageUri(ORDERABLES_RESOURCE_PATH, 0);
 
     when(restTemplate.exchange(eq(uri),
             eq(HttpMethod.GET), any(HttpEntity.class),
@@ -115,7 +128,7 @@ public class ReferenceDataServiceTest {
     final PageDto<ProcessingPeriodDto> processingPeriodDtos = createPageDto(dtos);
     ResponseEntity<PageDto<ProcessingPeriodDto>> response =
             new ResponseEntity<>(processingPeriodDtos, HttpStatus.OK);
-    URI uri = URI.create(SERVICE_URL + API_URL + PROCESSING_PERIODS_RESOURCE_PATH);
+    URI uri = pageUri(PROCESSING_PERIODS_RESOURCE_PATH, 0);
 
     when(restTemplate.exchange(eq(uri),
             eq(HttpMethod.GET), any(HttpEntity.class),
@@ -156,6 +169,58 @@ public class ReferenceDataServiceTest {
     referenceDataService.findAllOrderables();
   }
 
+  @Test
+  public void shouldRetrieveAllPagesOfFacilities() {
+    MinimalFacilityDto first = facility("first");
+    MinimalFacilityDto second = facility("second");
+    MinimalFacilityDto third = facility("third");
+    mockFacilityPage(0, 3, first, second);
+    mockFacilityPage(1, 3, third);
+    mockFacilityPage(2, 3);
+    when(authService.obtainAccessToken()).thenReturn(TOKEN);
+
+    PageDto<MinimalFacilityDto> result = referenceDataService.findAllFacilities();
+
+    assertThat(result.getContent(), contains(first, second, third));
+    assertThat(result.getTotalElements(), is(3L));
+  }
+
+  @Test
+  public void shouldStreamAllPagesOfFacilities() {
+    MinimalFacilityDto first = facility("first");
+    MinimalFacilityDto second = facility("second");
+    mockFacilityPage(0, 2, first);
+    mockFacilityPage(1, 2, second);
+    when(authService.obtainAccessToken()).thenReturn(TOKEN);
+
+    List<MinimalFacilityDto> result = referenceDataService.streamAllFacilities()
+        .collect(Collectors.toList());
+
+    assertThat(result, contains(first, second));
+  }
+
+  private void mockFacilityPage(int number, int totalPages, MinimalFacilityDto... content) {
+    PageDto<MinimalFacilityDto> page = new PageDto<>(number == totalPages - 1, number == 0,
+        totalPages, 5L, PAGE_SIZE, number, content.length, Sort.unsorted(),
+        Arrays.asList(content));
+    when(restTemplate.exchange(eq(pageUri(FACILITIES_RESOURCE_PATH, number)),
+            eq(HttpMethod.GET), any(HttpEntity.class),
+            any(ParameterizedTypeReference.class)
+    )).thenReturn(new ResponseEntity<>(page, HttpStatus.OK));
+  }
+
+  private MinimalFacilityDto facility(String code) {
+    MinimalFacilityDto facility = new MinimalFacilityDto();
+    facility.setId(UUID.randomUUID());
+    facility.setCode(code);
+    return facility;
+  }
+
+  private URI pageUri(String resourcePath, int page) {
+    return URI.create(SERVICE_URL + API_URL + resourcePath + "?page=" + page
+        + "&size=" + PAGE_SIZE);
+  }
+
   private <T> PageDto<T> createPageDto(List<T> content) {
     return new PageDto<T>(false, false, 1, 1L, 1, 1, 1, Sort.by("sort-order"), content);
   }
@@ -15,18 +15,25 @@
 
 package org.openlmis.integration.dhis2.service;
 
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.Mockito.mock;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Stream;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
@@ -34,13 +41,13 @@ import org.openlmis.integration.dhis2.domain.facility.SharedFacility;
 import org.openlmis.integration.dhis2.domain.server.Server;
 import org.openlmis.integration.dhis2.dto.dhis.OrganisationUnit;
 import org.openlmis.integration.dhis2.dto.referencedata.MinimalFacilityDto;
-import org.openlmis.integration.dhis2.dto.referencedata.PageDto;
 import org.openlmis.integration.dhis2.repository.facility.SharedFacilityRepository;
+import org.openlmis.integration.dhis2.repository.indicator.LatestOrderableRepository;
 import org.openlmis.integration.dhis2.repository.server.ServerRepository;
 import org.openlmis.integration.dhis2.service.communication.DhisDataService;
 import org.openlmis.integration.dhis2.service.communication.ReferenceDataService;
 import org.openlmis.integration.dhis2.service.facility.SharedFacilitySynchronizer;
-import org.springframework.data.domain.Sort;
+import org.springframework.transaction.PlatformTransactionManager;
 
 @RunWith(MockitoJUnitRunner.class)
 public class SharedFacilitySynchronizerTest {
@@ -49,6 +56,7 @@ public class SharedFacilitySynchronizerTest {
   private static final String serverUrl = "test-server-url";
   private static final String serverUsername = "test-server-username";
   private static final String serverPassword = "test-server-password";
+  private static final String ORG_UNIT_ID = "org-unit-id";
 
   @Mock
   private ServerRepository serverRepository;
@@ -62,13 +70,25 @@ public class SharedFacilitySynchronizerTest {
   @Mock
   private SharedFacilityRepository sharedFacilityRepository;
 
+  @Mock
+  private LatestOrderableRepository latestOrderableRepository;
+
+  @Mock
+  private PlatformTransactionManager transactionManager;
+
+  @Captor
+  private ArgumentCaptor<List<SharedFacility>> sharedFacilitiesCaptor;
+
   @InjectMocks
   private SharedFacilitySynchronizer sharedFacilitySynchronizer;
 
+  private UUID serverId;
+  private Server server;
+
   @Before
   public void setUp() throws Exception {
-    UUID serverId = UUID.randomUUID();
-    Server server = new Server(serverName, serverUrl, serverUsername,
+    serverId = UUID.randomUUID();
+    server = new Server(serverName, serverUrl, serverUsername,
             serverPassword);
     server.setId(serverId);
     when(serverRepository.findAll()).thenReturn(Collections.singletonList(server));
@@ -79,30 +99,37 @@ public class SharedFacilitySynchronizerTest {
   public void refreshOrgUnitsShouldDeleteNotMatchingFacilities() {
     final String matchingCode = "matching-code";
     final String notMatchingCode = "not-matching-code";
-    final UUID facilityId = UUID.randomUUID();
-    final UUID orgUnitId = UUID.randomUUID();
 
-    MinimalFacilityDto facility = new MinimalFacilityDto();
-    facility.setId(facilityId);
-    facility.setCode(matchingCode);
-
-    List<MinimalFacilityDto> facilityDto = Collections.singletonList(facility);
-    PageDto<MinimalFacilityDto> facilityPageMock = createPageDto(facilityDto);
-    when(referenceDataService.findAllFacilities()).thenReturn(facilityPageMock);
+    mockFacilities(facility(matchingCode, UUID.randomUUID()));
+    mockOrgUnits(orgUnit(notMatchingCode, ORG_UNIT_ID));
 
-    OrganisationUnit orgUnit = new OrganisationUnit();
-    orgUnit.setId(String.valueOf(orgUnitId));
-    orgUnit.setCode(notMatchingCode);
+    SharedFacility existing = sharedFacility(notMatchingCode, UUID.randomUUID(), ORG_UNIT_ID);
+    when(sharedFacilityRepository.findByServerId(serverId))
+        .thenReturn(Collections.singletonList(existing));
 
-    List<OrganisationUnit> orgUnits = Collections.singletonList(orgUnit);
-    when(dhisDataService.getDhisOrgUnits(any(String.class), any(String.class),
-            any(String.class))).thenReturn(orgUnits);
+    sharedFacilitySynchronizer.refreshSharedFacilities();
+    verify(sharedFacilityRepository).deleteAll(Collections.singletonList(existing));
+    verify(sharedFacilityRepository, never()).saveAll(anyIterable());
+  }
 
-    when(sharedFacilityRepository.findByCodeAndServerId(any(String.class), any(UUID.class)))
-            .thenReturn(Optional.of(mock(SharedFacility.class)));
+  @Test
+  public void refreshOrgUnitsShouldRefreshLatestOrderables() {
+    mockFacilities();
+    mockOrgUnits();
+    when(sharedFacilityRepository.findByServerId(serverId)).thenReturn(Collections.emptyList());
 
     sharedFacilitySynchronizer.refreshSharedFacilities();
-    verify(sharedFacilityRepository).delete(any(SharedFacility.class));
+
+    verify(latestOrderableRepository).refresh();
+  }
+
+  @Test
+  public void refreshLatestOrderablesShouldNotFailWhenRefreshFails() {
+    when(latestOrderableRepository.refresh()).thenThrow(new IllegalStateException("test"));
+
+    sharedFacilitySynchronizer.refreshLatestOrderables();
+
+    verify(latestOrderableRepository).refresh();
   }
 
   // facility code = org unit code, facility does not exist in shared
@@ -110,34 +137,83 @@ public class SharedFacilitySynchronizerTest {
   public void refreshOrgUnitsShouldSaveMatchingFacilities() {
     final String matchingCode = "matching-code";
     final UUID facilityId = UUID.randomUUID();
-    final UUID orgUnitId = UUID.randomUUID();
 
-    MinimalFacilityDto facility = new MinimalFacilityDto();
-    facility.setId(facilityId);
-    facility.setCode(matchingCode);
+    mockFacilities(facility(matchingCode, facilityId), facility("other-code", UUID.randomUUID()));
+    mockOrgUnits(orgUnit(matchingCode, ORG_UNIT_ID), orgUnit("another-code", "another-id"));
+    when(sharedFacilityRepository.findByServerId(serverId)).thenReturn(Collections.emptyList());
 
-    List<MinimalFacilityDto> facilityDto = Collections.singletonList(facility);
-    PageDto<MinimalFacilityDto> facilityPageMock = createPageDto(facilityDto);
-    when(referenceDataService.findAllFacilities()).thenReturn(facilityPageMock);
+    sharedFacilitySynchronizer.refreshSharedFacilities();
 
-    OrganisationUnit orgUnit = new OrganisationUnit();
-    orgUnit.setId(String.valueOf(orgUnitId));
-    orgUnit.setCode(matchingCode);
+    verify(sharedFacilityRepository).saveAll(sharedFacilitiesCaptor.capture());
+    List<SharedFacility> saved = sharedFacilitiesCaptor.getValue();
+    assertThat(saved, hasSize(1));
+    assertThat(saved.get(0).getCode(), is(matchingCode));
+    assertThat(saved.get(0).getFacilityId(), is(facilityId));
+    assertThat(saved.get(0).getOrgUnitId(), is(ORG_UNIT_ID));
+    verify(sharedFacilityRepository, never()).deleteAll(anyIterable());
+  }
 
-    List<OrganisationUnit> orgUnits = Collections.singletonList(orgUnit);
-    when(dhisDataService.getDhisOrgUnits(any(String.class), any(String.class),
-            any(String.class))).thenReturn(orgUnits);
+  @Test
+  public void refreshOrgUnitsShouldUpdateChangedFacilities() {
+    final String matchingCode = "matching-code";
+    final UUID facilityId = UUID.randomUUID();
+
+    mockFacilities(facility(matchingCode, facilityId));
+    mockOrgUnits(orgUnit(matchingCode, ORG_UNIT_ID));
+
+    SharedFacility existing = sharedFacility(matchingCode, facilityId, "old-org-unit-id");
+    when(sharedFacilityRepository.findByServerId(serverId))
+        .thenReturn(Collections.singletonList(existing));
+
+    sharedFacilitySynchronizer.refreshSharedFacilities();
+
+    verify(sharedFacilityRepository).saveAll(Collections.singletonList(existing));
+    assertThat(existing.getOrgUnitId(), is(ORG_UNIT_ID));
+  }
+
+  @Test
+  public void refreshOrgUnitsShouldNotWriteAnythingIfNothingChanged() {
+    final String matchingCode = "matching-code";
+    final UUID facilityId = UUID.randomUUID();
 
-    when(sharedFacilityRepository.findByCodeAndServerId(any(String.class), any(UUID.class)))
-            .thenReturn(Optional.empty());
+    mockFacilities(facility(matchingCode, facilityId));
+    mockOrgUnits(orgUnit(matchingCode, ORG_UNIT_ID));
+    when(sharedFacilityRepository.findByServerId(serverId)).thenReturn(
+        Collections.singletonList(sharedFacility(matchingCode, facilityId, ORG_UNIT_ID)));
 
     sharedFacilitySynchronizer.refreshSharedFacilities();
-    verify(sharedFacilityRepository).save(any(SharedFacility.class));
+
+    verify(sharedFacilityRepository, never()).saveAll(anyIterable());
+    verify(sharedFacilityRepository, never()).deleteAll(anyIterable());
+  }
+
+  private void mockFacilities(MinimalFacilityDto... facilities) {
+    when(referenceDataService.streamAllFacilities()).thenReturn(Stream.of(facilities));
+  }
+
+  private void mockOrgUnits(OrganisationUnit... orgUnits) {
+    when(dhisDataService.getDhisOrgUnits(any(String.class), any(String.class),
+            any(String.class))).thenReturn(Arrays.asList(orgUnits));
+  }
+
+  private MinimalFacilityDto facility(String code, UUID id) {
+    MinimalFacilityDto facility = new MinimalFacilityDto();
+    facility.setId(id);
+    facility.setCode(code);
+    return facility;
+  }
+
+  private OrganisationUnit orgUnit(String code, String id) {
+    OrganisationUnit orgUnit = new OrganisationUnit();
+    orgUnit.setId(id);
+    orgUnit.setCode(code);
+    return orgUnit;
   }
 
-  private <T> PageDto<T> createPageDto(List<T> content) {
-    return new PageDto<>(false, false, 1, 1L, 1, 1,
-            1, Sort.by("sort-order"), content);
+  private SharedFacility sharedFacility(String code, UUID facilityId, String orgUnitId) {
+    SharedFacility sharedFacility = new SharedFacility(code, facilityId, orgUnitId, server);
+    sharedFacility.setId(UUID.randomUUID());
+    return sharedFacility;
   }
 
 }
\ No newline at end of file
@@ -0,0 +1,94 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.integration.dhis2.util;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.Test;
+import org.openlmis.integration.dhis2.dto.referencedata.PageDto;
+import org.springframework.data.domain.Sort;
+
+public class PageIteratorTest {
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void shouldReturnAllPagesInOrder() {
+    List<Integer> numbers = new ArrayList<>();
+    new PageIterator<>(number -> page(number, 5), executor, 2)
+        .forEachRemaining(page -> numbers.add(page.getNumber()));
+
+    assertThat(numbers, contains(0, 1, 2, 3, 4));
+  }
+
+  @Test
+  public void shouldStreamContentOfAllPages() {
+    List<Integer> content = PageIterator.stream(number -> page(number, 3), executor, 2)
+        .collect(Collectors.toList());
+
+    assertThat(content, contains(0, 1, 2));
+  }
+
+  @Test
+  public void shouldNotRequestMoreThanWindowOfPagesAhead() {
+    AtomicInteger requested = new AtomicInteger();
+    PageIterator<Integer> iterator = new PageIterator<>(number -> {
+      requested.incrementAndGet();
+      return page(number, 10);
+    }, executor, 2);
+
+    iterator.next();
+    iterator.next();
+
+    // first page, one consumed from the window and two pending
+    assertThat(requested.get(), is(lessThanOrEqualTo(4)));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldRethrowExceptionOfFollowingPage() {
+    PageIterator<Integer> iterator = new PageIterator<>(number -> {
+      if (number > 0) {
+        throw new IllegalStateException("page " + number);
+      }
+      return page(number, 2);
+    }, executor, 2);
+
+    iterator.next();
+    iterator.next();
+  }
+
+  private PageDto<Integer> page(int number, int totalPages) {
+    return new PageDto<>(number == totalPages - 1, number == 0, totalPages, totalPages, 1,
+        number, 1, Sort.unsorted(), Collections.singletonList(number));
+  }
+
+}